@@ -5,6 +5,7 @@ import static java.util.Objects.requireNonNull;
 import java.io.IOException;
 
 import org.apache.commons.io.FilenameUtils;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.molgenis.hadoop.pipeline.application.inputdigestion.CommandLineInputParser;
@@ -26,8 +27,8 @@ public class DistributedCacheHandler
 	// the files are added to the distributed cache in addCacheToJob().
 	private static final int REFERENCE_FASTA_FILE = 0;
 	private static final int REFERENCE_DICT_FILE = 7;
-	private static final int BED_FILE = 8;
-	private static final int SAMPLES_INFO__FILE = 9;
+	private static final int SAMPLES_INFO__FILE = 8;
+	private static final int BED_FILE = 9; // Optional, so should always be added last.
 
 	/**
 	 * The object storing the files added to the distributed cache.
@@ -102,8 +103,11 @@ public class DistributedCacheHandler
 		job.addCacheFile(parser.getAlignmentReferenceFastaPacFile().toUri()); // [5]
 		job.addCacheFile(parser.getAlignmentReferenceFastaSaFile().toUri()); // [6]
 		job.addCacheFile(parser.getAlignmentReferenceDictFile().toUri()); // [7]
-		job.addCacheFile(parser.getBedFile().toUri()); // [8]
-		job.addCacheFile(parser.getSamplesInfoFile().toUri()); // [9]
+		job.addCacheFile(parser.getSamplesInfoFile().toUri()); // [8]
+		if (parser.getBedFile() != null)
+		{
+			job.addCacheFile(parser.getBedFile().toUri()); // [9]
+		}
 	}
 
 	/**
@@ -129,6 +133,18 @@ public class DistributedCacheHandler
 		return getToolsArchive() + "/tools/info.xml";
 	}
 
+	/**
+	 * {@link String} of the directory containing the tools from the tools archive stored in {@link #getToolsArchive()}.
+	 * 
+	 * @return {@link String}
+	 * @throws IOException
+	 * @see {@link #getToolsArchive()}
+	 */
+	public String getToolsDirectoryFromToolsArchive() throws IOException
+	{
+		return getToolsArchive() + "/tools";
+	}
+
 	/**
 	 * {@link String} of the bwa tool from the tools archive stored in {@link #getToolsArchive()}.
 	 * 
@@ -163,17 +179,42 @@ public class DistributedCacheHandler
 		return getFileFromCache(REFERENCE_DICT_FILE);
 	}
 
+	/**
+	 * Whether a bed file was added to the distributed cache (if not, the reference is tiled instead).
+	 * 
+	 * @return {@code boolean}
+	 * @throws IOException
+	 */
+	public boolean hasBedFile() throws IOException
+	{
+		return context.getCacheFiles().length > BED_FILE;
+	}
+
 	/**
 	 * {@link String} of the bed file stored in {@link JobContext#getCacheFiles()}.
 	 * 
 	 * @return {@link String}
 	 * @throws IOException
+	 * @see #hasBedFile()
 	 */
 	public String getBedFile() throws IOException
 	{
 		return getFileFromCache(BED_FILE);
 	}
 
+	/**
+	 * {@link Path} of the original bed file (instead of its name within the distributed cache), for reading it outside
+	 * of the tasks.
+	 * 
+	 * @return {@link Path}
+	 * @throws IOException
+	 * @see #hasBedFile()
+	 */
+	public Path getBedFilePath() throws IOException
+	{
+		return new Path(context.getCacheFiles()[BED_FILE]);
+	}
+
 	/**
 	 * {@link String} of the samples information file stored in {@link JobContext#getCacheFiles()}.
 	 * 
@@ -1,13 +1,19 @@
 package org.molgenis.hadoop.pipeline.application;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
@@ -18,15 +24,33 @@ import org.apache.hadoop.util.GenericOptionsParser;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.log4j.Logger;
-import org.molgenis.hadoop.pipeline.application.formats.SortedBamOutputFormat;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.HadoopBedFormatFileReader;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.HadoopRefSeqDictReader;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.ReferenceTiler;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.RegionBuckets;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.RegionCoalescer;
+import org.molgenis.hadoop.pipeline.application.compression.MapOutputCompression;
+import org.molgenis.hadoop.pipeline.application.formats.BgzfBamConcatenator;
+import org.molgenis.hadoop.pipeline.application.formats.IncrementalRegionOutput;
+import org.molgenis.hadoop.pipeline.application.formats.PackedRegionBamOutputFormat;
+import org.molgenis.hadoop.pipeline.application.formats.PairedFastqInputFormat;
+import org.molgenis.hadoop.pipeline.application.formats.RegionBamPartsMerger;
+import org.molgenis.hadoop.pipeline.application.formats.RegionToolOutputFormat;
+import org.molgenis.hadoop.pipeline.application.formats.SortedRawBamOutputFormat;
 import org.molgenis.hadoop.pipeline.application.inputdigestion.CommandLineInputParser;
+import org.molgenis.hadoop.pipeline.application.mapreduce.AlignmentCache;
+import org.molgenis.hadoop.pipeline.application.mapreduce.AlignmentMetrics;
 import org.molgenis.hadoop.pipeline.application.mapreduce.HadoopPipelineMapper;
 import org.molgenis.hadoop.pipeline.application.mapreduce.HadoopPipelineReducer;
+import org.molgenis.hadoop.pipeline.application.mapreduce.RecordFilter;
+import org.molgenis.hadoop.pipeline.application.mapreduce.RegionCoverageCalculator;
 import org.molgenis.hadoop.pipeline.application.partitioners.RegionSamRecordGroupingComparator;
 import org.molgenis.hadoop.pipeline.application.partitioners.RegionSamRecordPartitioner;
+import org.molgenis.hadoop.pipeline.application.processes.RegionToolRunner;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
 import org.molgenis.hadoop.pipeline.application.writables.RegionWithSortableSamRecordWritable;
-import org.seqdoop.hadoop_bam.SAMRecordWritable;
 
+import htsjdk.samtools.SAMSequenceDictionary;
 import mr.wholeFile.WholeFileInputFormat;
 
 /**
@@ -84,6 +108,84 @@ public class HadoopPipelineApplication extends Configured implements Tool
 	 */
 	@Override
 	public int run(String[] args) throws IOException, ParseException, ClassNotFoundException, InterruptedException
+	{
+		Job job = createJob(args);
+		if (!job.waitForCompletion(true)) return 1;
+
+		// Merges the per-region BAM parts written by the mappers when running map-only.
+		Configuration conf = job.getConfiguration();
+		if (conf.getBoolean(HadoopPipelineMapper.MAP_ONLY_PROPERTY, false)
+				&& !conf.getBoolean(PackedRegionBamOutputFormat.PACKED_OUTPUT_PROPERTY, false)
+				&& conf.getBoolean(RegionBamPartsMerger.MERGE_PROPERTY, true))
+		{
+			new RegionBamPartsMerger(conf).merge(FileOutputFormat.getOutputPath(job));
+		}
+
+		// Concatenates the per-region BAM files into a single BAM file.
+		if (conf.getBoolean(BgzfBamConcatenator.CONCATENATE_PROPERTY, false)
+				&& !conf.getBoolean(PackedRegionBamOutputFormat.PACKED_OUTPUT_PROPERTY, false))
+		{
+			long sharedReadPairs = job.getCounters()
+					.findCounter(BgzfBamConcatenator.ConcatenationCounter.SHARED_READ_PAIRS).getValue();
+			new BgzfBamConcatenator(conf).concatenateRegions(FileOutputFormat.getOutputPath(job), sharedReadPairs);
+		}
+
+		// Merges the alignment metrics collected by the mappers into a single report.
+		if (AlignmentMetrics.isEnabled(conf))
+		{
+			AlignmentMetrics.mergeTaskOutputs(conf, FileOutputFormat.getOutputPath(job));
+		}
+
+		// Describes which targets of the bed file each bucket (and therefore each output file) consists of.
+		writeBucketTargets(job);
+
+		// Returns 0 if job completed successfully.
+		return 0;
+	}
+
+	/**
+	 * Writes the {@link RegionBuckets#BUCKET_TARGETS_FILE_NAME} file into the output directory when the targets of the
+	 * bed file were coalesced into buckets (see {@link RegionCoalescer#BUCKET_SIZE_PROPERTY}). The buckets are created
+	 * the same way as done by the mappers, so they match the output files.
+	 * 
+	 * @param job
+	 *            {@link Job}
+	 * @throws IOException
+	 */
+	private void writeBucketTargets(Job job) throws IOException
+	{
+		Configuration conf = job.getConfiguration();
+		RegionCoalescer coalescer = RegionCoalescer.fromConfiguration(conf);
+		DistributedCacheHandler cacheHandler = new DistributedCacheHandler(job);
+		if (coalescer == null || !cacheHandler.hasBedFile()) return;
+
+		Path bedFile = cacheHandler.getBedFilePath();
+		RegionBuckets buckets;
+		try (InputStream bedInput = bedFile.getFileSystem(conf).open(bedFile))
+		{
+			buckets = coalescer.coalesce(new HadoopBedFormatFileReader().read(bedInput));
+		}
+
+		Path outputFile = new Path(FileOutputFormat.getOutputPath(job), RegionBuckets.BUCKET_TARGETS_FILE_NAME);
+		FileSystem fileSys = outputFile.getFileSystem(conf);
+		try (PrintWriter writer = new PrintWriter(
+				new OutputStreamWriter(fileSys.create(outputFile, true), StandardCharsets.UTF_8)))
+		{
+			buckets.writeBucketTargets(writer);
+		}
+	}
+
+	/**
+	 * Configures a Hadoop MapReduce job without submitting it (so that it can also be submitted and monitored by
+	 * something else than {@link #run(String[])}, such as a benchmark harness).
+	 * 
+	 * @param args
+	 *            {@link String}{@code []} User input excluding what is digested by {@link GenericOptionsParser}.
+	 * @return {@link Job}
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public Job createJob(String[] args) throws IOException, ParseException
 	{
 		// Writes Configuration properties to logger.debug that can (and have) cause(d) out of memory/timeout errors or
 		// other problems.
@@ -115,17 +217,56 @@ public class HadoopPipelineApplication extends Configured implements Tool
 		}
 		FileOutputFormat.setOutputPath(job, parser.getOutputDir());
 
+		// Sets the intermediate map output compression (only if a profile is set, "auto" selects one from the input).
+		MapOutputCompression.configure(job, parser.getInputDirs());
+
+		// Validates merging with the output of a previous job (top-up sequencing).
+		IncrementalRegionOutput.validate(job, fileSys);
+
+		// Validates concatenating the per-region BAM files after the job finished.
+		BgzfBamConcatenator.validate(job);
+
+		// Validates streaming the records of each region into a tool (instead of writing BAM files).
+		RegionToolRunner.validate(job);
+
+		// Validates calculating the coverage of each region (done by the reducers).
+		RegionCoverageCalculator.validate(job);
+
+		// Validates the filter discarding records before they are written by the mappers.
+		RecordFilter.validate(job);
+
+		// Fingerprints the reference files for the alignment cache (if enabled).
+		AlignmentCache.configure(job, fileSys, parser);
+
+		// If no bed file was given, the reference is tiled instead (whole-genome mode).
+		if (parser.getBedFile() == null)
+		{
+			configureReferenceTiling(job, fileSys, parser);
+		}
+
 		// Sets custom partitioner & grouping comparator so it only uses the natural key.
 		// Sort comparator uses default behavior, so uses compareTo of Writable (composite key).
 		job.setPartitionerClass(RegionSamRecordPartitioner.class);
 		job.setGroupingComparatorClass(RegionSamRecordGroupingComparator.class);
 
-		// Sets Mapper/Reducer.
+		// Sets Mapper/Reducer. When running map-only, the mappers sort and write the records themselves so the shuffle
+		// is skipped entirely.
 		job.setMapperClass(HadoopPipelineMapper.class);
 		job.setReducerClass(HadoopPipelineReducer.class);
+		if (job.getConfiguration().getBoolean(HadoopPipelineMapper.MAP_ONLY_PROPERTY, false))
+		{
+			job.setNumReduceTasks(0);
+		}
 
-		// Sets input format.
-		job.setInputFormatClass(WholeFileInputFormat.class);
+		// Sets input format (R1/R2 FASTQ files are interleaved by the mappers instead of requiring halvade chunks).
+		if (job.getConfiguration().getBoolean(PairedFastqInputFormat.PAIRED_FASTQ_INPUT_PROPERTY, false))
+		{
+			job.setInputFormatClass(PairedFastqInputFormat.class);
+		}
+		else
+		{
+			job.setInputFormatClass(WholeFileInputFormat.class);
+		}
 
 		// Defines default output format as lazy so only files are generated when actually writing to context.
 		// Do not use NullOutputFormat (causes the MultipleOutputs to stay in a tmp dir as Job "did not create final
@@ -133,17 +274,84 @@ public class HadoopPipelineApplication extends Configured implements Tool
 		job.setOutputFormatClass(LazyOutputFormat.class);
 		LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
 
-		// Sets a multiple outputs writer for writing different files from a single reducer.
-		MultipleOutputs.addNamedOutput(job, "recordsPerRegion", SortedBamOutputFormat.class, NullWritable.class,
-				SAMRecordWritable.class);
+		// Sets a multiple outputs writer for writing different files from a single reducer (a file per region, or a
+		// single packed file per reducer containing all its regions).
+		if (RegionToolRunner.isEnabled(job.getConfiguration()))
+		{
+			MultipleOutputs.addNamedOutput(job, "toolOutputPerRegion", RegionToolOutputFormat.class,
+					NullWritable.class, Text.class);
+		}
+		else if (job.getConfiguration().getBoolean(PackedRegionBamOutputFormat.PACKED_OUTPUT_PROPERTY, false))
+		{
+			MultipleOutputs.addNamedOutput(job, "packedRegions", PackedRegionBamOutputFormat.class, Text.class,
+					BamRecordBytesWritable.class);
+		}
+		else
+		{
+			MultipleOutputs.addNamedOutput(job, "recordsPerRegion", SortedRawBamOutputFormat.class,
+					NullWritable.class, BamRecordBytesWritable.class);
+		}
+		if (RegionCoverageCalculator.isEnabled(job.getConfiguration()))
+		{
+			MultipleOutputs.addNamedOutput(job, "coverage", TextOutputFormat.class, NullWritable.class, Text.class);
+		}
 
 		// Sets Mapper/Reducer output keys/values.
 		job.setMapOutputKeyClass(RegionWithSortableSamRecordWritable.class);
-		job.setMapOutputValueClass(SAMRecordWritable.class);
+		job.setMapOutputValueClass(BamRecordBytesWritable.class);
 		job.setOutputKeyClass(NullWritable.class);
-		job.setOutputValueClass(SAMRecordWritable.class);
+		job.setOutputValueClass(BamRecordBytesWritable.class);
+
+		return job;
+	}
+
+	/**
+	 * Sets the tile size used for splitting the reference into grouping regions when no bed file was given (unless it
+	 * was already set by the user). The tile size is based on the reference length, the total input size and the number
+	 * of reducers (see {@link ReferenceTiler#calculateTileSize(long, long, int, int)}).
+	 * 
+	 * @param job
+	 *            {@link Job}
+	 * @param fileSys
+	 *            {@link FileSystem}
+	 * @param parser
+	 *            {@link CommandLineInputParser}
+	 * @throws IOException
+	 */
+	private void configureReferenceTiling(Job job, FileSystem fileSys, CommandLineInputParser parser)
+			throws IOException
+	{
+		if (job.getConfiguration().getInt(ReferenceTiler.TILE_SIZE_PROPERTY, 0) > 0) return;
+
+		SAMSequenceDictionary dictionary;
+		try (InputStream inputStream = fileSys.open(parser.getAlignmentReferenceDictFile()))
+		{
+			dictionary = new HadoopRefSeqDictReader().read(inputStream);
+		}
+
+		// When merging with the output of a previous job, the same tiles should be used.
+		if (IncrementalRegionOutput.isEnabled(job.getConfiguration()))
+		{
+			int tileSize = IncrementalRegionOutput.inferTileSize(fileSys,
+					new Path(job.getConfiguration().get(IncrementalRegionOutput.PREVIOUS_OUTPUT_PROPERTY)), dictionary);
+			if (tileSize > 0)
+			{
+				job.getConfiguration().setInt(ReferenceTiler.TILE_SIZE_PROPERTY, tileSize);
+				logger.info("No bed file given, using the tile size of the previous output: " + tileSize + " bases.");
+				return;
+			}
+		}
+
+		long inputSize = 0;
+		for (Path inputPath : parser.getInputDirs())
+		{
+			inputSize += fileSys.getContentSummary(inputPath).getLength();
+		}
 
-		// Returns 0 if job completed successfully. If not, returns 1.
-		return job.waitForCompletion(true) ? 0 : 1;
+		int tileSize = ReferenceTiler.calculateTileSize(dictionary.getReferenceLength(), inputSize,
+				job.getNumReduceTasks(), job.getConfiguration().getInt(ReferenceTiler.TILES_PER_REDUCER_PROPERTY,
+						ReferenceTiler.DEFAULT_TILES_PER_REDUCER));
+		job.getConfiguration().setInt(ReferenceTiler.TILE_SIZE_PROPERTY, tileSize);
+		logger.info("No bed file given, tiling the reference into regions of " + tileSize + " bases.");
 	}
 }
@@ -0,0 +1,118 @@
+package org.molgenis.hadoop.pipeline.application.cachedigestion;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.validation.Schema;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Digests the {@code pipeline} node of an XML {@link InputStream} formatted according to the {@link Schema} from
+ * {@code src/main/resources/tools_archive_info.xsd} (and within the jar after compiling). If no {@code pipeline} node
+ * is present, {@link ToolsPipeline#defaultPipeline()} is returned.
+ */
+public class HadoopToolsPipelineXmlReader extends HadoopXmlReader<ToolsPipeline>
+{
+	/**
+	 * A {@link File} that stores the validation {@link Schema}. This file should be present within the created jar
+	 * after compiling.
+	 */
+	private final URL schemaFile = getClass().getClassLoader().getResource("tools_archive_info.xsd");
+
+	/**
+	 * Reads and digests an XML-formatted {@link InputStream} that adheres to the format as defined in the
+	 * {@link Schema} found in {@code src/main/resources/tools_archive_info.xsd}.
+	 *
+	 * @return {@link ToolsPipeline}
+	 * @throws IOException
+	 *             If the XML is invalid, or a pipeline stage uses a tool or placeholder that is unknown.
+	 */
+	@Override
+	public ToolsPipeline read(InputStream inputStream) throws IOException
+	{
+		try
+		{
+			Schema schema = retrieveSchema(schemaFile);
+			Document doc = generateParsedXmlDocument(inputStream, schema, new XmlReaderStrictErrorHandler());
+			return digestDomStructure(doc);
+		}
+		catch (ParserConfigurationException | SAXException e)
+		{
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Digestion of the XML-formatted {@link Document} that adheres to the {@link Schema} defined in
+	 * {@code src/main/resources/tools_archive_info.xsd}. IMPORTANT: If XML-formatted {@link Document} does not adhere
+	 * to the scheme, this might cause unexpected behavior!
+	 *
+	 * @param dom
+	 *            {@link Document}
+	 * @return {@link ToolsPipeline}
+	 * @throws IOException
+	 *             If a pipeline stage uses a tool or placeholder that is unknown.
+	 */
+	private ToolsPipeline digestDomStructure(Document dom) throws IOException
+	{
+		Element rootNode = dom.getDocumentElement();
+
+		// Retrieves the file names of the described tools.
+		Set<String> toolFileNames = new HashSet<>();
+		NodeList toolNodes = rootNode.getElementsByTagName("tool");
+		for (int i = 0; i < toolNodes.getLength(); i++)
+		{
+			toolFileNames.add(((Element) toolNodes.item(i)).getAttribute("fileName"));
+		}
+
+		// Retrieves the stages (in order) if a pipeline is defined.
+		ToolsPipeline pipeline = ToolsPipeline.defaultPipeline();
+		NodeList stageNodes = rootNode.getElementsByTagName("stage");
+		if (stageNodes.getLength() > 0)
+		{
+			List<PipelineStage> stages = new ArrayList<>();
+			for (int i = 0; i < stageNodes.getLength(); i++)
+			{
+				Element stageElement = (Element) stageNodes.item(i);
+				List<String> arguments = new ArrayList<>();
+				NodeList argumentNodes = stageElement.getElementsByTagName("argument");
+				for (int j = 0; j < argumentNodes.getLength(); j++)
+				{
+					arguments.add(argumentNodes.item(j).getTextContent());
+				}
+				stages.add(new PipelineStage(stageElement.getAttribute("tool"), arguments));
+			}
+
+			try
+			{
+				pipeline = new ToolsPipeline(stages);
+			}
+			catch (IllegalArgumentException e)
+			{
+				throw new IOException(e.getMessage(), e);
+			}
+		}
+
+		// Each stage should use a tool that is described (and therefore present in the tools archive).
+		for (PipelineStage stage : pipeline.getStages())
+		{
+			if (!toolFileNames.contains(stage.getTool()))
+			{
+				throw new IOException(
+						"Pipeline stage uses tool \"" + stage.getTool() + "\" which is not described in the info.xml.");
+			}
+		}
+		return pipeline;
+	}
+}
@@ -0,0 +1,142 @@
+package org.molgenis.hadoop.pipeline.application.cachedigestion;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A single tool of a {@link ToolsPipeline} together with its arguments. The arguments can contain placeholders (such
+ * as {@code ${readGroupLine}}) which are replaced when the command is created (see
+ * {@link #createCommand(String, Map)}).
+ */
+public class PipelineStage
+{
+	/**
+	 * Pattern matching a placeholder within an argument, with the placeholder name as first group.
+	 */
+	private static final Pattern PLACEHOLDER_PATTERN = Pattern.compile("\\$\\{([A-Za-z]+)\\}");
+
+	/**
+	 * The file name of the tool within the tools archive.
+	 */
+	private String tool;
+
+	/**
+	 * The arguments (possibly containing placeholders).
+	 */
+	private List<String> arguments;
+
+	/**
+	 * Create a new {@link PipelineStage}.
+	 *
+	 * @param tool
+	 *            {@link String} The file name of the tool within the tools archive.
+	 * @param arguments
+	 *            {@link List}{@code <}{@link String}{@code >}
+	 */
+	public PipelineStage(String tool, List<String> arguments)
+	{
+		this.tool = requireNonNull(tool);
+		this.arguments = Collections.unmodifiableList(new ArrayList<>(requireNonNull(arguments)));
+	}
+
+	public String getTool()
+	{
+		return tool;
+	}
+
+	public List<String> getArguments()
+	{
+		return arguments;
+	}
+
+	/**
+	 * Retrieves the names of all placeholders used within the arguments.
+	 *
+	 * @return {@link List}{@code <}{@link String}{@code >}
+	 */
+	public List<String> getPlaceholders()
+	{
+		List<String> placeholders = new ArrayList<>();
+		for (String argument : arguments)
+		{
+			Matcher matcher = PLACEHOLDER_PATTERN.matcher(argument);
+			while (matcher.find())
+			{
+				placeholders.add(matcher.group(1));
+			}
+		}
+		return placeholders;
+	}
+
+	/**
+	 * Creates the command that can be used within a {@link ProcessBuilder}, replacing the placeholders within the
+	 * arguments by their value.
+	 *
+	 * @param toolsDirectory
+	 *            {@link String} The directory containing the tools.
+	 * @param values
+	 *            {@link Map}{@code <}{@link String}{@code ,}{@link String}{@code >} The values for each placeholder
+	 *            name.
+	 * @return {@link List}{@code <}{@link String}{@code >}
+	 * @throws IllegalArgumentException
+	 *             If an argument contains a placeholder without a value.
+	 */
+	public List<String> createCommand(String toolsDirectory, Map<String, String> values)
+			throws IllegalArgumentException
+	{
+		List<String> command = new ArrayList<>(arguments.size() + 1);
+		command.add(toolsDirectory + "/" + tool);
+		for (String argument : arguments)
+		{
+			Matcher matcher = PLACEHOLDER_PATTERN.matcher(argument);
+			StringBuffer filledArgument = new StringBuffer();
+			while (matcher.find())
+			{
+				String value = values.get(matcher.group(1));
+				if (value == null)
+				{
+					throw new IllegalArgumentException(
+							"No value for placeholder \"" + matcher.group() + "\" of tool \"" + tool + "\".");
+				}
+				matcher.appendReplacement(filledArgument, Matcher.quoteReplacement(value));
+			}
+			matcher.appendTail(filledArgument);
+			command.add(filledArgument.toString());
+		}
+		return command;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "PipelineStage [tool=" + tool + ", arguments=" + arguments + "]";
+	}
+
+	@Override
+	public int hashCode()
+	{
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + arguments.hashCode();
+		result = prime * result + tool.hashCode();
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj) return true;
+		if (obj == null) return false;
+		if (getClass() != obj.getClass()) return false;
+		PipelineStage other = (PipelineStage) obj;
+		if (!arguments.equals(other.arguments)) return false;
+		if (!tool.equals(other.tool)) return false;
+		return true;
+	}
+}
@@ -0,0 +1,113 @@
+package org.molgenis.hadoop.pipeline.application.cachedigestion;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+/**
+ * Tiles the reference sequences from a {@link SAMSequenceDictionary} into consecutive {@link Region}{@code s} of equal
+ * size, so that whole-genome data can be grouped without a BED file. Each contig is split into the lowest number of
+ * equally sized tiles that are not larger than the tile size (so the last tile of a contig is never much smaller than
+ * the others).
+ */
+public class ReferenceTiler
+{
+	/**
+	 * Configuration property defining the tile size (in bases) when no BED file is given. If not set, it is calculated
+	 * when creating the job using {@link #calculateTileSize(long, long, int, int)}.
+	 */
+	public static final String TILE_SIZE_PROPERTY = "molgenis.hadoop.pipeline.regions.tile.size";
+
+	/**
+	 * Configuration property defining the number of tiles that should be created per reducer when the tile size is
+	 * calculated. Defaults to {@link #DEFAULT_TILES_PER_REDUCER}.
+	 */
+	public static final String TILES_PER_REDUCER_PROPERTY = "molgenis.hadoop.pipeline.regions.tiles.per.reducer";
+
+	/**
+	 * Default for {@link #TILES_PER_REDUCER_PROPERTY}. Multiple tiles per reducer allow the partitioner to even out
+	 * tiles that have a higher coverage than others.
+	 */
+	public static final int DEFAULT_TILES_PER_REDUCER = 4;
+
+	/**
+	 * The minimum number of input bytes per tile when the tile size is calculated, so that small inputs are not split
+	 * into many tiles only containing a few records each (which would mostly create per-group overhead).
+	 */
+	public static final long MIN_INPUT_BYTES_PER_TILE = 16L * 1024 * 1024;
+
+	/**
+	 * The maximum size of a single tile.
+	 */
+	private final int tileSize;
+
+	/**
+	 * Create a new {@link ReferenceTiler}.
+	 *
+	 * @param tileSize
+	 *            {@code int} The maximum size of a single tile.
+	 * @throws IllegalArgumentException
+	 *             If the tile size is lower than 1.
+	 */
+	public ReferenceTiler(int tileSize) throws IllegalArgumentException
+	{
+		if (tileSize < 1)
+		{
+			throw new IllegalArgumentException("Tile size should be at least 1: " + tileSize);
+		}
+		this.tileSize = tileSize;
+	}
+
+	/**
+	 * Tiles all the sequences within the {@link SAMSequenceDictionary}.
+	 *
+	 * @param dictionary
+	 *            {@link SAMSequenceDictionary}
+	 * @return {@link ContigRegionsMap}
+	 */
+	public ContigRegionsMap tile(SAMSequenceDictionary dictionary)
+	{
+		ContigRegionsMapBuilder builder = new ContigRegionsMapBuilder();
+		for (SAMSequenceRecord sequence : dictionary.getSequences())
+		{
+			int length = sequence.getSequenceLength();
+			int tileCount = (int) (((long) length + tileSize - 1) / tileSize);
+			int contigTileSize = (int) (((long) length + tileCount - 1) / tileCount);
+			for (long start = 1; start <= length; start += contigTileSize)
+			{
+				builder.add(new Region(sequence.getSequenceName(), (int) start,
+						(int) Math.min(start + contigTileSize - 1, length)));
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Calculates a tile size so that the reference is split into about {@code tilesPerReducer} tiles per reducer.
+	 * For small inputs, the number of tiles is lowered so that each tile covers at least
+	 * {@link #MIN_INPUT_BYTES_PER_TILE} of input data.
+	 *
+	 * @param referenceLength
+	 *            {@code long} The summed length of all reference sequences.
+	 * @param inputSize
+	 *            {@code long} The total size of the input files (in bytes).
+	 * @param reducers
+	 *            {@code int} The number of reducers.
+	 * @param tilesPerReducer
+	 *            {@code int} The number of tiles per reducer.
+	 * @return {@code int} The tile size.
+	 * @throws IllegalArgumentException
+	 *             If the reference length is lower than 1.
+	 */
+	public static int calculateTileSize(long referenceLength, long inputSize, int reducers, int tilesPerReducer)
+			throws IllegalArgumentException
+	{
+		if (referenceLength < 1)
+		{
+			throw new IllegalArgumentException("Reference length should be at least 1: " + referenceLength);
+		}
+
+		long tileCount = Math.max(1, (long) reducers * tilesPerReducer);
+		tileCount = Math.max(1, Math.min(tileCount, inputSize / MIN_INPUT_BYTES_PER_TILE));
+		return (int) Math.min(Integer.MAX_VALUE, (referenceLength + tileCount - 1) / tileCount);
+	}
+}
@@ -0,0 +1,127 @@
+package org.molgenis.hadoop.pipeline.application.cachedigestion;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The result of a {@link RegionCoalescer}: the buckets (which are used as grouping {@link Region}{@code s}) together
+ * with the segments used for matching records and the original targets each bucket consists of.
+ */
+public class RegionBuckets
+{
+	/**
+	 * The file name (within the job output directory) of the table describing the original targets of each bucket (see
+	 * {@link #writeBucketTargets(PrintWriter)}).
+	 */
+	public static final String BUCKET_TARGETS_FILE_NAME = "bucket_targets.tsv";
+
+	/**
+	 * The segments (the original targets, where oversized targets are split) to be used for matching records.
+	 */
+	private final ContigRegionsMap segments;
+
+	/**
+	 * The bucket each segment belongs to.
+	 */
+	private final Map<Region, Region> segmentBuckets;
+
+	/**
+	 * The original targets (partially) present in each bucket.
+	 */
+	private final Map<Region, List<Region>> bucketTargets;
+
+	/**
+	 * Create a new {@link RegionBuckets}.
+	 *
+	 * @param segments
+	 *            {@link ContigRegionsMap}
+	 * @param segmentBuckets
+	 *            {@link Map}{@code <}{@link Region}{@code , }{@link Region}{@code >}
+	 * @param bucketTargets
+	 *            {@link Map}{@code <}{@link Region}{@code , }{@link List}{@code <}{@link Region}{@code >>}
+	 */
+	RegionBuckets(ContigRegionsMap segments, Map<Region, Region> segmentBuckets,
+			Map<Region, List<Region>> bucketTargets)
+	{
+		this.segments = requireNonNull(segments);
+		this.segmentBuckets = requireNonNull(segmentBuckets);
+		this.bucketTargets = requireNonNull(bucketTargets);
+	}
+
+	/**
+	 * Returns the segments that should be used for matching records (for example by a
+	 * {@link org.molgenis.hadoop.pipeline.application.mapreduce.SamRecordGroupsRetriever}). A matching segment can be
+	 * converted to its bucket using {@link #getBucket(Region)}.
+	 *
+	 * @return {@link ContigRegionsMap}
+	 */
+	public ContigRegionsMap getSegments()
+	{
+		return segments;
+	}
+
+	/**
+	 * Returns the bucket a segment belongs to.
+	 *
+	 * @param segment
+	 *            {@link Region}
+	 * @return {@link Region} The bucket, or {@code null} if the given {@link Region} is not a segment.
+	 */
+	public Region getBucket(Region segment)
+	{
+		return segmentBuckets.get(segment);
+	}
+
+	/**
+	 * Returns all buckets.
+	 *
+	 * @return {@link Set}{@code <}{@link Region}{@code >}
+	 */
+	public Set<Region> getBuckets()
+	{
+		return Collections.unmodifiableSet(bucketTargets.keySet());
+	}
+
+	/**
+	 * Returns the original targets (partially) present in a bucket.
+	 *
+	 * @param bucket
+	 *            {@link Region}
+	 * @return {@link List}{@code <}{@link Region}{@code >} The targets, or an empty {@link List} if the given
+	 *         {@link Region} is not a bucket.
+	 */
+	public List<Region> getTargets(Region bucket)
+	{
+		List<Region> targets = bucketTargets.get(bucket);
+		return targets == null ? Collections.<Region> emptyList() : Collections.unmodifiableList(targets);
+	}
+
+	/**
+	 * Writes a tab-separated table with a line per original target of each bucket, so the output files (which are
+	 * named after the buckets) can be traced back to the targets of the BED file. The bucket column contains the name
+	 * the output files of the bucket start with ({@code <contig>-<start>-<end>}), the other columns the 1-based
+	 * inclusive coordinates of the target.
+	 *
+	 * @param writer
+	 *            {@link PrintWriter}
+	 */
+	public void writeBucketTargets(PrintWriter writer)
+	{
+		writer.println("#bucket\tcontig\tstart\tend");
+		for (Map.Entry<Region, List<Region>> entry : bucketTargets.entrySet())
+		{
+			Region bucket = entry.getKey();
+			String bucketName = bucket.getContig() + "-" + bucket.getStart() + "-" + bucket.getEnd();
+			for (Region target : entry.getValue())
+			{
+				writer.println(bucketName + "\t" + target.getContig() + "\t" + target.getStart() + "\t"
+						+ target.getEnd());
+			}
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package org.molgenis.hadoop.pipeline.application.cachedigestion;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Coalesces neighbouring {@link Region}{@code s} (targets) into buckets of roughly equal size, so that many tiny
+ * targets do not each become a separate reduce group (and output file) while huge targets do not become a single
+ * oversized reduce group. Targets larger than the bucket size are first split into equally sized segments, after
+ * which consecutive segments of a contig are added to the same bucket as long as the summed segment length does not
+ * exceed the bucket size and the gap to the previous segment is not larger than the maximum gap. The expected size of
+ * a bucket is based on the length of its targets, assuming an equal coverage over all targets.
+ */
+public class RegionCoalescer
+{
+	/**
+	 * Configuration property defining the bucket size (in bases). Defaults to {@code 0}, which means no coalescing is
+	 * done and the BED targets are used as groups directly.
+	 */
+	public static final String BUCKET_SIZE_PROPERTY = "molgenis.hadoop.pipeline.regions.bucket.size";
+
+	/**
+	 * Configuration property defining the maximum number of bases between two segments within the same bucket.
+	 * Defaults to the bucket size.
+	 */
+	public static final String MAX_GAP_PROPERTY = "molgenis.hadoop.pipeline.regions.bucket.max.gap";
+
+	/**
+	 * The maximum summed length of the segments in a bucket.
+	 */
+	private final int bucketSize;
+
+	/**
+	 * The maximum number of bases between two segments within the same bucket.
+	 */
+	private final int maxGap;
+
+	/**
+	 * Create a new {@link RegionCoalescer}.
+	 *
+	 * @param bucketSize
+	 *            {@code int} The maximum summed length of the segments in a bucket.
+	 * @param maxGap
+	 *            {@code int} The maximum number of bases between two segments within the same bucket.
+	 * @throws IllegalArgumentException
+	 *             If the bucket size is lower than 1 or the maximum gap is negative.
+	 */
+	public RegionCoalescer(int bucketSize, int maxGap) throws IllegalArgumentException
+	{
+		if (bucketSize < 1)
+		{
+			throw new IllegalArgumentException("Bucket size should be at least 1: " + bucketSize);
+		}
+		if (maxGap < 0)
+		{
+			throw new IllegalArgumentException("Maximum gap should not be negative: " + maxGap);
+		}
+		this.bucketSize = bucketSize;
+		this.maxGap = maxGap;
+	}
+
+	/**
+	 * Creates a {@link RegionCoalescer} using the {@link #BUCKET_SIZE_PROPERTY} and {@link #MAX_GAP_PROPERTY}.
+	 *
+	 * @param conf
+	 *            {@link Configuration}
+	 * @return {@link RegionCoalescer} ({@code null} if no bucket size is set, so no coalescing should be done)
+	 * @throws IllegalArgumentException
+	 *             If the maximum gap is negative.
+	 */
+	public static RegionCoalescer fromConfiguration(Configuration conf) throws IllegalArgumentException
+	{
+		int bucketSize = conf.getInt(BUCKET_SIZE_PROPERTY, 0);
+		if (bucketSize <= 0) return null;
+		return new RegionCoalescer(bucketSize, conf.getInt(MAX_GAP_PROPERTY, bucketSize));
+	}
+
+	/**
+	 * Coalesces the given targets into buckets.
+	 *
+	 * @param targets
+	 *            {@link ContigRegionsMap}
+	 * @return {@link RegionBuckets}
+	 */
+	public RegionBuckets coalesce(ContigRegionsMap targets)
+	{
+		ContigRegionsMapBuilder segmentsBuilder = new ContigRegionsMapBuilder();
+		Map<Region, Region> segmentBuckets = new HashMap<>();
+		Map<Region, List<Region>> bucketTargets = new LinkedHashMap<>();
+
+		// Goes through the contigs in a fixed order so that the bucket order is reproducible.
+		for (String contig : new TreeSet<>(targets.keySet()))
+		{
+			Bucket bucket = new Bucket(contig);
+			for (Region target : targets.get(contig))
+			{
+				for (Region segment : split(target))
+				{
+					if (!bucket.isEmpty() && (bucket.length + segment.getEnd() - segment.getStart() + 1 > bucketSize
+							|| segment.getStart() - bucket.end - 1 > maxGap))
+					{
+						bucket.finish(segmentBuckets, bucketTargets);
+						bucket = new Bucket(contig);
+					}
+					bucket.add(target, segment);
+					segmentsBuilder.add(segment);
+				}
+			}
+			if (!bucket.isEmpty())
+			{
+				bucket.finish(segmentBuckets, bucketTargets);
+			}
+		}
+
+		return new RegionBuckets(segmentsBuilder.build(), segmentBuckets, bucketTargets);
+	}
+
+	/**
+	 * Splits a target into equally sized segments that are not larger than the bucket size.
+	 *
+	 * @param target
+	 *            {@link Region}
+	 * @return {@link List}{@code <}{@link Region}{@code >}
+	 */
+	private List<Region> split(Region target)
+	{
+		List<Region> segments = new ArrayList<>();
+		long length = (long) target.getEnd() - target.getStart() + 1;
+		if (length <= bucketSize)
+		{
+			segments.add(target);
+			return segments;
+		}
+
+		long segmentCount = (length + bucketSize - 1) / bucketSize;
+		int segmentLength = (int) ((length + segmentCount - 1) / segmentCount);
+		for (int start = target.getStart(); start <= target.getEnd(); start += segmentLength)
+		{
+			segments.add(new Region(target.getContig(), start, Math.min(start + segmentLength - 1, target.getEnd())));
+		}
+		return segments;
+	}
+
+	/**
+	 * A bucket that is being filled.
+	 */
+	private static class Bucket
+	{
+		private final String contig;
+		private final List<Region> segments = new ArrayList<>();
+		private final List<Region> targets = new ArrayList<>();
+		private long length = 0;
+		private int start = Integer.MAX_VALUE;
+		private int end = 0;
+
+		Bucket(String contig)
+		{
+			this.contig = contig;
+		}
+
+		boolean isEmpty()
+		{
+			return segments.isEmpty();
+		}
+
+		void add(Region target, Region segment)
+		{
+			segments.add(segment);
+			// Segments of the same target are added consecutively.
+			if (targets.isEmpty() || !targets.get(targets.size() - 1).equals(target))
+			{
+				targets.add(target);
+			}
+			length += segment.getEnd() - segment.getStart() + 1;
+			start = Math.min(start, segment.getStart());
+			end = Math.max(end, segment.getEnd());
+		}
+
+		/**
+		 * Stores the bucket (spanning from the first start to the last end of its segments) for each of its segments
+		 * and the targets of the bucket.
+		 */
+		void finish(Map<Region, Region> segmentBuckets, Map<Region, List<Region>> bucketTargets)
+		{
+			Region bucket = new Region(contig, start, end);
+			for (Region segment : segments)
+			{
+				segmentBuckets.put(segment, bucket);
+			}
+
+			List<Region> existingTargets = bucketTargets.get(bucket);
+			if (existingTargets == null)
+			{
+				bucketTargets.put(bucket, targets);
+			}
+			else
+			{
+				existingTargets.addAll(targets);
+			}
+		}
+	}
+}
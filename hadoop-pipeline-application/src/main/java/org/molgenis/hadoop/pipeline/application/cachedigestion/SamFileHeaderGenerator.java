@@ -43,8 +43,12 @@ public abstract class SamFileHeaderGenerator
 		String toolsArchiveInfoXml = cacheHandler.getInfoXmlFileFromToolsArchive();
 		Map<String, SAMProgramRecord> tools = new HadoopToolsXmlReader().read(toolsArchiveInfoXml);
 
-		// Add the @PG tags for the tools within the tools archive that were used (define manually!!!).
-		samFileHeader.addProgramRecord(tools.get("bwa"));
+		// Adds a @PG tag for each stage of the pipeline the reads were streamed through (in order).
+		ToolsPipeline pipeline = new HadoopToolsPipelineXmlReader().read(toolsArchiveInfoXml);
+		for (SAMProgramRecord programRecord : pipeline.createProgramRecords(tools))
+		{
+			samFileHeader.addProgramRecord(programRecord);
+		}
 
 		// Retrieves the samples stored in the samples information file and adds them as SAMReadGroupRecords (@RG tags).
 		String samplesInfoFile = cacheHandler.getSamplesInfoFile();
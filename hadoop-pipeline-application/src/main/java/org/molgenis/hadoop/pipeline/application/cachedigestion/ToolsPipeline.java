@@ -0,0 +1,231 @@
+package org.molgenis.hadoop.pipeline.application.cachedigestion;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import htsjdk.samtools.SAMProgramRecord;
+
+/**
+ * The ordered {@link PipelineStage}{@code s} from the tools archive {@code info.xml} through which the interleaved FASTQ
+ * data is streamed. The first stage receives the FASTQ data through stdin and the last stage should write SAM data to
+ * stdout. Each stage streams its output directly into the next stage, so no intermediate files are written.
+ */
+public class ToolsPipeline
+{
+	/**
+	 * Placeholder name for the read group line (with escaped tabs, see {@link Sample#getSafeReadGroupLine()}).
+	 */
+	public static final String READ_GROUP_LINE_PLACEHOLDER = "readGroupLine";
+
+	/**
+	 * Placeholder name for the alignment reference fasta file.
+	 */
+	public static final String REFERENCE_FASTA_PLACEHOLDER = "referenceFasta";
+
+	/**
+	 * Placeholder name for the directory containing the tools (for referring to other files within the tools archive).
+	 */
+	public static final String TOOLS_DIRECTORY_PLACEHOLDER = "toolsDirectory";
+
+	/**
+	 * All placeholder names that can be used within the stage arguments.
+	 */
+	public static final List<String> PLACEHOLDERS = Collections.unmodifiableList(
+			Arrays.asList(READ_GROUP_LINE_PLACEHOLDER, REFERENCE_FASTA_PLACEHOLDER, TOOLS_DIRECTORY_PLACEHOLDER));
+
+	/**
+	 * The pipeline used when the {@code info.xml} does not define one: a single bwa mem stage.
+	 */
+	private static final ToolsPipeline defaultPipeline = new ToolsPipeline(Arrays.asList(new PipelineStage("bwa",
+			Arrays.asList("mem", "-p", "-M", "-R", "${" + READ_GROUP_LINE_PLACEHOLDER + "}",
+					"${" + REFERENCE_FASTA_PLACEHOLDER + "}", "-"))));
+
+	/**
+	 * The stages in the order the data streams through them.
+	 */
+	private List<PipelineStage> stages;
+
+	/**
+	 * Returns the {@link ToolsPipeline} used when the {@code info.xml} does not define one.
+	 *
+	 * @return {@link ToolsPipeline} with a single {@code bwa mem -p -M -R ${readGroupLine} ${referenceFasta} -} stage.
+	 */
+	public static ToolsPipeline defaultPipeline()
+	{
+		return defaultPipeline;
+	}
+
+	/**
+	 * Create a new {@link ToolsPipeline}.
+	 *
+	 * @param stages
+	 *            {@link List}{@code <}{@link PipelineStage}{@code >}
+	 * @throws IllegalArgumentException
+	 *             If no stages are given or a stage uses an unknown placeholder.
+	 */
+	public ToolsPipeline(List<PipelineStage> stages) throws IllegalArgumentException
+	{
+		if (requireNonNull(stages).isEmpty())
+		{
+			throw new IllegalArgumentException("A pipeline requires at least 1 stage.");
+		}
+		for (PipelineStage stage : stages)
+		{
+			for (String placeholder : stage.getPlaceholders())
+			{
+				if (!PLACEHOLDERS.contains(placeholder))
+				{
+					throw new IllegalArgumentException("Unknown placeholder \"${" + placeholder + "}\" for tool \""
+							+ stage.getTool() + "\", use one of: " + PLACEHOLDERS);
+				}
+			}
+		}
+		this.stages = Collections.unmodifiableList(new ArrayList<>(stages));
+	}
+
+	public List<PipelineStage> getStages()
+	{
+		return stages;
+	}
+
+	/**
+	 * Creates the commands for all stages (see {@link PipelineStage#createCommand(String, Map)}).
+	 *
+	 * @param toolsDirectory
+	 *            {@link String}
+	 * @param values
+	 *            {@link Map}{@code <}{@link String}{@code ,}{@link String}{@code >} The values for each placeholder
+	 *            name (see {@link #PLACEHOLDERS}).
+	 * @return {@link List}{@code <}{@link List}{@code <}{@link String}{@code >>}
+	 * @throws IllegalArgumentException
+	 *             If a used placeholder has no value.
+	 */
+	public List<List<String>> createCommands(String toolsDirectory, Map<String, String> values)
+			throws IllegalArgumentException
+	{
+		List<List<String>> commands = new ArrayList<>(stages.size());
+		for (PipelineStage stage : stages)
+		{
+			commands.add(stage.createCommand(toolsDirectory, values));
+		}
+		return commands;
+	}
+
+	/**
+	 * Creates a {@link SAMProgramRecord} for each stage, using the information of the tool from the {@code info.xml}.
+	 * Each record refers to the record of the previous stage, and if a tool is used in multiple stages, a suffix is
+	 * added to the ID of the later records to keep them unique.
+	 *
+	 * @param tools
+	 *            {@link Map}{@code <}{@link String}{@code ,}{@link SAMProgramRecord}{@code >} The tools per file name
+	 *            (see {@link HadoopToolsXmlReader}).
+	 * @return {@link List}{@code <}{@link SAMProgramRecord}{@code >}
+	 * @throws IllegalArgumentException
+	 *             If a stage uses a tool that is not present in {@code tools}.
+	 */
+	public List<SAMProgramRecord> createProgramRecords(Map<String, SAMProgramRecord> tools)
+			throws IllegalArgumentException
+	{
+		List<SAMProgramRecord> programRecords = new ArrayList<>(stages.size());
+		Set<String> usedIds = new HashSet<>();
+		String previousId = null;
+
+		for (PipelineStage stage : stages)
+		{
+			SAMProgramRecord tool = retrieveTool(tools, stage);
+
+			String id = tool.getId();
+			for (int i = 1; usedIds.contains(id); i++)
+			{
+				id = tool.getId() + "." + i;
+			}
+			usedIds.add(id);
+
+			SAMProgramRecord programRecord = new SAMProgramRecord(id);
+			programRecord.setProgramName(tool.getProgramName());
+			programRecord.setProgramVersion(tool.getProgramVersion());
+			if (previousId != null)
+			{
+				programRecord.setPreviousProgramGroupId(previousId);
+			}
+			programRecords.add(programRecord);
+			previousId = id;
+		}
+		return programRecords;
+	}
+
+	/**
+	 * Describes the versions of the tools of all stages (for example to determine whether the output of an earlier run
+	 * can be reused).
+	 *
+	 * @param tools
+	 *            {@link Map}{@code <}{@link String}{@code ,}{@link SAMProgramRecord}{@code >}
+	 * @return {@link String}, or {@code null} if a tool has no version.
+	 * @throws IllegalArgumentException
+	 *             If a stage uses a tool that is not present in {@code tools}.
+	 */
+	public String describeVersions(Map<String, SAMProgramRecord> tools) throws IllegalArgumentException
+	{
+		StringBuilder versions = new StringBuilder();
+		for (PipelineStage stage : stages)
+		{
+			String version = retrieveTool(tools, stage).getProgramVersion();
+			if (version == null) return null;
+			if (versions.length() > 0) versions.append(',');
+			versions.append(stage.getTool()).append(':').append(version);
+		}
+		return versions.toString();
+	}
+
+	/**
+	 * Lists the tool and (unfilled) arguments of each stage.
+	 *
+	 * @return {@link List}{@code <}{@link String}{@code >}
+	 */
+	public List<String> describeArguments()
+	{
+		List<String> description = new ArrayList<>();
+		for (PipelineStage stage : stages)
+		{
+			description.add("[" + stage.getTool() + "]");
+			description.addAll(stage.getArguments());
+		}
+		return description;
+	}
+
+	/**
+	 * Retrieves the tool information of a {@link PipelineStage}.
+	 *
+	 * @param tools
+	 *            {@link Map}{@code <}{@link String}{@code ,}{@link SAMProgramRecord}{@code >}
+	 * @param stage
+	 *            {@link PipelineStage}
+	 * @return {@link SAMProgramRecord}
+	 * @throws IllegalArgumentException
+	 *             If the tool is not present in {@code tools}.
+	 */
+	private SAMProgramRecord retrieveTool(Map<String, SAMProgramRecord> tools, PipelineStage stage)
+			throws IllegalArgumentException
+	{
+		SAMProgramRecord tool = tools.get(stage.getTool());
+		if (tool == null)
+		{
+			throw new IllegalArgumentException(
+					"Pipeline stage uses tool \"" + stage.getTool() + "\" which is not described in the info.xml.");
+		}
+		return tool;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ToolsPipeline [stages=" + stages + "]";
+	}
+}
@@ -0,0 +1,256 @@
+package org.molgenis.hadoop.pipeline.application.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Measures the compression ratio and throughput of a {@link CompressionCodec} on a sample of data.
+ *
+ * Within a task, every n-th value written to the context can be given to {@link #offer(Writable)} (up to a maximum
+ * sample size). At the end of the task, {@link #publish(TaskAttemptContext, CompressionCodec)} compresses the sampled
+ * (serialized) values with the codec used for the map output and adds the results to the {@link ProbeCounter}
+ * counters, so that the achieved ratio and throughput of the map output compression can be seen in the job counters.
+ */
+public class CompressionProbe
+{
+	/**
+	 * The counters to which {@link #publish(TaskAttemptContext, CompressionCodec)} writes. The compression ratio equals
+	 * {@link #SAMPLED_COMPRESSED_BYTES} divided by {@link #SAMPLED_BYTES} and the throughput equals
+	 * {@link #SAMPLED_BYTES} divided by {@link #SAMPLED_COMPRESSION_NANOSECONDS}.
+	 */
+	public enum ProbeCounter
+	{
+		/**
+		 * The number of (uncompressed) bytes that were sampled.
+		 */
+		SAMPLED_BYTES,
+
+		/**
+		 * The number of bytes the sampled bytes were compressed to.
+		 */
+		SAMPLED_COMPRESSED_BYTES,
+
+		/**
+		 * The time needed to compress the sampled bytes.
+		 */
+		SAMPLED_COMPRESSION_NANOSECONDS
+	}
+
+	/**
+	 * Only each n-th offered value is sampled.
+	 */
+	private final int sampleInterval;
+
+	/**
+	 * The maximum number of bytes that are sampled.
+	 */
+	private final int maxSampleBytes;
+
+	/**
+	 * Stores the serialized sampled values.
+	 */
+	private final DataOutputBuffer sample = new DataOutputBuffer();
+
+	/**
+	 * The number of values offered so far.
+	 */
+	private long offered = 0;
+
+	/**
+	 * Create a new {@link CompressionProbe} that samples every 64th value up to 4MB.
+	 */
+	public CompressionProbe()
+	{
+		this(64, 4 * 1024 * 1024);
+	}
+
+	/**
+	 * Create a new {@link CompressionProbe}.
+	 *
+	 * @param sampleInterval
+	 *            {@code int} Only each n-th offered value is sampled.
+	 * @param maxSampleBytes
+	 *            {@code int} The maximum number of bytes that are sampled.
+	 * @throws IllegalArgumentException
+	 *             If {@code sampleInterval} is smaller than 1.
+	 */
+	public CompressionProbe(int sampleInterval, int maxSampleBytes) throws IllegalArgumentException
+	{
+		if (sampleInterval < 1)
+		{
+			throw new IllegalArgumentException("The sample interval must be 1 or higher: " + sampleInterval);
+		}
+		this.sampleInterval = sampleInterval;
+		this.maxSampleBytes = maxSampleBytes;
+	}
+
+	/**
+	 * Offers a value to the sample. Only every n-th value is serialized and stored, as long as the maximum sample size
+	 * has not been reached.
+	 *
+	 * @param value
+	 *            {@link Writable}
+	 * @throws IOException
+	 */
+	public void offer(Writable value) throws IOException
+	{
+		if (offered++ % sampleInterval == 0 && sample.getLength() < maxSampleBytes)
+		{
+			value.write(sample);
+		}
+	}
+
+	/**
+	 * Returns the number of bytes sampled so far.
+	 *
+	 * @return {@code int}
+	 */
+	public int getSampledBytes()
+	{
+		return sample.getLength();
+	}
+
+	/**
+	 * Compresses the sampled data using the {@link CompressionCodec} and adds the results to the {@link ProbeCounter}
+	 * counters. Does nothing if no codec is given or no data was sampled.
+	 *
+	 * @param context
+	 *            {@link TaskAttemptContext}
+	 * @param codec
+	 *            {@link CompressionCodec}
+	 * @throws IOException
+	 */
+	public void publish(TaskAttemptContext context, CompressionCodec codec) throws IOException
+	{
+		if (codec == null || sample.getLength() == 0) return;
+
+		Result result = measure(codec, sample.getData(), sample.getLength());
+		context.getCounter(ProbeCounter.SAMPLED_BYTES).increment(result.getBytes());
+		context.getCounter(ProbeCounter.SAMPLED_COMPRESSED_BYTES).increment(result.getCompressedBytes());
+		context.getCounter(ProbeCounter.SAMPLED_COMPRESSION_NANOSECONDS).increment(result.getNanoseconds());
+	}
+
+	/**
+	 * Compresses data using a {@link CompressionCodec} and measures the compressed size and time needed.
+	 *
+	 * @param codec
+	 *            {@link CompressionCodec}
+	 * @param data
+	 *            {@code byte[]}
+	 * @param length
+	 *            {@code int} The number of bytes from {@code data} to use.
+	 * @return {@link Result}
+	 * @throws IOException
+	 */
+	public static Result measure(CompressionCodec codec, byte[] data, int length) throws IOException
+	{
+		Compressor compressor = CodecPool.getCompressor(codec);
+		try
+		{
+			CountingOutputStream counter = new CountingOutputStream(new NullOutputStream());
+			long startTime = System.nanoTime();
+			OutputStream compressed = codec.createOutputStream(counter, compressor);
+			compressed.write(data, 0, length);
+			compressed.close();
+			return new Result(length, counter.getByteCount(), System.nanoTime() - startTime);
+		}
+		finally
+		{
+			CodecPool.returnCompressor(compressor);
+		}
+	}
+
+	/**
+	 * Checks whether a {@link CompressionCodec} can be used (codecs that need the native Hadoop library fail when it
+	 * is not loaded).
+	 *
+	 * @param codec
+	 *            {@link CompressionCodec}
+	 * @return {@code boolean}
+	 */
+	public static boolean isAvailable(CompressionCodec codec)
+	{
+		if (codec == null) return false;
+		try
+		{
+			measure(codec, new byte[1024], 1024);
+			return true;
+		}
+		catch (IOException | RuntimeException | UnsatisfiedLinkError e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * The result of {@link CompressionProbe#measure(CompressionCodec, byte[], int)}.
+	 */
+	public static class Result
+	{
+		/**
+		 * The number of uncompressed bytes.
+		 */
+		private final long bytes;
+
+		/**
+		 * The number of compressed bytes.
+		 */
+		private final long compressedBytes;
+
+		/**
+		 * The time needed for compression.
+		 */
+		private final long nanoseconds;
+
+		public long getBytes()
+		{
+			return bytes;
+		}
+
+		public long getCompressedBytes()
+		{
+			return compressedBytes;
+		}
+
+		public long getNanoseconds()
+		{
+			return nanoseconds;
+		}
+
+		public Result(long bytes, long compressedBytes, long nanoseconds)
+		{
+			this.bytes = bytes;
+			this.compressedBytes = compressedBytes;
+			this.nanoseconds = nanoseconds;
+		}
+
+		/**
+		 * Returns the compressed size relative to the uncompressed size.
+		 *
+		 * @return {@code double}
+		 */
+		public double getRatio()
+		{
+			return bytes == 0 ? 1 : (double) compressedBytes / bytes;
+		}
+
+		/**
+		 * Returns the number of uncompressed bytes compressed per second.
+		 *
+		 * @return {@code double}
+		 */
+		public double getBytesPerSecond()
+		{
+			return nanoseconds == 0 ? Double.POSITIVE_INFINITY : bytes * 1e9 / nanoseconds;
+		}
+	}
+}
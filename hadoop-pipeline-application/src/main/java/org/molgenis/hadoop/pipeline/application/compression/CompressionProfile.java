@@ -0,0 +1,91 @@
+package org.molgenis.hadoop.pipeline.application.compression;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * The compression profiles that can be used for the intermediate map output. Codecs are referred to by class name so
+ * that profiles of which the codec is not present in the Hadoop build (such as zstd, which was only added in later
+ * Hadoop versions) can still be listed. Use {@link CompressionProbe#isAvailable(CompressionCodec)} to check whether a
+ * codec can actually be used (Snappy, LZ4 and zstd require the native Hadoop library).
+ */
+public enum CompressionProfile
+{
+	/**
+	 * No compression.
+	 */
+	NONE(null),
+
+	/**
+	 * Zlib compression (pure Java fallback available, but relatively slow).
+	 */
+	DEFLATE("org.apache.hadoop.io.compress.DefaultCodec"),
+
+	/**
+	 * Snappy compression (fast with a moderate compression ratio).
+	 */
+	SNAPPY("org.apache.hadoop.io.compress.SnappyCodec"),
+
+	/**
+	 * LZ4 compression (fast with a moderate compression ratio).
+	 */
+	LZ4("org.apache.hadoop.io.compress.Lz4Codec"),
+
+	/**
+	 * Zstandard compression (better compression ratio than Snappy/LZ4 at a higher CPU cost).
+	 */
+	ZSTD("org.apache.hadoop.io.compress.ZStandardCodec");
+
+	/**
+	 * The class name of the {@link CompressionCodec} ({@code null} for {@link #NONE}).
+	 */
+	private final String codecClassName;
+
+	public String getCodecClassName()
+	{
+		return codecClassName;
+	}
+
+	private CompressionProfile(String codecClassName)
+	{
+		this.codecClassName = codecClassName;
+	}
+
+	/**
+	 * Creates the {@link CompressionCodec} belonging to this profile.
+	 *
+	 * @param conf
+	 *            {@link Configuration}
+	 * @return {@link CompressionCodec} or {@code null} if this is {@link #NONE} or the codec class is not present in
+	 *         this Hadoop build.
+	 */
+	public CompressionCodec createCodec(Configuration conf)
+	{
+		if (codecClassName == null) return null;
+		try
+		{
+			Class<? extends CompressionCodec> codecClass = conf.getClassByName(codecClassName)
+					.asSubclass(CompressionCodec.class);
+			return ReflectionUtils.newInstance(codecClass, conf);
+		}
+		catch (ClassNotFoundException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the {@link CompressionProfile} with the given name (case-insensitive).
+	 *
+	 * @param name
+	 *            {@link String}
+	 * @return {@link CompressionProfile}
+	 * @throws IllegalArgumentException
+	 *             If no {@link CompressionProfile} exists with the given name.
+	 */
+	public static CompressionProfile fromName(String name) throws IllegalArgumentException
+	{
+		return valueOf(name.trim().toUpperCase());
+	}
+}
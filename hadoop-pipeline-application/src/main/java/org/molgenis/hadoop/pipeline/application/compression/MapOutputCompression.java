@@ -0,0 +1,262 @@
+package org.molgenis.hadoop.pipeline.application.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Configures the compression of the intermediate map output of a {@link Job}.
+ *
+ * The {@link CompressionProfile} is defined by the {@link #PROFILE_PROPERTY}. If it is not set, the map output
+ * compression settings of the job (user or cluster defaults) are left untouched. When set to {@code auto}, each
+ * available {@link CompressionProfile} is measured on a sample of the (decompressed) input data and the profile with
+ * the lowest estimated cost is chosen. The cost of a profile consists of the time needed to compress the
+ * estimated map output with the CPU that is left over by the aligner ({@link #CPU_HEADROOM_PROPERTY}) and the time
+ * needed to shuffle the compressed map output ({@link #SHUFFLE_BANDWIDTH_PROPERTY}):
+ *
+ * <pre>
+ * cost = mapOutputBytes / (compressionBytesPerSecond * cpuHeadroom) + mapOutputBytes * ratio / shuffleBytesPerSecond
+ * </pre>
+ *
+ * The map output size is estimated as the size of the input files multiplied by their decompression ratio (the BAM
+ * encoded map output values are roughly as large as the uncompressed FASTQ reads they originate from).
+ * <p>
+ * Note that the automatic selection is only an estimate: it is measured on the client submitting the job (with the
+ * native libraries of that client instead of those of the task nodes), on the raw FASTQ text of the first gzipped input
+ * file instead of the BAM encoded map output, and it leaves the settings untouched if no gzipped input is found.
+ */
+public class MapOutputCompression
+{
+	/**
+	 * Logger to write information to.
+	 */
+	private static final Logger logger = Logger.getLogger(MapOutputCompression.class);
+
+	/**
+	 * Configuration property defining the {@link CompressionProfile} name to use, or {@code auto} for automatic
+	 * selection. If not set, the map output compression settings are not changed.
+	 */
+	public static final String PROFILE_PROPERTY = "molgenis.hadoop.pipeline.map.output.compression";
+
+	/**
+	 * Configuration property defining the fraction of a CPU core that is available for compression within a mapper
+	 * (as the aligner uses most of the CPU). Defaults to {@code 0.5}.
+	 */
+	public static final String CPU_HEADROOM_PROPERTY = "molgenis.hadoop.pipeline.map.output.compression.cpu.headroom";
+
+	/**
+	 * Configuration property defining the expected shuffle bandwidth per task in megabytes per second. Defaults to
+	 * {@code 50}.
+	 */
+	public static final String SHUFFLE_BANDWIDTH_PROPERTY = "molgenis.hadoop.pipeline.map.output.compression.shuffle.mbps";
+
+	/**
+	 * Configuration property in which the chosen {@link CompressionProfile} is stored (for information only).
+	 */
+	public static final String SELECTED_PROFILE_PROPERTY = "molgenis.hadoop.pipeline.map.output.compression.selected";
+
+	/**
+	 * Value of the {@link #PROFILE_PROPERTY} for automatic selection.
+	 */
+	private static final String AUTO = "auto";
+
+	/**
+	 * The maximum number of decompressed input bytes used as sample.
+	 */
+	private static final int MAX_SAMPLE_BYTES = 8 * 1024 * 1024;
+
+	/**
+	 * Configures the map output compression of the {@link Job}.
+	 *
+	 * @param job
+	 *            {@link Job}
+	 * @param inputDirs
+	 *            {@link List}{@code <}{@link Path}{@code >} The input directories (used for automatic selection).
+	 * @return {@link CompressionProfile} The chosen profile ({@code null} if the settings were left untouched).
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             If an unknown or unavailable {@link CompressionProfile} was requested.
+	 */
+	public static CompressionProfile configure(Job job, List<Path> inputDirs)
+			throws IOException, IllegalArgumentException
+	{
+		Configuration conf = job.getConfiguration();
+		String profileName = conf.getTrimmed(PROFILE_PROPERTY);
+		if (profileName == null || profileName.isEmpty())
+		{
+			logger.debug("No map output compression profile set, using the configured map output compression.");
+			return null;
+		}
+
+		CompressionProfile profile;
+		if (AUTO.equalsIgnoreCase(profileName))
+		{
+			profile = select(conf, inputDirs);
+			if (profile == null) return null;
+		}
+		else
+		{
+			profile = CompressionProfile.fromName(profileName);
+			if (profile != CompressionProfile.NONE && !CompressionProbe.isAvailable(profile.createCodec(conf)))
+			{
+				throw new IllegalArgumentException("Map output compression profile is not available: " + profile);
+			}
+		}
+
+		conf.set(SELECTED_PROFILE_PROPERTY, profile.name());
+		conf.setBoolean(MRJobConfig.MAP_OUTPUT_COMPRESS, profile != CompressionProfile.NONE);
+		if (profile != CompressionProfile.NONE)
+		{
+			conf.set(MRJobConfig.MAP_OUTPUT_COMPRESS_CODEC, profile.getCodecClassName());
+		}
+		logger.info("Map output compression profile: " + profile);
+		return profile;
+	}
+
+	/**
+	 * Returns the {@link CompressionCodec} used for the map output of a job.
+	 *
+	 * @param conf
+	 *            {@link Configuration}
+	 * @return {@link CompressionCodec} or {@code null} if the map output is not compressed.
+	 */
+	public static CompressionCodec getCodec(Configuration conf)
+	{
+		if (!conf.getBoolean(MRJobConfig.MAP_OUTPUT_COMPRESS, false)) return null;
+		Class<? extends CompressionCodec> codecClass = conf.getClass(MRJobConfig.MAP_OUTPUT_COMPRESS_CODEC,
+				DefaultCodec.class, CompressionCodec.class);
+		return ReflectionUtils.newInstance(codecClass, conf);
+	}
+
+	/**
+	 * Selects the {@link CompressionProfile} with the lowest estimated cost (see {@link MapOutputCompression}).
+	 *
+	 * @param conf
+	 *            {@link Configuration}
+	 * @param inputDirs
+	 *            {@link List}{@code <}{@link Path}{@code >}
+	 * @return {@link CompressionProfile} ({@code null} if no gzipped input data was found to sample)
+	 * @throws IOException
+	 */
+	static CompressionProfile select(Configuration conf, List<Path> inputDirs) throws IOException
+	{
+		double cpuHeadroom = conf.getFloat(CPU_HEADROOM_PROPERTY, 0.5f);
+		double shuffleBytesPerSecond = conf.getFloat(SHUFFLE_BANDWIDTH_PROPERTY, 50f) * 1024 * 1024;
+
+		// Retrieves a sample and the estimated map output size from the input.
+		InputSample sample = readInputSample(conf, inputDirs);
+		if (sample == null || sample.length == 0)
+		{
+			logger.info("No gzipped input data found to sample, using the configured map output compression.");
+			return null;
+		}
+		double mapOutputBytes = sample.totalInputBytes * sample.decompressionRatio;
+
+		CompressionProfile best = CompressionProfile.NONE;
+		double bestCost = mapOutputBytes / shuffleBytesPerSecond;
+		logger.info(String.format("Estimated map output: %.0f bytes, cost without compression: %.1f s", mapOutputBytes,
+				bestCost));
+
+		for (CompressionProfile profile : CompressionProfile.values())
+		{
+			CompressionCodec codec = profile.createCodec(conf);
+			if (!CompressionProbe.isAvailable(codec)) continue;
+
+			// First run warms up the codec (JIT/native initialization).
+			CompressionProbe.measure(codec, sample.data, Math.min(sample.length, 65536));
+			CompressionProbe.Result result = CompressionProbe.measure(codec, sample.data, sample.length);
+
+			double cost = mapOutputBytes / (result.getBytesPerSecond() * cpuHeadroom)
+					+ mapOutputBytes * result.getRatio() / shuffleBytesPerSecond;
+			logger.info(String.format("Map output compression profile %s: ratio %.3f, %.1f MB/s, cost %.1f s", profile,
+					result.getRatio(), result.getBytesPerSecond() / 1024 / 1024, cost));
+
+			if (cost < bestCost)
+			{
+				best = profile;
+				bestCost = cost;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Reads the first {@link #MAX_SAMPLE_BYTES} of the first gzipped input file found and determines the total size
+	 * of all gzipped input files.
+	 *
+	 * @param conf
+	 *            {@link Configuration}
+	 * @param inputDirs
+	 *            {@link List}{@code <}{@link Path}{@code >}
+	 * @return {@link InputSample} or {@code null} if no gzipped input file was found.
+	 * @throws IOException
+	 */
+	private static InputSample readInputSample(Configuration conf, List<Path> inputDirs) throws IOException
+	{
+		Path sampleFile = null;
+		long totalInputBytes = 0;
+		for (Path inputDir : inputDirs)
+		{
+			FileSystem fileSys = inputDir.getFileSystem(conf);
+			RemoteIterator<LocatedFileStatus> files = fileSys.listFiles(inputDir, true);
+			while (files.hasNext())
+			{
+				LocatedFileStatus file = files.next();
+				if (!file.getPath().getName().endsWith(".gz")) continue;
+				totalInputBytes += file.getLen();
+				if (sampleFile == null) sampleFile = file.getPath();
+			}
+		}
+		if (sampleFile == null) return null;
+
+		InputSample sample = new InputSample();
+		sample.totalInputBytes = totalInputBytes;
+		sample.data = new byte[MAX_SAMPLE_BYTES];
+
+		CountingInputStream compressedInput = null;
+		InputStream input = null;
+		try
+		{
+			compressedInput = new CountingInputStream(sampleFile.getFileSystem(conf).open(sampleFile));
+			input = new GZIPInputStream(compressedInput);
+			sample.length = IOUtils.read(input, sample.data);
+			sample.decompressionRatio = compressedInput.getByteCount() == 0 ? 1
+					: (double) sample.length / compressedInput.getByteCount();
+		}
+		finally
+		{
+			IOUtils.closeQuietly(input);
+			IOUtils.closeQuietly(compressedInput);
+		}
+		return sample;
+	}
+
+	/**
+	 * A sample of the decompressed input data.
+	 */
+	private static class InputSample
+	{
+		byte[] data;
+
+		int length;
+
+		long totalInputBytes;
+
+		double decompressionRatio;
+	}
+}
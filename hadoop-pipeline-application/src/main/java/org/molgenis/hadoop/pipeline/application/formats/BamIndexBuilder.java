@@ -0,0 +1,336 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+
+import htsjdk.samtools.util.BinaryCodec;
+
+/**
+ * Builds a BAM index ({@code .bai}) while the records of a coordinate-sorted BAM file are being written, so that no
+ * separate pass over the written BAM file is needed. For each record, {@link #processRecord(BamRecordBytesWritable,
+ * long, long)} should be called with the BGZF virtual file pointers of the start and end of the record in the BAM file
+ * (or with the block pointers of a {@link ParallelBlockCompressedOutputStream}, which are resolved when writing the
+ * index).
+ * The index has the same layout as the one created by {@code samtools index} (including the metadata pseudo-bin and the
+ * number of records without coordinate).
+ */
+public class BamIndexBuilder
+{
+	/**
+	 * The bin number of the metadata pseudo-bin.
+	 */
+	private static final int METADATA_BIN = 37450;
+
+	/**
+	 * The number of bits of a linear index window (16kbp).
+	 */
+	private static final int LINEAR_INDEX_SHIFT = 14;
+
+	/**
+	 * The read unmapped flag.
+	 */
+	private static final int READ_UNMAPPED_FLAG = 0x4;
+
+	/**
+	 * The index data of each reference sequence (or {@code null} if it has no records).
+	 */
+	private final ReferenceIndex[] references;
+
+	/**
+	 * The number of records without a reference index.
+	 */
+	private long recordsWithoutCoordinate = 0;
+
+	/**
+	 * The reference index of the previously processed record.
+	 */
+	private int lastReferenceIndex = 0;
+
+	/**
+	 * The alignment start of the previously processed record.
+	 */
+	private int lastAlignmentStart = 0;
+
+	/**
+	 * Create a new {@link BamIndexBuilder}.
+	 *
+	 * @param referenceCount
+	 *            {@code int} The number of reference sequences in the BAM header.
+	 */
+	public BamIndexBuilder(int referenceCount)
+	{
+		references = new ReferenceIndex[referenceCount];
+	}
+
+	/**
+	 * Adds a record to the index.
+	 *
+	 * @param record
+	 *            {@link BamRecordBytesWritable}
+	 * @param startPointer
+	 *            {@code long} The virtual file pointer of the start of the record.
+	 * @param endPointer
+	 *            {@code long} The virtual file pointer directly after the record.
+	 * @throws IllegalArgumentException
+	 *             If the records are not coordinate sorted or the reference index is unknown.
+	 */
+	public void processRecord(BamRecordBytesWritable record, long startPointer, long endPointer)
+			throws IllegalArgumentException
+	{
+		int referenceIndex = record.getReferenceIndex();
+		int alignmentStart = record.getAlignmentStart();
+		validateSortOrder(referenceIndex, alignmentStart);
+
+		if (referenceIndex == -1)
+		{
+			recordsWithoutCoordinate++;
+			return;
+		}
+		if (referenceIndex >= references.length)
+		{
+			throw new IllegalArgumentException("Unknown reference index: " + referenceIndex);
+		}
+		if (references[referenceIndex] == null)
+		{
+			references[referenceIndex] = new ReferenceIndex(startPointer);
+		}
+
+		// Converts the 1-based inclusive positions to 0-based half-open ones (with a minimum length of 1).
+		int begin = alignmentStart - 1;
+		int end = Math.max(record.getAlignmentEnd(), alignmentStart);
+		boolean unmapped = (record.getFlags() & READ_UNMAPPED_FLAG) != 0;
+
+		references[referenceIndex].add(begin, end, unmapped, startPointer, endPointer);
+	}
+
+	/**
+	 * Checks whether the record comes after the previously processed record in coordinate order (where records
+	 * without reference index come last).
+	 *
+	 * @param referenceIndex
+	 *            {@code int}
+	 * @param alignmentStart
+	 *            {@code int}
+	 * @throws IllegalArgumentException
+	 */
+	private void validateSortOrder(int referenceIndex, int alignmentStart) throws IllegalArgumentException
+	{
+		boolean sorted;
+		if (referenceIndex == -1) sorted = true;
+		else if (lastReferenceIndex == -1) sorted = false;
+		else sorted = referenceIndex > lastReferenceIndex
+				|| referenceIndex == lastReferenceIndex && alignmentStart >= lastAlignmentStart;
+
+		if (!sorted)
+		{
+			throw new IllegalArgumentException("Records are not coordinate sorted: " + referenceIndex + ":"
+					+ alignmentStart + " after " + lastReferenceIndex + ":" + lastAlignmentStart);
+		}
+		lastReferenceIndex = referenceIndex;
+		lastAlignmentStart = alignmentStart;
+	}
+
+	/**
+	 * Writes the index in the BAI format. Does not close the {@link OutputStream}.
+	 *
+	 * @param output
+	 *            {@link OutputStream}
+	 */
+	public void write(OutputStream output)
+	{
+		write(output, null);
+	}
+
+	/**
+	 * Writes the index in the BAI format, where the pointers given to
+	 * {@link #processRecord(BamRecordBytesWritable, long, long)} are block pointers that are resolved using the
+	 * (closed) {@link ParallelBlockCompressedOutputStream} the records were written to. Does not close the
+	 * {@link OutputStream}.
+	 *
+	 * @param output
+	 *            {@link OutputStream}
+	 * @param compressedOutput
+	 *            {@link ParallelBlockCompressedOutputStream} ({@code null} if the pointers are virtual file pointers).
+	 */
+	public void write(OutputStream output, ParallelBlockCompressedOutputStream compressedOutput)
+	{
+		BinaryCodec binaryCodec = new BinaryCodec(output);
+		binaryCodec.writeBytes("BAI\001".getBytes());
+		binaryCodec.writeInt(references.length);
+		for (ReferenceIndex reference : references)
+		{
+			if (reference == null)
+			{
+				binaryCodec.writeInt(0);
+				binaryCodec.writeInt(0);
+			}
+			else
+			{
+				reference.write(binaryCodec, compressedOutput);
+			}
+		}
+		binaryCodec.writeLong(recordsWithoutCoordinate);
+	}
+
+	/**
+	 * Calculates the bin of a region (as defined in the SAM specification).
+	 *
+	 * @param begin
+	 *            {@code int} 0-based inclusive
+	 * @param end
+	 *            {@code int} 0-based exclusive
+	 * @return {@code int}
+	 */
+	static int calculateBin(int begin, int end)
+	{
+		--end;
+		if (begin >> 14 == end >> 14) return ((1 << 15) - 1) / 7 + (begin >> 14);
+		if (begin >> 17 == end >> 17) return ((1 << 12) - 1) / 7 + (begin >> 17);
+		if (begin >> 20 == end >> 20) return ((1 << 9) - 1) / 7 + (begin >> 20);
+		if (begin >> 23 == end >> 23) return ((1 << 6) - 1) / 7 + (begin >> 23);
+		if (begin >> 26 == end >> 26) return ((1 << 3) - 1) / 7 + (begin >> 26);
+		return 0;
+	}
+
+	/**
+	 * The index data of a single reference sequence.
+	 */
+	private static class ReferenceIndex
+	{
+		/**
+		 * The chunks ({@code {start, end}} virtual file pointers) per bin.
+		 */
+		private final Map<Integer, List<long[]>> bins = new TreeMap<>();
+
+		/**
+		 * The smallest virtual file pointer of the records overlapping each 16kbp window (0 if none).
+		 */
+		private long[] linearIndex = new long[16];
+
+		/**
+		 * The number of used windows in {@link #linearIndex}.
+		 */
+		private int linearIndexSize = 0;
+
+		/**
+		 * The virtual file pointer of the first record.
+		 */
+		private final long firstPointer;
+
+		/**
+		 * The virtual file pointer after the last record.
+		 */
+		private long lastPointer;
+
+		/**
+		 * The number of mapped records.
+		 */
+		private long mappedRecords = 0;
+
+		/**
+		 * The number of unmapped records (that were placed at the position of their mate).
+		 */
+		private long unmappedRecords = 0;
+
+		ReferenceIndex(long firstPointer)
+		{
+			this.firstPointer = firstPointer;
+		}
+
+		void add(int begin, int end, boolean unmapped, long startPointer, long endPointer)
+		{
+			if (unmapped) unmappedRecords++;
+			else mappedRecords++;
+			lastPointer = endPointer;
+
+			// Extends the last chunk of the bin if the record directly follows it, otherwise adds a new chunk.
+			int bin = calculateBin(begin, end);
+			List<long[]> chunks = bins.get(bin);
+			if (chunks == null)
+			{
+				chunks = new ArrayList<>();
+				bins.put(bin, chunks);
+			}
+			long[] lastChunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+			if (lastChunk != null && lastChunk[1] == startPointer)
+			{
+				lastChunk[1] = endPointer;
+			}
+			else
+			{
+				chunks.add(new long[] { startPointer, endPointer });
+			}
+
+			// Stores the record start for each window it overlaps that has no record yet.
+			int firstWindow = begin >> LINEAR_INDEX_SHIFT;
+			int lastWindow = (end - 1) >> LINEAR_INDEX_SHIFT;
+			if (lastWindow >= linearIndex.length)
+			{
+				linearIndex = Arrays.copyOf(linearIndex, Math.max(lastWindow + 1, linearIndex.length * 2));
+			}
+			for (int window = firstWindow; window <= lastWindow; window++)
+			{
+				if (linearIndex[window] == 0) linearIndex[window] = startPointer;
+			}
+			linearIndexSize = Math.max(linearIndexSize, lastWindow + 1);
+		}
+
+		void write(BinaryCodec binaryCodec, ParallelBlockCompressedOutputStream compressedOutput)
+		{
+			binaryCodec.writeInt(bins.size() + 1);
+			for (Map.Entry<Integer, List<long[]>> bin : bins.entrySet())
+			{
+				binaryCodec.writeInt(bin.getKey());
+				binaryCodec.writeInt(bin.getValue().size());
+				for (long[] chunk : bin.getValue())
+				{
+					binaryCodec.writeLong(resolve(chunk[0], compressedOutput));
+					binaryCodec.writeLong(resolve(chunk[1], compressedOutput));
+				}
+			}
+
+			// Metadata pseudo-bin (as written by samtools).
+			binaryCodec.writeInt(METADATA_BIN);
+			binaryCodec.writeInt(2);
+			binaryCodec.writeLong(resolve(firstPointer, compressedOutput));
+			binaryCodec.writeLong(resolve(lastPointer, compressedOutput));
+			binaryCodec.writeLong(mappedRecords);
+			binaryCodec.writeLong(unmappedRecords);
+
+			// Windows without records get the value of the next window. Samtools (htslib) fills them from the previous
+			// window instead, but both are valid lower bounds: no record overlaps an empty window, so all records a
+			// query starting in it needs are written at or after the pointer of the next window. This also gives the
+			// windows before the first record a pointer to that record.
+			for (int window = linearIndexSize - 2; window >= 0; window--)
+			{
+				if (linearIndex[window] == 0) linearIndex[window] = linearIndex[window + 1];
+			}
+			binaryCodec.writeInt(linearIndexSize);
+			for (int window = 0; window < linearIndexSize; window++)
+			{
+				binaryCodec.writeLong(resolve(linearIndex[window], compressedOutput));
+			}
+		}
+
+		/**
+		 * Resolves a block pointer to a virtual file pointer (unless no {@link ParallelBlockCompressedOutputStream} is
+		 * given).
+		 *
+		 * @param pointer
+		 *            {@code long}
+		 * @param compressedOutput
+		 *            {@link ParallelBlockCompressedOutputStream}
+		 * @return {@code long}
+		 */
+		private static long resolve(long pointer, ParallelBlockCompressedOutputStream compressedOutput)
+		{
+			return compressedOutput == null ? pointer : compressedOutput.resolveFilePointer(pointer);
+		}
+	}
+}
@@ -0,0 +1,413 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK;
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.log4j.Logger;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+/**
+ * Concatenates BAM files sharing the same header into a single BAM file without decoding or recompressing the records.
+ * Only a new header is written, after which the BGZF blocks containing the records of each BAM file are copied as-is
+ * (without their BGZF end-of-file terminator). If the first records of a BAM file share a BGZF block with the end of
+ * its header, only the remainder of that single block is recompressed.
+ *
+ * The per-region BAM files of a job all share the header created by
+ * {@link org.molgenis.hadoop.pipeline.application.cachedigestion.SamFileHeaderGenerator}, so these can be combined into
+ * a single BAM file using {@link #concatenateRegions(Path, long)}. This is only done when the region BAM files are
+ * disjoint: the records of a read pair are written to every region any of them overlaps (and to the unmapped region as
+ * well if one of the reads is unmapped), so a read pair written to multiple regions would end up multiple times in the
+ * concatenated BAM file. The mappers count these read pairs ({@link ConcatenationCounter#SHARED_READ_PAIRS}) and
+ * concatenating fails if there are any. The result is marked as unsorted, as the region BAM files also contain the
+ * mates of the reads within the region (which can be aligned elsewhere).
+ */
+public class BgzfBamConcatenator
+{
+	/**
+	 * Logger to write information to.
+	 */
+	private static final Logger logger = Logger.getLogger(BgzfBamConcatenator.class);
+
+	/**
+	 * Configuration property defining whether the per-region BAM files are concatenated into a single BAM file (
+	 * {@link #CONCATENATED_FILE_NAME}) after the job finished. Defaults to {@code false}.
+	 */
+	public static final String CONCATENATE_PROPERTY = "molgenis.hadoop.pipeline.output.concatenate";
+
+	/**
+	 * The name of the BAM file created by {@link #concatenateRegions(Path, long)}.
+	 */
+	public static final String CONCATENATED_FILE_NAME = "all-regions.bam";
+
+	/**
+	 * Matches the file name of a region BAM file ({@code <contig>-<start>-<end>.bam}, optionally with the
+	 * {@code -r-<reducer number>} or {@code -m-<mapper number>} part added by Hadoop).
+	 */
+	private static final Pattern REGION_FILE_PATTERN = Pattern.compile("^(.+)-(\\d+)-(\\d+)(-[mr]-\\d+)?\\.bam$");
+
+	/**
+	 * Hadoop counters for concatenating the region BAM files.
+	 */
+	public enum ConcatenationCounter
+	{
+		/**
+		 * The number of read pairs written to more than one region (including the unmapped region), which would be
+		 * present multiple times in the concatenated BAM file.
+		 */
+		SHARED_READ_PAIRS
+	}
+
+	/**
+	 * The configuration used for accessing the files.
+	 */
+	private final Configuration conf;
+
+	/**
+	 * Create a new {@link BgzfBamConcatenator}.
+	 *
+	 * @param conf
+	 *            {@link Configuration}
+	 */
+	public BgzfBamConcatenator(Configuration conf)
+	{
+		this.conf = requireNonNull(conf);
+	}
+
+	/**
+	 * Validates whether the job configuration allows concatenating the region BAM files.
+	 *
+	 * @param job
+	 *            {@link Job}
+	 * @throws IllegalArgumentException
+	 *             If the job merges with a previous output (whose region BAM files are copied or merged without knowing
+	 *             whether they are disjoint).
+	 */
+	public static void validate(Job job) throws IllegalArgumentException
+	{
+		Configuration conf = job.getConfiguration();
+		if (conf.getBoolean(CONCATENATE_PROPERTY, false) && IncrementalRegionOutput.isEnabled(conf))
+		{
+			throw new IllegalArgumentException("Concatenating the region BAM files can not be combined with merging "
+					+ "with a previous output.");
+		}
+	}
+
+	/**
+	 * Concatenates all region BAM files within a directory into {@link #CONCATENATED_FILE_NAME} within the same
+	 * directory. The region BAM files are ordered on contig (in the order of the sequence dictionary), start and end,
+	 * with the unmapped records last. Records from the {@link Region#invalid()} region are not included.
+	 *
+	 * @param outputDir
+	 *            {@link Path}
+	 * @param sharedReadPairs
+	 *            {@code long} The number of read pairs written to more than one region (the value of
+	 *            {@link ConcatenationCounter#SHARED_READ_PAIRS} of the job that wrote the region BAM files).
+	 * @return {@link Path} The created BAM file, or {@code null} if the directory contains no region BAM files.
+	 * @throws IOException
+	 *             If {@code sharedReadPairs} is not {@code 0}, as the records of those read pairs would be duplicated.
+	 */
+	public Path concatenateRegions(Path outputDir, long sharedReadPairs) throws IOException
+	{
+		if (sharedReadPairs > 0)
+		{
+			throw new IOException("The region BAM files in " + outputDir + " are not disjoint (" + sharedReadPairs
+					+ " read pairs were written to multiple regions), so concatenating them would duplicate records.");
+		}
+		FileSystem fileSys = outputDir.getFileSystem(conf);
+
+		final List<RegionFile> regionFiles = new ArrayList<>();
+		for (FileStatus status : fileSys.listStatus(outputDir))
+		{
+			Matcher matcher = REGION_FILE_PATTERN.matcher(status.getPath().getName());
+			if (status.isFile() && matcher.matches() && !matcher.group(1).equals(Region.invalid().getContig()))
+			{
+				regionFiles.add(new RegionFile(status.getPath(), new Region(matcher.group(1),
+						Integer.parseInt(matcher.group(2)), Integer.parseInt(matcher.group(3)))));
+			}
+		}
+		if (regionFiles.isEmpty())
+		{
+			logger.warn("No region BAM files found in " + outputDir + " to concatenate.");
+			return null;
+		}
+
+		// Orders the files on the position of the contig within the sequence dictionary.
+		final SAMSequenceDictionary dictionary = readHeader(regionFiles.get(0).path).getSequenceDictionary();
+		Collections.sort(regionFiles, new Comparator<RegionFile>()
+		{
+			@Override
+			public int compare(RegionFile o1, RegionFile o2)
+			{
+				int c = contigOrder(o1.region) - contigOrder(o2.region);
+				if (c == 0) c = o1.region.compareTo(o2.region);
+				return c;
+			}
+
+			private int contigOrder(Region region)
+			{
+				int index = dictionary.getSequenceIndex(region.getContig());
+				return index == -1 ? Integer.MAX_VALUE : index;
+			}
+		});
+
+		List<Path> inputs = new ArrayList<>();
+		for (RegionFile regionFile : regionFiles)
+		{
+			inputs.add(regionFile.path);
+		}
+		Path output = new Path(outputDir, CONCATENATED_FILE_NAME);
+		concatenate(inputs, output);
+		logger.info("Concatenated " + inputs.size() + " region BAM files into " + output + ".");
+		return output;
+	}
+
+	/**
+	 * Concatenates BAM files into a single BAM file. The header of the first BAM file is used (with the sort order set
+	 * to {@link SortOrder#unsorted}).
+	 *
+	 * @param inputs
+	 *            {@link List}{@code <}{@link Path}{@code >}
+	 * @param output
+	 *            {@link Path}
+	 * @throws IOException
+	 *             If the BAM files do not share the same reference sequences.
+	 */
+	public void concatenate(List<Path> inputs, Path output) throws IOException
+	{
+		SAMFileHeader header = readHeader(inputs.get(0));
+		header.setSortOrder(SortOrder.unsorted);
+		concatenate(inputs, header, output);
+	}
+
+	/**
+	 * Concatenates BAM files into a single BAM file with the given header.
+	 *
+	 * @param inputs
+	 *            {@link List}{@code <}{@link Path}{@code >}
+	 * @param header
+	 *            {@link SAMFileHeader} Should contain the same reference sequences as the BAM files.
+	 * @param output
+	 *            {@link Path}
+	 * @throws IOException
+	 *             If the BAM files do not share the same reference sequences.
+	 */
+	void concatenate(List<Path> inputs, SAMFileHeader header, Path output) throws IOException
+	{
+		FileSystem fileSys = output.getFileSystem(conf);
+		OutputStream rawOutput = fileSys.create(output);
+		ParallelBlockCompressedOutputStream compressedOutput = new ParallelBlockCompressedOutputStream(rawOutput,
+				conf.getInt(RawBamOutputFormat.BGZF_COMPRESSION_LEVEL_PROPERTY,
+						BlockCompressedStreamConstants.DEFAULT_COMPRESSION_LEVEL),
+				null, 1);
+		try
+		{
+			// Flushing ends the header block, so the copied blocks directly follow it.
+			RawBamRecordWriter.writeHeader(compressedOutput, header);
+			compressedOutput.flush();
+
+			for (Path input : inputs)
+			{
+				appendRecords(input, header.getSequenceDictionary(), rawOutput, compressedOutput);
+			}
+		}
+		finally
+		{
+			// Writes the BGZF end-of-file terminator.
+			compressedOutput.close();
+		}
+	}
+
+	/**
+	 * Appends the BGZF blocks containing the records of a BAM file.
+	 *
+	 * @param input
+	 *            {@link Path}
+	 * @param dictionary
+	 *            {@link SAMSequenceDictionary} The reference sequences of the concatenated BAM file.
+	 * @param rawOutput
+	 *            {@link OutputStream} To copy the BGZF blocks to.
+	 * @param compressedOutput
+	 *            {@link ParallelBlockCompressedOutputStream} To write recompressed data to (writing directly to
+	 *            {@code rawOutput}).
+	 * @throws IOException
+	 */
+	private void appendRecords(Path input, SAMSequenceDictionary dictionary, OutputStream rawOutput,
+			ParallelBlockCompressedOutputStream compressedOutput) throws IOException
+	{
+		// Retrieves the position of the first record.
+		long firstRecordPointer;
+		try (RawBamRecordReader reader = new RawBamRecordReader(input, conf))
+		{
+			if (!isSameDictionary(dictionary, reader.getFileHeader().getSequenceDictionary()))
+			{
+				throw new IOException("Reference sequences of " + input + " differ from the first BAM file.");
+			}
+			firstRecordPointer = reader.getFilePointer();
+		}
+		long blockAddress = firstRecordPointer >>> 16;
+		int blockOffset = (int) (firstRecordPointer & 0xFFFF);
+
+		FileSystem fileSys = input.getFileSystem(conf);
+		long fileLength = fileSys.getFileStatus(input).getLen();
+		try (FSDataInputStream inputStream = fileSys.open(input))
+		{
+			long end = fileLength;
+			if (fileLength >= EMPTY_GZIP_BLOCK.length)
+			{
+				byte[] lastBlock = new byte[EMPTY_GZIP_BLOCK.length];
+				inputStream.readFully(fileLength - lastBlock.length, lastBlock);
+				if (Arrays.equals(lastBlock, EMPTY_GZIP_BLOCK)) end -= lastBlock.length;
+			}
+
+			// Recompresses the records sharing a block with the header.
+			if (blockOffset > 0)
+			{
+				byte[] blockHeader = new byte[BLOCK_HEADER_LENGTH];
+				inputStream.readFully(blockAddress, blockHeader);
+				byte[] block = new byte[(blockHeader[16] & 0xFF | (blockHeader[17] & 0xFF) << 8) + 1];
+				inputStream.readFully(blockAddress, block);
+
+				byte[] data = inflateBlock(block, input);
+				if (data.length > blockOffset)
+				{
+					compressedOutput.write(data, blockOffset, data.length - blockOffset);
+					compressedOutput.flush();
+				}
+				blockAddress += block.length;
+			}
+
+			// Copies the remaining blocks as-is.
+			if (end > blockAddress)
+			{
+				inputStream.seek(blockAddress);
+				IOUtils.copyLarge(inputStream, rawOutput, 0, end - blockAddress);
+			}
+		}
+	}
+
+	/**
+	 * Reads the header of a BAM file.
+	 *
+	 * @param bamFile
+	 *            {@link Path}
+	 * @return {@link SAMFileHeader}
+	 * @throws IOException
+	 */
+	private SAMFileHeader readHeader(Path bamFile) throws IOException
+	{
+		try (RawBamRecordReader reader = new RawBamRecordReader(bamFile, conf))
+		{
+			return reader.getFileHeader();
+		}
+	}
+
+	/**
+	 * Decompresses a single BGZF block.
+	 *
+	 * @param block
+	 *            {@code byte[]} The complete block (including header and footer).
+	 * @param source
+	 *            {@link Path} The file containing the block.
+	 * @return {@code byte[]}
+	 * @throws IOException
+	 */
+	private static byte[] inflateBlock(byte[] block, Path source) throws IOException
+	{
+		byte[] data = new byte[ByteBuffer.wrap(block, block.length - 4, 4).order(ByteOrder.LITTLE_ENDIAN).getInt()];
+		Inflater inflater = new Inflater(true);
+		try
+		{
+			inflater.setInput(block, BLOCK_HEADER_LENGTH, block.length - BLOCK_HEADER_LENGTH - BLOCK_FOOTER_LENGTH);
+			int inflated = 0;
+			while (inflated < data.length && !inflater.finished())
+			{
+				int read = inflater.inflate(data, inflated, data.length - inflated);
+				if (read == 0 && inflater.needsInput()) break;
+				inflated += read;
+			}
+			if (inflated != data.length)
+			{
+				throw new IOException("Corrupt BGZF block in " + source);
+			}
+			return data;
+		}
+		catch (DataFormatException e)
+		{
+			throw new IOException("Corrupt BGZF block in " + source, e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Checks whether two {@link SAMSequenceDictionary}{@code s} contain the same sequences (names and lengths) in the
+	 * same order.
+	 *
+	 * @param dictionary1
+	 *            {@link SAMSequenceDictionary}
+	 * @param dictionary2
+	 *            {@link SAMSequenceDictionary}
+	 * @return {@code boolean}
+	 */
+	static boolean isSameDictionary(SAMSequenceDictionary dictionary1, SAMSequenceDictionary dictionary2)
+	{
+		if (dictionary1.size() != dictionary2.size()) return false;
+		for (int i = 0; i < dictionary1.size(); i++)
+		{
+			SAMSequenceRecord sequence1 = dictionary1.getSequence(i);
+			SAMSequenceRecord sequence2 = dictionary2.getSequence(i);
+			if (!sequence1.getSequenceName().equals(sequence2.getSequenceName())
+					|| sequence1.getSequenceLength() != sequence2.getSequenceLength())
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A region BAM file.
+	 */
+	private static class RegionFile
+	{
+		private final Path path;
+		private final Region region;
+
+		RegionFile(Path path, Region region)
+		{
+			this.path = path;
+			this.region = region;
+		}
+	}
+}
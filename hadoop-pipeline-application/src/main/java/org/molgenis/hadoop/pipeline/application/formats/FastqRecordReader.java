@@ -0,0 +1,240 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads FASTQ records (of {@link #LINES_PER_RECORD} lines) from a stream into a buffer, copying the bytes as-is
+ * (including the line endings). The stream is buffered without synchronization and copied a line at a time, so no
+ * method call is needed per byte. Multiple records can be collected within the buffer (such as both reads of a pair
+ * within interleaved FASTQ data) by calling {@link #readRecord()} multiple times before calling {@link #clear()}.
+ */
+public class FastqRecordReader implements Closeable
+{
+	/**
+	 * The number of lines in a single FASTQ record.
+	 */
+	public static final int LINES_PER_RECORD = 4;
+
+	/**
+	 * The line ending added to a last line without line ending.
+	 */
+	private static final byte[] LINE_ENDING = { '\n' };
+
+	/**
+	 * The FASTQ stream.
+	 */
+	private final InputStream input;
+
+	/**
+	 * Buffer containing the data read from the {@link #input} that was not yet copied into the {@link #buffer}.
+	 */
+	private final byte[] inputBuffer = new byte[65536];
+
+	/**
+	 * The position of the next byte to copy from the {@link #inputBuffer}.
+	 */
+	private int inputPosition = 0;
+
+	/**
+	 * The number of bytes in the {@link #inputBuffer}.
+	 */
+	private int inputLimit = 0;
+
+	/**
+	 * Buffer containing the records read since the last {@link #clear()} (including line endings).
+	 */
+	private byte[] buffer = new byte[1024];
+
+	/**
+	 * The number of bytes in the {@link #buffer}.
+	 */
+	private int length = 0;
+
+	/**
+	 * The start of each line within the {@link #buffer}, with an extra element storing the end of the last line.
+	 */
+	private int[] lineStarts = new int[LINES_PER_RECORD * 2 + 1];
+
+	/**
+	 * The number of lines in the {@link #buffer}.
+	 */
+	private int lines = 0;
+
+	/**
+	 * The number of records read from the {@link #input}.
+	 */
+	private long records = 0;
+
+	/**
+	 * Create a new {@link FastqRecordReader}.
+	 *
+	 * @param input
+	 *            {@link InputStream} FASTQ stream. Is closed when this reader is closed.
+	 */
+	public FastqRecordReader(InputStream input)
+	{
+		this.input = requireNonNull(input);
+	}
+
+	/**
+	 * Appends the next FASTQ record to the {@link #getBuffer()}. A last line without line ending still finishes the
+	 * record (a line ending is added in the buffer).
+	 *
+	 * @return {@code boolean} {@code false} if the end of the stream was reached (nothing is appended).
+	 * @throws IOException
+	 *             If the stream ends within a record or the record does not start with a '@'.
+	 */
+	public boolean readRecord() throws IOException
+	{
+		int start = length;
+		int endLine = lines + LINES_PER_RECORD;
+		while (lines < endLine && (inputPosition < inputLimit || fillInputBuffer()))
+		{
+			int end = inputPosition;
+			while (end < inputLimit && inputBuffer[end] != '\n')
+			{
+				end++;
+			}
+			boolean lineEnd = end < inputLimit;
+			if (lineEnd) end++;
+			append(inputBuffer, inputPosition, end - inputPosition);
+			inputPosition = end;
+			if (lineEnd) addLine();
+		}
+
+		if (lines == endLine - 1 && length > lineStarts[lines])
+		{
+			append(LINE_ENDING, 0, 1);
+			addLine();
+		}
+
+		if (length == start) return false;
+		if (lines < endLine || buffer[start] != '@')
+		{
+			throw new IOException("Invalid or truncated FASTQ record after " + records + " records.");
+		}
+		records++;
+		return true;
+	}
+
+	/**
+	 * Removes all records from the {@link #getBuffer()}.
+	 */
+	public void clear()
+	{
+		length = 0;
+		lines = 0;
+	}
+
+	/**
+	 * Returns the buffer containing the records read since the last {@link #clear()}. Only the first
+	 * {@link #getLength()} bytes are used.
+	 *
+	 * @return {@code byte[]}
+	 */
+	public byte[] getBuffer()
+	{
+		return buffer;
+	}
+
+	/**
+	 * Returns the number of bytes in the {@link #getBuffer()}.
+	 *
+	 * @return {@code int}
+	 */
+	public int getLength()
+	{
+		return length;
+	}
+
+	/**
+	 * Returns the content of a line within the {@link #getBuffer()} (without line ending).
+	 *
+	 * @param line
+	 *            {@code int} The index of the line (counting from the first record since the last {@link #clear()}).
+	 * @return {@code byte[]}
+	 */
+	public byte[] getLine(int line)
+	{
+		int end = lineStarts[line + 1] - 1;
+		if (end > lineStarts[line] && buffer[end - 1] == '\r') end--;
+		return Arrays.copyOfRange(buffer, lineStarts[line], end);
+	}
+
+	/**
+	 * Returns the read name of a record within the {@link #getBuffer()} (see {@link #readName(byte[], int)}).
+	 *
+	 * @param record
+	 *            {@code int} The index of the record (counting from the first record since the last {@link #clear()}).
+	 * @return {@link String}
+	 */
+	public String getReadName(int record)
+	{
+		return readName(buffer, lineStarts[record * LINES_PER_RECORD]);
+	}
+
+	/**
+	 * Retrieves the read name of the FASTQ record starting at the given position (without the '@', any comment and an
+	 * optional "/1" or "/2" suffix), the same way as the aligner does.
+	 *
+	 * @param data
+	 *            {@code byte[]}
+	 * @param recordStart
+	 *            {@code int}
+	 * @return {@link String}
+	 */
+	public static String readName(byte[] data, int recordStart)
+	{
+		int end = recordStart + 1;
+		while (data[end] != ' ' && data[end] != '\t' && data[end] != '\r' && data[end] != '\n')
+		{
+			end++;
+		}
+		if (end - recordStart > 3 && data[end - 2] == '/' && (data[end - 1] == '1' || data[end - 1] == '2'))
+		{
+			end -= 2;
+		}
+		return new String(data, recordStart + 1, end - recordStart - 1, StandardCharsets.US_ASCII);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		input.close();
+	}
+
+	/**
+	 * Reads the next data from the {@link #input} into the {@link #inputBuffer}.
+	 *
+	 * @return {@code boolean} {@code false} if the end of the stream was reached.
+	 * @throws IOException
+	 */
+	private boolean fillInputBuffer() throws IOException
+	{
+		inputPosition = 0;
+		inputLimit = Math.max(0, input.read(inputBuffer, 0, inputBuffer.length));
+		return inputLimit > 0;
+	}
+
+	private void append(byte[] data, int offset, int count)
+	{
+		if (length + count > buffer.length)
+		{
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+		}
+		System.arraycopy(data, offset, buffer, length, count);
+		length += count;
+	}
+
+	private void addLine()
+	{
+		if (lines + 1 == lineStarts.length) lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+		lineStarts[++lines] = length;
+	}
+}
@@ -0,0 +1,299 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.log4j.Logger;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.ContigRegionsMap;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.ReferenceTiler;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
+import org.molgenis.hadoop.pipeline.application.mapreduce.HadoopPipelineMapper;
+import org.molgenis.hadoop.pipeline.application.partitioners.RegionSamRecordPartitioner;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+
+/**
+ * The per-region BAM files of a previous job, into which the records of a new job are merged (for example when extra
+ * lanes of a sample were sequenced). Only the new input needs to be aligned: each reducer merges the (coordinate
+ * sorted) new records of a region with the records of the previous BAM file of that region while writing the output.
+ * The previous BAM files of regions without any new records are copied as-is (including their index files) by the
+ * reducer the region would have been assigned to.
+ *
+ * For this to work, the regions of both jobs should be the same (so the same BED file, or the same tile size, see
+ * {@link #inferTileSize(FileSystem, Path, SAMSequenceDictionary)}), and the samples information file should contain
+ * the samples of both jobs (as the header of the new output is used for the merged files).
+ */
+public class IncrementalRegionOutput
+{
+	/**
+	 * Logger to write information to.
+	 */
+	private static final Logger logger = Logger.getLogger(IncrementalRegionOutput.class);
+
+	/**
+	 * Configuration property defining the output directory of a previous job of which the per-region BAM files are
+	 * merged with the new records. If not set, only the new records are written.
+	 */
+	public static final String PREVIOUS_OUTPUT_PROPERTY = "molgenis.hadoop.pipeline.incremental.previous.output";
+
+	/**
+	 * Matches the file name of a per-region BAM file (the first group being the region name, followed by the contig,
+	 * start and end), either written by a reducer or merged after a map-only job.
+	 */
+	private static final Pattern REGION_FILE_PATTERN = Pattern.compile("^((.+)-(\\d+)-(\\d+))(-r-\\d+)?\\.bam$");
+
+	/**
+	 * The index files that can be written next to a BAM file.
+	 */
+	private static final String[] INDEX_EXTENSIONS = { RawBamOutputFormat.BAM_INDEX_EXTENSION,
+			RawBamOutputFormat.SPLITTING_INDEX_EXTENSION };
+
+	/**
+	 * The configuration used for accessing the files.
+	 */
+	private final Configuration conf;
+
+	/**
+	 * The sequence dictionary of the new output (the previous BAM files should have the same one).
+	 */
+	private final SAMSequenceDictionary dictionary;
+
+	/**
+	 * The previous BAM files per region name that were not opened yet.
+	 */
+	private final Map<String, Path> regionFiles;
+
+	/**
+	 * Create a new {@link IncrementalRegionOutput}.
+	 *
+	 * @param conf
+	 *            {@link Configuration} Should contain {@link #PREVIOUS_OUTPUT_PROPERTY}.
+	 * @param dictionary
+	 *            {@link SAMSequenceDictionary} The sequence dictionary of the new output.
+	 * @throws IOException
+	 */
+	public IncrementalRegionOutput(Configuration conf, SAMSequenceDictionary dictionary) throws IOException
+	{
+		this.conf = requireNonNull(conf);
+		this.dictionary = requireNonNull(dictionary);
+		Path previousOutputDir = new Path(conf.get(PREVIOUS_OUTPUT_PROPERTY));
+		regionFiles = listRegionFiles(previousOutputDir.getFileSystem(conf), previousOutputDir);
+	}
+
+	/**
+	 * Checks whether the records should be merged with the output of a previous job (see
+	 * {@link #PREVIOUS_OUTPUT_PROPERTY}).
+	 *
+	 * @param conf
+	 *            {@link Configuration}
+	 * @return {@code boolean}
+	 */
+	public static boolean isEnabled(Configuration conf)
+	{
+		return conf.get(PREVIOUS_OUTPUT_PROPERTY) != null;
+	}
+
+	/**
+	 * Validates the job settings when merging with the output of a previous job.
+	 *
+	 * @param job
+	 *            {@link Job}
+	 * @param fileSys
+	 *            {@link FileSystem}
+	 * @throws IOException
+	 *             If the previous output directory does not exist.
+	 * @throws IllegalArgumentException
+	 *             If the job settings do not allow merging.
+	 */
+	public static void validate(Job job, FileSystem fileSys) throws IOException, IllegalArgumentException
+	{
+		Configuration conf = job.getConfiguration();
+		if (!isEnabled(conf)) return;
+
+		if (conf.getBoolean(HadoopPipelineMapper.MAP_ONLY_PROPERTY, false)
+				|| conf.getBoolean(PackedRegionBamOutputFormat.PACKED_OUTPUT_PROPERTY, false))
+		{
+			throw new IllegalArgumentException("Merging with a previous output requires per-region output written by "
+					+ "reducers (no map-only or packed output).");
+		}
+		Path previousOutputDir = fileSys.makeQualified(new Path(conf.get(PREVIOUS_OUTPUT_PROPERTY)));
+		if (!fileSys.isDirectory(previousOutputDir))
+		{
+			throw new IOException("Previous output directory does not exist: " + previousOutputDir);
+		}
+		if (previousOutputDir.equals(fileSys.makeQualified(FileOutputFormat.getOutputPath(job))))
+		{
+			throw new IllegalArgumentException("The previous output directory can not be the output directory.");
+		}
+	}
+
+	/**
+	 * Lists the per-region BAM files within a directory.
+	 *
+	 * @param fileSys
+	 *            {@link FileSystem}
+	 * @param outputDir
+	 *            {@link Path}
+	 * @return {@link Map}{@code <}{@link String}{@code ,}{@link Path}{@code >} The BAM files per region name.
+	 * @throws IOException
+	 *             If a region has multiple BAM files (for example unmerged parts of a map-only job).
+	 */
+	static Map<String, Path> listRegionFiles(FileSystem fileSys, Path outputDir) throws IOException
+	{
+		Map<String, Path> regionFiles = new TreeMap<>();
+		for (FileStatus status : fileSys.listStatus(outputDir))
+		{
+			Matcher matcher = REGION_FILE_PATTERN.matcher(status.getPath().getName());
+			if (status.isFile() && matcher.matches()
+					&& regionFiles.put(matcher.group(1), status.getPath()) != null)
+			{
+				throw new IOException("Multiple BAM files found for region " + matcher.group(1) + " in " + outputDir);
+			}
+		}
+		return regionFiles;
+	}
+
+	/**
+	 * Infers the tile size used by a previous job that tiled the reference (when no BED file was given), as the tile
+	 * size calculated for the new input would differ. The largest tile size found is used, which is validated by
+	 * checking whether tiling the reference with it results in the same tiles.
+	 *
+	 * @param fileSys
+	 *            {@link FileSystem}
+	 * @param previousOutputDir
+	 *            {@link Path}
+	 * @param dictionary
+	 *            {@link SAMSequenceDictionary}
+	 * @return {@code int} The tile size, or 0 if the previous output contains no tiles.
+	 * @throws IOException
+	 *             If the tiles of the previous output do not match the tiles for the inferred tile size.
+	 */
+	public static int inferTileSize(FileSystem fileSys, Path previousOutputDir, SAMSequenceDictionary dictionary)
+			throws IOException
+	{
+		Set<String> regionNames = listRegionFiles(fileSys, previousOutputDir).keySet();
+		int tileSize = 0;
+		for (String regionName : regionNames)
+		{
+			Region region = parseRegion(regionName);
+			if (dictionary.getSequence(region.getContig()) != null)
+			{
+				tileSize = Math.max(tileSize, region.getEnd() - region.getStart() + 1);
+			}
+		}
+		if (tileSize == 0) return 0;
+
+		ContigRegionsMap tiles = new ReferenceTiler(tileSize).tile(dictionary);
+		for (String regionName : regionNames)
+		{
+			Region region = parseRegion(regionName);
+			if (dictionary.getSequence(region.getContig()) != null && !tiles.containsRegion(region))
+			{
+				throw new IOException("Could not infer the tile size of the previous output (tile " + regionName
+						+ " does not match), please set " + ReferenceTiler.TILE_SIZE_PROPERTY + ".");
+			}
+		}
+		return tileSize;
+	}
+
+	/**
+	 * Opens the previous BAM file of a region. Each region can only be opened once.
+	 *
+	 * @param regionName
+	 *            {@link String}
+	 * @return {@link RawBamRecordReader} or {@code null} if the previous output contains no BAM file for the region.
+	 * @throws IOException
+	 *             If the BAM file has a different sequence dictionary.
+	 */
+	public RawBamRecordReader open(String regionName) throws IOException
+	{
+		Path regionFile = regionFiles.remove(regionName);
+		if (regionFile == null) return null;
+
+		RawBamRecordReader reader = new RawBamRecordReader(regionFile, conf);
+		if (!BgzfBamConcatenator.isSameDictionary(dictionary, reader.getFileHeader().getSequenceDictionary()))
+		{
+			reader.close();
+			throw new IOException("Sequence dictionary of " + regionFile + " does not match the reference.");
+		}
+		return reader;
+	}
+
+	/**
+	 * Copies the previous BAM files (and their index files) of the regions that were not opened and that are assigned
+	 * to the current reducer into the output of the reducer.
+	 *
+	 * @param context
+	 *            {@link TaskInputOutputContext}
+	 * @return {@code int} The number of copied regions.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public int copyUnopenedRegions(TaskInputOutputContext<?, ?, ?, ?> context) throws IOException, InterruptedException
+	{
+		int partition = context.getTaskAttemptID().getTaskID().getId();
+		Path workOutputDir = FileOutputFormat.getWorkOutputPath(context);
+		FileSystem outputFileSys = workOutputDir.getFileSystem(conf);
+
+		int copied = 0;
+		for (Iterator<Map.Entry<String, Path>> iterator = regionFiles.entrySet().iterator(); iterator.hasNext();)
+		{
+			Map.Entry<String, Path> regionFile = iterator.next();
+			if (RegionSamRecordPartitioner.getPartition(parseRegion(regionFile.getKey()),
+					context.getNumReduceTasks()) != partition)
+			{
+				continue;
+			}
+
+			Path source = regionFile.getValue();
+			FileSystem sourceFileSys = source.getFileSystem(conf);
+			Path target = new Path(workOutputDir,
+					FileOutputFormat.getUniqueFile(context, regionFile.getKey(), ".bam"));
+			FileUtil.copy(sourceFileSys, source, outputFileSys, target, false, conf);
+			for (String extension : INDEX_EXTENSIONS)
+			{
+				if (sourceFileSys.exists(source.suffix(extension)))
+				{
+					FileUtil.copy(sourceFileSys, source.suffix(extension), outputFileSys, target.suffix(extension),
+							false, conf);
+				}
+			}
+			iterator.remove();
+			copied++;
+		}
+		logger.debug("Copied " + copied + " regions without new records from the previous output.");
+		return copied;
+	}
+
+	/**
+	 * Parses a region name ({@code <contig>-<start>-<end>}).
+	 *
+	 * @param regionName
+	 *            {@link String}
+	 * @return {@link Region}
+	 */
+	private static Region parseRegion(String regionName)
+	{
+		int endSeparator = regionName.lastIndexOf('-');
+		int startSeparator = regionName.lastIndexOf('-', endSeparator - 1);
+		return new Region(regionName.substring(0, startSeparator),
+				Integer.parseInt(regionName.substring(startSeparator + 1, endSeparator)),
+				Integer.parseInt(regionName.substring(endSeparator + 1)));
+	}
+}
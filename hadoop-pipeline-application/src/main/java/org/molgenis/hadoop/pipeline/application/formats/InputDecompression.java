@@ -0,0 +1,307 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.GZIP_ID1;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.GZIP_ID2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.log4j.Logger;
+
+/**
+ * Decompresses gzip compressed FASTQ input within the mapper before it is written to the aligner, so that the aligner
+ * receives plain FASTQ and does not need to decompress it on its single input thread. BGZF compressed input (gzip
+ * members with the {@code BC} extra subfield) is decompressed by multiple threads using a
+ * {@link ParallelBlockCompressedInputStream}. Other gzip input can only be decompressed sequentially, so this is done
+ * on a separate thread that reads ahead of the thread writing to the aligner. Input that is not gzip compressed is
+ * returned as-is.
+ */
+public class InputDecompression
+{
+	/**
+	 * Logger to write information to.
+	 */
+	private static final Logger logger = Logger.getLogger(InputDecompression.class);
+
+	/**
+	 * Configuration property defining whether gzip compressed input is decompressed before being written to the
+	 * aligner. Defaults to {@code true}.
+	 */
+	public static final String DECOMPRESS_PROPERTY = "molgenis.hadoop.pipeline.input.decompress";
+
+	/**
+	 * Configuration property defining the number of threads used to decompress BGZF compressed input (shared by all
+	 * streams within a task). Defaults to the number of virtual cores of the task container
+	 * ({@code mapreduce.map.cpu.vcores}).
+	 */
+	public static final String THREADS_PROPERTY = "molgenis.hadoop.pipeline.input.decompression.threads";
+
+	/**
+	 * The size of the chunks decompressed ahead by the read-ahead thread.
+	 */
+	private static final int READ_AHEAD_CHUNK_SIZE = 65536;
+
+	/**
+	 * The maximum number of chunks decompressed ahead by the read-ahead thread.
+	 */
+	private static final int READ_AHEAD_CHUNKS = 16;
+
+	/**
+	 * Utility class.
+	 */
+	private InputDecompression()
+	{
+	}
+
+	/**
+	 * Returns a stream with the decompressed data if the input is gzip compressed (and decompression is enabled using
+	 * {@link #DECOMPRESS_PROPERTY}), otherwise the input data as-is.
+	 *
+	 * @param input
+	 *            {@link InputStream}
+	 * @param conf
+	 *            {@link Configuration}
+	 * @return {@link InputStream}
+	 * @throws IOException
+	 */
+	public static InputStream decompress(InputStream input, Configuration conf) throws IOException
+	{
+		if (!conf.getBoolean(DECOMPRESS_PROPERTY, true)) return input;
+		return decompress(input, getThreads(conf));
+	}
+
+	/**
+	 * Returns the number of threads used to decompress BGZF compressed input (see {@link #THREADS_PROPERTY}).
+	 *
+	 * @param conf
+	 *            {@link Configuration}
+	 * @return {@code int}
+	 */
+	public static int getThreads(Configuration conf)
+	{
+		return Math.max(1, conf.getInt(THREADS_PROPERTY,
+				conf.getInt(MRJobConfig.MAP_CPU_VCORES, MRJobConfig.DEFAULT_MAP_CPU_VCORES)));
+	}
+
+	/**
+	 * Returns a stream with the decompressed data if the input is gzip compressed, otherwise the input data as-is.
+	 *
+	 * @param input
+	 *            {@link InputStream}
+	 * @param threads
+	 *            {@code int} The number of threads used to decompress BGZF compressed input.
+	 * @return {@link InputStream}
+	 * @throws IOException
+	 */
+	public static InputStream decompress(InputStream input, int threads) throws IOException
+	{
+		// Peeks at the start of the data to determine the compression.
+		PushbackInputStream pushbackInput = new PushbackInputStream(input, BLOCK_HEADER_LENGTH);
+		byte[] header = new byte[BLOCK_HEADER_LENGTH];
+		int headerLength = IOUtils.read(pushbackInput, header);
+		pushbackInput.unread(header, 0, headerLength);
+
+		if (ParallelBlockCompressedInputStream.isBgzfBlock(header, headerLength))
+		{
+			logger.debug("Decompressing BGZF input using " + threads + " threads.");
+			ExecutorService executor = ParallelBlockCompressedInputStream.getSharedExecutor(threads);
+			// Two blocks per thread keeps all threads busy while the reading thread returns the previous block.
+			return new ParallelBlockCompressedInputStream(pushbackInput, executor, threads * 2);
+		}
+		if (headerLength >= 2 && (header[0] & 0xFF) == GZIP_ID1 && (header[1] & 0xFF) == GZIP_ID2)
+		{
+			logger.debug("Decompressing gzip input on a read-ahead thread.");
+			return new ReadAheadInputStream(new GZIPInputStream(pushbackInput, READ_AHEAD_CHUNK_SIZE));
+		}
+		return pushbackInput;
+	}
+
+	/**
+	 * {@link InputStream} that reads a source stream on a separate thread, keeping up to {@link #READ_AHEAD_CHUNKS}
+	 * chunks ahead of the reader (so that expensive reads, such as decompression, are done in parallel with the work of
+	 * the reader).
+	 */
+	private static class ReadAheadInputStream extends InputStream
+	{
+		/**
+		 * Marks the end of the source stream within {@link #chunks}.
+		 */
+		private static final byte[] END = new byte[0];
+
+		/**
+		 * The chunks read ahead.
+		 */
+		private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(READ_AHEAD_CHUNKS);
+
+		/**
+		 * The stream being read ahead.
+		 */
+		private final InputStream source;
+
+		/**
+		 * The thread reading the source stream.
+		 */
+		private final Thread thread;
+
+		/**
+		 * The exception or error that occurred while reading the source stream (if any).
+		 */
+		private volatile Throwable failure;
+
+		/**
+		 * The chunk currently being returned.
+		 */
+		private byte[] chunk = new byte[0];
+
+		/**
+		 * The position of the next byte to return from {@link #chunk}.
+		 */
+		private int position = 0;
+
+		/**
+		 * Whether the end of the source stream was reached.
+		 */
+		private boolean finished = false;
+
+		ReadAheadInputStream(InputStream source)
+		{
+			this.source = source;
+			thread = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					readAhead();
+				}
+			}, "input-read-ahead");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			if (!nextChunk()) return -1;
+			return chunk[position++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (len == 0) return 0;
+			if (!nextChunk()) return -1;
+
+			int read = Math.min(len, chunk.length - position);
+			System.arraycopy(chunk, position, b, off, read);
+			position += read;
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			thread.interrupt();
+			source.close();
+		}
+
+		/**
+		 * Moves to the next chunk if all bytes from the current chunk were returned.
+		 *
+		 * @return {@code boolean} {@code false} if the end of the source stream was reached.
+		 * @throws IOException
+		 *             If reading the source stream failed.
+		 */
+		private boolean nextChunk() throws IOException
+		{
+			if (position < chunk.length) return true;
+			if (finished) return false;
+			try
+			{
+				chunk = chunks.take();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for input to be read.");
+			}
+			position = 0;
+			if (chunk == END)
+			{
+				finished = true;
+				if (failure != null) throw new IOException("Reading input failed.", failure);
+				return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Reads the source stream into {@link #chunks} (run on {@link #thread}). Whatever happens, {@link #END} is
+		 * enqueued afterwards (preceded by storing the {@link #failure}, if any), so the reader never keeps waiting for
+		 * a next chunk.
+		 */
+		private void readAhead()
+		{
+			boolean closed = false;
+			try
+			{
+				int read;
+				do
+				{
+					byte[] buffer = new byte[READ_AHEAD_CHUNK_SIZE];
+					read = IOUtils.read(source, buffer);
+					if (read > 0) chunks.put(read == buffer.length ? buffer : Arrays.copyOf(buffer, read));
+				}
+				while (read == READ_AHEAD_CHUNK_SIZE);
+			}
+			catch (InterruptedException e)
+			{
+				// Closed by the reader.
+				closed = true;
+			}
+			catch (Throwable e) // Also runtime exceptions and errors, as the reader would otherwise wait forever.
+			{
+				failure = e;
+			}
+			finally
+			{
+				enqueueEnd(closed);
+			}
+		}
+
+		/**
+		 * Enqueues {@link #END}.
+		 *
+		 * @param closed
+		 *            {@code boolean} Whether the reader closed this stream (so {@link #END} is only enqueued if there
+		 *            is room, as nothing will take chunks anymore).
+		 */
+		private void enqueueEnd(boolean closed)
+		{
+			if (closed)
+			{
+				chunks.offer(END);
+				return;
+			}
+			try
+			{
+				chunks.put(END);
+			}
+			catch (InterruptedException e)
+			{
+				// Closed by the reader.
+				chunks.offer(END);
+			}
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link InputStream} that interleaves the records of two FASTQ streams (the first and second reads of each pair, as
+ * found in R1/R2 FASTQ files) on the fly: a record from the first stream is followed by the record from the second
+ * stream, which is the input expected by {@code bwa mem -p}. The records are copied byte-for-byte, only the read names
+ * are compared to make sure both streams contain the same read pairs in the same order.
+ */
+public class InterleavedFastqInputStream extends InputStream
+{
+	/**
+	 * The FASTQ stream containing the first reads.
+	 */
+	private final FastqRecordReader firstReads;
+
+	/**
+	 * The FASTQ stream containing the second reads.
+	 */
+	private final FastqRecordReader secondReads;
+
+	/**
+	 * The reader containing the record currently being returned (the record of the first read is followed by the
+	 * record of the second read), or {@code null} if no read pair was read yet or the end of the streams was reached.
+	 */
+	private FastqRecordReader current = null;
+
+	/**
+	 * The position of the next byte to return from the buffer of the {@link #current} reader.
+	 */
+	private int position = 0;
+
+	/**
+	 * The number of read pairs that have been interleaved.
+	 */
+	private long readPairs = 0;
+
+	/**
+	 * Create a new {@link InterleavedFastqInputStream}.
+	 *
+	 * @param firstReads
+	 *            {@link InputStream} FASTQ stream containing the first reads (R1).
+	 * @param secondReads
+	 *            {@link InputStream} FASTQ stream containing the second reads (R2).
+	 */
+	public InterleavedFastqInputStream(InputStream firstReads, InputStream secondReads)
+	{
+		this.firstReads = new FastqRecordReader(firstReads);
+		this.secondReads = new FastqRecordReader(secondReads);
+	}
+
+	/**
+	 * Returns the number of read pairs that have been interleaved so far.
+	 *
+	 * @return {@code long}
+	 */
+	public long getReadPairs()
+	{
+		return readPairs;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if (!fillBuffer()) return -1;
+		return current.getBuffer()[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if (len == 0) return 0;
+		if (!fillBuffer()) return -1;
+
+		int read = Math.min(len, current.getLength() - position);
+		System.arraycopy(current.getBuffer(), position, b, off, read);
+		position += read;
+		return read;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			firstReads.close();
+		}
+		finally
+		{
+			secondReads.close();
+		}
+	}
+
+	/**
+	 * Moves to the record of the second read if all bytes from the record of the first read were returned, or reads
+	 * the next read pair if all bytes from the current read pair were returned.
+	 *
+	 * @return {@code boolean} {@code false} if both streams reached their end.
+	 * @throws IOException
+	 *             If the streams contain a different number of reads or the read names of a pair do not match.
+	 */
+	private boolean fillBuffer() throws IOException
+	{
+		if (current != null && position < current.getLength()) return true;
+
+		position = 0;
+		if (current == firstReads)
+		{
+			current = secondReads;
+			return true;
+		}
+
+		current = null;
+		firstReads.clear();
+		secondReads.clear();
+		boolean firstRecord = firstReads.readRecord();
+		boolean secondRecord = secondReads.readRecord();
+		if (!firstRecord && !secondRecord) return false;
+		if (!firstRecord || !secondRecord)
+		{
+			throw new IOException("The FASTQ files of a pair contain a different number of reads (after "
+					+ readPairs + " read pairs).");
+		}
+
+		String firstName = firstReads.getReadName(0);
+		String secondName = secondReads.getReadName(0);
+		if (!firstName.equals(secondName))
+		{
+			throw new IOException("Read names do not match between the FASTQ files of a pair: \"" + firstName
+					+ "\" and \"" + secondName + "\".");
+		}
+
+		readPairs++;
+		current = firstReads;
+		return true;
+	}
+}
@@ -0,0 +1,38 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.SamFileHeaderGenerator;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+
+/**
+ * {@link FileOutputFormat} that writes all {@link BamRecordBytesWritable} values of a task into a single BAM file
+ * (instead of a BAM file per region, see {@link SortedRawBamOutputFormat}) using a {@link PackedRegionBamRecordWriter}.
+ * The key should contain the name of the region the value belongs to and all values of a region should be written
+ * consecutively. Next to the BAM file a region index ({@code .bam.regions}) is written, which can be used by a
+ * {@link PackedRegionBamReader} to retrieve the records of a single region.
+ */
+public class PackedRegionBamOutputFormat extends FileOutputFormat<Text, BamRecordBytesWritable>
+{
+	/**
+	 * Configuration property defining whether each reducer writes a single packed BAM file with a region index instead
+	 * of a BAM file per region. Defaults to {@code false}.
+	 */
+	public static final String PACKED_OUTPUT_PROPERTY = "molgenis.hadoop.pipeline.output.packed";
+
+	/**
+	 * The extension appended to the BAM file name for the region index.
+	 */
+	public static final String REGION_INDEX_EXTENSION = ".regions";
+
+	@Override
+	public RecordWriter<Text, BamRecordBytesWritable> getRecordWriter(TaskAttemptContext ctx) throws IOException
+	{
+		return new PackedRegionBamRecordWriter(getDefaultWorkFile(ctx, ".bam"),
+				SamFileHeaderGenerator.retrieveSamFileHeader(ctx), ctx);
+	}
+}
@@ -0,0 +1,190 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+
+/**
+ * Reads the records of a single region from a BAM file written by a {@link PackedRegionBamRecordWriter}. The region
+ * index ({@code <file>.regions}) is used to seek directly to the first record of the region and to stop at the end
+ * of the region, so only the BGZF blocks containing the records of that region are read.
+ */
+public class PackedRegionBamReader implements Closeable
+{
+	/**
+	 * The regions within the BAM file (in the order they were written).
+	 */
+	private final Map<String, RegionEntry> regions;
+
+	/**
+	 * Reads the records from the BAM file.
+	 */
+	private final RawBamRecordReader reader;
+
+	/**
+	 * Create a new {@link PackedRegionBamReader}.
+	 *
+	 * @param bamFile
+	 *            {@link Path} The packed BAM file (the region index should be stored next to it).
+	 * @param conf
+	 *            {@link Configuration}
+	 * @throws IOException
+	 */
+	public PackedRegionBamReader(Path bamFile, Configuration conf) throws IOException
+	{
+		FileSystem fileSys = bamFile.getFileSystem(conf);
+		regions = readRegionIndex(fileSys, bamFile.suffix(PackedRegionBamOutputFormat.REGION_INDEX_EXTENSION));
+		reader = new RawBamRecordReader(bamFile, conf);
+	}
+
+	/**
+	 * Returns the header of the BAM file.
+	 *
+	 * @return {@link SAMFileHeader}
+	 */
+	public SAMFileHeader getFileHeader()
+	{
+		return reader.getFileHeader();
+	}
+
+	/**
+	 * Returns the names of the regions within the BAM file.
+	 *
+	 * @return {@link Set}{@code <}{@link String}{@code >}
+	 */
+	public Set<String> getRegionNames()
+	{
+		return Collections.unmodifiableSet(regions.keySet());
+	}
+
+	/**
+	 * Retrieves the records of a region without decoding them.
+	 *
+	 * @param regionName
+	 *            {@link String} The region name as written by the {@link PackedRegionBamRecordWriter} (for the reducer
+	 *            output this is {@code <contig>-<start>-<end>}).
+	 * @return {@link List}{@code <}{@link BamRecordBytesWritable}{@code >}
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             If the BAM file does not contain the region.
+	 */
+	public List<BamRecordBytesWritable> getRecordBytes(String regionName) throws IOException, IllegalArgumentException
+	{
+		RegionEntry region = regions.get(regionName);
+		if (region == null)
+		{
+			throw new IllegalArgumentException("Region not present in packed BAM file: " + regionName);
+		}
+
+		// The records are read up to the end pointer of the region, the number of records verifies the region index.
+		List<BamRecordBytesWritable> records = new ArrayList<>();
+		reader.seek(region.startPointer);
+		while (reader.getFilePointer() < region.endPointer)
+		{
+			BamRecordBytesWritable record = new BamRecordBytesWritable();
+			if (!reader.next(record))
+			{
+				throw new EOFException("Unexpected end of BAM file within region " + regionName + ".");
+			}
+			records.add(record);
+		}
+		if (records.size() != region.records)
+		{
+			throw new IOException("Region " + regionName + " contains " + records.size() + " records instead of the "
+					+ region.records + " records listed in the region index.");
+		}
+		return records;
+	}
+
+	/**
+	 * Retrieves the records of a region.
+	 *
+	 * @param regionName
+	 *            {@link String}
+	 * @return {@link List}{@code <}{@link SAMRecord}{@code >}
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             If the BAM file does not contain the region.
+	 * @see #getRecordBytes(String)
+	 */
+	public List<SAMRecord> getRecords(String regionName) throws IOException, IllegalArgumentException
+	{
+		List<SAMRecord> records = new ArrayList<>();
+		for (BamRecordBytesWritable writable : getRecordBytes(regionName))
+		{
+			records.add(writable.get(reader.getFileHeader()));
+		}
+		return records;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		reader.close();
+	}
+
+	/**
+	 * Reads the region index.
+	 *
+	 * @param fileSys
+	 *            {@link FileSystem}
+	 * @param regionIndex
+	 *            {@link Path}
+	 * @return {@link Map}{@code <}{@link String}{@code , }{@link RegionEntry}{@code >}
+	 * @throws IOException
+	 */
+	private static Map<String, RegionEntry> readRegionIndex(FileSystem fileSys, Path regionIndex) throws IOException
+	{
+		Map<String, RegionEntry> regions = new LinkedHashMap<>();
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(fileSys.open(regionIndex), StandardCharsets.UTF_8)))
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				String[] fields = line.split("\t");
+				if (fields.length != 4)
+				{
+					throw new IOException("Invalid line in region index " + regionIndex + ": " + line);
+				}
+				regions.put(fields[0], new RegionEntry(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+						Long.parseLong(fields[3])));
+			}
+		}
+		return regions;
+	}
+
+	/**
+	 * A region within the packed BAM file.
+	 */
+	private static class RegionEntry
+	{
+		private final long startPointer;
+		private final long endPointer;
+		private final long records;
+
+		RegionEntry(long startPointer, long endPointer, long records)
+		{
+			this.startPointer = startPointer;
+			this.endPointer = endPointer;
+			this.records = records;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+
+import htsjdk.samtools.SAMFileHeader;
+
+/**
+ * {@link RawBamRecordWriter} that writes the records of multiple regions into a single BAM file, where the key of each
+ * record is the name of the region it belongs to. The records of a region must be written consecutively. When closed,
+ * a region index is written containing a line per region with the (tab-separated) region name, the virtual file
+ * pointers of the first record and directly after the last record of the region, and the number of records.
+ */
+public class PackedRegionBamRecordWriter extends RawBamRecordWriter<Text>
+{
+	/**
+	 * The stream the region index is written to.
+	 */
+	private final OutputStream regionIndexOutput;
+
+	/**
+	 * The regions written so far.
+	 */
+	private final List<RegionEntry> regions = new ArrayList<>();
+
+	/**
+	 * The region currently being written ({@code null} if no records are written yet).
+	 */
+	private RegionEntry currentRegion;
+
+	/**
+	 * The name of the region currently being written.
+	 */
+	private final Text currentRegionName = new Text();
+
+	/**
+	 * Create a new {@link PackedRegionBamRecordWriter} and writes the BAM header to the output file. The region index
+	 * is written to {@code <output>.regions}.
+	 *
+	 * @param output
+	 *            {@link Path} The BAM file to create.
+	 * @param header
+	 *            {@link SAMFileHeader}
+	 * @param ctx
+	 *            {@link TaskAttemptContext}
+	 * @throws IOException
+	 */
+	public PackedRegionBamRecordWriter(Path output, SAMFileHeader header, TaskAttemptContext ctx) throws IOException
+	{
+		// As regions can overlap, the packed file is not coordinate sorted so no BAM index can be created.
+		super(output, header, false, ctx);
+		regionIndexOutput = output.getFileSystem(ctx.getConfiguration())
+				.create(output.suffix(PackedRegionBamOutputFormat.REGION_INDEX_EXTENSION));
+	}
+
+	/**
+	 * Create a new {@link PackedRegionBamRecordWriter} and writes the BAM header to the {@link OutputStream}.
+	 *
+	 * @param output
+	 *            {@link OutputStream} Is closed when the {@link PackedRegionBamRecordWriter} is closed.
+	 * @param header
+	 *            {@link SAMFileHeader}
+	 * @param regionIndexOutput
+	 *            {@link OutputStream} To write the region index to. Is closed when the
+	 *            {@link PackedRegionBamRecordWriter} is closed.
+	 */
+	public PackedRegionBamRecordWriter(OutputStream output, SAMFileHeader header, OutputStream regionIndexOutput)
+	{
+		super(output, header);
+		this.regionIndexOutput = regionIndexOutput;
+	}
+
+	@Override
+	public void write(Text key, BamRecordBytesWritable value) throws IOException
+	{
+		if (currentRegion == null || !key.equals(currentRegionName))
+		{
+			finishRegion();
+			currentRegionName.set(key);
+			currentRegion = new RegionEntry(key.toString(), getBlockPointer());
+			regions.add(currentRegion);
+		}
+		super.write(key, value);
+		currentRegion.records++;
+	}
+
+	@Override
+	public void close(TaskAttemptContext context) throws IOException
+	{
+		finishRegion();
+		super.close(context);
+
+		// The block pointers can only be resolved after all blocks are written.
+		Writer writer = new BufferedWriter(new OutputStreamWriter(regionIndexOutput, StandardCharsets.UTF_8));
+		for (RegionEntry region : regions)
+		{
+			writer.write(region.name + "\t" + resolveFilePointer(region.startPointer) + "\t"
+					+ resolveFilePointer(region.endPointer) + "\t" + region.records + "\n");
+		}
+		writer.close();
+	}
+
+	/**
+	 * Stores the end of the region currently being written (if any).
+	 */
+	private void finishRegion()
+	{
+		if (currentRegion != null)
+		{
+			currentRegion.endPointer = getBlockPointer();
+		}
+	}
+
+	/**
+	 * A region within the packed BAM file.
+	 */
+	private static class RegionEntry
+	{
+		private final String name;
+		private final long startPointer;
+		private long endPointer;
+		private long records = 0;
+
+		RegionEntry(String name, long startPointer)
+		{
+			this.name = name;
+			this.startPointer = startPointer;
+		}
+	}
+}
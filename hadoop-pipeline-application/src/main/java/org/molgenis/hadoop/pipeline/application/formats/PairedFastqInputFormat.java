@@ -0,0 +1,220 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * Input format for paired-end FASTQ files as delivered by the sequencer (a {@code _R1} file containing the first reads
+ * and a matching {@code _R2} file containing the second reads, such as {@code sample_L001_R1_001.fastq.gz} and
+ * {@code sample_L001_R2_001.fastq.gz}). Each R1 file (with its R2 file) is a single split, of which the key is the path
+ * to the R1 file. The value is left empty: the mapper streams both files (decompressed by {@link InputDecompression})
+ * through an {@link InterleavedFastqInputStream} (see {@link #openInterleaved(Path, Configuration)}) directly into the
+ * aligner, so that no separate pass is needed to interleave the reads beforehand and the reads never need to be stored
+ * in memory as a whole.
+ *
+ * The files are not split any further, as the records of a R1 and R2 file can only be matched by their order within
+ * the files (and compressed files can not be split anyway).
+ */
+public class PairedFastqInputFormat extends FileInputFormat<Text, BytesWritable>
+{
+	/**
+	 * Configuration property defining whether the input consists of R1/R2 FASTQ files (using
+	 * {@link PairedFastqInputFormat}) instead of interleaved halvade chunks. Defaults to {@code false}.
+	 */
+	public static final String PAIRED_FASTQ_INPUT_PROPERTY = "molgenis.hadoop.pipeline.input.paired.fastq";
+
+	/**
+	 * Matches the file name of a R1 FASTQ file (optionally compressed). The R2 file name consists of the first group,
+	 * {@code _R2} and the second group.
+	 */
+	private static final Pattern FIRST_OF_PAIR_PATTERN = Pattern
+			.compile("^(.+)_R1((?:_\\d+)?\\.(?:fq|fastq)(?:\\.[a-z0-9]+)?)$");
+
+	/**
+	 * Checks whether a file name is that of a R1 FASTQ file.
+	 *
+	 * @param fileName
+	 *            {@link String}
+	 * @return {@code boolean}
+	 */
+	public static boolean isFirstOfPair(String fileName)
+	{
+		return FIRST_OF_PAIR_PATTERN.matcher(fileName).matches();
+	}
+
+	/**
+	 * Returns the path of the R2 FASTQ file belonging to a R1 FASTQ file.
+	 *
+	 * @param firstOfPair
+	 *            {@link Path}
+	 * @return {@link Path}
+	 * @throws IllegalArgumentException
+	 *             If the path is not that of a R1 FASTQ file.
+	 */
+	public static Path getSecondOfPair(Path firstOfPair) throws IllegalArgumentException
+	{
+		Matcher matcher = FIRST_OF_PAIR_PATTERN.matcher(firstOfPair.getName());
+		if (!matcher.matches())
+		{
+			throw new IllegalArgumentException("Not a R1 FASTQ file: " + firstOfPair);
+		}
+		return new Path(firstOfPair.getParent(), matcher.group(1) + "_R2" + matcher.group(2));
+	}
+
+	/**
+	 * Opens a R1 FASTQ file together with its R2 FASTQ file as a single interleaved FASTQ stream. Compressed files are
+	 * decompressed based on their file extension (or content, for gzip).
+	 *
+	 * @param firstOfPair
+	 *            {@link Path}
+	 * @param conf
+	 *            {@link Configuration}
+	 * @return {@link InterleavedFastqInputStream}
+	 * @throws IOException
+	 */
+	public static InterleavedFastqInputStream openInterleaved(Path firstOfPair, Configuration conf) throws IOException
+	{
+		CompressionCodecFactory codecFactory = new CompressionCodecFactory(conf);
+		InputStream firstReads = open(firstOfPair, codecFactory, conf);
+		try
+		{
+			return new InterleavedFastqInputStream(firstReads, open(getSecondOfPair(firstOfPair), codecFactory, conf));
+		}
+		catch (IOException | RuntimeException e)
+		{
+			IOUtils.closeStream(firstReads);
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens a (possibly compressed) file. Gzip compressed files are decompressed using {@link InputDecompression}.
+	 *
+	 * @param path
+	 *            {@link Path}
+	 * @param codecFactory
+	 *            {@link CompressionCodecFactory}
+	 * @param conf
+	 *            {@link Configuration}
+	 * @return {@link InputStream}
+	 * @throws IOException
+	 */
+	private static InputStream open(Path path, CompressionCodecFactory codecFactory, Configuration conf)
+			throws IOException
+	{
+		InputStream inputStream = path.getFileSystem(conf).open(path);
+		CompressionCodec codec = codecFactory.getCodec(path);
+		if (codec == null || codec instanceof GzipCodec)
+		{
+			return InputDecompression.decompress(inputStream, InputDecompression.getThreads(conf));
+		}
+		return codec.createInputStream(inputStream);
+	}
+
+	/**
+	 * Only returns the R1 FASTQ files (other files are ignored).
+	 *
+	 * @throws IOException
+	 *             If no R2 FASTQ file exists for a R1 FASTQ file.
+	 */
+	@Override
+	protected List<FileStatus> listStatus(JobContext job) throws IOException
+	{
+		List<FileStatus> firstOfPairFiles = new ArrayList<>();
+		for (FileStatus status : super.listStatus(job))
+		{
+			if (isFirstOfPair(status.getPath().getName()))
+			{
+				Path secondOfPair = getSecondOfPair(status.getPath());
+				FileSystem fileSys = secondOfPair.getFileSystem(job.getConfiguration());
+				if (!fileSys.exists(secondOfPair))
+				{
+					throw new IOException("No R2 FASTQ file found for: " + status.getPath());
+				}
+				firstOfPairFiles.add(status);
+			}
+		}
+		return firstOfPairFiles;
+	}
+
+	@Override
+	protected boolean isSplitable(JobContext context, Path filename)
+	{
+		return false;
+	}
+
+	@Override
+	public RecordReader<Text, BytesWritable> createRecordReader(InputSplit split, TaskAttemptContext context)
+			throws IOException, InterruptedException
+	{
+		return new PairedFastqRecordReader();
+	}
+
+	/**
+	 * Returns a single key/value per split, with the key being the path to the R1 FASTQ file and the value being
+	 * empty.
+	 */
+	private static class PairedFastqRecordReader extends RecordReader<Text, BytesWritable>
+	{
+		private FileSplit split;
+		private boolean processed = false;
+
+		@Override
+		public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException
+		{
+			this.split = (FileSplit) split;
+		}
+
+		@Override
+		public boolean nextKeyValue() throws IOException, InterruptedException
+		{
+			if (processed) return false;
+			processed = true;
+			return true;
+		}
+
+		@Override
+		public Text getCurrentKey() throws IOException, InterruptedException
+		{
+			return new Text(split.getPath().toString());
+		}
+
+		@Override
+		public BytesWritable getCurrentValue() throws IOException, InterruptedException
+		{
+			return new BytesWritable();
+		}
+
+		@Override
+		public float getProgress() throws IOException, InterruptedException
+		{
+			return processed ? 1 : 0;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+		}
+	}
+}
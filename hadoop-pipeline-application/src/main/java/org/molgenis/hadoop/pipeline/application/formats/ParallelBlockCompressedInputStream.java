@@ -0,0 +1,370 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.BGZF_ID1;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.BGZF_ID2;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.GZIP_ID1;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.GZIP_ID2;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+
+/**
+ * {@link InputStream} that reads BGZF compressed data (like {@link BlockCompressedInputStream}), but which hands the
+ * compressed blocks to an {@link ExecutorService} for decompression (the counterpart of
+ * {@link ParallelBlockCompressedOutputStream}). The compressed blocks are read ahead on the thread that reads from
+ * this stream, and the decompressed blocks are returned in order. The number of blocks that are decompressed (or
+ * waiting for decompression) at the same time is bounded.
+ */
+public class ParallelBlockCompressedInputStream extends InputStream
+{
+	/**
+	 * {@link ExecutorService}{@code s} shared by all streams within the JVM, by their number of threads.
+	 */
+	private static final Map<Integer, ExecutorService> sharedExecutors = new HashMap<>();
+
+	/**
+	 * Each thread has its own {@link Inflater} (as they are expensive to create).
+	 */
+	private static final ThreadLocal<Inflater> INFLATERS = new ThreadLocal<Inflater>()
+	{
+		@Override
+		protected Inflater initialValue()
+		{
+			return new Inflater(true);
+		}
+	};
+
+	/**
+	 * The {@link InputStream} the compressed blocks are read from.
+	 */
+	private final InputStream input;
+
+	/**
+	 * Decompresses the blocks ({@code null} to decompress them on the reading thread).
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * The maximum number of blocks that are queued for decompression.
+	 */
+	private final int maxQueuedBlocks;
+
+	/**
+	 * The blocks that are queued for decompression (in the order they should be returned).
+	 */
+	private final Deque<Future<byte[]>> queuedBlocks = new ArrayDeque<>();
+
+	/**
+	 * The decompressed data of the current block.
+	 */
+	private byte[] block = new byte[0];
+
+	/**
+	 * The position of the next byte to return from {@link #block}.
+	 */
+	private int blockPosition = 0;
+
+	/**
+	 * Whether the end of {@link #input} was reached.
+	 */
+	private boolean inputFinished = false;
+
+	/**
+	 * Create a new {@link ParallelBlockCompressedInputStream}.
+	 *
+	 * @param input
+	 *            {@link InputStream} Is closed when the {@link ParallelBlockCompressedInputStream} is closed.
+	 * @param executor
+	 *            {@link ExecutorService} To decompress the blocks with ({@code null} to decompress them on the reading
+	 *            thread).
+	 * @param maxQueuedBlocks
+	 *            {@code int} The maximum number of blocks that are queued for decompression (ignored if
+	 *            {@code executor} is {@code null}).
+	 */
+	public ParallelBlockCompressedInputStream(InputStream input, ExecutorService executor, int maxQueuedBlocks)
+	{
+		this.input = input;
+		this.executor = executor;
+		this.maxQueuedBlocks = Math.max(1, maxQueuedBlocks);
+	}
+
+	/**
+	 * Returns an {@link ExecutorService} (with daemon threads) with the given number of threads. The pools are shared
+	 * JVM-wide: all streams requesting the same number of threads (for example multiple files written by a task, or
+	 * the tasks run one after the other by a reused JVM) share a single pool, so these compete for its threads.
+	 * Requesting a different number of threads creates a separate pool instead of returning the pool of another size.
+	 * The pools are never shut down (their daemon threads do not prevent the JVM from exiting).
+	 *
+	 * @param threads
+	 *            {@code int}
+	 * @return {@link ExecutorService}
+	 * @throws IllegalArgumentException
+	 *             If {@code threads} is lower than 1.
+	 */
+	public static synchronized ExecutorService getSharedExecutor(int threads) throws IllegalArgumentException
+	{
+		if (threads < 1) throw new IllegalArgumentException("Invalid number of threads: " + threads);
+		ExecutorService executor = sharedExecutors.get(threads);
+		if (executor == null)
+		{
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true)
+					.setNameFormat("bgzf-inflate-" + threads + "-%d").build());
+			sharedExecutors.put(threads, executor);
+		}
+		return executor;
+	}
+
+	/**
+	 * Checks whether the start of a gzip member is that of a BGZF block (a gzip header with the {@code BC} extra
+	 * subfield).
+	 *
+	 * @param header
+	 *            {@code byte[]}
+	 * @param length
+	 *            {@code int} The number of available bytes in {@code header}.
+	 * @return {@code boolean}
+	 */
+	public static boolean isBgzfBlock(byte[] header, int length)
+	{
+		return length >= BLOCK_HEADER_LENGTH && (header[0] & 0xFF) == GZIP_ID1 && (header[1] & 0xFF) == GZIP_ID2
+				&& (header[3] & 4) != 0 && header[12] == BGZF_ID1 && header[13] == BGZF_ID2;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if (!nextBlock()) return -1;
+		return block[blockPosition++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if (len == 0) return 0;
+		if (!nextBlock()) return -1;
+
+		int read = Math.min(len, block.length - blockPosition);
+		System.arraycopy(block, blockPosition, b, off, read);
+		blockPosition += read;
+		return read;
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		return block.length - blockPosition;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		for (Future<byte[]> queuedBlock : queuedBlocks)
+		{
+			queuedBlock.cancel(false);
+		}
+		queuedBlocks.clear();
+		input.close();
+	}
+
+	/**
+	 * Moves to the next (non-empty) decompressed block if all bytes from the current block were returned. Before
+	 * waiting for the next block, the queue is filled with newly read compressed blocks.
+	 *
+	 * @return {@code boolean} {@code false} if the end of the stream was reached.
+	 * @throws IOException
+	 */
+	private boolean nextBlock() throws IOException
+	{
+		while (blockPosition == block.length)
+		{
+			if (executor == null)
+			{
+				byte[] compressedBlock = readCompressedBlock();
+				if (compressedBlock == null) return false;
+				block = decompressBlock(compressedBlock);
+			}
+			else
+			{
+				while (!inputFinished && queuedBlocks.size() < maxQueuedBlocks)
+				{
+					byte[] compressedBlock = readCompressedBlock();
+					if (compressedBlock != null)
+					{
+						queuedBlocks.add(executor.submit(new BlockDecompressor(compressedBlock)));
+					}
+				}
+				if (queuedBlocks.isEmpty()) return false;
+				block = takeQueuedBlock();
+			}
+			blockPosition = 0;
+		}
+		return true;
+	}
+
+	/**
+	 * Waits for the oldest queued block to be decompressed and returns it.
+	 *
+	 * @return {@code byte[]}
+	 * @throws IOException
+	 */
+	private byte[] takeQueuedBlock() throws IOException
+	{
+		try
+		{
+			return queuedBlocks.remove().get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a block to be decompressed.");
+		}
+		catch (ExecutionException e)
+		{
+			throw new IOException("Decompressing a block failed.", e.getCause());
+		}
+	}
+
+	/**
+	 * Reads the next complete compressed block.
+	 *
+	 * @return {@code byte[]} or {@code null} if the end of the input was reached.
+	 * @throws IOException
+	 *             If the input is not BGZF compressed or ends within a block.
+	 */
+	private byte[] readCompressedBlock() throws IOException
+	{
+		byte[] header = new byte[BLOCK_HEADER_LENGTH];
+		int headerLength = readFully(header, 0, header.length);
+		if (headerLength == 0)
+		{
+			inputFinished = true;
+			return null;
+		}
+		if (!isBgzfBlock(header, headerLength))
+		{
+			throw new IOException("Input is not BGZF compressed.");
+		}
+
+		byte[] compressedBlock = new byte[(header[16] & 0xFF | (header[17] & 0xFF) << 8) + 1];
+		System.arraycopy(header, 0, compressedBlock, 0, header.length);
+		if (readFully(compressedBlock, header.length, compressedBlock.length - header.length) != compressedBlock.length
+				- header.length)
+		{
+			throw new EOFException("Unexpected end of BGZF block.");
+		}
+		return compressedBlock;
+	}
+
+	/**
+	 * Reads until the array is filled or the end of the input is reached.
+	 *
+	 * @param bytes
+	 *            {@code byte[]}
+	 * @param offset
+	 *            {@code int}
+	 * @param length
+	 *            {@code int}
+	 * @return {@code int} The number of bytes read.
+	 * @throws IOException
+	 */
+	private int readFully(byte[] bytes, int offset, int length) throws IOException
+	{
+		int total = 0;
+		while (total < length)
+		{
+			int read = input.read(bytes, offset + total, length - total);
+			if (read < 0) break;
+			total += read;
+		}
+		return total;
+	}
+
+	/**
+	 * Decompresses a single BGZF block and validates its CRC.
+	 *
+	 * @param compressedBlock
+	 *            {@code byte[]} The complete block (including header and footer).
+	 * @return {@code byte[]} The decompressed data.
+	 * @throws IOException
+	 *             If the block is corrupt.
+	 */
+	static byte[] decompressBlock(byte[] compressedBlock) throws IOException
+	{
+		ByteBuffer footer = ByteBuffer.wrap(compressedBlock, compressedBlock.length - BLOCK_FOOTER_LENGTH,
+				BLOCK_FOOTER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		int expectedCrc = footer.getInt();
+		byte[] data = new byte[footer.getInt()];
+
+		Inflater inflater = INFLATERS.get();
+		inflater.reset();
+		inflater.setInput(compressedBlock, BLOCK_HEADER_LENGTH,
+				compressedBlock.length - BLOCK_HEADER_LENGTH - BLOCK_FOOTER_LENGTH);
+		try
+		{
+			int inflated = 0;
+			while (inflated < data.length)
+			{
+				int read = inflater.inflate(data, inflated, data.length - inflated);
+				if (read == 0 && (inflater.finished() || inflater.needsInput())) break;
+				inflated += read;
+			}
+			if (inflated != data.length)
+			{
+				throw new IOException("Corrupt BGZF block: decompressed size does not match.");
+			}
+		}
+		catch (DataFormatException e)
+		{
+			throw new IOException("Corrupt BGZF block.", e);
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		if ((int) crc.getValue() != expectedCrc)
+		{
+			throw new IOException("Corrupt BGZF block: CRC does not match.");
+		}
+		return data;
+	}
+
+	/**
+	 * Decompresses a single block on a thread of the {@link ExecutorService}.
+	 */
+	private static class BlockDecompressor implements Callable<byte[]>
+	{
+		private final byte[] compressedBlock;
+
+		BlockDecompressor(byte[] compressedBlock)
+		{
+			this.compressedBlock = compressedBlock;
+		}
+
+		@Override
+		public byte[] call() throws IOException
+		{
+			return decompressBlock(compressedBlock);
+		}
+	}
+}
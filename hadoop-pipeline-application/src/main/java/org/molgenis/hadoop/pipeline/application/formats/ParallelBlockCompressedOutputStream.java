@@ -0,0 +1,456 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.BGZF_ID1;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.BGZF_ID2;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.BGZF_LEN;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.GZIP_CM_DEFLATE;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.GZIP_FLG;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.GZIP_ID1;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.GZIP_ID2;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.GZIP_OS_UNKNOWN;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.GZIP_XFL;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.GZIP_XLEN;
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+
+/**
+ * {@link OutputStream} that writes BGZF compressed data (like {@link BlockCompressedOutputStream}), but which hands the
+ * filled blocks of {@value #UNCOMPRESSED_BLOCK_SIZE} bytes to an {@link ExecutorService} for compression. The
+ * compressed blocks are written in order on the thread that writes to this stream. The number of blocks that are
+ * compressed (or waiting for compression) at the same time is bounded, so that a writer that is faster than the
+ * compression threads is blocked instead of buffering all its data in memory.
+ *
+ * As the compressed size of a block is only known after it is compressed, {@link #getBlockPointer()} returns a pointer
+ * consisting of the block number and the offset within the uncompressed block (instead of a BGZF virtual file pointer).
+ * Such a pointer can be converted to a virtual file pointer using {@link #resolveFilePointer(long)} once the block has
+ * been written (which is always the case after {@link #close()}).
+ */
+public class ParallelBlockCompressedOutputStream extends OutputStream
+{
+	/**
+	 * The maximum size of the deflated data within a block.
+	 */
+	private static final int MAX_DEFLATED_SIZE = MAX_COMPRESSED_BLOCK_SIZE - BLOCK_HEADER_LENGTH
+			- BLOCK_FOOTER_LENGTH;
+
+	/**
+	 * The number of bytes deflate adds when storing data without compression (the header of a single stored block).
+	 */
+	private static final int STORED_BLOCK_OVERHEAD = 5;
+
+	/**
+	 * The size of the uncompressed blocks. Slightly smaller than
+	 * {@link htsjdk.samtools.util.BlockCompressedStreamConstants#DEFAULT_UNCOMPRESSED_BLOCK_SIZE}, so that a block
+	 * that does not compress (or is written with compression level 0) still fits within a BGZF block when stored.
+	 */
+	static final int UNCOMPRESSED_BLOCK_SIZE = MAX_DEFLATED_SIZE - STORED_BLOCK_OVERHEAD;
+
+	/**
+	 * {@link ExecutorService}{@code s} shared by all streams within the JVM (to prevent a task writing many files at
+	 * once from creating a thread pool per file), by their number of threads.
+	 */
+	private static final Map<Integer, ExecutorService> sharedExecutors = new HashMap<>();
+
+	/**
+	 * Each thread has its own {@link Deflater} (as they are expensive to create).
+	 */
+	private static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<Deflater>()
+	{
+		@Override
+		protected Deflater initialValue()
+		{
+			return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		}
+	};
+
+	/**
+	 * The {@link OutputStream} the compressed blocks are written to.
+	 */
+	private final OutputStream output;
+
+	/**
+	 * The deflate compression level (0-9).
+	 */
+	private final int compressionLevel;
+
+	/**
+	 * Compresses the blocks ({@code null} to compress them on the writing thread).
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * The maximum number of blocks that are queued for compression.
+	 */
+	private final int maxQueuedBlocks;
+
+	/**
+	 * The blocks that are queued for compression (in the order they should be written).
+	 */
+	private final Deque<Future<byte[]>> queuedBlocks = new ArrayDeque<>();
+
+	/**
+	 * The data of the block that is currently being filled.
+	 */
+	private byte[] uncompressedBlock = new byte[UNCOMPRESSED_BLOCK_SIZE];
+
+	/**
+	 * The number of bytes in {@link #uncompressedBlock}.
+	 */
+	private int uncompressedLength = 0;
+
+	/**
+	 * The number of the block that is currently being filled.
+	 */
+	private int blockNumber = 0;
+
+	/**
+	 * The position in the compressed output of each written block (for resolving virtual file pointers).
+	 */
+	private long[] blockAddresses = new long[1024];
+
+	/**
+	 * The number of blocks written to {@link #output}.
+	 */
+	private int writtenBlocks = 0;
+
+	/**
+	 * The number of compressed bytes written to {@link #output}.
+	 */
+	private long compressedBytesWritten = 0;
+
+	/**
+	 * Whether the stream has been closed.
+	 */
+	private boolean closed = false;
+
+	/**
+	 * Create a new {@link ParallelBlockCompressedOutputStream}.
+	 *
+	 * @param output
+	 *            {@link OutputStream} Is closed when the {@link ParallelBlockCompressedOutputStream} is closed.
+	 * @param compressionLevel
+	 *            {@code int} The deflate compression level (0-9).
+	 * @param executor
+	 *            {@link ExecutorService} To compress the blocks with ({@code null} to compress them on the writing
+	 *            thread).
+	 * @param maxQueuedBlocks
+	 *            {@code int} The maximum number of blocks that are queued for compression (ignored if {@code executor}
+	 *            is {@code null}).
+	 * @throws IllegalArgumentException
+	 *             If the compression level is invalid.
+	 */
+	public ParallelBlockCompressedOutputStream(OutputStream output, int compressionLevel, ExecutorService executor,
+			int maxQueuedBlocks) throws IllegalArgumentException
+	{
+		if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)
+		{
+			throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+		}
+		this.output = output;
+		this.compressionLevel = compressionLevel;
+		this.executor = executor;
+		this.maxQueuedBlocks = Math.max(1, maxQueuedBlocks);
+	}
+
+	/**
+	 * Returns an {@link ExecutorService} (with daemon threads) with the given number of threads. The pools are shared
+	 * JVM-wide: all streams requesting the same number of threads (for example multiple files written by a task, or
+	 * the tasks run one after the other by a reused JVM) share a single pool, so these compete for its threads.
+	 * Requesting a different number of threads creates a separate pool instead of returning the pool of another size.
+	 * The pools are never shut down (their daemon threads do not prevent the JVM from exiting).
+	 *
+	 * @param threads
+	 *            {@code int}
+	 * @return {@link ExecutorService}
+	 * @throws IllegalArgumentException
+	 *             If {@code threads} is lower than 1.
+	 */
+	public static synchronized ExecutorService getSharedExecutor(int threads) throws IllegalArgumentException
+	{
+		if (threads < 1) throw new IllegalArgumentException("Invalid number of threads: " + threads);
+		ExecutorService executor = sharedExecutors.get(threads);
+		if (executor == null)
+		{
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true)
+					.setNameFormat("bgzf-deflate-" + threads + "-%d").build());
+			sharedExecutors.put(threads, executor);
+		}
+		return executor;
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		uncompressedBlock[uncompressedLength++] = (byte) b;
+		if (uncompressedLength == uncompressedBlock.length) submitBlock();
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException
+	{
+		while (length > 0)
+		{
+			int copied = Math.min(length, uncompressedBlock.length - uncompressedLength);
+			System.arraycopy(bytes, offset, uncompressedBlock, uncompressedLength, copied);
+			uncompressedLength += copied;
+			offset += copied;
+			length -= copied;
+			// Like BlockCompressedOutputStream, a full block is compressed directly so that the pointer after the
+			// written data refers to the start of the next block.
+			if (uncompressedLength == uncompressedBlock.length) submitBlock();
+		}
+	}
+
+	/**
+	 * Returns a pointer to the current position in the stream, consisting of the block number (upper 48 bits) and the
+	 * offset within the uncompressed block (lower 16 bits).
+	 *
+	 * @return {@code long}
+	 * @see #resolveFilePointer(long)
+	 */
+	public long getBlockPointer()
+	{
+		return (long) blockNumber << 16 | uncompressedLength;
+	}
+
+	/**
+	 * Converts a pointer returned by {@link #getBlockPointer()} to a BGZF virtual file pointer.
+	 *
+	 * @param blockPointer
+	 *            {@code long}
+	 * @return {@code long}
+	 * @throws IllegalStateException
+	 *             If the block the pointer refers to has not been written yet.
+	 */
+	public long resolveFilePointer(long blockPointer) throws IllegalStateException
+	{
+		int block = (int) (blockPointer >>> 16);
+		long address;
+		if (block < writtenBlocks) address = blockAddresses[block];
+		// Pointers to the (empty) block after the last block refer to the end of the data.
+		else if (closed && block == writtenBlocks) address = compressedBytesWritten - EMPTY_GZIP_BLOCK.length;
+		else throw new IllegalStateException("Block " + block + " has not been written yet.");
+		return address << 16 | blockPointer & 0xFFFF;
+	}
+
+	/**
+	 * Compresses the current (incomplete) block and writes all queued blocks.
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		if (uncompressedLength > 0) submitBlock();
+		while (!queuedBlocks.isEmpty())
+		{
+			writeQueuedBlock();
+		}
+		output.flush();
+	}
+
+	/**
+	 * Writes all remaining data followed by the BGZF end-of-file terminator and closes the underlying
+	 * {@link OutputStream}.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (closed) return;
+		try
+		{
+			flush();
+			output.write(EMPTY_GZIP_BLOCK);
+			compressedBytesWritten += EMPTY_GZIP_BLOCK.length;
+			closed = true;
+		}
+		finally
+		{
+			for (Future<byte[]> queuedBlock : queuedBlocks)
+			{
+				queuedBlock.cancel(false);
+			}
+			output.close();
+		}
+	}
+
+	/**
+	 * Submits the current block for compression (or compresses it directly if no {@link ExecutorService} is used) and
+	 * starts a new block. If the maximum number of blocks is queued, first waits for the oldest block to be compressed
+	 * and writes it.
+	 *
+	 * @throws IOException
+	 */
+	private void submitBlock() throws IOException
+	{
+		if (executor == null)
+		{
+			writeBlock(compressBlock(uncompressedBlock, uncompressedLength, compressionLevel));
+		}
+		else
+		{
+			if (queuedBlocks.size() >= maxQueuedBlocks) writeQueuedBlock();
+			queuedBlocks.add(executor.submit(new BlockCompressor(uncompressedBlock, uncompressedLength,
+					compressionLevel)));
+			// The submitted array is now owned by the compressor.
+			uncompressedBlock = new byte[UNCOMPRESSED_BLOCK_SIZE];
+		}
+		uncompressedLength = 0;
+		blockNumber++;
+	}
+
+	/**
+	 * Waits for the oldest queued block to be compressed and writes it.
+	 *
+	 * @throws IOException
+	 */
+	private void writeQueuedBlock() throws IOException
+	{
+		try
+		{
+			writeBlock(queuedBlocks.peek().get());
+			queuedBlocks.remove();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a block to be compressed.");
+		}
+		catch (ExecutionException e)
+		{
+			throw new IOException("Compressing a block failed.", e.getCause());
+		}
+	}
+
+	/**
+	 * Writes a compressed block and stores its address.
+	 *
+	 * @param compressedBlock
+	 *            {@code byte[]}
+	 * @throws IOException
+	 */
+	private void writeBlock(byte[] compressedBlock) throws IOException
+	{
+		if (writtenBlocks == blockAddresses.length)
+		{
+			blockAddresses = Arrays.copyOf(blockAddresses, blockAddresses.length * 2);
+		}
+		blockAddresses[writtenBlocks++] = compressedBytesWritten;
+		output.write(compressedBlock);
+		compressedBytesWritten += compressedBlock.length;
+	}
+
+	/**
+	 * Compresses data into a single BGZF block (gzip member with the {@code BC} extra subfield). If the deflated data
+	 * does not fit within a block, the data is stored without compression instead.
+	 *
+	 * @param data
+	 *            {@code byte[]}
+	 * @param length
+	 *            {@code int}
+	 * @param compressionLevel
+	 *            {@code int}
+	 * @return {@code byte[]} The complete block.
+	 */
+	static byte[] compressBlock(byte[] data, int length, int compressionLevel)
+	{
+		byte[] deflated = new byte[MAX_DEFLATED_SIZE];
+		Deflater deflater = DEFLATERS.get();
+		int deflatedLength = deflate(deflater, compressionLevel, data, length, deflated);
+		if (deflatedLength < 0)
+		{
+			deflatedLength = deflate(deflater, Deflater.NO_COMPRESSION, data, length, deflated);
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+
+		int blockSize = BLOCK_HEADER_LENGTH + deflatedLength + BLOCK_FOOTER_LENGTH;
+		ByteBuffer block = ByteBuffer.allocate(blockSize).order(ByteOrder.LITTLE_ENDIAN);
+		block.put((byte) GZIP_ID1).put((byte) GZIP_ID2).put((byte) GZIP_CM_DEFLATE).put((byte) GZIP_FLG);
+		block.putInt(0); // modification time
+		block.put((byte) GZIP_XFL).put((byte) GZIP_OS_UNKNOWN);
+		block.putShort((short) GZIP_XLEN);
+		block.put(BGZF_ID1).put(BGZF_ID2).putShort(BGZF_LEN);
+		block.putShort((short) (blockSize - 1));
+		block.put(deflated, 0, deflatedLength);
+		block.putInt((int) crc.getValue());
+		block.putInt(length);
+		return block.array();
+	}
+
+	/**
+	 * Deflates the data using the given compression level.
+	 *
+	 * @param deflater
+	 *            {@link Deflater}
+	 * @param compressionLevel
+	 *            {@code int}
+	 * @param data
+	 *            {@code byte[]}
+	 * @param length
+	 *            {@code int}
+	 * @param deflated
+	 *            {@code byte[]}
+	 * @return {@code int} The length of the deflated data, or {@code -1} if it did not fit within {@code deflated}.
+	 */
+	private static int deflate(Deflater deflater, int compressionLevel, byte[] data, int length, byte[] deflated)
+	{
+		deflater.reset();
+		deflater.setLevel(compressionLevel);
+		deflater.setInput(data, 0, length);
+		deflater.finish();
+		// Multiple calls might be needed, as the first call after changing the level might return early.
+		int deflatedLength = 0;
+		while (!deflater.finished() && deflatedLength < deflated.length)
+		{
+			deflatedLength += deflater.deflate(deflated, deflatedLength, deflated.length - deflatedLength);
+		}
+		return deflater.finished() ? deflatedLength : -1;
+	}
+
+	/**
+	 * Compresses a single block on a thread of the {@link ExecutorService}.
+	 */
+	private static class BlockCompressor implements Callable<byte[]>
+	{
+		private final byte[] data;
+		private final int length;
+		private final int compressionLevel;
+
+		BlockCompressor(byte[] data, int length, int compressionLevel)
+		{
+			this.data = data;
+			this.length = length;
+			this.compressionLevel = compressionLevel;
+		}
+
+		@Override
+		public byte[] call()
+		{
+			return compressBlock(data, length, compressionLevel);
+		}
+	}
+}
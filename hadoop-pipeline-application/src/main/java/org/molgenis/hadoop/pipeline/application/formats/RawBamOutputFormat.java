@@ -0,0 +1,85 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.SamFileHeaderGenerator;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+
+import htsjdk.samtools.SAMFileHeader;
+
+/**
+ * {@link FileOutputFormat} similar to {@link BamOutputFormat}, but for already BAM-encoded
+ * {@link BamRecordBytesWritable} values which are written using a {@link RawBamRecordWriter}. The
+ * {@link SAMFileHeader} is generated using the {@link TaskAttemptContext} from
+ * {@link #getRecordWriter(TaskAttemptContext)}, so that the distributed cache can be used for generating it.
+ *
+ * @param <K>
+ * @see {@link BamOutputFormat}
+ */
+public class RawBamOutputFormat<K> extends FileOutputFormat<K, BamRecordBytesWritable>
+{
+	/**
+	 * Configuration property defining whether a BAM index ({@code .bam.bai}) is written next to each BAM file. Defaults
+	 * to {@code true}. Only used by {@link SortedRawBamOutputFormat}, as a BAM index can only be created for
+	 * coordinate-sorted output.
+	 */
+	public static final String BAM_INDEX_PROPERTY = "molgenis.hadoop.pipeline.output.bam.index";
+
+	/**
+	 * Configuration property defining the granularity of the Hadoop-BAM splitting index ({@code .bam.splitting-bai})
+	 * written next to each BAM file. Defaults to {@code 0} (no splitting index).
+	 */
+	public static final String SPLITTING_INDEX_GRANULARITY_PROPERTY = "molgenis.hadoop.pipeline.output.splitting.index.granularity";
+
+	/**
+	 * Configuration property defining the deflate compression level (0-9) of the BGZF blocks. Defaults to {@code 5}.
+	 */
+	public static final String BGZF_COMPRESSION_LEVEL_PROPERTY = "molgenis.hadoop.pipeline.output.bgzf.compression.level";
+
+	/**
+	 * Configuration property defining the number of threads used to compress the BGZF blocks (shared by all files
+	 * written by a task). Defaults to the number of virtual cores of the task container
+	 * ({@code mapreduce.map.cpu.vcores} for map tasks and {@code mapreduce.reduce.cpu.vcores} for reduce tasks).
+	 */
+	public static final String BGZF_THREADS_PROPERTY = "molgenis.hadoop.pipeline.output.bgzf.threads";
+
+	/**
+	 * The extension appended to the BAM file name for the BAM index.
+	 */
+	static final String BAM_INDEX_EXTENSION = ".bai";
+
+	/**
+	 * The extension appended to the BAM file name for the splitting index.
+	 */
+	static final String SPLITTING_INDEX_EXTENSION = ".splitting-bai";
+
+	/**
+	 * Returns the number of threads used by a task to compress the BGZF blocks (see {@link #BGZF_THREADS_PROPERTY}).
+	 *
+	 * @param ctx
+	 *            {@link TaskAttemptContext}
+	 * @return {@code int}
+	 */
+	public static int getCompressionThreads(TaskAttemptContext ctx)
+	{
+		Configuration conf = ctx.getConfiguration();
+		int vcores = ctx.getTaskAttemptID().getTaskType() == TaskType.MAP
+				? conf.getInt(MRJobConfig.MAP_CPU_VCORES, MRJobConfig.DEFAULT_MAP_CPU_VCORES)
+				: conf.getInt(MRJobConfig.REDUCE_CPU_VCORES, MRJobConfig.DEFAULT_REDUCE_CPU_VCORES);
+		return Math.max(1, conf.getInt(BGZF_THREADS_PROPERTY, vcores));
+	}
+
+	@Override
+	public RecordWriter<K, BamRecordBytesWritable> getRecordWriter(TaskAttemptContext ctx) throws IOException
+	{
+		// As the records are not sorted, no BAM index can be created.
+		return new RawBamRecordWriter<K>(getDefaultWorkFile(ctx, ".bam"),
+				SamFileHeaderGenerator.retrieveSamFileHeader(ctx), false, ctx);
+	}
+}
@@ -0,0 +1,220 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+import org.seqdoop.hadoop_bam.util.WrapSeekable;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMTextHeaderCodec;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.StringLineReader;
+
+/**
+ * Sequentially reads the records of a BAM file without decoding them (the counterpart of {@link RawBamRecordWriter}).
+ */
+public class RawBamRecordReader implements Closeable
+{
+	/**
+	 * The BAM file.
+	 */
+	private final BlockCompressedInputStream input;
+
+	/**
+	 * The header of the BAM file.
+	 */
+	private final SAMFileHeader header;
+
+	/**
+	 * Buffer for the record that is being read.
+	 */
+	private byte[] buffer = new byte[1024];
+
+	/**
+	 * Create a new {@link RawBamRecordReader} and reads the header of the BAM file.
+	 *
+	 * @param bamFile
+	 *            {@link Path}
+	 * @param conf
+	 *            {@link Configuration}
+	 * @throws IOException
+	 */
+	public RawBamRecordReader(Path bamFile, Configuration conf) throws IOException
+	{
+		FileSystem fileSys = bamFile.getFileSystem(conf);
+		input = new BlockCompressedInputStream(WrapSeekable.openPath(fileSys, bamFile));
+		header = readHeader(bamFile.toString());
+	}
+
+	/**
+	 * Returns the header of the BAM file.
+	 *
+	 * @return {@link SAMFileHeader}
+	 */
+	public SAMFileHeader getFileHeader()
+	{
+		return header;
+	}
+
+	/**
+	 * Returns the BGZF virtual file pointer of the current position (directly after creating the
+	 * {@link RawBamRecordReader}, this is the position of the first record).
+	 *
+	 * @return {@code long}
+	 */
+	public long getFilePointer()
+	{
+		return input.getFilePointer();
+	}
+
+	/**
+	 * Moves to a position within the BAM file, so that {@link #next(BamRecordBytesWritable)} continues with the record
+	 * starting at that position.
+	 *
+	 * @param filePointer
+	 *            {@code long} A BGZF virtual file pointer to the start of a record (such as returned by
+	 *            {@link #getFilePointer()}).
+	 * @throws IOException
+	 */
+	public void seek(long filePointer) throws IOException
+	{
+		input.seek(filePointer);
+	}
+
+	/**
+	 * Reads the next record.
+	 *
+	 * @param record
+	 *            {@link BamRecordBytesWritable} To store the record bytes in.
+	 * @return {@code boolean} {@code false} if the end of the BAM file was reached.
+	 * @throws IOException
+	 */
+	public boolean next(BamRecordBytesWritable record) throws IOException
+	{
+		int read = input.read(buffer, 0, 4);
+		if (read < 0)
+		{
+			return false;
+		}
+		readFully(buffer, read, 4 - read);
+
+		int length = 4 + toInt(buffer, 0);
+		if (buffer.length < length)
+		{
+			buffer = Arrays.copyOf(buffer, Math.max(length, buffer.length * 2));
+		}
+		readFully(buffer, 4, length - 4);
+		record.set(buffer, 0, length);
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		input.close();
+	}
+
+	/**
+	 * Reads the BAM header (magic, header text and reference sequences). The header text is used to create the
+	 * {@link SAMFileHeader}, as the {@link RawBamRecordWriter} also writes the reference sequences to it.
+	 *
+	 * @param source
+	 *            {@link String}
+	 * @return {@link SAMFileHeader}
+	 * @throws IOException
+	 */
+	private SAMFileHeader readHeader(String source) throws IOException
+	{
+		byte[] bytes = new byte[4];
+		readFully(bytes, 0, 4);
+		if (!new String(bytes, StandardCharsets.US_ASCII).equals("BAM\001"))
+		{
+			throw new IOException("Not a BAM file: " + source);
+		}
+
+		String headerText = new String(readBytes(readInt()), StandardCharsets.UTF_8);
+
+		// Skips the reference sequences (name and length).
+		int referenceCount = readInt();
+		for (int i = 0; i < referenceCount; i++)
+		{
+			readBytes(readInt() + 4);
+		}
+
+		return new SAMTextHeaderCodec().decode(new StringLineReader(headerText), source);
+	}
+
+	/**
+	 * Reads a little-endian {@code int} from the BAM file.
+	 *
+	 * @return {@code int}
+	 * @throws IOException
+	 */
+	private int readInt() throws IOException
+	{
+		return toInt(readBytes(4), 0);
+	}
+
+	/**
+	 * Reads a number of bytes from the BAM file into a new array.
+	 *
+	 * @param length
+	 *            {@code int}
+	 * @return {@code byte[]}
+	 * @throws IOException
+	 */
+	private byte[] readBytes(int length) throws IOException
+	{
+		byte[] bytes = new byte[length];
+		readFully(bytes, 0, length);
+		return bytes;
+	}
+
+	/**
+	 * Reads {@code length} bytes from the BAM file into the array.
+	 *
+	 * @param bytes
+	 *            {@code byte[]}
+	 * @param offset
+	 *            {@code int}
+	 * @param length
+	 *            {@code int}
+	 * @throws IOException
+	 */
+	private void readFully(byte[] bytes, int offset, int length) throws IOException
+	{
+		while (length > 0)
+		{
+			int read = input.read(bytes, offset, length);
+			if (read < 0)
+			{
+				throw new EOFException("Unexpected end of BAM file.");
+			}
+			offset += read;
+			length -= read;
+		}
+	}
+
+	/**
+	 * Converts 4 little-endian bytes to an {@code int}.
+	 *
+	 * @param bytes
+	 *            {@code byte[]}
+	 * @param offset
+	 *            {@code int}
+	 * @return {@code int}
+	 */
+	private static int toInt(byte[] bytes, int offset)
+	{
+		return ByteBuffer.wrap(bytes, offset, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+	}
+}
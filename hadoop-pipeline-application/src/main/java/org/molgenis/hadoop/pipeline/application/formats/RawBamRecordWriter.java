@@ -0,0 +1,330 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+import org.seqdoop.hadoop_bam.KeyIgnoringBAMRecordWriter;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SAMTextHeaderCodec;
+import htsjdk.samtools.util.BinaryCodec;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+/**
+ * {@link RecordWriter} that writes a BAM file containing the given {@link SAMFileHeader} followed by the
+ * {@link BamRecordBytesWritable} values. As the values are already BAM-encoded, their bytes are copied into the BGZF
+ * stream as-is (unlike {@link KeyIgnoringBAMRecordWriter}, which encodes each {@link htsjdk.samtools.SAMRecord}). The
+ * key is ignored.
+ *
+ * The BGZF blocks are compressed by a {@link ParallelBlockCompressedOutputStream}, so that multiple threads can be used
+ * for compression. Optionally, a BAM index ({@code .bai}, see {@link BamIndexBuilder}) and/or a Hadoop-BAM splitting
+ * index ({@code .splitting-bai}) are generated while writing the records, which are written when the
+ * {@link RecordWriter} is closed.
+ *
+ * @param <K>
+ */
+public class RawBamRecordWriter<K> extends RecordWriter<K, BamRecordBytesWritable>
+{
+	/**
+	 * Counts the bytes written to the BAM file (needed for the splitting index).
+	 */
+	private final CountingOutputStream countingOutput;
+
+	/**
+	 * The BGZF compressed stream the BAM data is written to.
+	 */
+	private final ParallelBlockCompressedOutputStream compressedOutput;
+
+	/**
+	 * Builds the BAM index ({@code null} if no BAM index should be written).
+	 */
+	private final BamIndexBuilder indexBuilder;
+
+	/**
+	 * The stream the BAM index is written to ({@code null} if no BAM index should be written).
+	 */
+	private final OutputStream indexOutput;
+
+	/**
+	 * The stream the splitting index is written to ({@code null} if no splitting index should be written).
+	 */
+	private final OutputStream splittingIndexOutput;
+
+	/**
+	 * Every n-th record is stored in the splitting index.
+	 */
+	private final int splittingIndexGranularity;
+
+	/**
+	 * The block pointers (see {@link ParallelBlockCompressedOutputStream#getBlockPointer()}) of the records stored in
+	 * the splitting index (resolved and written when closing, as the block addresses are not known yet while writing).
+	 */
+	private long[] splittingIndexPointers = new long[64];
+
+	/**
+	 * The number of values in {@link #splittingIndexPointers}.
+	 */
+	private int splittingIndexSize = 0;
+
+	/**
+	 * The number of records written.
+	 */
+	private long recordsWritten = 0;
+
+	/**
+	 * Create a new {@link RawBamRecordWriter} and writes the BAM header to the output file. Whether a splitting index
+	 * ({@code <output>.splitting-bai}) is written is defined by
+	 * {@link RawBamOutputFormat#SPLITTING_INDEX_GRANULARITY_PROPERTY}. The compression level and number of compression
+	 * threads are defined by {@link RawBamOutputFormat#BGZF_COMPRESSION_LEVEL_PROPERTY} and
+	 * {@link RawBamOutputFormat#BGZF_THREADS_PROPERTY}.
+	 *
+	 * @param output
+	 *            {@link Path} The BAM file to create.
+	 * @param header
+	 *            {@link SAMFileHeader}
+	 * @param createBamIndex
+	 *            {@code boolean} Whether a BAM index ({@code <output>.bai}) should be written (only possible if the
+	 *            records are written in coordinate order).
+	 * @param ctx
+	 *            {@link TaskAttemptContext}
+	 * @throws IOException
+	 */
+	public RawBamRecordWriter(Path output, SAMFileHeader header, boolean createBamIndex, TaskAttemptContext ctx)
+			throws IOException
+	{
+		this(output, header, createBamIndex, ctx.getConfiguration(), output.getFileSystem(ctx.getConfiguration()),
+				RawBamOutputFormat.getCompressionThreads(ctx));
+	}
+
+	/**
+	 * Create a new {@link RawBamRecordWriter} outside of a task (for example when merging BAM files afterwards). As
+	 * there are no task resources to derive it from, the number of compression threads is given explicitly.
+	 *
+	 * @param output
+	 *            {@link Path} The BAM file to create.
+	 * @param header
+	 *            {@link SAMFileHeader}
+	 * @param createBamIndex
+	 *            {@code boolean} Whether a BAM index ({@code <output>.bai}) should be written.
+	 * @param conf
+	 *            {@link Configuration}
+	 * @param compressionThreads
+	 *            {@code int} The number of threads used for compression (if 1, compression is done on the writing
+	 *            thread).
+	 * @throws IOException
+	 * @see #RawBamRecordWriter(Path, SAMFileHeader, boolean, TaskAttemptContext)
+	 */
+	public RawBamRecordWriter(Path output, SAMFileHeader header, boolean createBamIndex, Configuration conf,
+			int compressionThreads) throws IOException
+	{
+		this(output, header, createBamIndex, conf, output.getFileSystem(conf), compressionThreads);
+	}
+
+	/**
+	 * Delegating constructor for {@link #RawBamRecordWriter(Path, SAMFileHeader, boolean, TaskAttemptContext)}.
+	 *
+	 * @param output
+	 *            {@link Path}
+	 * @param header
+	 *            {@link SAMFileHeader}
+	 * @param createBamIndex
+	 *            {@code boolean}
+	 * @param conf
+	 *            {@link Configuration}
+	 * @param fileSys
+	 *            {@link FileSystem}
+	 * @param compressionThreads
+	 *            {@code int}
+	 * @throws IOException
+	 */
+	private RawBamRecordWriter(Path output, SAMFileHeader header, boolean createBamIndex, Configuration conf,
+			FileSystem fileSys, int compressionThreads) throws IOException
+	{
+		this(fileSys.create(output), header,
+				createBamIndex ? fileSys.create(output.suffix(RawBamOutputFormat.BAM_INDEX_EXTENSION)) : null,
+				conf.getInt(RawBamOutputFormat.SPLITTING_INDEX_GRANULARITY_PROPERTY, 0) > 0
+						? fileSys.create(output.suffix(RawBamOutputFormat.SPLITTING_INDEX_EXTENSION)) : null,
+				conf.getInt(RawBamOutputFormat.SPLITTING_INDEX_GRANULARITY_PROPERTY, 0),
+				conf.getInt(RawBamOutputFormat.BGZF_COMPRESSION_LEVEL_PROPERTY,
+						BlockCompressedStreamConstants.DEFAULT_COMPRESSION_LEVEL),
+				compressionThreads);
+	}
+
+	/**
+	 * Create a new {@link RawBamRecordWriter} without indices (which compresses on the writing thread) and writes the
+	 * BAM header to the {@link OutputStream}.
+	 *
+	 * @param output
+	 *            {@link OutputStream} Is closed when the {@link RawBamRecordWriter} is closed.
+	 * @param header
+	 *            {@link SAMFileHeader}
+	 */
+	public RawBamRecordWriter(OutputStream output, SAMFileHeader header)
+	{
+		this(output, header, null, null, 0, BlockCompressedStreamConstants.DEFAULT_COMPRESSION_LEVEL, 1);
+	}
+
+	/**
+	 * Create a new {@link RawBamRecordWriter} and writes the BAM header to the {@link OutputStream}.
+	 *
+	 * @param output
+	 *            {@link OutputStream} Is closed when the {@link RawBamRecordWriter} is closed.
+	 * @param header
+	 *            {@link SAMFileHeader}
+	 * @param indexOutput
+	 *            {@link OutputStream} To write the BAM index to (or {@code null} for no BAM index). Is closed when the
+	 *            {@link RawBamRecordWriter} is closed.
+	 * @param splittingIndexOutput
+	 *            {@link OutputStream} To write the splitting index to (or {@code null} for no splitting index). Is
+	 *            closed when the {@link RawBamRecordWriter} is closed.
+	 * @param splittingIndexGranularity
+	 *            {@code int} Every n-th record is stored in the splitting index.
+	 * @param compressionLevel
+	 *            {@code int} The deflate compression level (0-9).
+	 * @param compressionThreads
+	 *            {@code int} The number of threads used for compression (if 1, compression is done on the writing
+	 *            thread).
+	 */
+	public RawBamRecordWriter(OutputStream output, SAMFileHeader header, OutputStream indexOutput,
+			OutputStream splittingIndexOutput, int splittingIndexGranularity, int compressionLevel,
+			int compressionThreads)
+	{
+		countingOutput = new CountingOutputStream(output);
+		ExecutorService executor = compressionThreads > 1
+				? ParallelBlockCompressedOutputStream.getSharedExecutor(compressionThreads) : null;
+		// Two blocks per thread keeps all threads busy while the writing thread fills the next block.
+		compressedOutput = new ParallelBlockCompressedOutputStream(countingOutput, compressionLevel, executor,
+				compressionThreads * 2);
+		this.indexOutput = indexOutput;
+		indexBuilder = indexOutput == null ? null
+				: new BamIndexBuilder(header.getSequenceDictionary().size());
+		this.splittingIndexOutput = splittingIndexOutput;
+		this.splittingIndexGranularity = splittingIndexGranularity;
+		writeHeader(compressedOutput, header);
+	}
+
+	/**
+	 * Writes the BAM header (magic, header text and reference sequences).
+	 *
+	 * @param output
+	 *            {@link OutputStream} The (BGZF) stream to write the header to.
+	 * @param header
+	 *            {@link SAMFileHeader}
+	 */
+	static void writeHeader(OutputStream output, SAMFileHeader header)
+	{
+		BinaryCodec binaryCodec = new BinaryCodec(output);
+		binaryCodec.writeBytes("BAM\001".getBytes());
+
+		StringWriter headerText = new StringWriter();
+		new SAMTextHeaderCodec().encode(headerText, header);
+		binaryCodec.writeString(headerText.toString(), true, false);
+
+		binaryCodec.writeInt(header.getSequenceDictionary().size());
+		for (SAMSequenceRecord sequence : header.getSequenceDictionary().getSequences())
+		{
+			binaryCodec.writeString(sequence.getSequenceName(), true, true);
+			binaryCodec.writeInt(sequence.getSequenceLength());
+		}
+	}
+
+	@Override
+	public void write(K key, BamRecordBytesWritable value) throws IOException
+	{
+		long startPointer = compressedOutput.getBlockPointer();
+		if (splittingIndexOutput != null && recordsWritten % splittingIndexGranularity == 0)
+		{
+			if (splittingIndexSize == splittingIndexPointers.length)
+			{
+				splittingIndexPointers = Arrays.copyOf(splittingIndexPointers, splittingIndexSize * 2);
+			}
+			splittingIndexPointers[splittingIndexSize++] = startPointer;
+		}
+
+		compressedOutput.write(value.getBytes(), 0, value.getLength());
+		recordsWritten++;
+
+		if (indexBuilder != null)
+		{
+			indexBuilder.processRecord(value, startPointer, compressedOutput.getBlockPointer());
+		}
+	}
+
+	/**
+	 * Closes the BGZF stream (which also writes the BGZF end-of-file terminator) and writes the indices.
+	 */
+	@Override
+	public void close(TaskAttemptContext context) throws IOException
+	{
+		compressedOutput.close();
+
+		if (indexBuilder != null)
+		{
+			indexBuilder.write(indexOutput, compressedOutput);
+			indexOutput.close();
+		}
+
+		// The splitting index ends with the virtual offset of the end of the file.
+		if (splittingIndexOutput != null)
+		{
+			for (int i = 0; i < splittingIndexSize; i++)
+			{
+				writeVirtualOffset(splittingIndexOutput, compressedOutput.resolveFilePointer(splittingIndexPointers[i]));
+			}
+			writeVirtualOffset(splittingIndexOutput, countingOutput.getByteCount() << 16);
+			splittingIndexOutput.close();
+		}
+	}
+
+	/**
+	 * Returns the block pointer of the current position in the BAM file (see
+	 * {@link ParallelBlockCompressedOutputStream#getBlockPointer()}).
+	 *
+	 * @return {@code long}
+	 */
+	protected long getBlockPointer()
+	{
+		return compressedOutput.getBlockPointer();
+	}
+
+	/**
+	 * Converts a block pointer to a BGZF virtual file pointer (see
+	 * {@link ParallelBlockCompressedOutputStream#resolveFilePointer(long)}). Only possible for all pointers after the
+	 * {@link RawBamRecordWriter} is closed.
+	 *
+	 * @param blockPointer
+	 *            {@code long}
+	 * @return {@code long}
+	 */
+	protected long resolveFilePointer(long blockPointer)
+	{
+		return compressedOutput.resolveFilePointer(blockPointer);
+	}
+
+	/**
+	 * Writes a virtual offset to the splitting index (as a big-endian {@code long}, like Hadoop-BAM's
+	 * {@code SplittingBAMIndexer}).
+	 *
+	 * @param output
+	 *            {@link OutputStream}
+	 * @param virtualOffset
+	 *            {@code long}
+	 * @throws IOException
+	 */
+	private static void writeVirtualOffset(OutputStream output, long virtualOffset) throws IOException
+	{
+		output.write(ByteBuffer.allocate(8).putLong(virtualOffset).array());
+	}
+}
@@ -0,0 +1,432 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.log4j.Logger;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import htsjdk.samtools.SAMFileHeader;
+
+/**
+ * Merges the coordinate sorted per-region BAM parts written by the mappers of a map-only job (
+ * {@code <region>-m-<mapper number>.bam}, see
+ * {@link org.molgenis.hadoop.pipeline.application.mapreduce.HadoopPipelineMapper#MAP_ONLY_PROPERTY}) into a single
+ * coordinate sorted BAM file per region ({@code <region>.bam}). As each part is already sorted, this only requires a
+ * k-way merge of the raw record bytes. A region with a single part is simply renamed, and the parts of a region that
+ * follow each other in coordinate order (without interleaving records) are concatenated by copying their BGZF blocks
+ * (see {@link BgzfBamConcatenator}). The regions are merged in parallel by a bounded number of threads
+ * ({@link #THREADS_PROPERTY}), each compressing the BGZF blocks of the region it merges.
+ */
+public class RegionBamPartsMerger
+{
+	/**
+	 * Logger to write information to.
+	 */
+	private static final Logger logger = Logger.getLogger(RegionBamPartsMerger.class);
+
+	/**
+	 * Configuration property defining whether the per-region BAM parts are merged after a map-only job. Defaults to
+	 * {@code true}.
+	 */
+	public static final String MERGE_PROPERTY = "molgenis.hadoop.pipeline.map.only.merge";
+
+	/**
+	 * Configuration property defining the number of regions that are merged at the same time. Defaults to the number of
+	 * available processors.
+	 */
+	public static final String THREADS_PROPERTY = "molgenis.hadoop.pipeline.map.only.merge.threads";
+
+	/**
+	 * Matches the file name of a BAM part written by a mapper (the first group being the region name).
+	 */
+	private static final Pattern PART_PATTERN = Pattern.compile("^(.+)-m-\\d+\\.bam$");
+
+	/**
+	 * The index files that can be written next to a BAM file.
+	 */
+	private static final String[] INDEX_EXTENSIONS = { RawBamOutputFormat.BAM_INDEX_EXTENSION,
+			RawBamOutputFormat.SPLITTING_INDEX_EXTENSION };
+
+	/**
+	 * Orders the part readers on the coordinates of their current record (see
+	 * {@link BamRecordBytesWritable#COORDINATE_COMPARATOR}).
+	 */
+	private static final Comparator<PartReader> COORDINATE_COMPARATOR = new Comparator<PartReader>()
+	{
+		@Override
+		public int compare(PartReader o1, PartReader o2)
+		{
+			return BamRecordBytesWritable.COORDINATE_COMPARATOR.compare(o1.record, o2.record);
+		}
+	};
+
+	/**
+	 * The configuration used for accessing the files and writing the merged BAM files.
+	 */
+	private final Configuration conf;
+
+	/**
+	 * Create a new {@link RegionBamPartsMerger}.
+	 *
+	 * @param conf
+	 *            {@link Configuration}
+	 */
+	public RegionBamPartsMerger(Configuration conf)
+	{
+		this.conf = requireNonNull(conf);
+	}
+
+	/**
+	 * Merges all BAM parts within a directory per region. The parts (and their index files) are removed afterwards.
+	 *
+	 * @param outputDir
+	 *            {@link Path}
+	 * @return {@code int} The number of regions.
+	 * @throws IOException
+	 */
+	public int merge(Path outputDir) throws IOException
+	{
+		final FileSystem fileSys = outputDir.getFileSystem(conf);
+
+		// Groups the parts per region.
+		Map<String, List<Path>> regionParts = new TreeMap<>();
+		for (FileStatus status : fileSys.listStatus(outputDir))
+		{
+			Matcher matcher = PART_PATTERN.matcher(status.getPath().getName());
+			if (status.isFile() && matcher.matches())
+			{
+				List<Path> parts = regionParts.get(matcher.group(1));
+				if (parts == null)
+				{
+					parts = new ArrayList<>();
+					regionParts.put(matcher.group(1), parts);
+				}
+				parts.add(status.getPath());
+			}
+		}
+
+		int threads = Math.max(1, conf.getInt(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+		ExecutorService executor = Executors.newFixedThreadPool(threads,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("region-merge-%d").build());
+		try
+		{
+			List<Future<Void>> merges = new ArrayList<>();
+			for (final Map.Entry<String, List<Path>> region : regionParts.entrySet())
+			{
+				final Path output = new Path(outputDir, region.getKey() + ".bam");
+				merges.add(executor.submit(new Callable<Void>()
+				{
+					@Override
+					public Void call() throws IOException
+					{
+						mergeRegion(fileSys, region.getValue(), output);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> merge : merges)
+			{
+				awaitMerge(merge);
+			}
+		}
+		finally
+		{
+			// Stops the remaining merges if one of them failed.
+			executor.shutdownNow();
+		}
+		logger.info("Merged the BAM parts of " + regionParts.size() + " regions using " + threads + " threads.");
+		return regionParts.size();
+	}
+
+	/**
+	 * Merges the BAM parts of a single region, after which the parts are removed.
+	 *
+	 * @param fileSys
+	 *            {@link FileSystem}
+	 * @param parts
+	 *            {@link List}{@code <}{@link Path}{@code >}
+	 * @param output
+	 *            {@link Path}
+	 * @throws IOException
+	 */
+	private void mergeRegion(FileSystem fileSys, List<Path> parts, Path output) throws IOException
+	{
+		if (parts.size() == 1)
+		{
+			rename(fileSys, parts.get(0), output);
+			return;
+		}
+		if (!concatenate(parts, output))
+		{
+			merge(parts, output);
+		}
+		for (Path part : parts)
+		{
+			delete(fileSys, part);
+		}
+	}
+
+	/**
+	 * Waits for the merge of a region to finish.
+	 *
+	 * @param merge
+	 *            {@link Future}{@code <}{@link Void}{@code >}
+	 * @throws IOException
+	 *             If the merge failed.
+	 */
+	private static void awaitMerge(Future<Void> merge) throws IOException
+	{
+		try
+		{
+			merge.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the BAM parts to be merged.");
+		}
+		catch (ExecutionException e)
+		{
+			throw new IOException("Merging the BAM parts of a region failed.", e.getCause());
+		}
+	}
+
+	/**
+	 * Merges coordinate sorted BAM files into a single coordinate sorted BAM file. The header of the first BAM file is
+	 * used. The BGZF blocks are compressed on the calling thread, as multiple regions are merged in parallel.
+	 *
+	 * @param parts
+	 *            {@link List}{@code <}{@link Path}{@code >}
+	 * @param output
+	 *            {@link Path}
+	 * @throws IOException
+	 */
+	void merge(List<Path> parts, Path output) throws IOException
+	{
+		List<PartReader> readers = new ArrayList<>();
+		try
+		{
+			PriorityQueue<PartReader> queue = new PriorityQueue<>(parts.size(), COORDINATE_COMPARATOR);
+			for (Path part : parts)
+			{
+				PartReader reader = new PartReader(part, new RawBamRecordReader(part, conf));
+				readers.add(reader);
+				if (reader.advance()) queue.add(reader);
+			}
+
+			RawBamRecordWriter<NullWritable> writer = new RawBamRecordWriter<>(output,
+					readers.get(0).reader.getFileHeader(),
+					conf.getBoolean(RawBamOutputFormat.BAM_INDEX_PROPERTY, true), conf, 1);
+			try
+			{
+				while (!queue.isEmpty())
+				{
+					PartReader reader = queue.poll();
+					writer.write(NullWritable.get(), reader.record);
+					if (reader.advance()) queue.add(reader);
+				}
+			}
+			finally
+			{
+				writer.close(null);
+			}
+		}
+		finally
+		{
+			for (PartReader reader : readers)
+			{
+				reader.reader.close();
+			}
+		}
+	}
+
+	/**
+	 * Concatenates coordinate sorted BAM files by copying their BGZF blocks if their records follow each other in
+	 * coordinate order (when ordered on their first record), so that no records need to be recompressed. Only the BAM
+	 * index (if enabled) is created afterwards, by reading the concatenated BAM file.
+	 *
+	 * @param parts
+	 *            {@link List}{@code <}{@link Path}{@code >}
+	 * @param output
+	 *            {@link Path}
+	 * @return {@code boolean} {@code false} if the BAM files could not be concatenated (as their records interleave or
+	 *         a splitting index should be written), in which case nothing is written.
+	 * @throws IOException
+	 */
+	boolean concatenate(List<Path> parts, Path output) throws IOException
+	{
+		if (conf.getInt(RawBamOutputFormat.SPLITTING_INDEX_GRANULARITY_PROPERTY, 0) > 0) return false;
+
+		List<Path> orderedParts = new ArrayList<>();
+		SAMFileHeader header;
+		List<PartReader> readers = new ArrayList<>();
+		try
+		{
+			for (Path part : parts)
+			{
+				PartReader reader = new PartReader(part, new RawBamRecordReader(part, conf));
+				readers.add(reader);
+			}
+			header = readers.get(0).reader.getFileHeader();
+
+			// Parts without records are left out.
+			List<PartReader> nonEmptyReaders = new ArrayList<>();
+			for (PartReader reader : readers)
+			{
+				if (reader.advance()) nonEmptyReaders.add(reader);
+			}
+			Collections.sort(nonEmptyReaders, COORDINATE_COMPARATOR);
+
+			// Each part should end before (or at the position of) the first record of the next part. Checking this
+			// stops at the first record that does not, which is usually one of the first records of the parts.
+			for (int i = 0; i < nonEmptyReaders.size() - 1; i++)
+			{
+				PartReader reader = nonEmptyReaders.get(i);
+				while (reader.advance())
+				{
+					if (COORDINATE_COMPARATOR.compare(reader, nonEmptyReaders.get(i + 1)) > 0) return false;
+				}
+			}
+			for (PartReader reader : nonEmptyReaders)
+			{
+				orderedParts.add(reader.path);
+			}
+		}
+		finally
+		{
+			for (PartReader reader : readers)
+			{
+				reader.reader.close();
+			}
+		}
+
+		new BgzfBamConcatenator(conf).concatenate(orderedParts, header, output);
+		if (conf.getBoolean(RawBamOutputFormat.BAM_INDEX_PROPERTY, true))
+		{
+			writeBamIndex(output, header);
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the BAM index of a coordinate sorted BAM file.
+	 *
+	 * @param bamFile
+	 *            {@link Path}
+	 * @param header
+	 *            {@link SAMFileHeader}
+	 * @throws IOException
+	 */
+	private void writeBamIndex(Path bamFile, SAMFileHeader header) throws IOException
+	{
+		BamIndexBuilder indexBuilder = new BamIndexBuilder(header.getSequenceDictionary().size());
+		try (RawBamRecordReader reader = new RawBamRecordReader(bamFile, conf))
+		{
+			BamRecordBytesWritable record = new BamRecordBytesWritable();
+			long startPointer = reader.getFilePointer();
+			while (reader.next(record))
+			{
+				long endPointer = reader.getFilePointer();
+				indexBuilder.processRecord(record, startPointer, endPointer);
+				startPointer = endPointer;
+			}
+		}
+
+		Path indexFile = bamFile.suffix(RawBamOutputFormat.BAM_INDEX_EXTENSION);
+		try (OutputStream indexOutput = new BufferedOutputStream(indexFile.getFileSystem(conf).create(indexFile)))
+		{
+			indexBuilder.write(indexOutput);
+		}
+	}
+
+	/**
+	 * Renames a BAM file together with its index files.
+	 *
+	 * @param fileSys
+	 *            {@link FileSystem}
+	 * @param source
+	 *            {@link Path}
+	 * @param target
+	 *            {@link Path}
+	 * @throws IOException
+	 */
+	private void rename(FileSystem fileSys, Path source, Path target) throws IOException
+	{
+		if (!fileSys.rename(source, target))
+		{
+			throw new IOException("Could not rename " + source + " to " + target);
+		}
+		for (String extension : INDEX_EXTENSIONS)
+		{
+			if (fileSys.exists(source.suffix(extension)))
+			{
+				fileSys.rename(source.suffix(extension), target.suffix(extension));
+			}
+		}
+	}
+
+	/**
+	 * Deletes a BAM file together with its index files.
+	 *
+	 * @param fileSys
+	 *            {@link FileSystem}
+	 * @param bamFile
+	 *            {@link Path}
+	 * @throws IOException
+	 */
+	private void delete(FileSystem fileSys, Path bamFile) throws IOException
+	{
+		fileSys.delete(bamFile, false);
+		for (String extension : INDEX_EXTENSIONS)
+		{
+			fileSys.delete(bamFile.suffix(extension), false);
+		}
+	}
+
+	/**
+	 * A {@link RawBamRecordReader} with its current record.
+	 */
+	private static class PartReader
+	{
+		private final Path path;
+		private final RawBamRecordReader reader;
+		private final BamRecordBytesWritable record = new BamRecordBytesWritable();
+
+		PartReader(Path path, RawBamRecordReader reader)
+		{
+			this.path = path;
+			this.reader = reader;
+		}
+
+		boolean advance() throws IOException
+		{
+			return reader.next(record);
+		}
+	}
+}
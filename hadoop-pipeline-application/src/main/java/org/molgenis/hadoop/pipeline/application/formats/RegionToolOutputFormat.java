@@ -0,0 +1,39 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+/**
+ * Custom {@link TextOutputFormat} for the lines written by the tool the records of each region are streamed into (see
+ * {@link org.molgenis.hadoop.pipeline.application.processes.RegionToolRunner}). Each file gets the extension defined by
+ * {@link #EXTENSION_PROPERTY}.
+ */
+public class RegionToolOutputFormat extends TextOutputFormat<NullWritable, Text>
+{
+	/**
+	 * Configuration property defining the extension (without dot) of the tool output files. Defaults to
+	 * {@link #DEFAULT_EXTENSION}.
+	 */
+	public static final String EXTENSION_PROPERTY = "molgenis.hadoop.pipeline.region.tool.output.extension";
+
+	/**
+	 * The default extension of the tool output files.
+	 */
+	public static final String DEFAULT_EXTENSION = "vcf";
+
+	@Override
+	public RecordWriter<NullWritable, Text> getRecordWriter(TaskAttemptContext ctx) throws IOException
+	{
+		Path file = getDefaultWorkFile(ctx,
+				"." + ctx.getConfiguration().getTrimmed(EXTENSION_PROPERTY, DEFAULT_EXTENSION));
+		DataOutputStream output = file.getFileSystem(ctx.getConfiguration()).create(file, false);
+		return new LineRecordWriter<NullWritable, Text>(output);
+	}
+}
@@ -0,0 +1,29 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import java.io.IOException;
+
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.SamFileHeaderGenerator;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+
+/**
+ * Custom {@link FileOutputFormat} similar to {@link RawBamOutputFormat}. However, this class defines the output to be
+ * sorted based on {@link SortOrder#coordinate}, which allows a BAM index to be written next to each BAM file (see
+ * {@link RawBamOutputFormat#BAM_INDEX_PROPERTY}).
+ *
+ * @param <K>
+ * @see {@link RawBamOutputFormat}
+ */
+public class SortedRawBamOutputFormat<K> extends RawBamOutputFormat<K>
+{
+	@Override
+	public RecordWriter<K, BamRecordBytesWritable> getRecordWriter(TaskAttemptContext ctx) throws IOException
+	{
+		return new RawBamRecordWriter<K>(getDefaultWorkFile(ctx, ".bam"),
+				SamFileHeaderGenerator.retrieveSamFileHeader(ctx, SortOrder.coordinate),
+				ctx.getConfiguration().getBoolean(BAM_INDEX_PROPERTY, true), ctx);
+	}
+}
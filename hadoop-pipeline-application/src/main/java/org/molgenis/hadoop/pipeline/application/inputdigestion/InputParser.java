@@ -73,7 +73,8 @@ public abstract class InputParser
 	private Path alignmentReferenceDictFile;
 
 	/**
-	 * Location to the BED file containing the grouping for the SAM records.
+	 * Location to the BED file containing the grouping for the SAM records ({@code null} if the reference should be
+	 * tiled instead).
 	 */
 	private Path bedFile;
 
@@ -335,8 +336,8 @@ public abstract class InputParser
 							+ getAlignmentReferenceDictFile());
 		}
 
-		// Checks validity bed file.
-		if (!checkIfPathIsFile(bedFile))
+		// Checks validity bed file (if given).
+		if (bedFile != null && !checkIfPathIsFile(bedFile))
 		{
 			validInput = false;
 			System.err.println("BED file describing the grouping of the SAM records does not exist.");
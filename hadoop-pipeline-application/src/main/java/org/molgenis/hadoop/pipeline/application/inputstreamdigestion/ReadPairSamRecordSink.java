@@ -0,0 +1,360 @@
+package org.molgenis.hadoop.pipeline.application.inputstreamdigestion;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.molgenis.hadoop.pipeline.application.instrumentation.StageMeter;
+
+import htsjdk.samtools.DefaultSAMRecordFactory;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMLineParser;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMTextHeaderCodec;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.util.StringLineReader;
+
+/**
+ * Sink for digesting SAM-formatted {@link InputStream}{@code s} in which all records with the same read name are
+ * adjacent (such as the output of {@code bwa mem -p}). Instead of single {@link SAMRecord}{@code s}, each group of
+ * {@link SAMRecord}{@code s} with the same read name (a read pair including its secondary/supplementary alignments) is
+ * digested at once.
+ *
+ * The boundaries between the groups are detected on the raw bytes of the SAM lines before they are decoded: each line is
+ * appended to a reusable buffer and only its read name bytes are compared with the read name of the first line in the
+ * buffer. Only when a group is complete, its lines are decoded into {@link SAMRecord}{@code s}. This avoids a
+ * {@link String} comparison of the read names for each record.
+ */
+public abstract class ReadPairSamRecordSink extends Sink<List<SAMRecord>>
+{
+	/**
+	 * Initial size of the buffers (large enough to store the lines of a typical read pair).
+	 */
+	private static final int INITIAL_BUFFER_SIZE = 8192;
+
+	/**
+	 * Measures the decoding of the {@link SAMRecord}{@code s}.
+	 */
+	private final StageMeter decodingMeter;
+
+	/**
+	 * Buffer with data read from the {@link InputStream}.
+	 */
+	private final byte[] readBuffer = new byte[65536];
+
+	/**
+	 * Position of the next unread byte in the {@link #readBuffer}.
+	 */
+	private int readPosition;
+
+	/**
+	 * Number of valid bytes in the {@link #readBuffer}.
+	 */
+	private int readLimit;
+
+	/**
+	 * Stores the lines (without line separators) of the current group back to back.
+	 */
+	private byte[] groupBytes = new byte[INITIAL_BUFFER_SIZE];
+
+	/**
+	 * The start of each line within the {@link #groupBytes}, with an extra element storing the end of the last line.
+	 */
+	private int[] lineStarts = new int[16];
+
+	/**
+	 * The number of complete lines in the {@link #groupBytes}.
+	 */
+	private int lineCount;
+
+	/**
+	 * The length of the read name of the current group (the first line in the {@link #groupBytes}).
+	 */
+	private int groupNameLength;
+
+	/**
+	 * The decoded records of the current group (reused for each group).
+	 */
+	private final List<SAMRecord> records = new ArrayList<>();
+
+	/**
+	 * Decodes the SAM lines, created as soon as the header is complete.
+	 */
+	private SAMLineParser lineParser;
+
+	/**
+	 * Create a new {@link ReadPairSamRecordSink}.
+	 */
+	public ReadPairSamRecordSink()
+	{
+		this(new StageMeter());
+	}
+
+	/**
+	 * Create a new {@link ReadPairSamRecordSink} that measures the decoding of the {@link SAMRecord}{@code s}
+	 * (excluding the digestion of them by {@link #digestStreamItem(List)}) using the {@link StageMeter}.
+	 *
+	 * @param decodingMeter
+	 *            {@link StageMeter}
+	 */
+	public ReadPairSamRecordSink(StageMeter decodingMeter)
+	{
+		this.decodingMeter = requireNonNull(decodingMeter);
+	}
+
+	/**
+	 * Digests a SAM-formatted {@link InputStream}. For each group of adjacent {@link SAMRecord}{@code s} with the same
+	 * read name, {@link #digestStreamItem(List)} is called.
+	 */
+	@Override
+	public void handleInputStream(InputStream inputStream) throws IOException
+	{
+		readPosition = 0;
+		readLimit = 0;
+		lineCount = 0;
+		lineStarts[0] = 0;
+		lineParser = null;
+		StringBuilder headerText = new StringBuilder();
+
+		while (true)
+		{
+			// Only the reading and decoding is measured.
+			long startTime = decodingMeter.start();
+			boolean groupComplete = false;
+			boolean lineRead = true;
+			while (!groupComplete && (lineRead = readLine(inputStream)))
+			{
+				int lineStart = lineStarts[lineCount];
+				int lineEnd = lineStarts[lineCount + 1];
+
+				// Header lines are collected until the first record is found.
+				if (lineParser == null)
+				{
+					if (lineEnd > lineStart && groupBytes[lineStart] == '@')
+					{
+						headerText.append(new String(groupBytes, lineStart, lineEnd - lineStart,
+								StandardCharsets.ISO_8859_1)).append('\n');
+						continue;
+					}
+					lineParser = createLineParser(headerText.toString());
+				}
+
+				// Empty lines are skipped.
+				if (lineEnd == lineStart) continue;
+
+				int nameLength = nameLength(lineStart, lineEnd);
+				if (lineCount == 0)
+				{
+					groupNameLength = nameLength;
+					lineCount++;
+				}
+				else if (sameName(lineStart, nameLength))
+				{
+					lineCount++;
+				}
+				else
+				{
+					decodeGroup();
+					moveLineToStart(lineStart, lineEnd, nameLength);
+					groupComplete = true;
+				}
+			}
+
+			// Stream finished, so the last group (if any) is complete.
+			if (!lineRead && lineCount > 0 && !groupComplete)
+			{
+				if (lineParser == null) lineParser = createLineParser(headerText.toString());
+				decodeGroup();
+				lineCount = 0;
+				lineStarts[0] = 0;
+				groupComplete = true;
+			}
+			decodingMeter.stop(startTime);
+
+			if (!groupComplete) break;
+			decodingMeter.addRecords(records.size());
+			try
+			{
+				digestStreamItem(records);
+			}
+			finally
+			{
+				records.clear();
+			}
+		}
+		finishStreamProcessing();
+	}
+
+	/**
+	 * Digests the {@link SAMRecord}{@code s} belonging to a single read name. Be sure to create a custom
+	 * {@code @Override} implementation that defines what should be done with each group of {@link SAMRecord}
+	 * {@code s}! The given {@link List} is reused for the next group, so it should not be stored (the
+	 * {@link SAMRecord}{@code s} within it can be).
+	 *
+	 * @param item
+	 *            {@link List}{@code <}{@link SAMRecord}{@code >}
+	 */
+	@Override
+	protected abstract void digestStreamItem(List<SAMRecord> item) throws IOException;
+
+	/**
+	 * Allows for some final processes after the last group of {@link SAMRecord}{@code s} is digested. Defaults to no
+	 * behavior.
+	 */
+	protected void finishStreamProcessing() throws IOException
+	{
+	}
+
+	/**
+	 * Creates a {@link SAMLineParser} for the header lines found before the first record.
+	 *
+	 * @param headerText
+	 *            {@link String}
+	 * @return {@link SAMLineParser}
+	 */
+	private SAMLineParser createLineParser(String headerText)
+	{
+		SAMTextHeaderCodec headerCodec = new SAMTextHeaderCodec();
+		headerCodec.setValidationStringency(ValidationStringency.LENIENT);
+		SAMFileHeader header = headerCodec.decode(new StringLineReader(headerText), null);
+		return new SAMLineParser(DefaultSAMRecordFactory.getInstance(), ValidationStringency.LENIENT, header, null,
+				null);
+	}
+
+	/**
+	 * Decodes the first {@link #lineCount} lines of the {@link #groupBytes} into the {@link #records}.
+	 */
+	private void decodeGroup()
+	{
+		for (int i = 0; i < lineCount; i++)
+		{
+			int length = lineStarts[i + 1] - lineStarts[i];
+			records.add(lineParser.parseLine(new String(groupBytes, lineStarts[i], length, StandardCharsets.ISO_8859_1)));
+		}
+	}
+
+	/**
+	 * Returns the length of the read name (the bytes before the first tab) of a line.
+	 *
+	 * @param lineStart
+	 *            {@code int}
+	 * @param lineEnd
+	 *            {@code int}
+	 * @return {@code int}
+	 */
+	private int nameLength(int lineStart, int lineEnd)
+	{
+		for (int i = lineStart; i < lineEnd; i++)
+		{
+			if (groupBytes[i] == '\t') return i - lineStart;
+		}
+		return lineEnd - lineStart;
+	}
+
+	/**
+	 * Compares a read name with the read name of the current group. The bytes are compared starting at the end, as
+	 * Illumina read names only differ in their last characters (the tile coordinates).
+	 *
+	 * @param nameStart
+	 *            {@code int}
+	 * @param nameLength
+	 *            {@code int}
+	 * @return {@code boolean}
+	 */
+	private boolean sameName(int nameStart, int nameLength)
+	{
+		if (nameLength != groupNameLength) return false;
+		for (int i = nameLength - 1; i >= 0; i--)
+		{
+			if (groupBytes[nameStart + i] != groupBytes[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Moves the line that started a new group to the start of the {@link #groupBytes}.
+	 *
+	 * @param lineStart
+	 *            {@code int}
+	 * @param lineEnd
+	 *            {@code int}
+	 * @param nameLength
+	 *            {@code int}
+	 */
+	private void moveLineToStart(int lineStart, int lineEnd, int nameLength)
+	{
+		System.arraycopy(groupBytes, lineStart, groupBytes, 0, lineEnd - lineStart);
+		lineStarts[0] = 0;
+		lineStarts[1] = lineEnd - lineStart;
+		lineCount = 1;
+		groupNameLength = nameLength;
+	}
+
+	/**
+	 * Appends the next line (without line separator) from the {@link InputStream} to the {@link #groupBytes}, after
+	 * the last complete line. After a successful read, the line runs from {@code lineStarts[lineCount]} to
+	 * {@code lineStarts[lineCount + 1]}.
+	 *
+	 * @param inputStream
+	 *            {@link InputStream}
+	 * @return {@code boolean} {@code false} if the end of the stream was reached without reading any data.
+	 * @throws IOException
+	 */
+	private boolean readLine(InputStream inputStream) throws IOException
+	{
+		if (lineCount + 2 > lineStarts.length)
+		{
+			lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+		}
+
+		int lineStart = lineStarts[lineCount];
+		int end = lineStart;
+		boolean dataRead = false;
+		while (true)
+		{
+			if (readPosition == readLimit)
+			{
+				readLimit = inputStream.read(readBuffer);
+				readPosition = 0;
+				if (readLimit <= 0)
+				{
+					readLimit = 0;
+					break;
+				}
+			}
+			dataRead = true;
+
+			// Searches for the line separator within the available data.
+			int separator = readPosition;
+			while (separator < readLimit && readBuffer[separator] != '\n')
+			{
+				separator++;
+			}
+
+			int length = separator - readPosition;
+			if (end + length > groupBytes.length)
+			{
+				groupBytes = Arrays.copyOf(groupBytes, Math.max(groupBytes.length * 2, end + length));
+			}
+			System.arraycopy(readBuffer, readPosition, groupBytes, end, length);
+			end += length;
+
+			if (separator < readLimit)
+			{
+				readPosition = separator + 1;
+				break;
+			}
+			readPosition = readLimit;
+		}
+
+		// Removes a carriage return (Windows line separator).
+		if (end > lineStart && groupBytes[end - 1] == '\r') end--;
+		lineStarts[lineCount + 1] = end;
+		return dataRead;
+	}
+}
@@ -1,9 +1,12 @@
 package org.molgenis.hadoop.pipeline.application.inputstreamdigestion;
 
+import static java.util.Objects.requireNonNull;
+
 import java.io.IOException;
 import java.io.InputStream;
 
 import org.apache.commons.io.IOUtils;
+import org.molgenis.hadoop.pipeline.application.instrumentation.StageMeter;
 
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
@@ -17,6 +20,31 @@ import htsjdk.samtools.ValidationStringency;
  */
 public abstract class SamRecordSink extends Sink<SAMRecord>
 {
+	/**
+	 * Measures the decoding of the {@link SAMRecord}{@code s}.
+	 */
+	private final StageMeter decodingMeter;
+
+	/**
+	 * Create a new {@link SamRecordSink}.
+	 */
+	public SamRecordSink()
+	{
+		this(new StageMeter());
+	}
+
+	/**
+	 * Create a new {@link SamRecordSink} that measures the decoding of the {@link SAMRecord}{@code s} (excluding the
+	 * digestion of them by {@link #digestStreamItem(SAMRecord)}) using the {@link StageMeter}.
+	 * 
+	 * @param decodingMeter
+	 *            {@link StageMeter}
+	 */
+	public SamRecordSink(StageMeter decodingMeter)
+	{
+		this.decodingMeter = requireNonNull(decodingMeter);
+	}
+
 	/**
 	 * Digests a SAM-formatted {@link InputStream}. For each {@link SAMRecord} present in the {@link InputStream},
 	 * {@link #digestStreamItem(SAMRecord)} is called.
@@ -27,13 +55,23 @@ public abstract class SamRecordSink extends Sink<SAMRecord>
 		SamReader samReader = null;
 		try
 		{
+			long startTime = decodingMeter.start();
 			SamReaderFactory samReaderFactory = SamReaderFactory.makeDefault()
 					.validationStringency(ValidationStringency.LENIENT);
 			samReader = samReaderFactory.open(SamInputResource.of(inputStream));
 			SAMRecordIterator samIterator = samReader.iterator();
-			while (samIterator.hasNext())
+			decodingMeter.stop(startTime);
+
+			while (true)
 			{
-				digestStreamItem(samIterator.next());
+				// Only the retrieval of the next record is measured.
+				startTime = decodingMeter.start();
+				SAMRecord record = samIterator.hasNext() ? samIterator.next() : null;
+				decodingMeter.stop(startTime);
+
+				if (record == null) break;
+				decodingMeter.addRecords(1);
+				digestStreamItem(record);
 			}
 			finishStreamProcessing();
 		}
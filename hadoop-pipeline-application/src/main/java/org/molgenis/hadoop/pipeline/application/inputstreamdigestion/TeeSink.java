@@ -0,0 +1,55 @@
+package org.molgenis.hadoop.pipeline.application.inputstreamdigestion;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.input.TeeInputStream;
+
+/**
+ * {@link Sink} that passes the {@link InputStream} on to another {@link Sink}, while writing a copy of all bytes read
+ * by that {@link Sink} to an {@link OutputStream}.
+ *
+ * @param <T>
+ *            The type digested by the other {@link Sink}.
+ */
+public class TeeSink<T> extends Sink<T>
+{
+	/**
+	 * The {@link Sink} that digests the {@link InputStream}.
+	 */
+	private final Sink<T> sink;
+
+	/**
+	 * The {@link OutputStream} the copy is written to (not closed by this {@link Sink}).
+	 */
+	private final OutputStream copy;
+
+	/**
+	 * Create a new {@link TeeSink}.
+	 *
+	 * @param sink
+	 *            {@link Sink}
+	 * @param copy
+	 *            {@link OutputStream}
+	 */
+	public TeeSink(Sink<T> sink, OutputStream copy)
+	{
+		this.sink = requireNonNull(sink);
+		this.copy = requireNonNull(copy);
+	}
+
+	@Override
+	public void handleInputStream(InputStream inputStream) throws IOException
+	{
+		sink.handleInputStream(new TeeInputStream(inputStream, copy, false));
+	}
+
+	@Override
+	protected void digestStreamItem(T item) throws IOException
+	{
+		sink.digestStreamItem(item);
+	}
+}
@@ -0,0 +1,61 @@
+package org.molgenis.hadoop.pipeline.application.instrumentation;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link FilterInputStream} that measures the bytes read and the time spent blocked on reading using a
+ * {@link StageMeter}.
+ */
+public class MeteredInputStream extends FilterInputStream
+{
+	/**
+	 * The meter to store the measurements in.
+	 */
+	private final StageMeter meter;
+
+	/**
+	 * Create a new {@link MeteredInputStream}.
+	 * 
+	 * @param inputStream
+	 *            {@link InputStream} The stream to measure.
+	 * @param meter
+	 *            {@link StageMeter}
+	 */
+	public MeteredInputStream(InputStream inputStream, StageMeter meter)
+	{
+		super(requireNonNull(inputStream));
+		this.meter = requireNonNull(meter);
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		long startTime = meter.start();
+		int value = super.read();
+		meter.stop(startTime);
+		if (value != -1) meter.addBytes(1);
+		return value;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		long startTime = meter.start();
+		int n = super.read(b, off, len);
+		meter.stop(startTime);
+		if (n > 0) meter.addBytes(n);
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		long skipped = super.skip(n);
+		meter.addBytes(skipped);
+		return skipped;
+	}
+}
@@ -0,0 +1,55 @@
+package org.molgenis.hadoop.pipeline.application.instrumentation;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link FilterOutputStream} that measures the bytes written and the time spent blocked on writing using a
+ * {@link StageMeter}.
+ */
+public class MeteredOutputStream extends FilterOutputStream
+{
+	/**
+	 * The meter to store the measurements in.
+	 */
+	private final StageMeter meter;
+
+	/**
+	 * Create a new {@link MeteredOutputStream}.
+	 * 
+	 * @param outputStream
+	 *            {@link OutputStream} The stream to measure.
+	 * @param meter
+	 *            {@link StageMeter}
+	 */
+	public MeteredOutputStream(OutputStream outputStream, StageMeter meter)
+	{
+		super(requireNonNull(outputStream));
+		this.meter = requireNonNull(meter);
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		long startTime = meter.start();
+		out.write(b);
+		meter.stop(startTime);
+		meter.addBytes(1);
+	}
+
+	/**
+	 * Writes directly to the underlying {@link OutputStream} instead of byte-by-byte (the default behavior of
+	 * {@link FilterOutputStream}).
+	 */
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		long startTime = meter.start();
+		out.write(b, off, len);
+		meter.stop(startTime);
+		meter.addBytes(len);
+	}
+}
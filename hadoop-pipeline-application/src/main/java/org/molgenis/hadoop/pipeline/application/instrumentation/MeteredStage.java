@@ -0,0 +1,101 @@
+package org.molgenis.hadoop.pipeline.application.instrumentation;
+
+/**
+ * The stages of a task that are measured by a {@link TaskInstrumentation}. Each {@link MeteredStage} is published as a
+ * set of Hadoop counters within the {@link #COUNTER_GROUP} by {@link TaskInstrumentation#publish}.
+ */
+public enum MeteredStage
+{
+	/**
+	 * The complete run of a {@link org.molgenis.hadoop.pipeline.application.processes.PipeRunner} pipeline: from
+	 * starting to write the input data until the last process in the pipeline finished.
+	 */
+	PIPELINE,
+
+	/**
+	 * Writing the input data to the first process of a pipeline (bytes written and time spent blocked on writing).
+	 */
+	ALIGNER_INPUT,
+
+	/**
+	 * Reading the output of the last process of a pipeline (bytes read and time spent blocked on reading). As the
+	 * aligner only produces output once it finished aligning a batch of reads, this is mostly time spent waiting on the
+	 * aligner.
+	 */
+	ALIGNER_OUTPUT,
+
+	/**
+	 * Decoding the SAM-formatted aligner output into {@link htsjdk.samtools.SAMRecord}{@code s}. Includes the time
+	 * measured by {@link #ALIGNER_OUTPUT}, as the decoder reads the stream it decodes. The decoding itself therefore
+	 * equals {@link #SAM_DECODING} minus {@link #ALIGNER_OUTPUT}.
+	 */
+	SAM_DECODING,
+
+	/**
+	 * Retrieving the {@link org.molgenis.hadoop.pipeline.application.cachedigestion.Region}{@code s} a read pair
+	 * belongs to.
+	 */
+	REGION_RETRIEVAL,
+
+	/**
+	 * Writing key/value pairs to the context (which includes serialization and, when the buffer is full, blocking on
+	 * spills).
+	 */
+	CONTEXT_WRITE,
+
+	/**
+	 * Retrieving the values belonging to a key within the reducer (which includes deserialization and the merge of the
+	 * sorted map outputs that is done while iterating).
+	 */
+	REDUCER_INPUT,
+
+	/**
+	 * Writing the records to the reducer output files (which includes BAM encoding and compression).
+	 */
+	REDUCER_OUTPUT;
+
+	/**
+	 * The Hadoop counter group name in which the counters of all {@link MeteredStage}{@code s} are stored.
+	 */
+	public static final String COUNTER_GROUP = MeteredStage.class.getName();
+
+	/**
+	 * Returns the Hadoop counter name for the estimated time spent in this {@link MeteredStage}.
+	 *
+	 * @return {@link String}
+	 */
+	public String getNanosecondsCounterName()
+	{
+		return name() + "_NANOSECONDS";
+	}
+
+	/**
+	 * Returns the Hadoop counter name for the number of times this {@link MeteredStage} was entered.
+	 *
+	 * @return {@link String}
+	 */
+	public String getInvocationsCounterName()
+	{
+		return name() + "_INVOCATIONS";
+	}
+
+	/**
+	 * Returns the Hadoop counter name for the number of records processed by this {@link MeteredStage}.
+	 *
+	 * @return {@link String}
+	 */
+	public String getRecordsCounterName()
+	{
+		return name() + "_RECORDS";
+	}
+
+	/**
+	 * Returns the Hadoop counter name for the number of bytes processed by this {@link MeteredStage}.
+	 *
+	 * @return {@link String}
+	 */
+	public String getBytesCounterName()
+	{
+		return name() + "_BYTES";
+	}
+}
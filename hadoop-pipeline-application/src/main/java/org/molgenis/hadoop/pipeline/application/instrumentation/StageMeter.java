@@ -0,0 +1,170 @@
+package org.molgenis.hadoop.pipeline.application.instrumentation;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lightweight timer and record/byte meter for a single stage of a task. To keep the overhead low for stages that are
+ * entered for each record, only every n-th invocation is timed (with n being the sample interval). The total time spent
+ * in the stage is then estimated by extrapolating the sampled time to all invocations. Records and bytes are always
+ * counted exactly.
+ *
+ * A {@link StageMeter} can be updated from multiple threads (as a pipeline writes to and reads from its processes in
+ * separate threads).
+ *
+ * Usage:
+ *
+ * <pre>
+ * long startTime = meter.start();
+ * // Code to measure.
+ * meter.stop(startTime);
+ * </pre>
+ */
+public class StageMeter
+{
+	/**
+	 * Returned by {@link #start()} if the invocation should not be timed.
+	 */
+	private static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+	/**
+	 * Only each n-th invocation is timed.
+	 */
+	private final int sampleInterval;
+
+	/**
+	 * The number of times {@link #start()} was called.
+	 */
+	private final AtomicLong invocations = new AtomicLong();
+
+	/**
+	 * The number of invocations that were timed.
+	 */
+	private final AtomicLong sampledInvocations = new AtomicLong();
+
+	/**
+	 * The total time of the timed invocations.
+	 */
+	private final AtomicLong sampledNanoseconds = new AtomicLong();
+
+	/**
+	 * The number of records processed.
+	 */
+	private final AtomicLong records = new AtomicLong();
+
+	/**
+	 * The number of bytes processed.
+	 */
+	private final AtomicLong bytes = new AtomicLong();
+
+	public long getInvocations()
+	{
+		return invocations.get();
+	}
+
+	public long getSampledInvocations()
+	{
+		return sampledInvocations.get();
+	}
+
+	public long getRecords()
+	{
+		return records.get();
+	}
+
+	public long getBytes()
+	{
+		return bytes.get();
+	}
+
+	/**
+	 * Create a new {@link StageMeter} that times every invocation.
+	 */
+	public StageMeter()
+	{
+		this(1);
+	}
+
+	/**
+	 * Create a new {@link StageMeter}.
+	 *
+	 * @param sampleInterval
+	 *            {@code int} Only each n-th invocation is timed.
+	 * @throws IllegalArgumentException
+	 *             If {@code sampleInterval} is smaller than 1.
+	 */
+	public StageMeter(int sampleInterval) throws IllegalArgumentException
+	{
+		if (sampleInterval < 1)
+		{
+			throw new IllegalArgumentException("The sample interval must be 1 or higher: " + sampleInterval);
+		}
+		this.sampleInterval = sampleInterval;
+	}
+
+	/**
+	 * Marks the start of an invocation of the measured stage.
+	 *
+	 * @return {@code long} The value that should be given to {@link #stop(long)} at the end of the invocation.
+	 */
+	public long start()
+	{
+		if (invocations.getAndIncrement() % sampleInterval != 0)
+		{
+			return NOT_SAMPLED;
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * Marks the end of an invocation of the measured stage.
+	 *
+	 * @param startTime
+	 *            {@code long} The value returned by {@link #start()}.
+	 */
+	public void stop(long startTime)
+	{
+		if (startTime != NOT_SAMPLED)
+		{
+			sampledNanoseconds.addAndGet(System.nanoTime() - startTime);
+			sampledInvocations.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Adds the number of records that were processed.
+	 *
+	 * @param n
+	 *            {@code long}
+	 */
+	public void addRecords(long n)
+	{
+		records.addAndGet(n);
+	}
+
+	/**
+	 * Adds the number of bytes that were processed.
+	 *
+	 * @param n
+	 *            {@code long}
+	 */
+	public void addBytes(long n)
+	{
+		bytes.addAndGet(n);
+	}
+
+	/**
+	 * Returns the estimated total time spent in the measured stage. If all invocations were timed, this is the exact
+	 * measured time.
+	 *
+	 * @return {@code long} Nanoseconds.
+	 */
+	public long getEstimatedNanoseconds()
+	{
+		long sampled = sampledInvocations.get();
+		if (sampled == 0)
+		{
+			return 0;
+		}
+		return (long) ((double) sampledNanoseconds.get() / sampled * invocations.get());
+	}
+}
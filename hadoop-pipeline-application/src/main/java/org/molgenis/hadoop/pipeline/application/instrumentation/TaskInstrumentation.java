@@ -0,0 +1,202 @@
+package org.molgenis.hadoop.pipeline.application.instrumentation;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.log4j.Logger;
+
+/**
+ * Stores a {@link StageMeter} for each {@link MeteredStage} of a single task. After the task finished, the measured
+ * values can be published as Hadoop counters using {@link #publish(TaskInputOutputContext)} and (if enabled through
+ * {@link #JSON_DUMP_PROPERTY}) are also written as a JSON file to the {@link #JSON_DUMP_DIR} within the job output
+ * directory (through the output committer, so only the files of successful task attempts end up there).
+ */
+public class TaskInstrumentation
+{
+	/**
+	 * Logger to write information to.
+	 */
+	private static final Logger logger = Logger.getLogger(TaskInstrumentation.class);
+
+	/**
+	 * Configuration property defining that only every n-th invocation of a stage should be timed. Defaults to
+	 * {@code 1} (time every invocation).
+	 */
+	public static final String SAMPLE_INTERVAL_PROPERTY = "molgenis.hadoop.pipeline.instrumentation.sample.interval";
+
+	/**
+	 * Configuration property defining whether each task should write its measurements to a JSON file as well. Defaults
+	 * to {@code false}.
+	 */
+	public static final String JSON_DUMP_PROPERTY = "molgenis.hadoop.pipeline.instrumentation.json.dump";
+
+	/**
+	 * The directory within the job output directory to which the JSON files are written.
+	 */
+	public static final String JSON_DUMP_DIR = "_instrumentation";
+
+	/**
+	 * The measurements for each {@link MeteredStage}.
+	 */
+	private final Map<MeteredStage, StageMeter> meters = new EnumMap<>(MeteredStage.class);
+
+	/**
+	 * Whether {@link #publish(TaskInputOutputContext)} should also write a JSON file.
+	 */
+	private final boolean jsonDump;
+
+	/**
+	 * Create a new {@link TaskInstrumentation} that times every invocation and does not write a JSON file.
+	 */
+	public TaskInstrumentation()
+	{
+		this(1, false);
+	}
+
+	/**
+	 * Create a new {@link TaskInstrumentation} using the {@link #SAMPLE_INTERVAL_PROPERTY} and
+	 * {@link #JSON_DUMP_PROPERTY} from the {@link Configuration}.
+	 *
+	 * @param conf
+	 *            {@link Configuration}
+	 */
+	public TaskInstrumentation(Configuration conf)
+	{
+		this(conf.getInt(SAMPLE_INTERVAL_PROPERTY, 1), conf.getBoolean(JSON_DUMP_PROPERTY, false));
+	}
+
+	/**
+	 * Create a new {@link TaskInstrumentation}.
+	 *
+	 * @param sampleInterval
+	 *            {@code int} Only each n-th invocation of a stage is timed.
+	 * @param jsonDump
+	 *            {@code boolean} Whether {@link #publish(TaskInputOutputContext)} should also write a JSON file.
+	 */
+	public TaskInstrumentation(int sampleInterval, boolean jsonDump)
+	{
+		for (MeteredStage stage : MeteredStage.values())
+		{
+			meters.put(stage, new StageMeter(sampleInterval));
+		}
+		this.jsonDump = jsonDump;
+	}
+
+	/**
+	 * Returns the {@link StageMeter} belonging to a {@link MeteredStage}.
+	 *
+	 * @param stage
+	 *            {@link MeteredStage}
+	 * @return {@link StageMeter}
+	 */
+	public StageMeter get(MeteredStage stage)
+	{
+		return meters.get(stage);
+	}
+
+	/**
+	 * Adds the measured values to the Hadoop counters of the {@link TaskInputOutputContext}. Stages that were never
+	 * entered are skipped. If enabled, also writes the measured values to a JSON file.
+	 *
+	 * @param context
+	 *            {@link TaskInputOutputContext}
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void publish(TaskInputOutputContext<?, ?, ?, ?> context) throws IOException, InterruptedException
+	{
+		for (MeteredStage stage : MeteredStage.values())
+		{
+			StageMeter meter = meters.get(stage);
+			if (meter.getInvocations() == 0 && meter.getRecords() == 0 && meter.getBytes() == 0)
+			{
+				continue;
+			}
+
+			context.getCounter(MeteredStage.COUNTER_GROUP, stage.getNanosecondsCounterName())
+					.increment(meter.getEstimatedNanoseconds());
+			context.getCounter(MeteredStage.COUNTER_GROUP, stage.getInvocationsCounterName())
+					.increment(meter.getInvocations());
+			context.getCounter(MeteredStage.COUNTER_GROUP, stage.getRecordsCounterName()).increment(meter.getRecords());
+			context.getCounter(MeteredStage.COUNTER_GROUP, stage.getBytesCounterName()).increment(meter.getBytes());
+		}
+
+		if (jsonDump)
+		{
+			writeJson(context);
+		}
+	}
+
+	/**
+	 * Writes the measured values as JSON to a file named after the task attempt within the {@link #JSON_DUMP_DIR} of
+	 * the work output directory of the task attempt, which the output committer moves to the job output directory only
+	 * when the attempt is committed (so failed or killed speculative attempts leave no files behind). If no output
+	 * directory is available, nothing is written.
+	 *
+	 * @param context
+	 *            {@link TaskInputOutputContext}
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void writeJson(TaskInputOutputContext<?, ?, ?, ?> context) throws IOException, InterruptedException
+	{
+		Path outputDir = FileOutputFormat.getOutputPath(context) == null ? null
+				: FileOutputFormat.getWorkOutputPath(context);
+		if (outputDir == null)
+		{
+			logger.warn("No output directory available, skipping writing of instrumentation JSON file.");
+			return;
+		}
+
+		Path jsonFile = new Path(new Path(outputDir, JSON_DUMP_DIR), context.getTaskAttemptID() + ".json");
+		FileSystem fileSys = jsonFile.getFileSystem(context.getConfiguration());
+		Writer writer = null;
+		try
+		{
+			writer = new OutputStreamWriter(fileSys.create(jsonFile, true), "UTF-8");
+			writer.write(toJson(context.getTaskAttemptID().toString()));
+		}
+		finally
+		{
+			IOUtils.closeQuietly(writer);
+		}
+	}
+
+	/**
+	 * Generates a JSON representation of the measured values.
+	 *
+	 * @param taskAttemptId
+	 *            {@link String}
+	 * @return {@link String}
+	 */
+	public String toJson(String taskAttemptId)
+	{
+		StringBuilder json = new StringBuilder();
+		json.append("{\"taskAttemptId\":\"").append(taskAttemptId).append("\",\"stages\":{");
+
+		String separator = "";
+		for (MeteredStage stage : MeteredStage.values())
+		{
+			StageMeter meter = meters.get(stage);
+			json.append(separator).append('"').append(stage.name()).append("\":{");
+			json.append("\"nanoseconds\":").append(meter.getEstimatedNanoseconds());
+			json.append(",\"invocations\":").append(meter.getInvocations());
+			json.append(",\"sampledInvocations\":").append(meter.getSampledInvocations());
+			json.append(",\"records\":").append(meter.getRecords());
+			json.append(",\"bytes\":").append(meter.getBytes());
+			json.append('}');
+			separator = ",";
+		}
+
+		return json.append("}}").toString();
+	}
+}
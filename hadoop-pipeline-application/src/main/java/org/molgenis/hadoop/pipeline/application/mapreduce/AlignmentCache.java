@@ -0,0 +1,409 @@
+package org.molgenis.hadoop.pipeline.application.mapreduce;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.log4j.Logger;
+import org.molgenis.hadoop.pipeline.application.inputdigestion.InputParser;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Content-addressed cache of the aligner output per input split, stored on a (distributed) file system. Each entry is
+ * the gzip compressed SAM output of the aligner for a single input split and is stored under a key that is a SHA-256
+ * hash of:
+ * <ul>
+ * <li>the input split (the content of a halvade chunk, or the file checksums of a R1/R2 FASTQ file pair)</li>
+ * <li>the alignment reference files (see {@link #configure(Job, FileSystem, InputParser)})</li>
+ * <li>the aligner version (as stored in the {@code info.xml} of the tools archive) and its options</li>
+ * <li>the read group line</li>
+ * </ul>
+ * If any of these changes, the key changes as well, so entries never need to be invalidated (old entries can simply
+ * be removed from the cache directory). When a job is re-run (for example after a failure in the reduce phase), the
+ * mapper replays the cached aligner output instead of running the aligner again. As the cached output is the raw
+ * aligner output, the reads are still assigned to the (possibly changed) regions of the new job.
+ */
+public class AlignmentCache
+{
+	/**
+	 * Logger to write information to.
+	 */
+	private static final Logger logger = Logger.getLogger(AlignmentCache.class);
+
+	/**
+	 * Configuration property defining the directory in which the aligner output is cached. If not set, no caching is
+	 * done.
+	 */
+	public static final String CACHE_DIR_PROPERTY = "molgenis.hadoop.pipeline.alignment.cache.dir";
+
+	/**
+	 * Configuration property storing the fingerprint of the alignment reference files (set when the job is created).
+	 */
+	static final String REFERENCE_FINGERPRINT_PROPERTY = "molgenis.hadoop.pipeline.alignment.cache.reference.fingerprint";
+
+	/**
+	 * Version of the layout of the cache entries (part of each key, so that changing the layout invalidates all
+	 * existing entries).
+	 */
+	private static final String CACHE_FORMAT_VERSION = "1";
+
+	/**
+	 * The extension of the cache entries.
+	 */
+	private static final String ENTRY_EXTENSION = ".sam.gz";
+
+	/**
+	 * Hadoop counters for the cache lookups done by the mappers.
+	 */
+	public enum CacheCounter
+	{
+		HITS, MISSES, STORED
+	}
+
+	/**
+	 * The file system containing {@link #cacheDir}.
+	 */
+	private final FileSystem fileSys;
+
+	/**
+	 * The directory containing the cache entries.
+	 */
+	private final Path cacheDir;
+
+	/**
+	 * Digest of the parts of the key that are the same for all input splits of a task.
+	 */
+	private final byte[] alignmentFingerprint;
+
+	/**
+	 * Create a new {@link AlignmentCache}.
+	 *
+	 * @param conf
+	 *            {@link Configuration} Should contain {@link #CACHE_DIR_PROPERTY} and the reference fingerprint (see
+	 *            {@link #configure(Job, FileSystem, InputParser)}).
+	 * @param alignerVersion
+	 *            {@link String}
+	 * @param alignerOptions
+	 *            {@link List}{@code <}{@link String}{@code >} The aligner options that influence the output (excluding
+	 *            the read group and the input/reference files).
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             If the {@code conf} does not contain the cache directory or reference fingerprint.
+	 */
+	public AlignmentCache(Configuration conf, String alignerVersion, List<String> alignerOptions)
+			throws IOException, IllegalArgumentException
+	{
+		String cacheDirName = conf.get(CACHE_DIR_PROPERTY);
+		String referenceFingerprint = conf.get(REFERENCE_FINGERPRINT_PROPERTY);
+		if (cacheDirName == null || referenceFingerprint == null)
+		{
+			throw new IllegalArgumentException("No alignment cache directory or reference fingerprint configured.");
+		}
+		cacheDir = new Path(cacheDirName);
+		fileSys = cacheDir.getFileSystem(conf);
+
+		MessageDigest digest = createDigest();
+		update(digest, CACHE_FORMAT_VERSION);
+		update(digest, referenceFingerprint);
+		update(digest, alignerVersion);
+		for (String option : alignerOptions)
+		{
+			update(digest, option);
+		}
+		alignmentFingerprint = digest.digest();
+	}
+
+	/**
+	 * Checks whether the cache is enabled (see {@link #CACHE_DIR_PROPERTY}).
+	 *
+	 * @param conf
+	 *            {@link Configuration}
+	 * @return {@code boolean}
+	 */
+	public static boolean isEnabled(Configuration conf)
+	{
+		return conf.get(CACHE_DIR_PROPERTY) != null;
+	}
+
+	/**
+	 * Stores the fingerprint of the alignment reference files (the fasta file and its bwa index files) in the job
+	 * configuration if the cache is enabled. The fingerprint is calculated once when the job is created, using the
+	 * checksums the file system keeps for these files (see {@link #createFileFingerprint(FileSystem, Path)}), so that the
+	 * reference files do not have to be read.
+	 *
+	 * @param job
+	 *            {@link Job}
+	 * @param fileSys
+	 *            {@link FileSystem}
+	 * @param parser
+	 *            {@link InputParser}
+	 * @throws IOException
+	 */
+	public static void configure(Job job, FileSystem fileSys, InputParser parser) throws IOException
+	{
+		if (!isEnabled(job.getConfiguration())) return;
+
+		MessageDigest digest = createDigest();
+		for (Path referenceFile : new Path[] { parser.getAlignmentReferenceFastaFile(),
+				parser.getAlignmentReferenceFastaAmbFile(), parser.getAlignmentReferenceFastaAnnFile(),
+				parser.getAlignmentReferenceFastaBwtFile(), parser.getAlignmentReferenceFastaPacFile(),
+				parser.getAlignmentReferenceFastaSaFile() })
+		{
+			update(digest, createFileFingerprint(fileSys, referenceFile));
+		}
+		String referenceFingerprint = BaseEncoding.base16().lowerCase().encode(digest.digest());
+		job.getConfiguration().set(REFERENCE_FINGERPRINT_PROPERTY, referenceFingerprint);
+		logger.debug("Alignment cache enabled with reference fingerprint: " + referenceFingerprint);
+	}
+
+	/**
+	 * Creates the key for an input split that is read into memory as a whole (a halvade chunk).
+	 *
+	 * @param readGroupLine
+	 *            {@link String}
+	 * @param inputSplit
+	 *            {@link BytesWritable} The (compressed) content of the input split.
+	 * @return {@link String}
+	 */
+	public String createKey(String readGroupLine, BytesWritable inputSplit)
+	{
+		MessageDigest digest = createInputDigest(readGroupLine);
+		digest.update(inputSplit.getBytes(), 0, inputSplit.getLength());
+		return BaseEncoding.base16().lowerCase().encode(digest.digest());
+	}
+
+	/**
+	 * Creates the key for an input split consisting of one or more files that are streamed (such as a R1/R2 FASTQ file
+	 * pair). The files themselves are not read, the checksums kept by the file system are used instead.
+	 *
+	 * @param readGroupLine
+	 *            {@link String}
+	 * @param conf
+	 *            {@link Configuration}
+	 * @param inputFiles
+	 *            {@link Path}{@code []}
+	 * @return {@link String}
+	 * @throws IOException
+	 */
+	public String createKey(String readGroupLine, Configuration conf, Path... inputFiles) throws IOException
+	{
+		MessageDigest digest = createInputDigest(readGroupLine);
+		for (Path inputFile : inputFiles)
+		{
+			update(digest, createFileFingerprint(inputFile.getFileSystem(conf), inputFile));
+		}
+		return BaseEncoding.base16().lowerCase().encode(digest.digest());
+	}
+
+	/**
+	 * Opens the cached aligner output belonging to a key.
+	 *
+	 * @param key
+	 *            {@link String}
+	 * @return {@link InputStream} The (decompressed) aligner output, or {@code null} if no entry exists for the key.
+	 * @throws IOException
+	 */
+	public InputStream open(String key) throws IOException
+	{
+		Path entry = getEntryPath(key);
+		if (!fileSys.exists(entry)) return null;
+		return new GZIPInputStream(fileSys.open(entry), 65536);
+	}
+
+	/**
+	 * Creates a new entry. The entry is written to a temporary file first and only becomes visible for other tasks
+	 * after {@link Writer#commit()} was called.
+	 *
+	 * @param key
+	 *            {@link String}
+	 * @return {@link Writer}
+	 * @throws IOException
+	 */
+	public Writer create(String key) throws IOException
+	{
+		return new Writer(getEntryPath(key));
+	}
+
+	/**
+	 * Returns the path of an entry. The entries are spread over subdirectories (based upon the first two characters of
+	 * the key) to prevent a single huge directory.
+	 *
+	 * @param key
+	 *            {@link String}
+	 * @return {@link Path}
+	 */
+	Path getEntryPath(String key)
+	{
+		return new Path(new Path(cacheDir, key.substring(0, 2)), key + ENTRY_EXTENSION);
+	}
+
+	/**
+	 * Creates a digest for the key of an input split, already containing the {@link #alignmentFingerprint} and the
+	 * read group line.
+	 *
+	 * @param readGroupLine
+	 *            {@link String}
+	 * @return {@link MessageDigest}
+	 */
+	private MessageDigest createInputDigest(String readGroupLine)
+	{
+		MessageDigest digest = createDigest();
+		digest.update(alignmentFingerprint);
+		update(digest, readGroupLine);
+		return digest;
+	}
+
+	/**
+	 * Creates a fingerprint of a file. If the file system keeps checksums for its files (such as HDFS), the checksum is
+	 * used. Otherwise, the length and modification time are used instead.
+	 *
+	 * @param fileSys
+	 *            {@link FileSystem}
+	 * @param file
+	 *            {@link Path}
+	 * @return {@link String}
+	 * @throws IOException
+	 */
+	static String createFileFingerprint(FileSystem fileSys, Path file) throws IOException
+	{
+		FileChecksum checksum = fileSys.getFileChecksum(file);
+		if (checksum != null)
+		{
+			return checksum.getAlgorithmName() + ":" + BaseEncoding.base16().lowerCase().encode(checksum.getBytes());
+		}
+		FileStatus status = fileSys.getFileStatus(file);
+		return "length:" + status.getLen() + ":modified:" + status.getModificationTime();
+	}
+
+	/**
+	 * Creates a SHA-256 {@link MessageDigest}.
+	 *
+	 * @return {@link MessageDigest}
+	 */
+	private static MessageDigest createDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// Every Java platform is required to support SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Adds a {@link String} to a {@link MessageDigest}, prefixed by its length (so that different sequences of
+	 * {@link String}{@code s} can not result in the same digest).
+	 *
+	 * @param digest
+	 *            {@link MessageDigest}
+	 * @param value
+	 *            {@link String}
+	 */
+	private static void update(MessageDigest digest, String value)
+	{
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
+		digest.update((byte) ':');
+		digest.update(bytes);
+	}
+
+	/**
+	 * Writes a single entry of the {@link AlignmentCache} to a temporary file, which is moved to its final location
+	 * when committed.
+	 */
+	public class Writer
+	{
+		/**
+		 * The final location of the entry.
+		 */
+		private final Path entry;
+
+		/**
+		 * The temporary file the entry is written to (unique per writer, so that concurrent task attempts for the
+		 * same input split do not interfere).
+		 */
+		private final Path tmpEntry;
+
+		/**
+		 * The compressed stream to {@link #tmpEntry}.
+		 */
+		private final OutputStream outputStream;
+
+		/**
+		 * Create a new {@link Writer}.
+		 *
+		 * @param entry
+		 *            {@link Path}
+		 * @throws IOException
+		 */
+		private Writer(Path entry) throws IOException
+		{
+			this.entry = entry;
+			tmpEntry = new Path(entry.getParent(), "." + entry.getName() + "." + UUID.randomUUID() + ".tmp");
+			outputStream = new GZIPOutputStream(fileSys.create(tmpEntry, false), 65536);
+		}
+
+		/**
+		 * Returns the {@link OutputStream} the aligner output should be written to.
+		 *
+		 * @return {@link OutputStream}
+		 */
+		public OutputStream getOutputStream()
+		{
+			return outputStream;
+		}
+
+		/**
+		 * Closes the entry and moves it to its final location. If another task already stored the same entry, the
+		 * written entry is removed instead.
+		 *
+		 * @return {@code boolean} {@code true} if the entry was stored.
+		 * @throws IOException
+		 */
+		public boolean commit() throws IOException
+		{
+			try
+			{
+				outputStream.close();
+			}
+			catch (IOException e)
+			{
+				discard();
+				throw e;
+			}
+			if (!fileSys.exists(entry) && fileSys.rename(tmpEntry, entry)) return true;
+			fileSys.delete(tmpEntry, false);
+			return false;
+		}
+
+		/**
+		 * Closes and removes the (incomplete) entry.
+		 *
+		 * @throws IOException
+		 */
+		public void discard() throws IOException
+		{
+			IOUtils.closeStream(outputStream);
+			fileSys.delete(tmpEntry, false);
+		}
+	}
+}
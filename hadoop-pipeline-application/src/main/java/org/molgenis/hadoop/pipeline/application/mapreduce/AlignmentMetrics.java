@@ -0,0 +1,566 @@
+package org.molgenis.hadoop.pipeline.application.mapreduce;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.log4j.Logger;
+
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.SAMRecord;
+
+/**
+ * Alignment QC metrics (mapping rate, proper pair rate, soft-clip rates and the MAPQ and insert size distributions)
+ * collected by the {@link HadoopPipelineMapper} while the BWA output flows past, so no separate pass over the final BAM
+ * files is needed. All values are counts within fixed-size histograms (insert sizes above
+ * {@link #MAX_INSERT_SIZE_PROPERTY} share the last bin), so the memory use does not depend on the number of records and
+ * the metrics of all mappers can be merged exactly by adding them up (see {@link #merge(AlignmentMetrics)}). Only
+ * primary alignments are counted.
+ * <p>
+ * Each mapper writes its metrics to an {@code alignment-metrics-m-<mapper number>} file within the job output
+ * directory, which are merged into a single {@link #REPORT_FILE_NAME} report after the job finished (see
+ * {@link #mergeTaskOutputs(Configuration, Path)}).
+ */
+public class AlignmentMetrics implements Writable
+{
+	/**
+	 * Logger to write information to.
+	 */
+	private static final Logger logger = Logger.getLogger(AlignmentMetrics.class);
+
+	/**
+	 * Configuration property defining whether the alignment metrics are collected. Defaults to {@code false}.
+	 */
+	public static final String METRICS_PROPERTY = "molgenis.hadoop.pipeline.alignment.metrics";
+
+	/**
+	 * Configuration property defining the highest insert size within the insert size histogram (larger insert sizes are
+	 * counted in this bin). Defaults to {@link #DEFAULT_MAX_INSERT_SIZE}.
+	 */
+	public static final String MAX_INSERT_SIZE_PROPERTY = "molgenis.hadoop.pipeline.alignment.metrics.max.insert.size";
+
+	/**
+	 * Default for {@link #MAX_INSERT_SIZE_PROPERTY}.
+	 */
+	public static final int DEFAULT_MAX_INSERT_SIZE = 10000;
+
+	/**
+	 * The file name of the merged report within the job output directory.
+	 */
+	public static final String REPORT_FILE_NAME = "alignment_metrics.txt";
+
+	/**
+	 * The base name of the metrics files written by the mappers.
+	 */
+	private static final String TASK_OUTPUT_NAME = "alignment-metrics";
+
+	/**
+	 * Matches the metrics files written by the mappers.
+	 */
+	private static final Pattern TASK_OUTPUT_PATTERN = Pattern.compile(TASK_OUTPUT_NAME + "-m-\\d+");
+
+	/**
+	 * The number of MAPQ values (0-255, where 255 means unavailable).
+	 */
+	private static final int MAPQ_VALUES = 256;
+
+	/**
+	 * The primary reads.
+	 */
+	private long reads;
+
+	/**
+	 * The mapped primary reads.
+	 */
+	private long mappedReads;
+
+	/**
+	 * The mapped primary reads of which the mate is mapped as well.
+	 */
+	private long readsMappedInPair;
+
+	/**
+	 * The mapped primary reads flagged as properly paired.
+	 */
+	private long properPairedReads;
+
+	/**
+	 * The mapped primary reads containing a soft clip.
+	 */
+	private long softClippedReads;
+
+	/**
+	 * The read bases of the mapped primary reads.
+	 */
+	private long mappedReadBases;
+
+	/**
+	 * The soft clipped bases of the mapped primary reads.
+	 */
+	private long softClippedBases;
+
+	/**
+	 * The number of mapped primary reads per MAPQ.
+	 */
+	private final long[] mapqHistogram = new long[MAPQ_VALUES];
+
+	/**
+	 * The number of read pairs per (absolute) insert size (counted for the first read of pairs mapped on the same
+	 * contig).
+	 */
+	private final long[] insertSizeHistogram;
+
+	/**
+	 * Create a new {@link AlignmentMetrics}.
+	 *
+	 * @param conf
+	 *            {@link Configuration} Can contain the {@link #MAX_INSERT_SIZE_PROPERTY}.
+	 */
+	public AlignmentMetrics(Configuration conf)
+	{
+		this(conf.getInt(MAX_INSERT_SIZE_PROPERTY, DEFAULT_MAX_INSERT_SIZE));
+	}
+
+	/**
+	 * Create a new {@link AlignmentMetrics}.
+	 *
+	 * @param maxInsertSize
+	 *            {@code int}
+	 * @throws IllegalArgumentException
+	 *             If {@code maxInsertSize} is lower than 1.
+	 */
+	AlignmentMetrics(int maxInsertSize) throws IllegalArgumentException
+	{
+		if (maxInsertSize < 1)
+		{
+			throw new IllegalArgumentException("The maximum insert size should be at least 1.");
+		}
+		insertSizeHistogram = new long[maxInsertSize + 1];
+	}
+
+	/**
+	 * Checks whether the alignment metrics are collected (see {@link #METRICS_PROPERTY}).
+	 *
+	 * @param conf
+	 *            {@link Configuration}
+	 * @return {@code boolean}
+	 */
+	public static boolean isEnabled(Configuration conf)
+	{
+		return conf.getBoolean(METRICS_PROPERTY, false);
+	}
+
+	/**
+	 * Adds a single record. Secondary and supplementary alignments are ignored.
+	 *
+	 * @param record
+	 *            {@link SAMRecord}
+	 */
+	public void add(SAMRecord record)
+	{
+		if (record.isSecondaryOrSupplementary()) return;
+
+		reads++;
+		if (record.getReadUnmappedFlag()) return;
+
+		mappedReads++;
+		mapqHistogram[record.getMappingQuality() & 0xff]++;
+
+		int softClipped = 0;
+		for (CigarElement element : record.getCigar().getCigarElements())
+		{
+			if (element.getOperator().consumesReadBases()) mappedReadBases += element.getLength();
+			if (element.getOperator() == CigarOperator.S) softClipped += element.getLength();
+		}
+		softClippedBases += softClipped;
+		if (softClipped > 0) softClippedReads++;
+
+		if (!record.getReadPairedFlag() || record.getMateUnmappedFlag()) return;
+
+		readsMappedInPair++;
+		if (record.getProperPairFlag()) properPairedReads++;
+
+		// The insert size is only defined for pairs on the same contig and counted once per pair.
+		int insertSize = Math.abs(record.getInferredInsertSize());
+		if (record.getFirstOfPairFlag() && insertSize > 0
+				&& record.getReferenceName().equals(record.getMateReferenceName()))
+		{
+			insertSizeHistogram[Math.min(insertSize, insertSizeHistogram.length - 1)]++;
+		}
+	}
+
+	/**
+	 * Adds the metrics of another {@link AlignmentMetrics} to these.
+	 *
+	 * @param other
+	 *            {@link AlignmentMetrics}
+	 * @throws IllegalArgumentException
+	 *             If the other metrics have a different maximum insert size.
+	 */
+	public void merge(AlignmentMetrics other) throws IllegalArgumentException
+	{
+		if (other.insertSizeHistogram.length != insertSizeHistogram.length)
+		{
+			throw new IllegalArgumentException("Can not merge alignment metrics with different maximum insert sizes.");
+		}
+		reads += other.reads;
+		mappedReads += other.mappedReads;
+		readsMappedInPair += other.readsMappedInPair;
+		properPairedReads += other.properPairedReads;
+		softClippedReads += other.softClippedReads;
+		mappedReadBases += other.mappedReadBases;
+		softClippedBases += other.softClippedBases;
+		add(mapqHistogram, other.mapqHistogram);
+		add(insertSizeHistogram, other.insertSizeHistogram);
+	}
+
+	public long getReads()
+	{
+		return reads;
+	}
+
+	public long getMappedReads()
+	{
+		return mappedReads;
+	}
+
+	public long getReadsMappedInPair()
+	{
+		return readsMappedInPair;
+	}
+
+	public long getProperPairedReads()
+	{
+		return properPairedReads;
+	}
+
+	public long getSoftClippedReads()
+	{
+		return softClippedReads;
+	}
+
+	public long getMappedReadBases()
+	{
+		return mappedReadBases;
+	}
+
+	public long getSoftClippedBases()
+	{
+		return softClippedBases;
+	}
+
+	/**
+	 * Returns the number of mapped primary reads having a specific MAPQ.
+	 *
+	 * @param mapq
+	 *            {@code int}
+	 * @return {@code long}
+	 */
+	public long getMapqCount(int mapq)
+	{
+		return mapqHistogram[mapq];
+	}
+
+	/**
+	 * Returns the number of read pairs having a specific insert size (where the maximum insert size includes all larger
+	 * insert sizes).
+	 *
+	 * @param insertSize
+	 *            {@code int}
+	 * @return {@code long}
+	 */
+	public long getInsertSizeCount(int insertSize)
+	{
+		return insertSizeHistogram[insertSize];
+	}
+
+	/**
+	 * Returns the median insert size.
+	 *
+	 * @return {@code int} (0 if no insert sizes were counted)
+	 */
+	public int getMedianInsertSize()
+	{
+		long pairs = sum(insertSizeHistogram);
+		long seen = 0;
+		for (int i = 0; i < insertSizeHistogram.length; i++)
+		{
+			seen += insertSizeHistogram[i];
+			if (seen * 2 >= pairs && seen > 0) return i;
+		}
+		return 0;
+	}
+
+	/**
+	 * Writes the metrics of a mapper to its {@code alignment-metrics-m-<mapper number>} file within the work output
+	 * directory of the task (which is moved to the job output directory when the task is committed).
+	 *
+	 * @param context
+	 *            {@link TaskInputOutputContext}
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void writeTaskOutput(TaskInputOutputContext<?, ?, ?, ?> context) throws IOException, InterruptedException
+	{
+		Path workOutputDir = FileOutputFormat.getWorkOutputPath(context);
+		Path file = new Path(workOutputDir, FileOutputFormat.getUniqueFile(context, TASK_OUTPUT_NAME, ""));
+		try (FSDataOutputStream output = file.getFileSystem(context.getConfiguration()).create(file, false))
+		{
+			write(output);
+		}
+	}
+
+	/**
+	 * Merges the metrics files written by the mappers into a single {@link #REPORT_FILE_NAME} report and removes the
+	 * metrics files.
+	 *
+	 * @param conf
+	 *            {@link Configuration}
+	 * @param outputDir
+	 *            {@link Path} The job output directory.
+	 * @return {@link Path} The report ({@code null} if no metrics files were found).
+	 * @throws IOException
+	 */
+	public static Path mergeTaskOutputs(Configuration conf, Path outputDir) throws IOException
+	{
+		FileSystem fileSys = outputDir.getFileSystem(conf);
+		AlignmentMetrics metrics = new AlignmentMetrics(conf);
+		int files = 0;
+		for (FileStatus status : fileSys.listStatus(outputDir))
+		{
+			if (!status.isFile() || !TASK_OUTPUT_PATTERN.matcher(status.getPath().getName()).matches()) continue;
+
+			AlignmentMetrics taskMetrics = new AlignmentMetrics(conf);
+			try (FSDataInputStream input = fileSys.open(status.getPath()))
+			{
+				taskMetrics.readFields(input);
+			}
+			metrics.merge(taskMetrics);
+			fileSys.delete(status.getPath(), false);
+			files++;
+		}
+		if (files == 0)
+		{
+			logger.warn("No alignment metrics found in " + outputDir + " to merge.");
+			return null;
+		}
+
+		Path report = new Path(outputDir, REPORT_FILE_NAME);
+		try (PrintWriter writer = new PrintWriter(
+				new OutputStreamWriter(fileSys.create(report, true), StandardCharsets.UTF_8)))
+		{
+			metrics.writeReport(writer);
+		}
+		logger.info("Merged the alignment metrics of " + files + " mappers into " + report + ".");
+		return report;
+	}
+
+	/**
+	 * Writes a human-readable report containing the summary metrics and both histograms (only the values having
+	 * counts).
+	 *
+	 * @param writer
+	 *            {@link PrintWriter}
+	 */
+	public void writeReport(PrintWriter writer)
+	{
+		writer.println("## metrics");
+		writer.println("total_reads\t" + reads);
+		writer.println("mapped_reads\t" + mappedReads);
+		writer.println("mapping_rate\t" + formatFraction(mappedReads, reads));
+		writer.println("reads_mapped_in_pair\t" + readsMappedInPair);
+		writer.println("proper_paired_reads\t" + properPairedReads);
+		writer.println("proper_pair_rate\t" + formatFraction(properPairedReads, mappedReads));
+		writer.println("soft_clipped_reads\t" + softClippedReads);
+		writer.println("soft_clipped_reads_rate\t" + formatFraction(softClippedReads, mappedReads));
+		writer.println("soft_clipped_bases\t" + softClippedBases);
+		writer.println("soft_clipped_bases_rate\t" + formatFraction(softClippedBases, mappedReadBases));
+		writer.println("mean_mapq\t" + formatFraction(weightedSum(mapqHistogram), sum(mapqHistogram)));
+		writer.println("median_insert_size\t" + getMedianInsertSize());
+		writer.println(
+				"mean_insert_size\t" + formatFraction(weightedSum(insertSizeHistogram), sum(insertSizeHistogram)));
+
+		writer.println("## mapq_histogram");
+		writeHistogram(writer, "mapq\treads", mapqHistogram);
+		writer.println("## insert_size_histogram");
+		writeHistogram(writer, "insert_size\tpairs", insertSizeHistogram);
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException
+	{
+		WritableUtils.writeVInt(out, insertSizeHistogram.length - 1);
+		WritableUtils.writeVLong(out, reads);
+		WritableUtils.writeVLong(out, mappedReads);
+		WritableUtils.writeVLong(out, readsMappedInPair);
+		WritableUtils.writeVLong(out, properPairedReads);
+		WritableUtils.writeVLong(out, softClippedReads);
+		WritableUtils.writeVLong(out, mappedReadBases);
+		WritableUtils.writeVLong(out, softClippedBases);
+		writeHistogram(out, mapqHistogram);
+		writeHistogram(out, insertSizeHistogram);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException
+	{
+		if (WritableUtils.readVInt(in) != insertSizeHistogram.length - 1)
+		{
+			throw new IOException("Can not read alignment metrics with a different maximum insert size.");
+		}
+		reads = WritableUtils.readVLong(in);
+		mappedReads = WritableUtils.readVLong(in);
+		readsMappedInPair = WritableUtils.readVLong(in);
+		properPairedReads = WritableUtils.readVLong(in);
+		softClippedReads = WritableUtils.readVLong(in);
+		mappedReadBases = WritableUtils.readVLong(in);
+		softClippedBases = WritableUtils.readVLong(in);
+		readHistogram(in, mapqHistogram);
+		readHistogram(in, insertSizeHistogram);
+	}
+
+	/**
+	 * Writes the bins having counts of a histogram (as the histograms are mostly empty).
+	 *
+	 * @param out
+	 *            {@link DataOutput}
+	 * @param histogram
+	 *            {@code long[]}
+	 * @throws IOException
+	 */
+	private static void writeHistogram(DataOutput out, long[] histogram) throws IOException
+	{
+		int bins = 0;
+		for (long count : histogram)
+		{
+			if (count > 0) bins++;
+		}
+		WritableUtils.writeVInt(out, bins);
+		for (int i = 0; i < histogram.length; i++)
+		{
+			if (histogram[i] == 0) continue;
+			WritableUtils.writeVInt(out, i);
+			WritableUtils.writeVLong(out, histogram[i]);
+		}
+	}
+
+	/**
+	 * Reads a histogram written by {@link #writeHistogram(DataOutput, long[])}.
+	 *
+	 * @param in
+	 *            {@link DataInput}
+	 * @param histogram
+	 *            {@code long[]}
+	 * @throws IOException
+	 */
+	private static void readHistogram(DataInput in, long[] histogram) throws IOException
+	{
+		Arrays.fill(histogram, 0);
+		int bins = WritableUtils.readVInt(in);
+		for (int i = 0; i < bins; i++)
+		{
+			int bin = WritableUtils.readVInt(in);
+			histogram[bin] = WritableUtils.readVLong(in);
+		}
+	}
+
+	/**
+	 * Writes the bins having counts of a histogram as tab-separated lines.
+	 *
+	 * @param writer
+	 *            {@link PrintWriter}
+	 * @param header
+	 *            {@link String}
+	 * @param histogram
+	 *            {@code long[]}
+	 */
+	private static void writeHistogram(PrintWriter writer, String header, long[] histogram)
+	{
+		writer.println(header);
+		for (int i = 0; i < histogram.length; i++)
+		{
+			if (histogram[i] > 0) writer.println(i + "\t" + histogram[i]);
+		}
+	}
+
+	/**
+	 * Adds the bins of a histogram to another histogram.
+	 *
+	 * @param histogram
+	 *            {@code long[]}
+	 * @param other
+	 *            {@code long[]}
+	 */
+	private static void add(long[] histogram, long[] other)
+	{
+		for (int i = 0; i < histogram.length; i++)
+		{
+			histogram[i] += other[i];
+		}
+	}
+
+	/**
+	 * Sums the counts of a histogram.
+	 *
+	 * @param histogram
+	 *            {@code long[]}
+	 * @return {@code long}
+	 */
+	private static long sum(long[] histogram)
+	{
+		long sum = 0;
+		for (long count : histogram)
+		{
+			sum += count;
+		}
+		return sum;
+	}
+
+	/**
+	 * Sums the values of a histogram (bin multiplied by its count).
+	 *
+	 * @param histogram
+	 *            {@code long[]}
+	 * @return {@code long}
+	 */
+	private static long weightedSum(long[] histogram)
+	{
+		long sum = 0;
+		for (int i = 0; i < histogram.length; i++)
+		{
+			sum += i * histogram[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Formats a fraction with 4 decimals.
+	 *
+	 * @param numerator
+	 *            {@code long}
+	 * @param denominator
+	 *            {@code long}
+	 * @return {@link String} ({@code 0.0000} if the denominator is 0)
+	 */
+	private static String formatFraction(long numerator, long denominator)
+	{
+		return String.format(Locale.ROOT, "%.4f", denominator == 0 ? 0.0 : (double) numerator / denominator);
+	}
+}
@@ -1,28 +1,55 @@
 package org.molgenis.hadoop.pipeline.application.mapreduce;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.io.FilenameUtils;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 import org.apache.log4j.Logger;
 import org.molgenis.hadoop.pipeline.application.DistributedCacheHandler;
 import org.molgenis.hadoop.pipeline.application.cachedigestion.ContigRegionsMap;
 import org.molgenis.hadoop.pipeline.application.cachedigestion.HadoopBedFormatFileReader;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.HadoopRefSeqDictReader;
 import org.molgenis.hadoop.pipeline.application.cachedigestion.HadoopSamplesInfoFileReader;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.HadoopToolsPipelineXmlReader;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.HadoopToolsXmlReader;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.ReferenceTiler;
 import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.RegionBuckets;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.RegionCoalescer;
 import org.molgenis.hadoop.pipeline.application.cachedigestion.Sample;
-import org.molgenis.hadoop.pipeline.application.inputstreamdigestion.SamRecordSink;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.ToolsPipeline;
+import org.molgenis.hadoop.pipeline.application.compression.CompressionProbe;
+import org.molgenis.hadoop.pipeline.application.compression.MapOutputCompression;
+import org.molgenis.hadoop.pipeline.application.formats.BgzfBamConcatenator;
+import org.molgenis.hadoop.pipeline.application.formats.InputDecompression;
+import org.molgenis.hadoop.pipeline.application.formats.PackedRegionBamOutputFormat;
+import org.molgenis.hadoop.pipeline.application.formats.PairedFastqInputFormat;
+import org.molgenis.hadoop.pipeline.application.inputstreamdigestion.ReadPairSamRecordSink;
+import org.molgenis.hadoop.pipeline.application.inputstreamdigestion.TeeSink;
+import org.molgenis.hadoop.pipeline.application.instrumentation.MeteredStage;
+import org.molgenis.hadoop.pipeline.application.instrumentation.StageMeter;
+import org.molgenis.hadoop.pipeline.application.instrumentation.TaskInstrumentation;
 import org.molgenis.hadoop.pipeline.application.processes.PipeRunner;
 import org.molgenis.hadoop.pipeline.application.sequences.AlignedRead;
 import org.molgenis.hadoop.pipeline.application.sequences.AlignedReadPair;
+import org.molgenis.hadoop.pipeline.application.sequences.DuplicateReadPairs;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
 import org.molgenis.hadoop.pipeline.application.writables.RegionWithSortableSamRecordWritable;
-import org.seqdoop.hadoop_bam.SAMRecordWritable;
 
 import htsjdk.samtools.SAMRecord;
 
@@ -30,7 +57,7 @@ import htsjdk.samtools.SAMRecord;
  * Hadoop MapReduce Job mapper.
  */
 public class HadoopPipelineMapper
-		extends Mapper<Text, BytesWritable, RegionWithSortableSamRecordWritable, SAMRecordWritable>
+		extends Mapper<Text, BytesWritable, RegionWithSortableSamRecordWritable, BamRecordBytesWritable>
 {
 	/**
 	 * Logger to write information to.
@@ -38,9 +65,22 @@ public class HadoopPipelineMapper
 	private static final Logger logger = Logger.getLogger(HadoopPipelineMapper.class);
 
 	/**
-	 * BwaTool executable location.
+	 * Configuration property defining whether the job runs without reducers. If {@code true}, each mapper sorts its own
+	 * records per region (see {@link RegionRecordSorter}) and writes them directly to per-region BAM parts
+	 * ({@code <contig>-<start>-<end>-m-<mapper number>.bam}), which are merged per region afterwards (see
+	 * {@link org.molgenis.hadoop.pipeline.application.formats.RegionBamPartsMerger}). Defaults to {@code false}.
 	 */
-	private String bwaTool;
+	public static final String MAP_ONLY_PROPERTY = "molgenis.hadoop.pipeline.map.only";
+
+	/**
+	 * Directory containing the tool executables from the tools archive.
+	 */
+	private String toolsDirectory;
+
+	/**
+	 * The tools the interleaved FASTQ data is streamed through (as described in the tools archive info.xml).
+	 */
+	private ToolsPipeline toolsPipeline;
 
 	/**
 	 * Alignment reference fasta file location (with the other required files for alignment by bwa having the same
@@ -55,94 +95,320 @@ public class HadoopPipelineMapper
 	 */
 	private SamRecordGroupsRetriever groupsRetriever;
 
+	/**
+	 * The buckets the BED file regions are coalesced into ({@code null} if the BED file regions are used directly, see
+	 * {@link RegionCoalescer#BUCKET_SIZE_PROPERTY}).
+	 */
+	private RegionBuckets regionBuckets;
+
 	/**
 	 * The possible samples an input split can belong to.
 	 */
 	private List<Sample> samples;
 
+	/**
+	 * Measures the different stages of the mapper.
+	 */
+	private TaskInstrumentation instrumentation;
+
+	/**
+	 * Samples the map output values for measuring the achieved map output compression.
+	 */
+	private CompressionProbe compressionProbe;
+
+	/**
+	 * The BAM-encoded records of the read pair that is currently being digested. Each {@link SAMRecord} is encoded only
+	 * once (when it is written to the context for the first time) and the encoded bytes are reused when the record is
+	 * written for other {@link Region}{@code s}.
+	 */
+	private final Map<SAMRecord, BamRecordBytesWritable> encodedRecords = new IdentityHashMap<>();
+
+	/**
+	 * Reusable {@link BamRecordBytesWritable}{@code s} for {@link #encodedRecords} (as the values are serialized by
+	 * {@link Context#write(Object, Object)}, these can be reused for the next read pair).
+	 */
+	private final List<BamRecordBytesWritable> encodedRecordsPool = new ArrayList<>();
+
+	/**
+	 * Whether the input splits are R1 FASTQ files (see {@link PairedFastqInputFormat}) instead of halvade chunks.
+	 */
+	private boolean pairedFastqInput;
+
+	/**
+	 * Sorts the records per region when running map-only ({@code null} if the records are written to the context).
+	 */
+	private RegionRecordSorter sorter;
+
+	/**
+	 * Caches the BWA output per input split ({@code null} if {@link AlignmentCache#CACHE_DIR_PROPERTY} is not set).
+	 */
+	private AlignmentCache alignmentCache;
+
+	/**
+	 * Whether read pairs with exactly the same sequences are aligned only once (see {@link DuplicateReadPairs}).
+	 */
+	private boolean collapseDuplicates;
+
+	/**
+	 * Collects the alignment QC metrics ({@code null} if {@link AlignmentMetrics#METRICS_PROPERTY} is not set).
+	 */
+	private AlignmentMetrics alignmentMetrics;
+
+	/**
+	 * Discards records before they are written to the context ({@code null} if no filter properties are set).
+	 */
+	private RecordFilter recordFilter;
+
 	/**
 	 * Function called at the beginning of a task.
 	 */
 	@Override
 	protected void setup(Context context) throws IOException, InterruptedException
 	{
+		instrumentation = new TaskInstrumentation(context.getConfiguration());
+		compressionProbe = new CompressionProbe();
 		digestCache(context);
+		pairedFastqInput = context.getConfiguration().getBoolean(PairedFastqInputFormat.PAIRED_FASTQ_INPUT_PROPERTY,
+				false);
+		collapseDuplicates = DuplicateReadPairs.isEnabled(context.getConfiguration());
+		if (AlignmentMetrics.isEnabled(context.getConfiguration()))
+		{
+			alignmentMetrics = new AlignmentMetrics(context.getConfiguration());
+		}
+		recordFilter = new RecordFilter(context.getConfiguration());
+		if (!recordFilter.isEnabled()) recordFilter = null;
+
+		if (context.getConfiguration().getBoolean(MAP_ONLY_PROPERTY, false))
+		{
+			sorter = new RegionRecordSorter(context.getConfiguration().getLong(RegionRecordSorter.SORT_BUFFER_PROPERTY,
+					RegionRecordSorter.DEFAULT_SORT_BUFFER_MB) * 1024 * 1024,
+					new File(System.getProperty("java.io.tmpdir")));
+		}
+	}
+
+	/**
+	 * Function called at the end of a task.
+	 */
+	@Override
+	protected void cleanup(Context context) throws IOException, InterruptedException
+	{
+		if (sorter != null)
+		{
+			writeSortedRecords(context);
+		}
+		if (alignmentMetrics != null)
+		{
+			alignmentMetrics.writeTaskOutput(context);
+		}
+		instrumentation.publish(context);
+		compressionProbe.publish(context, MapOutputCompression.getCodec(context.getConfiguration()));
 	}
 
 	/**
 	 * Function run on individual chunks of the data.
 	 */
 	@Override
-	public void map(final Text key, BytesWritable value, final Context context) throws IOException, InterruptedException
+	public void map(Text key, BytesWritable value, Context context) throws IOException, InterruptedException
 	{
-		// Only digests an input split if it is an ".fq.gz" file that starts with "halvade_" in the filename.
-		// Non-".fq.gz" files will simply be ignored while ".fq.gz" files that start with a different name will cause an
-		// IOException.
-		if (validateInputFileType(key.toString()))
+		// Paired R1/R2 FASTQ files are interleaved while being streamed to the aligner. Otherwise, only digests an input
+		// split if it is an ".fq.gz" file that starts with "halvade_" in the filename. Non-".fq.gz" files will simply be
+		// ignored while ".fq.gz" files that start with a different name will cause an IOException.
+		if (pairedFastqInput || validateInputFileType(key.toString()))
 		{
-			// Retrieve the sample belonging to the input split.
-			Sample sample = retrieveCorrectSample(key.toString());
+			alignReads(key.toString(), value, context);
+		}
+	}
 
-			SamRecordSink sink = new SamRecordSink()
-			{
-				// Stores aligned records belonging to a single read pair.
-				ArrayList<SAMRecord> readItems = new ArrayList<>();
+	/**
+	 * Aligns interleaved FASTQ data by streaming it through the {@link #toolsPipeline} (by default only BWA) and digests
+	 * the results. If the {@link #alignmentCache} contains the pipeline output for the input split, the cached output is
+	 * digested instead of running the pipeline.
+	 * 
+	 * @param inputSplitPath
+	 *            {@link String} Used for retrieving the {@link Sample}.
+	 * @param value
+	 *            {@link BytesWritable} Interleaved FASTQ data (plain or gzip compressed), or empty for paired FASTQ
+	 *            input (in which case the FASTQ files are read from the {@code inputSplitPath}).
+	 * @param context
+	 *            {@link Context}
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void alignReads(String inputSplitPath, BytesWritable value, final Context context)
+			throws IOException, InterruptedException
+	{
+		// Retrieve the sample belonging to the input split.
+		Sample sample = retrieveCorrectSample(inputSplitPath);
+
+		// Finds the read pairs with exactly the same sequences (an extra pass over the input, before the alignment).
+		final DuplicateReadPairs duplicates = collapseDuplicates
+				? DuplicateReadPairs.index(openFastqData(inputSplitPath, value, context),
+						DuplicateReadPairs.getMaxBytes(context.getConfiguration()))
+				: null;
+		if (duplicates != null)
+		{
+			context.getCounter(DuplicateReadPairs.DuplicateCounter.READ_PAIRS).increment(duplicates.getReadPairs());
+			context.getCounter(DuplicateReadPairs.DuplicateCounter.COLLAPSED_READ_PAIRS)
+					.increment(duplicates.getCollapsedReadPairs());
+		}
 
-				@Override
-				protected void digestStreamItem(SAMRecord item) throws IOException
+		// Digests the records of each read pair (grouped on read name by the sink). The alignment of a collapsed read
+		// pair is digested directly after the alignment of the read pair it is a duplicate of.
+		ReadPairSamRecordSink sink = new ReadPairSamRecordSink(instrumentation.get(MeteredStage.SAM_DECODING))
+		{
+			@Override
+			protected void digestStreamItem(List<SAMRecord> item) throws IOException
+			{
+				try
 				{
-					// As long as the records retrieved belong to the same read pair (or none are currently stored),
-					// adds them to the readItems.
-					if (readItems.isEmpty() || item.getReadName().equals(readItems.get(0).getReadName()))
+					digestBwaOutputReadPairAlignments(context, item);
+					if (duplicates != null)
 					{
-						readItems.add(item);
-					}
-					// If a different read name is found, digests records from the previous read pair, clears the stored
-					// records and starts new collection of records starting with the current record.
-					else
-					{
-						try
-						{
-							digestBwaOutputReadPairAlignments(context, readItems);
-						}
-						catch (InterruptedException e)
+						for (List<SAMRecord> duplicate : duplicates.expand(item))
 						{
-							throw new RuntimeException(e);
-						}
-						finally
-						{
-							readItems.clear();
-							readItems.add(item);
+							digestBwaOutputReadPairAlignments(context, duplicate);
 						}
 					}
 				}
+				catch (InterruptedException e)
+				{
+					throw new RuntimeException(e);
+				}
+			}
+		};
 
-				@Override
-				protected void finishStreamProcessing() throws IOException
+		// Replays the cached BWA output if available.
+		AlignmentCache.Writer cacheWriter = null;
+		if (alignmentCache != null)
+		{
+			String cacheKey = pairedFastqInput
+					? alignmentCache.createKey(sample.getSafeReadGroupLine(), context.getConfiguration(),
+							new Path(inputSplitPath), PairedFastqInputFormat.getSecondOfPair(new Path(inputSplitPath)))
+					: alignmentCache.createKey(sample.getSafeReadGroupLine(), value);
+			InputStream cachedOutput = alignmentCache.open(cacheKey);
+			if (cachedOutput != null)
+			{
+				logger.debug("Replaying cached alignment of input split: \"" + inputSplitPath + "\".");
+				context.getCounter(AlignmentCache.CacheCounter.HITS).increment(1);
+				try
 				{
-					// Checks if there are any records stored in readItems after processing the last record, and if so,
-					// digests these.
-					if (!readItems.isEmpty())
-					{
-						try
-						{
-							digestBwaOutputReadPairAlignments(context, readItems);
-						}
-						catch (InterruptedException e)
-						{
-							throw new RuntimeException(e);
-						}
-					}
+					sink.handleInputStream(cachedOutput);
 				}
-			};
+				finally
+				{
+					cachedOutput.close();
+				}
+				return;
+			}
+			context.getCounter(AlignmentCache.CacheCounter.MISSES).increment(1);
+			cacheWriter = alignmentCache.create(cacheKey);
+		}
+
+		InputStream fastqData = openFastqData(inputSplitPath, value, context);
+		if (duplicates != null)
+		{
+			fastqData = duplicates.filter(fastqData);
+		}
+
+		// Fills in the placeholders of the stage arguments.
+		Map<String, String> placeholderValues = new HashMap<>();
+		placeholderValues.put(ToolsPipeline.READ_GROUP_LINE_PLACEHOLDER, sample.getSafeReadGroupLine());
+		placeholderValues.put(ToolsPipeline.REFERENCE_FASTA_PLACEHOLDER, alignmentReferenceFastaFile);
+		placeholderValues.put(ToolsPipeline.TOOLS_DIRECTORY_PLACEHOLDER, toolsDirectory);
+		List<List<String>> commands = toolsPipeline.createCommands(toolsDirectory, placeholderValues);
+
+		logger.debug("Executing pipeline with input split: \"" + inputSplitPath + "\" and read group line \""
+				+ sample.getReadGroupLine() + "\".");
+		// Nothing reads stderr of the stages, so it goes to the task log instead of filling up the pipe buffer (which
+		// would block the stage and therefore the complete pipeline).
+		Process[] processes = new Process[commands.size()];
+		for (int i = 0; i < processes.length; i++)
+		{
+			processes[i] = new ProcessBuilder(commands.get(i)).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		}
+		if (cacheWriter == null)
+		{
+			PipeRunner.startPipeline(fastqData, sink, instrumentation, processes);
+			waitForStages(commands, processes);
+			return;
+		}
 
-			logger.debug("Executing pipeline with input split: \"" + key.toString() + "\" and read group line \""
-					+ sample.getReadGroupLine() + "\".");
-			PipeRunner.startPipeline(value.getBytes(), sink, new ProcessBuilder(bwaTool, "mem", "-p", "-M", "-R",
-					sample.getSafeReadGroupLine(), alignmentReferenceFastaFile, "-").start());
+		// Stores a copy of the pipeline output in the cache, but only if all stages finished successfully.
+		try
+		{
+			PipeRunner.startPipeline(fastqData, new TeeSink<>(sink, cacheWriter.getOutputStream()), instrumentation,
+					processes);
+		}
+		catch (RuntimeException e)
+		{
+			cacheWriter.discard();
+			throw e;
+		}
+		try
+		{
+			waitForStages(commands, processes);
+		}
+		catch (IOException e)
+		{
+			cacheWriter.discard();
+			throw e;
+		}
+		if (cacheWriter.commit())
+		{
+			context.getCounter(AlignmentCache.CacheCounter.STORED).increment(1);
 		}
 	}
 
+	/**
+	 * Waits until all stages of the {@link #toolsPipeline} finished. A stage that crashed causes the output of the
+	 * pipeline to be incomplete, so the task should fail instead of continuing with the partial alignments.
+	 * 
+	 * @param commands
+	 *            {@link List}{@code <}{@link List}{@code <}{@link String}{@code >>} The commands of the stages.
+	 * @param processes
+	 *            {@link Process}{@code []} The processes of the stages.
+	 * @throws IOException
+	 *             If any stage exited with a non-zero exit value.
+	 * @throws InterruptedException
+	 */
+	private void waitForStages(List<List<String>> commands, Process[] processes)
+			throws IOException, InterruptedException
+	{
+		IOException failure = null;
+		for (int i = 0; i < processes.length; i++)
+		{
+			int exitValue = processes[i].waitFor();
+			if (exitValue != 0 && failure == null)
+			{
+				failure = new IOException(
+						"Pipeline stage " + commands.get(i).get(0) + " failed with exit value " + exitValue + ".");
+			}
+		}
+		if (failure != null) throw failure;
+	}
+
+	/**
+	 * Opens the interleaved FASTQ data of an input split.
+	 * 
+	 * @param inputSplitPath
+	 *            {@link String}
+	 * @param value
+	 *            {@link BytesWritable} The content of the input split (empty for paired FASTQ input).
+	 * @param context
+	 *            {@link Context}
+	 * @return {@link InputStream}
+	 * @throws IOException
+	 */
+	private InputStream openFastqData(String inputSplitPath, BytesWritable value, Context context) throws IOException
+	{
+		if (pairedFastqInput)
+		{
+			return PairedFastqInputFormat.openInterleaved(new Path(inputSplitPath), context.getConfiguration());
+		}
+		return InputDecompression.decompress(new ByteArrayInputStream(value.getBytes(), 0, value.getLength()),
+				context.getConfiguration());
+	}
+
 	/**
 	 * Digests all {@link SAMRecord}{@code s} generated by BWA for a single read pair and writes it to {@link Context}.
 	 * 
@@ -159,10 +425,39 @@ public class HadoopPipelineMapper
 		// Digests the BWA output SAMRecords from a single read pair.
 		AlignedReadPair readPair = new AlignedReadPair(records);
 
+		// Encoded records from the previous read pair are not needed anymore.
+		encodedRecords.clear();
+
 		// Increments the Hadoop enum counter by 1 for this read pair type.
 		readPair.getType().increment(context);
 
+		if (alignmentMetrics != null)
+		{
+			for (SAMRecord record : records)
+			{
+				alignmentMetrics.add(record);
+			}
+		}
+
+		// Discarded records are skipped by writeRecordToContext(), but are only counted once here.
+		if (recordFilter != null)
+		{
+			if (!recordFilter.accepts(readPair.getType()))
+			{
+				context.getCounter(RecordFilter.FilterCounter.DISCARDED_READ_PAIRS).increment(1);
+				return;
+			}
+			for (SAMRecord record : records)
+			{
+				if (!recordFilter.accepts(record))
+				{
+					context.getCounter(RecordFilter.FilterCounter.DISCARDED_RECORDS).increment(1);
+				}
+			}
+		}
+
 		// What is written to context depends on the read pair type.
+		int writtenRegions = 0;
 		switch (readPair.getType())
 		{
 			case BOTH_UNMAPPED:
@@ -174,6 +469,7 @@ public class HadoopPipelineMapper
 			case ONE_UNMAPPED_ONE_MULTIMAPPED_SUPPLEMENTARY_ONLY:
 				// First write records of read pair to unmapped region key -> no break!
 				writeReadPairRecordsToContext(context, Region.unmapped(), readPair);
+				writtenRegions++;
 			case BOTH_MAPPED:
 			case BOTH_MULTIMAPPED:
 			case BOTH_MULTIMAPPED_SUPPLEMENTARY_ONLY:
@@ -186,6 +482,13 @@ public class HadoopPipelineMapper
 				{
 					writeReadPairRecordsToContext(context, region, readPair);
 				}
+
+				// Read pairs present in multiple region outputs prevent concatenating them.
+				writtenRegions += regions.size();
+				if (writtenRegions > 1)
+				{
+					context.getCounter(BgzfBamConcatenator.ConcatenationCounter.SHARED_READ_PAIRS).increment(1);
+				}
 				break;
 			case INVALID:
 				// Only write records of read pair to invalid Region key.
@@ -203,10 +506,16 @@ public class HadoopPipelineMapper
 	 */
 	private Set<Region> retrieveReadPairUniqueRegions(AlignedReadPair readPair)
 	{
+		StageMeter meter = instrumentation.get(MeteredStage.REGION_RETRIEVAL);
+		long startTime = meter.start();
+
 		// Generates a set containing the unique regions only.
 		Set<Region> regionsPairSet = new HashSet<>();
 		regionsPairSet.addAll(retrieveReadUniqueRegions(readPair.getFirst()));
 		regionsPairSet.addAll(retrieveReadUniqueRegions(readPair.getSecond()));
+
+		meter.stop(startTime);
+		meter.addRecords(1);
 		return regionsPairSet;
 	}
 
@@ -219,13 +528,40 @@ public class HadoopPipelineMapper
 	 * @return {@link Set}{@code <}{@link Region}{@code >}
 	 */
 	private Set<Region> retrieveReadUniqueRegions(AlignedRead read)
+	{
+		return retrieveUniqueRegions(read.getRecords(), groupsRetriever, regionBuckets, recordFilter);
+	}
+
+	/**
+	 * Retrieve all unique {@link Region}{@code s} the given {@link SAMRecord}{@code s} match with. Records discarded by
+	 * the {@link RecordFilter} are not written to any {@link Region}, so these do not add a {@link Region} either (as
+	 * otherwise the kept records of the read pair would be written to a {@link Region} they do not overlap with).
+	 * 
+	 * @param records
+	 *            {@link List}{@code <}{@link SAMRecord}{@code >}
+	 * @param groupsRetriever
+	 *            {@link SamRecordGroupsRetriever}
+	 * @param regionBuckets
+	 *            {@link RegionBuckets} ({@code null} if the regions are not coalesced)
+	 * @param recordFilter
+	 *            {@link RecordFilter} ({@code null} if no records are discarded)
+	 * @return {@link Set}{@code <}{@link Region}{@code >}
+	 */
+	static Set<Region> retrieveUniqueRegions(List<SAMRecord> records, SamRecordGroupsRetriever groupsRetriever,
+			RegionBuckets regionBuckets, RecordFilter recordFilter)
 	{
 		// Generates a set containing the unique regions only.
 		Set<Region> regionsSet = new HashSet<>();
 
-		for (SAMRecord record : read.getRecords())
+		for (SAMRecord record : records)
 		{
-			regionsSet.addAll(groupsRetriever.retrieveGroupsWithinRange(record));
+			if (recordFilter != null && !recordFilter.accepts(record)) continue;
+
+			for (Region region : groupsRetriever.retrieveGroupsWithinRange(record))
+			{
+				// When coalescing, the matched segments are replaced by the bucket they belong to.
+				regionsSet.add(regionBuckets == null ? region : regionBuckets.getBucket(region));
+			}
 		}
 
 		return regionsSet;
@@ -290,9 +626,99 @@ public class HadoopPipelineMapper
 	private void writeRecordToContext(Context context, Region region, SAMRecord record)
 			throws IOException, InterruptedException
 	{
-		SAMRecordWritable recordWritable = new SAMRecordWritable();
-		recordWritable.set(record);
-		context.write(new RegionWithSortableSamRecordWritable(region, record), recordWritable);
+		if (recordFilter != null && !recordFilter.accepts(record)) return;
+
+		StageMeter meter = instrumentation.get(MeteredStage.CONTEXT_WRITE);
+		long startTime = meter.start();
+
+		BamRecordBytesWritable recordWritable = retrieveEncodedRecord(record);
+		if (sorter != null)
+		{
+			sorter.add(region, recordWritable);
+		}
+		else
+		{
+			context.write(new RegionWithSortableSamRecordWritable(region, record), recordWritable);
+			compressionProbe.offer(recordWritable);
+		}
+
+		meter.stop(startTime);
+		meter.addRecords(1);
+	}
+
+	/**
+	 * Writes the records sorted by the {@link #sorter} directly to the per-region BAM parts (or, if
+	 * {@link PackedRegionBamOutputFormat#PACKED_OUTPUT_PROPERTY} is set, to a single packed BAM file). The BGZF blocks
+	 * are compressed by the number of threads of the map task (see
+	 * {@link org.molgenis.hadoop.pipeline.application.formats.RawBamOutputFormat#getCompressionThreads}).
+	 * 
+	 * @param context
+	 *            {@link Context}
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void writeSortedRecords(Context context) throws IOException, InterruptedException
+	{
+		final MultipleOutputs<RegionWithSortableSamRecordWritable, BamRecordBytesWritable> outputCollector = new MultipleOutputs<>(
+				context);
+		final boolean packedOutput = context.getConfiguration()
+				.getBoolean(PackedRegionBamOutputFormat.PACKED_OUTPUT_PROPERTY, false);
+		final Text regionName = new Text();
+		final StageMeter meter = instrumentation.get(MeteredStage.CONTEXT_WRITE);
+		logger.debug("Writing sorted records (" + sorter.getSpillCount() + " spill files).");
+
+		try
+		{
+			sorter.writeSorted(new RegionRecordSorter.SortedRecordWriter()
+			{
+				@Override
+				public void write(Region region, BamRecordBytesWritable record)
+						throws IOException, InterruptedException
+				{
+					long startTime = meter.start();
+					String outputFileName = HadoopPipelineReducer.generateOutputFileName(region);
+					if (packedOutput)
+					{
+						regionName.set(outputFileName);
+						outputCollector.write("packedRegions", regionName, record);
+					}
+					else
+					{
+						outputCollector.write("recordsPerRegion", NullWritable.get(), record, outputFileName);
+					}
+					meter.stop(startTime);
+				}
+			});
+			outputCollector.close();
+		}
+		finally
+		{
+			sorter.close();
+		}
+	}
+
+	/**
+	 * Returns the BAM-encoded {@link SAMRecord}. If the {@link SAMRecord} was not encoded yet for the current read pair,
+	 * encodes it into a (reused) {@link BamRecordBytesWritable} from {@link #encodedRecordsPool}.
+	 * 
+	 * @param record
+	 *            {@link SAMRecord}
+	 * @return {@link BamRecordBytesWritable}
+	 */
+	private BamRecordBytesWritable retrieveEncodedRecord(SAMRecord record)
+	{
+		BamRecordBytesWritable encodedRecord = encodedRecords.get(record);
+		if (encodedRecord == null)
+		{
+			if (encodedRecordsPool.size() == encodedRecords.size())
+			{
+				encodedRecordsPool.add(new BamRecordBytesWritable());
+			}
+			encodedRecord = encodedRecordsPool.get(encodedRecords.size());
+			encodedRecord.set(record);
+			encodedRecords.put(record, encodedRecord);
+		}
+		return encodedRecord;
 	}
 
 	/**
@@ -307,12 +733,55 @@ public class HadoopPipelineMapper
 	{
 		DistributedCacheHandler cacheHandler = new DistributedCacheHandler(context);
 
-		bwaTool = cacheHandler.getBwaToolFromToolsArchive();
+		toolsDirectory = cacheHandler.getToolsDirectoryFromToolsArchive();
 		alignmentReferenceFastaFile = cacheHandler.getReferenceFastaFile();
+		toolsPipeline = new HadoopToolsPipelineXmlReader().read(cacheHandler.getInfoXmlFileFromToolsArchive());
+
+		// The pipeline output is only cached if the versions of all its tools are known.
+		if (AlignmentCache.isEnabled(context.getConfiguration()))
+		{
+			String versions = toolsPipeline
+					.describeVersions(new HadoopToolsXmlReader().read(cacheHandler.getInfoXmlFileFromToolsArchive()));
+			if (versions == null)
+			{
+				logger.warn("Not all pipeline tools have a version in the tools archive info.xml, the alignment cache "
+						+ "is not used.");
+			}
+			else
+			{
+				// The pipeline output does not contain the collapsed read pairs (which depend on the memory limit).
+				List<String> options = toolsPipeline.describeArguments();
+				if (DuplicateReadPairs.isEnabled(context.getConfiguration()))
+				{
+					options.add("collapse-duplicates:" + DuplicateReadPairs.getMaxBytes(context.getConfiguration()));
+				}
+				alignmentCache = new AlignmentCache(context.getConfiguration(), versions, options);
+			}
+		}
 
-		// Retrieves the groups stored in the bed-file which can be used for SAMRecord grouping.
-		String bedFile = cacheHandler.getBedFile();
-		ContigRegionsMap possibleGroups = new HadoopBedFormatFileReader().read(bedFile);
+		// Retrieves the groups stored in the bed-file which can be used for SAMRecord grouping. If no bed-file was
+		// given, the reference sequences are tiled instead.
+		ContigRegionsMap possibleGroups;
+		if (cacheHandler.hasBedFile())
+		{
+			possibleGroups = new HadoopBedFormatFileReader().read(cacheHandler.getBedFile());
+		}
+		else
+		{
+			int tileSize = context.getConfiguration().getInt(ReferenceTiler.TILE_SIZE_PROPERTY, 0);
+			possibleGroups = new ReferenceTiler(tileSize)
+					.tile(new HadoopRefSeqDictReader().read(cacheHandler.getReferenceDictFile()));
+		}
+
+		// Optionally coalesces the regions into buckets of roughly equal size.
+		RegionCoalescer coalescer = RegionCoalescer.fromConfiguration(context.getConfiguration());
+		if (coalescer != null)
+		{
+			regionBuckets = coalescer.coalesce(possibleGroups);
+			possibleGroups = regionBuckets.getSegments();
+			logger.debug("Coalesced " + regionBuckets.getSegments().numberOfRegions() + " segments into "
+					+ regionBuckets.getBuckets().size() + " buckets.");
+		}
 		groupsRetriever = new SamRecordGroupsRetriever(possibleGroups);
 
 		// Retrieves the samples stored in the samples information file.
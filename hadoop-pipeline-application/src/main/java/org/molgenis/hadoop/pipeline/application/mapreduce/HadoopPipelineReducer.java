@@ -4,22 +4,100 @@ import java.io.IOException;
 import java.util.Iterator;
 
 import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.molgenis.hadoop.pipeline.application.DistributedCacheHandler;
 import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.SamFileHeaderGenerator;
+import org.molgenis.hadoop.pipeline.application.formats.IncrementalRegionOutput;
+import org.molgenis.hadoop.pipeline.application.formats.PackedRegionBamOutputFormat;
+import org.molgenis.hadoop.pipeline.application.formats.RawBamRecordReader;
+import org.molgenis.hadoop.pipeline.application.inputstreamdigestion.StringSink;
+import org.molgenis.hadoop.pipeline.application.instrumentation.MeteredStage;
+import org.molgenis.hadoop.pipeline.application.instrumentation.StageMeter;
+import org.molgenis.hadoop.pipeline.application.instrumentation.TaskInstrumentation;
+import org.molgenis.hadoop.pipeline.application.processes.RegionToolRunner;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
 import org.molgenis.hadoop.pipeline.application.writables.RegionWithSortableSamRecordWritable;
-import org.seqdoop.hadoop_bam.SAMRecordWritable;
+
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMSequenceDictionary;
 
 /**
- * Hadoop MapReduce Job reducer.
+ * Hadoop MapReduce Job reducer. The values are written to the output files as the BAM bytes they were serialized as
+ * by the mapper (without decoding them to a {@link htsjdk.samtools.SAMRecord}). By default a BAM file is written per
+ * region, but if {@link PackedRegionBamOutputFormat#PACKED_OUTPUT_PROPERTY} is set, all regions of the reducer are
+ * written to a single BAM file with a region index instead. If
+ * {@link IncrementalRegionOutput#PREVIOUS_OUTPUT_PROPERTY} is set, the records of each region are merged with the
+ * records of that region in the output of a previous job. If {@link RegionToolRunner#TOOL_PROPERTY} is set, the records
+ * of each region are streamed into that tool instead and the output of the tool is written per region. If
+ * {@link RegionCoverageCalculator#COVERAGE_PROPERTY} is set, the depth of coverage of each region is written as well.
  */
 public class HadoopPipelineReducer
-		extends Reducer<RegionWithSortableSamRecordWritable, SAMRecordWritable, NullWritable, SAMRecordWritable>
+		extends Reducer<RegionWithSortableSamRecordWritable, BamRecordBytesWritable, NullWritable, BamRecordBytesWritable>
 {
 	/**
 	 * Collector for reducer output.
 	 */
-	private MultipleOutputs<NullWritable, SAMRecordWritable> outputCollector;
+	private MultipleOutputs<NullWritable, BamRecordBytesWritable> outputCollector;
+
+	/**
+	 * Guards every access to the {@link #outputCollector}, as {@link MultipleOutputs} is not thread-safe while the
+	 * output of the {@link #regionTool} is written from the thread digesting it.
+	 */
+	private final Object outputLock = new Object();
+
+	/**
+	 * Whether all regions are written to a single (packed) BAM file.
+	 */
+	private boolean packedOutput;
+
+	/**
+	 * The name of the current region (used as key for the packed output).
+	 */
+	private final Text regionName = new Text();
+
+	/**
+	 * Measures the different stages of the reducer.
+	 */
+	private TaskInstrumentation instrumentation;
+
+	/**
+	 * The output of a previous job the records are merged with ({@code null} if only the new records are written).
+	 */
+	private IncrementalRegionOutput previousOutput;
+
+	/**
+	 * Starts the tool the records of each region are streamed into ({@code null} if the records are written to BAM
+	 * files).
+	 */
+	private RegionToolRunner regionToolRunner;
+
+	/**
+	 * The tool the records of the current region are streamed into.
+	 */
+	private RegionToolRunner.RegionToolProcess regionTool;
+
+	/**
+	 * Calculates the coverage of each region ({@code null} if disabled).
+	 */
+	private RegionCoverageCalculator coverageCalculator;
+
+	/**
+	 * Dictionary used to retrieve the reference index of the contig of each region.
+	 */
+	private SAMSequenceDictionary sequenceDictionary;
+
+	/**
+	 * Whether the records of the current region are added to the {@link #coverageCalculator}.
+	 */
+	private boolean calculateCoverage;
+
+	/**
+	 * Reusable line for the coverage output.
+	 */
+	private final Text coverageLine = new Text();
 
 	/**
 	 * Function called at the beginning of a task.
@@ -27,26 +105,207 @@ public class HadoopPipelineReducer
 	@Override
 	protected void setup(Context context) throws IOException, InterruptedException
 	{
+		instrumentation = new TaskInstrumentation(context.getConfiguration());
+		packedOutput = context.getConfiguration().getBoolean(PackedRegionBamOutputFormat.PACKED_OUTPUT_PROPERTY,
+				false);
+
+		if (IncrementalRegionOutput.isEnabled(context.getConfiguration()))
+		{
+			previousOutput = new IncrementalRegionOutput(context.getConfiguration(),
+					SamFileHeaderGenerator.retrieveSamFileHeader(context).getSequenceDictionary());
+		}
+
+		if (RegionToolRunner.isEnabled(context.getConfiguration()))
+		{
+			DistributedCacheHandler cacheHandler = new DistributedCacheHandler(context);
+			regionToolRunner = new RegionToolRunner(context.getConfiguration(),
+					cacheHandler.getToolsDirectoryFromToolsArchive(), cacheHandler.getReferenceFastaFile(),
+					SamFileHeaderGenerator.retrieveSamFileHeader(context, SortOrder.coordinate));
+		}
+
 		// Initiate a new output collector.
-		outputCollector = new MultipleOutputs<NullWritable, SAMRecordWritable>(context);
+		outputCollector = new MultipleOutputs<NullWritable, BamRecordBytesWritable>(context);
+
+		if (RegionCoverageCalculator.isEnabled(context.getConfiguration()))
+		{
+			coverageCalculator = new RegionCoverageCalculator(context.getConfiguration());
+			sequenceDictionary = SamFileHeaderGenerator.retrieveSamFileHeader(context).getSequenceDictionary();
+			writeCoverageLine(coverageCalculator.getHeaderLine());
+		}
 	}
 
 	/**
 	 * Function run on a key with an {@link Iterable} containing the values belonging to that key.
 	 */
 	@Override
-	protected void reduce(RegionWithSortableSamRecordWritable key, Iterable<SAMRecordWritable> values, Context context)
-			throws IOException, InterruptedException
+	protected void reduce(RegionWithSortableSamRecordWritable key, Iterable<BamRecordBytesWritable> values,
+			Context context) throws IOException, InterruptedException
 	{
 		// Retrieve the Region from the Writable.
 		Region region = key.get();
 
-		// Writes the aligned SAMRecord data.
-		Iterator<SAMRecordWritable> iterator = values.iterator();
-		while (iterator.hasNext())
+		String outputFileName = generateOutputFileName(region);
+		regionName.set(outputFileName);
+		StageMeter inputMeter = instrumentation.get(MeteredStage.REDUCER_INPUT);
+
+		// Streams the records into the tool, whose output is written as the output of the region.
+		if (regionToolRunner != null)
+		{
+			if (!RegionToolRunner.accepts(region))
+			{
+				context.getCounter(RegionToolRunner.RegionToolCounter.SKIPPED_REGIONS).increment(1);
+				return;
+			}
+			context.getCounter(RegionToolRunner.RegionToolCounter.REGIONS).increment(1);
+			regionTool = regionToolRunner.start(region, outputFileName, createToolOutputSink(outputFileName));
+		}
+
+		// Regions without reference coordinates (unmapped/invalid) have no contig within the dictionary.
+		int referenceIndex = sequenceDictionary == null ? -1 : sequenceDictionary.getSequenceIndex(region.getContig());
+		calculateCoverage = referenceIndex != -1;
+		if (calculateCoverage) coverageCalculator.start(region, referenceIndex);
+
+		// The records of the previous output are merged with the new records (both are coordinate sorted).
+		RawBamRecordReader previousReader = previousOutput == null ? null : previousOutput.open(outputFileName);
+		BamRecordBytesWritable previousRecord = new BamRecordBytesWritable();
+		try
+		{
+			boolean hasPreviousRecord = previousReader != null && previousReader.next(previousRecord);
+
+			// Writes the aligned SAMRecord data (as raw BAM bytes).
+			Iterator<BamRecordBytesWritable> iterator = values.iterator();
+			while (true)
+			{
+				long startTime = inputMeter.start();
+				if (!iterator.hasNext())
+				{
+					inputMeter.stop(startTime);
+					break;
+				}
+				BamRecordBytesWritable value = iterator.next();
+				inputMeter.stop(startTime);
+				inputMeter.addRecords(1);
+
+				while (hasPreviousRecord
+						&& BamRecordBytesWritable.COORDINATE_COMPARATOR.compare(previousRecord, value) <= 0)
+				{
+					write(outputFileName, previousRecord);
+					hasPreviousRecord = previousReader.next(previousRecord);
+				}
+				write(outputFileName, value);
+			}
+
+			while (hasPreviousRecord)
+			{
+				write(outputFileName, previousRecord);
+				hasPreviousRecord = previousReader.next(previousRecord);
+			}
+
+			// The tool output of the region is completely written before the coverage line.
+			if (regionTool != null)
+			{
+				RegionToolRunner.RegionToolProcess tool = regionTool;
+				regionTool = null;
+				tool.close();
+			}
+			if (calculateCoverage) writeCoverageLine(coverageCalculator.finish());
+		}
+		finally
 		{
-			outputCollector.write("recordsPerRegion", NullWritable.get(), iterator.next(),
-					generateOutputFileName(region));
+			if (previousReader != null) previousReader.close();
+			if (regionTool != null)
+			{
+				regionTool.close();
+				regionTool = null;
+			}
+		}
+	}
+
+	/**
+	 * Creates a {@link StringSink} that writes each line of the tool output to the output of a region.
+	 * 
+	 * @param outputFileName
+	 *            {@link String} The output file name of the region (see {@link #generateOutputFileName(Region)}).
+	 * @return {@link StringSink}
+	 */
+	private StringSink createToolOutputSink(final String outputFileName)
+	{
+		return new StringSink()
+		{
+			private final Text line = new Text();
+
+			@Override
+			protected void digestStreamItem(String item) throws IOException
+			{
+				// An empty tool output results in a single null item.
+				if (item == null) return;
+				line.set(item);
+				try
+				{
+					synchronized (outputLock)
+					{
+						outputCollector.write("toolOutputPerRegion", NullWritable.get(), line, outputFileName);
+					}
+				}
+				catch (InterruptedException e)
+				{
+					throw new IOException(e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Writes a single record to the output of a region.
+	 * 
+	 * @param outputFileName
+	 *            {@link String} The output file name of the region (see {@link #generateOutputFileName(Region)}).
+	 * @param value
+	 *            {@link BamRecordBytesWritable}
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void write(String outputFileName, BamRecordBytesWritable value) throws IOException, InterruptedException
+	{
+		StageMeter outputMeter = instrumentation.get(MeteredStage.REDUCER_OUTPUT);
+		long startTime = outputMeter.start();
+		if (calculateCoverage) coverageCalculator.add(value);
+		if (regionTool != null)
+		{
+			regionTool.write(value);
+		}
+		else
+		{
+			synchronized (outputLock)
+			{
+				if (packedOutput)
+				{
+					outputCollector.write("packedRegions", regionName, value);
+				}
+				else
+				{
+					outputCollector.write("recordsPerRegion", NullWritable.get(), value, outputFileName);
+				}
+			}
+		}
+		outputMeter.stop(startTime);
+		outputMeter.addRecords(1);
+	}
+
+	/**
+	 * Writes a line to the coverage output of the reducer.
+	 * 
+	 * @param line
+	 *            {@link String}
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void writeCoverageLine(String line) throws IOException, InterruptedException
+	{
+		synchronized (outputLock)
+		{
+			coverageLine.set(line);
+			outputCollector.write("coverage", NullWritable.get(), coverageLine);
 		}
 	}
 
@@ -56,7 +315,22 @@ public class HadoopPipelineReducer
 	@Override
 	protected void cleanup(Context context) throws IOException, InterruptedException
 	{
-		outputCollector.close();
+		// Closing flushes the remaining (compressed) data of all output files.
+		StageMeter outputMeter = instrumentation.get(MeteredStage.REDUCER_OUTPUT);
+		long startTime = outputMeter.start();
+		synchronized (outputLock)
+		{
+			outputCollector.close();
+		}
+		outputMeter.stop(startTime);
+
+		// The regions of the previous output without new records are copied as-is.
+		if (previousOutput != null)
+		{
+			previousOutput.copyUnopenedRegions(context);
+		}
+
+		instrumentation.publish(context);
 	}
 
 	/**
@@ -68,7 +342,7 @@ public class HadoopPipelineReducer
 	 *            {@link Region} Used to define the file name.
 	 * @return {@link String} File name to be used.
 	 */
-	private String generateOutputFileName(Region region)
+	static String generateOutputFileName(Region region)
 	{
 		return region.getContig() + "-" + region.getStart() + "-" + region.getEnd();
 	}
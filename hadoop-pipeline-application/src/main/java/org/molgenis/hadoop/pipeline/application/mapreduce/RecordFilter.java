@@ -0,0 +1,162 @@
+package org.molgenis.hadoop.pipeline.application.mapreduce;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+import org.molgenis.hadoop.pipeline.application.sequences.AlignedReadPair;
+
+import htsjdk.samtools.SAMRecord;
+
+/**
+ * Discards records in the {@link HadoopPipelineMapper} before they are written to the context, so records that are not
+ * needed downstream do not cost shuffle bandwidth or output space. The filter properties are parsed once into a flag
+ * mask, a MAPQ threshold and a lookup table of {@link AlignedReadPair.Type}{@code s}, so each check only consists of
+ * a few primitive comparisons.
+ * <p>
+ * Note that the remaining records are written as-is: the mate fields of a record are not updated when its mate is
+ * discarded.
+ */
+public class RecordFilter
+{
+	/**
+	 * Configuration property defining the SAM flags (decimal or {@code 0x} hexadecimal) of which records having any of
+	 * these are discarded (for example {@code 0x100} for secondary alignments). Defaults to {@code 0}.
+	 */
+	public static final String EXCLUDE_FLAGS_PROPERTY = "molgenis.hadoop.pipeline.filter.exclude.flags";
+
+	/**
+	 * Configuration property defining the minimum MAPQ of mapped records (unmapped records are not affected). Defaults
+	 * to {@code 0}.
+	 */
+	public static final String MIN_MAPQ_PROPERTY = "molgenis.hadoop.pipeline.filter.min.mapq";
+
+	/**
+	 * Configuration property defining the comma-separated {@link AlignedReadPair.Type}{@code s} of which all records of
+	 * the read pair are discarded (for example {@code INVALID}). Defaults to none.
+	 */
+	public static final String EXCLUDE_PAIR_TYPES_PROPERTY = "molgenis.hadoop.pipeline.filter.exclude.pair.types";
+
+	/**
+	 * Counters for the discarded records.
+	 */
+	public enum FilterCounter
+	{
+		/**
+		 * The read pairs of which all records were discarded due to their {@link AlignedReadPair.Type}.
+		 */
+		DISCARDED_READ_PAIRS,
+
+		/**
+		 * The records (of read pairs that were not discarded as a whole) discarded due to their flags or MAPQ.
+		 */
+		DISCARDED_RECORDS
+	}
+
+	/**
+	 * Records having any of these flags are discarded.
+	 */
+	private final int excludedFlags;
+
+	/**
+	 * Mapped records with a lower MAPQ are discarded.
+	 */
+	private final int minMappingQuality;
+
+	/**
+	 * Whether the read pairs of a type are discarded (indexed by {@link AlignedReadPair.Type#ordinal()}).
+	 */
+	private final boolean[] excludedReadPairTypes = new boolean[AlignedReadPair.Type.values().length];
+
+	/**
+	 * Whether any record is discarded at all.
+	 */
+	private final boolean enabled;
+
+	/**
+	 * Create a new {@link RecordFilter}.
+	 *
+	 * @param conf
+	 *            {@link Configuration}
+	 * @throws IllegalArgumentException
+	 *             If a property contains an invalid value.
+	 */
+	public RecordFilter(Configuration conf) throws IllegalArgumentException
+	{
+		try
+		{
+			excludedFlags = Integer.decode(conf.getTrimmed(EXCLUDE_FLAGS_PROPERTY, "0"));
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IllegalArgumentException(EXCLUDE_FLAGS_PROPERTY + " should contain SAM flags.", e);
+		}
+		minMappingQuality = conf.getInt(MIN_MAPQ_PROPERTY, 0);
+
+		boolean excludesReadPairs = false;
+		for (String type : conf.getTrimmedStrings(EXCLUDE_PAIR_TYPES_PROPERTY))
+		{
+			try
+			{
+				excludedReadPairTypes[AlignedReadPair.Type.valueOf(type).ordinal()] = true;
+			}
+			catch (IllegalArgumentException e)
+			{
+				throw new IllegalArgumentException("Unknown read pair type \"" + type + "\" in "
+						+ EXCLUDE_PAIR_TYPES_PROPERTY + ", use one of: "
+						+ Arrays.toString(AlignedReadPair.Type.values()), e);
+			}
+			excludesReadPairs = true;
+		}
+		enabled = excludedFlags != 0 || minMappingQuality > 0 || excludesReadPairs;
+	}
+
+	/**
+	 * Validates the filter properties of the job.
+	 *
+	 * @param job
+	 *            {@link Job}
+	 * @throws IllegalArgumentException
+	 *             If a property contains an invalid value (such as an unknown {@link AlignedReadPair.Type}).
+	 */
+	public static void validate(Job job) throws IllegalArgumentException
+	{
+		new RecordFilter(job.getConfiguration());
+	}
+
+	/**
+	 * Checks whether any record can be discarded by this filter.
+	 *
+	 * @return {@code boolean}
+	 */
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * Checks whether the records of a read pair of the given type are kept.
+	 *
+	 * @param type
+	 *            {@link AlignedReadPair.Type}
+	 * @return {@code boolean}
+	 */
+	public boolean accepts(AlignedReadPair.Type type)
+	{
+		return !excludedReadPairTypes[type.ordinal()];
+	}
+
+	/**
+	 * Checks whether a single record is kept.
+	 *
+	 * @param record
+	 *            {@link SAMRecord}
+	 * @return {@code boolean}
+	 */
+	public boolean accepts(SAMRecord record)
+	{
+		int flags = record.getFlags();
+		return (flags & excludedFlags) == 0
+				&& ((flags & 0x4) != 0 || record.getMappingQuality() >= minMappingQuality);
+	}
+}
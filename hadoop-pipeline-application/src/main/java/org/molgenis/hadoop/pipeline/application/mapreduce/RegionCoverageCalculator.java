@@ -0,0 +1,387 @@
+package org.molgenis.hadoop.pipeline.application.mapreduce;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+
+/**
+ * Calculates the depth of coverage of a {@link Region} while its coordinate sorted records stream past in the
+ * {@link HadoopPipelineReducer}, so no extra pass over the region BAM files is needed afterwards. The aligned blocks of
+ * each record ({@code M}, {@code =} and {@code X} CIGAR operations) are added to a sweep-line of depth changes. As the
+ * records are sorted, all positions before the start of a record are final and are added to a depth histogram, so the
+ * sweep-line only needs to hold the positions spanned by the records overlapping the current position (instead of the
+ * complete region). Unmapped, secondary, QC-failed and duplicate records are not counted.
+ */
+public class RegionCoverageCalculator
+{
+	/**
+	 * Configuration property defining whether the coverage of each region is written to a {@code coverage-r-<reducer
+	 * number>} file (see {@link #getHeaderLine()} for the format). Defaults to {@code false}.
+	 */
+	public static final String COVERAGE_PROPERTY = "molgenis.hadoop.pipeline.coverage";
+
+	/**
+	 * Configuration property defining the depths for which the percentage of bases with at least that depth is
+	 * reported. Defaults to {@link #DEFAULT_THRESHOLDS}.
+	 */
+	public static final String THRESHOLDS_PROPERTY = "molgenis.hadoop.pipeline.coverage.thresholds";
+
+	/**
+	 * Default for {@link #THRESHOLDS_PROPERTY}.
+	 */
+	public static final String DEFAULT_THRESHOLDS = "1,10,20,30,50,100";
+
+	/**
+	 * Configuration property defining the highest depth within the depth histogram (higher depths are counted in this
+	 * bin). Defaults to {@link #DEFAULT_MAX_DEPTH}.
+	 */
+	public static final String MAX_DEPTH_PROPERTY = "molgenis.hadoop.pipeline.coverage.max.depth";
+
+	/**
+	 * Default for {@link #MAX_DEPTH_PROPERTY}.
+	 */
+	public static final int DEFAULT_MAX_DEPTH = 1000;
+
+	/**
+	 * Flags of records that are not counted: unmapped, secondary, QC-failed and duplicate.
+	 */
+	private static final int EXCLUDED_FLAGS = 0x4 | 0x100 | 0x200 | 0x400;
+
+	/**
+	 * Bitmask of the CIGAR operations that consume the reference ({@code M}, {@code D}, {@code N}, {@code =} and
+	 * {@code X}), indexed by the BAM operation code.
+	 */
+	private static final int REFERENCE_CONSUMING_OPERATIONS = 1 << 0 | 1 << 2 | 1 << 3 | 1 << 7 | 1 << 8;
+
+	/**
+	 * Bitmask of the CIGAR operations of which the bases are counted ({@code M}, {@code =} and {@code X}).
+	 */
+	private static final int ALIGNED_OPERATIONS = 1 << 0 | 1 << 7 | 1 << 8;
+
+	/**
+	 * The depths for which the percentage of bases with at least that depth is reported.
+	 */
+	private final int[] thresholds;
+
+	/**
+	 * The highest depth within the histogram.
+	 */
+	private final int maxDepth;
+
+	/**
+	 * The number of bases per depth (where the last bin contains all bases with a depth of at least
+	 * {@link #maxDepth}).
+	 */
+	private final long[] histogram;
+
+	/**
+	 * Circular buffer with the depth changes per position (indexed by {@code position & (length - 1)}).
+	 */
+	private int[] depthChanges = new int[1024];
+
+	/**
+	 * The region that is being calculated ({@code null} if none).
+	 */
+	private Region region;
+
+	/**
+	 * The reference index of the contig of {@link #region}.
+	 */
+	private int referenceIndex;
+
+	/**
+	 * The next position that is added to the histogram.
+	 */
+	private int position;
+
+	/**
+	 * The depth at the position before {@link #position}.
+	 */
+	private int depth;
+
+	/**
+	 * The highest position having a depth change (positions after this have no coverage).
+	 */
+	private int lastChangedPosition;
+
+	/**
+	 * The sum of the depth of all positions added to the histogram.
+	 */
+	private long depthSum;
+
+	/**
+	 * Create a new {@link RegionCoverageCalculator}.
+	 *
+	 * @param conf
+	 *            {@link Configuration} Can contain the {@link #THRESHOLDS_PROPERTY} and {@link #MAX_DEPTH_PROPERTY}.
+	 * @throws IllegalArgumentException
+	 *             If a threshold is lower than 1 or higher than the maximum depth.
+	 */
+	public RegionCoverageCalculator(Configuration conf) throws IllegalArgumentException
+	{
+		this(parseThresholds(conf.get(THRESHOLDS_PROPERTY, DEFAULT_THRESHOLDS)),
+				conf.getInt(MAX_DEPTH_PROPERTY, DEFAULT_MAX_DEPTH));
+	}
+
+	/**
+	 * Create a new {@link RegionCoverageCalculator}.
+	 *
+	 * @param thresholds
+	 *            {@code int[]}
+	 * @param maxDepth
+	 *            {@code int}
+	 * @throws IllegalArgumentException
+	 *             If a threshold is lower than 1 or higher than the maximum depth.
+	 */
+	RegionCoverageCalculator(int[] thresholds, int maxDepth) throws IllegalArgumentException
+	{
+		for (int threshold : thresholds)
+		{
+			if (threshold < 1 || threshold > maxDepth)
+			{
+				throw new IllegalArgumentException(
+						"Coverage thresholds should be between 1 and the maximum depth (" + maxDepth + ").");
+			}
+		}
+		this.thresholds = thresholds.clone();
+		this.maxDepth = maxDepth;
+		this.histogram = new long[maxDepth + 1];
+	}
+
+	/**
+	 * Checks whether the coverage is calculated (see {@link #COVERAGE_PROPERTY}).
+	 *
+	 * @param conf
+	 *            {@link Configuration}
+	 * @return {@code boolean}
+	 */
+	public static boolean isEnabled(Configuration conf)
+	{
+		return conf.getBoolean(COVERAGE_PROPERTY, false);
+	}
+
+	/**
+	 * Validates whether the job configuration is compatible with calculating the coverage.
+	 *
+	 * @param job
+	 *            {@link Job}
+	 * @throws IllegalArgumentException
+	 *             If the job runs map-only (as the coverage is calculated by the reducers) or the thresholds are
+	 *             invalid.
+	 */
+	public static void validate(Job job) throws IllegalArgumentException
+	{
+		Configuration conf = job.getConfiguration();
+		if (!isEnabled(conf)) return;
+
+		if (conf.getBoolean(HadoopPipelineMapper.MAP_ONLY_PROPERTY, false))
+		{
+			throw new IllegalArgumentException("The coverage is calculated by the reducers (no map-only).");
+		}
+		new RegionCoverageCalculator(conf);
+	}
+
+	/**
+	 * Returns the header describing the tab-separated columns of {@link #finish()}.
+	 *
+	 * @return {@link String}
+	 */
+	public String getHeaderLine()
+	{
+		StringBuilder header = new StringBuilder("#region\tcontig\tstart\tend\tmean_depth");
+		for (int threshold : thresholds)
+		{
+			header.append("\tpct_bases_").append(threshold).append('x');
+		}
+		return header.append("\tdepth_histogram").toString();
+	}
+
+	/**
+	 * Starts calculating the coverage of a region.
+	 *
+	 * @param region
+	 *            {@link Region}
+	 * @param referenceIndex
+	 *            {@code int} The reference index of the contig of the region.
+	 */
+	public void start(Region region, int referenceIndex)
+	{
+		this.region = region;
+		this.referenceIndex = referenceIndex;
+		position = region.getStart();
+		lastChangedPosition = position - 1;
+		depth = 0;
+		depthSum = 0;
+		Arrays.fill(histogram, 0);
+		Arrays.fill(depthChanges, 0);
+	}
+
+	/**
+	 * Adds the aligned blocks of a record (within the region) to the coverage. The records should be added in
+	 * coordinate order. Records of other contigs are ignored.
+	 *
+	 * @param record
+	 *            {@link BamRecordBytesWritable}
+	 */
+	public void add(BamRecordBytesWritable record)
+	{
+		if ((record.getFlags() & EXCLUDED_FLAGS) != 0 || record.getReferenceIndex() != referenceIndex) return;
+
+		int blockStart = record.getAlignmentStart();
+		advance(blockStart);
+		for (int i = 0; i < record.getCigarLength(); i++)
+		{
+			int operation = record.getCigarOperation(i);
+			int operationCode = operation & 0xf;
+			int length = operation >>> 4;
+			if ((ALIGNED_OPERATIONS & 1 << operationCode) != 0)
+			{
+				addBlock(blockStart, blockStart + length - 1);
+			}
+			if ((REFERENCE_CONSUMING_OPERATIONS & 1 << operationCode) != 0)
+			{
+				blockStart += length;
+			}
+		}
+	}
+
+	/**
+	 * Finishes the region and describes its coverage as a tab-separated line (see {@link #getHeaderLine()}). The
+	 * histogram is written as comma-separated {@code <depth>:<bases>} pairs (only for depths having bases).
+	 *
+	 * @return {@link String}
+	 */
+	public String finish()
+	{
+		advance(region.getEnd() + 1);
+		long length = region.getEnd() - region.getStart() + 1L;
+
+		StringBuilder line = new StringBuilder();
+		line.append(HadoopPipelineReducer.generateOutputFileName(region)).append('\t').append(region.getContig())
+				.append('\t').append(region.getStart()).append('\t').append(region.getEnd()).append('\t')
+				.append(String.format(Locale.ROOT, "%.2f", (double) depthSum / length));
+
+		// Bases with at least a specific depth (summed from the highest depth downwards).
+		long[] basesAtLeast = new long[maxDepth + 2];
+		for (int i = maxDepth; i >= 0; i--)
+		{
+			basesAtLeast[i] = basesAtLeast[i + 1] + histogram[i];
+		}
+		for (int threshold : thresholds)
+		{
+			line.append('\t').append(String.format(Locale.ROOT, "%.2f", 100.0 * basesAtLeast[threshold] / length));
+		}
+
+		line.append('\t');
+		boolean first = true;
+		for (int i = 0; i <= maxDepth; i++)
+		{
+			if (histogram[i] == 0) continue;
+			if (!first) line.append(',');
+			line.append(i).append(':').append(histogram[i]);
+			first = false;
+		}
+
+		region = null;
+		return line.toString();
+	}
+
+	/**
+	 * Adds the positions before {@code limit} (within the region) to the histogram.
+	 *
+	 * @param limit
+	 *            {@code int} 1-based exclusive position.
+	 */
+	private void advance(int limit)
+	{
+		int end = Math.min(limit - 1, region.getEnd());
+		if (end < position) return;
+
+		// Positions without pending depth changes have a depth of 0.
+		int changedEnd = Math.min(end, lastChangedPosition);
+		int mask = depthChanges.length - 1;
+		for (; position <= changedEnd; position++)
+		{
+			int i = position & mask;
+			depth += depthChanges[i];
+			depthChanges[i] = 0;
+			histogram[Math.min(depth, maxDepth)]++;
+			depthSum += depth;
+		}
+		if (position <= end)
+		{
+			histogram[0] += end - position + 1;
+			position = end + 1;
+		}
+	}
+
+	/**
+	 * Adds an aligned block to the sweep-line (clipped to the region).
+	 *
+	 * @param blockStart
+	 *            {@code int} 1-based inclusive.
+	 * @param blockEnd
+	 *            {@code int} 1-based inclusive.
+	 */
+	private void addBlock(int blockStart, int blockEnd)
+	{
+		int start = Math.max(blockStart, position);
+		int end = Math.min(blockEnd, region.getEnd());
+		if (start > end) return;
+
+		ensureCapacity(end + 1 - position + 1);
+		int mask = depthChanges.length - 1;
+		depthChanges[start & mask]++;
+		depthChanges[(end + 1) & mask]--;
+		lastChangedPosition = Math.max(lastChangedPosition, end + 1);
+	}
+
+	/**
+	 * Makes sure the circular buffer can hold the depth changes of the given number of positions (starting at
+	 * {@link #position}).
+	 *
+	 * @param positions
+	 *            {@code int}
+	 */
+	private void ensureCapacity(int positions)
+	{
+		if (positions <= depthChanges.length) return;
+
+		int capacity = depthChanges.length;
+		while (capacity < positions)
+		{
+			capacity *= 2;
+		}
+		int[] grown = new int[capacity];
+		int oldMask = depthChanges.length - 1;
+		for (int p = position; p <= lastChangedPosition; p++)
+		{
+			grown[p & (capacity - 1)] = depthChanges[p & oldMask];
+		}
+		depthChanges = grown;
+	}
+
+	/**
+	 * Parses comma-separated thresholds.
+	 *
+	 * @param thresholds
+	 *            {@link String}
+	 * @return {@code int[]}
+	 * @throws IllegalArgumentException
+	 *             If a threshold is not a number.
+	 */
+	private static int[] parseThresholds(String thresholds) throws IllegalArgumentException
+	{
+		String[] values = thresholds.trim().isEmpty() ? new String[0] : thresholds.split(",");
+		int[] parsed = new int[values.length];
+		for (int i = 0; i < values.length; i++)
+		{
+			parsed[i] = Integer.parseInt(values[i].trim());
+		}
+		return parsed;
+	}
+}
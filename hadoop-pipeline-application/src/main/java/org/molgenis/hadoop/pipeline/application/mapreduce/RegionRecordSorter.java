@@ -0,0 +1,375 @@
+package org.molgenis.hadoop.pipeline.application.mapreduce;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.log4j.Logger;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+import org.molgenis.hadoop.pipeline.application.writables.RegionWritable;
+
+/**
+ * Sorts BAM-encoded records per {@link Region} within a single task (used by the {@link HadoopPipelineMapper} when
+ * running map-only, see {@link HadoopPipelineMapper#MAP_ONLY_PROPERTY}). The records are ordered the same way as the
+ * shuffle orders the {@link org.molgenis.hadoop.pipeline.application.writables.RegionWithSortableSamRecordWritable}
+ * {@code s}: on {@link Region} first and on the reference index (unmapped records last) and alignment start of the
+ * record second. Records are buffered in memory and, when the buffer is full, written to a sorted spill file on the
+ * local disk. When retrieving the sorted records, the spill files and the remaining buffer are merged.
+ */
+public class RegionRecordSorter implements Closeable
+{
+	/**
+	 * Logger to write information to.
+	 */
+	private static final Logger logger = Logger.getLogger(RegionRecordSorter.class);
+
+	/**
+	 * Configuration property defining the size of the in-memory sort buffer (in MB). Defaults to
+	 * {@link #DEFAULT_SORT_BUFFER_MB}.
+	 */
+	public static final String SORT_BUFFER_PROPERTY = "molgenis.hadoop.pipeline.map.only.sort.mb";
+
+	/**
+	 * Default for {@link #SORT_BUFFER_PROPERTY}.
+	 */
+	public static final int DEFAULT_SORT_BUFFER_MB = 256;
+
+	/**
+	 * Estimated memory used per buffered record next to the record bytes themselves.
+	 */
+	private static final int ENTRY_OVERHEAD = 64;
+
+	/**
+	 * Orders the {@link Entry}{@code s} on {@link Region} and coordinates (see
+	 * {@link BamRecordBytesWritable#compareCoordinates(int, int, int, int)}).
+	 */
+	private static final Comparator<Entry> ENTRY_COMPARATOR = new Comparator<Entry>()
+	{
+		@Override
+		public int compare(Entry o1, Entry o2)
+		{
+			int c = o1.region.compareTo(o2.region);
+			if (c == 0)
+			{
+				c = BamRecordBytesWritable.compareCoordinates(o1.referenceIndex, o1.alignmentStart, o2.referenceIndex,
+						o2.alignmentStart);
+			}
+			return c;
+		}
+	};
+
+	/**
+	 * The maximum number of bytes (estimated) that are buffered before spilling.
+	 */
+	private final long maxBufferedBytes;
+
+	/**
+	 * The directory the spill files are created in.
+	 */
+	private final File spillDir;
+
+	/**
+	 * The buffered records.
+	 */
+	private final List<Entry> buffer = new ArrayList<>();
+
+	/**
+	 * The (estimated) number of bytes currently buffered.
+	 */
+	private long bufferedBytes = 0;
+
+	/**
+	 * The spill files.
+	 */
+	private final List<File> spills = new ArrayList<>();
+
+	/**
+	 * The number of records in each spill file.
+	 */
+	private final List<Long> spillSizes = new ArrayList<>();
+
+	/**
+	 * Create a new {@link RegionRecordSorter}.
+	 *
+	 * @param maxBufferedBytes
+	 *            {@code long} The maximum number of bytes (estimated) that are buffered before spilling.
+	 * @param spillDir
+	 *            {@link File} The directory the spill files are created in.
+	 */
+	public RegionRecordSorter(long maxBufferedBytes, File spillDir)
+	{
+		this.maxBufferedBytes = maxBufferedBytes;
+		this.spillDir = requireNonNull(spillDir);
+	}
+
+	/**
+	 * Returns the number of spill files written so far.
+	 *
+	 * @return {@code int}
+	 */
+	public int getSpillCount()
+	{
+		return spills.size();
+	}
+
+	/**
+	 * Adds a record for a {@link Region}. The record bytes are copied, so the given {@link BamRecordBytesWritable} can
+	 * be reused afterwards.
+	 *
+	 * @param region
+	 *            {@link Region}
+	 * @param record
+	 *            {@link BamRecordBytesWritable}
+	 * @throws IOException
+	 *             If spilling failed.
+	 */
+	public void add(Region region, BamRecordBytesWritable record) throws IOException
+	{
+		buffer.add(new Entry(requireNonNull(region), record.getReferenceIndex(), record.getAlignmentStart(),
+				Arrays.copyOf(record.getBytes(), record.getLength())));
+		bufferedBytes += record.getLength() + ENTRY_OVERHEAD;
+		if (bufferedBytes > maxBufferedBytes)
+		{
+			spill();
+		}
+	}
+
+	/**
+	 * Writes all added records in sorted order to the given {@link SortedRecordWriter}.
+	 *
+	 * @param writer
+	 *            {@link SortedRecordWriter}
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void writeSorted(SortedRecordWriter writer) throws IOException, InterruptedException
+	{
+		Collections.sort(buffer, ENTRY_COMPARATOR);
+		BamRecordBytesWritable writable = new BamRecordBytesWritable();
+
+		// Without spills, the buffer can be written directly.
+		if (spills.isEmpty())
+		{
+			for (Entry entry : buffer)
+			{
+				writable.set(entry.bytes, 0, entry.bytes.length);
+				writer.write(entry.region, writable);
+			}
+			return;
+		}
+
+		// Otherwise merges the spill files and the buffer.
+		List<Run> runs = new ArrayList<>();
+		PriorityQueue<Run> queue = new PriorityQueue<>(spills.size() + 1, new Comparator<Run>()
+		{
+			@Override
+			public int compare(Run o1, Run o2)
+			{
+				return ENTRY_COMPARATOR.compare(o1.current, o2.current);
+			}
+		});
+		try
+		{
+			for (int i = 0; i < spills.size(); i++)
+			{
+				runs.add(new SpillRun(spills.get(i), spillSizes.get(i)));
+			}
+			runs.add(new BufferRun(buffer.iterator()));
+			for (Run run : runs)
+			{
+				if (run.advance()) queue.add(run);
+			}
+
+			while (!queue.isEmpty())
+			{
+				Run run = queue.poll();
+				writable.set(run.current.bytes, 0, run.current.bytes.length);
+				writer.write(run.current.region, writable);
+				if (run.advance()) queue.add(run);
+			}
+		}
+		finally
+		{
+			for (Run run : runs)
+			{
+				run.close();
+			}
+		}
+	}
+
+	/**
+	 * Removes the spill files.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		for (File spill : spills)
+		{
+			if (!spill.delete() && spill.exists())
+			{
+				logger.warn("Could not delete spill file: " + spill);
+			}
+		}
+		spills.clear();
+		spillSizes.clear();
+		buffer.clear();
+	}
+
+	/**
+	 * Sorts the buffer and writes it to a new spill file.
+	 *
+	 * @throws IOException
+	 */
+	private void spill() throws IOException
+	{
+		Collections.sort(buffer, ENTRY_COMPARATOR);
+		File spill = File.createTempFile("region-records-", ".spill", spillDir);
+		spills.add(spill);
+		spillSizes.add((long) buffer.size());
+
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spill))))
+		{
+			for (Entry entry : buffer)
+			{
+				new RegionWritable(entry.region).write(output);
+				output.write(entry.bytes);
+			}
+		}
+		logger.debug("Spilled " + buffer.size() + " records to " + spill + ".");
+
+		buffer.clear();
+		bufferedBytes = 0;
+	}
+
+	/**
+	 * Receives the sorted records from {@link RegionRecordSorter#writeSorted(SortedRecordWriter)}.
+	 */
+	public static abstract class SortedRecordWriter
+	{
+		/**
+		 * Writes a single record. The {@link BamRecordBytesWritable} is reused for the next record.
+		 *
+		 * @param region
+		 *            {@link Region}
+		 * @param record
+		 *            {@link BamRecordBytesWritable}
+		 * @throws IOException
+		 * @throws InterruptedException
+		 */
+		public abstract void write(Region region, BamRecordBytesWritable record)
+				throws IOException, InterruptedException;
+	}
+
+	/**
+	 * A buffered record.
+	 */
+	private static class Entry
+	{
+		private final Region region;
+		private final int referenceIndex;
+		private final int alignmentStart;
+		private final byte[] bytes;
+
+		Entry(Region region, int referenceIndex, int alignmentStart, byte[] bytes)
+		{
+			this.region = region;
+			this.referenceIndex = referenceIndex;
+			this.alignmentStart = alignmentStart;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * A sorted sequence of {@link Entry}{@code s} that is being merged.
+	 */
+	private static abstract class Run implements Closeable
+	{
+		Entry current;
+
+		/**
+		 * Moves {@link #current} to the next {@link Entry}.
+		 *
+		 * @return {@code boolean} {@code false} if there are no entries left.
+		 * @throws IOException
+		 */
+		abstract boolean advance() throws IOException;
+
+		@Override
+		public void close() throws IOException
+		{
+		}
+	}
+
+	/**
+	 * A {@link Run} reading a spill file.
+	 */
+	private static class SpillRun extends Run
+	{
+		private final DataInputStream input;
+		private long remaining;
+		private final RegionWritable regionWritable = new RegionWritable();
+		private final BamRecordBytesWritable recordWritable = new BamRecordBytesWritable();
+
+		SpillRun(File spill, long size) throws IOException
+		{
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(spill)));
+			remaining = size;
+		}
+
+		@Override
+		boolean advance() throws IOException
+		{
+			if (remaining == 0) return false;
+			remaining--;
+			regionWritable.readFields(input);
+			recordWritable.readFields(input);
+			current = new Entry(regionWritable.get(), recordWritable.getReferenceIndex(),
+					recordWritable.getAlignmentStart(),
+					Arrays.copyOf(recordWritable.getBytes(), recordWritable.getLength()));
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			input.close();
+		}
+	}
+
+	/**
+	 * A {@link Run} going through the (sorted) buffer.
+	 */
+	private static class BufferRun extends Run
+	{
+		private final Iterator<Entry> iterator;
+
+		BufferRun(Iterator<Entry> iterator)
+		{
+			this.iterator = iterator;
+		}
+
+		@Override
+		boolean advance()
+		{
+			if (!iterator.hasNext()) return false;
+			current = iterator.next();
+			return true;
+		}
+	}
+}
@@ -3,7 +3,10 @@ package org.molgenis.hadoop.pipeline.application.mapreduce;
 import static java.util.Objects.requireNonNull;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.molgenis.hadoop.pipeline.application.cachedigestion.ContigRegionsMap;
@@ -24,11 +27,23 @@ public class SamRecordGroupsRetriever
 	 */
 	private static final Logger logger = Logger.getLogger(SamRecordGroupsRetriever.class);
 
+	/**
+	 * The number of bits to shift a position with to retrieve its coarse bin (1 kb bins).
+	 */
+	private static final int BIN_SHIFT = 10;
+
 	/**
 	 * Stores the {@link Region}{@code s} to which a {@link SAMRecord} can match with.
 	 */
 	private ContigRegionsMap contigRegionsMap;
 
+	/**
+	 * Stores per contig a bitmap of coarse bins (see {@link #BIN_SHIFT}) marking the bins that overlap with at least
+	 * one {@link Region}. Used to quickly reject {@link SAMRecord}{@code s} that are not near any {@link Region}
+	 * before doing the actual search through the {@link Region}{@code s}.
+	 */
+	private Map<String, BitSet> contigBins = new HashMap<>();
+
 	/**
 	 * Create a new instance using a set of {@link Region}{@code s} which can be used for retrieving the {@link Region}
 	 * {@code s} a specific {@link SAMRecord} belongs to.
@@ -40,6 +55,16 @@ public class SamRecordGroupsRetriever
 	public SamRecordGroupsRetriever(ContigRegionsMap contigRegionsMap)
 	{
 		this.contigRegionsMap = requireNonNull(contigRegionsMap);
+
+		for (Map.Entry<String, ImmutableList<Region>> contigRegions : contigRegionsMap.entrySet())
+		{
+			BitSet bins = new BitSet();
+			for (Region region : contigRegions.getValue())
+			{
+				bins.set(region.getStart() >>> BIN_SHIFT, (region.getEnd() >>> BIN_SHIFT) + 1);
+			}
+			contigBins.put(contigRegions.getKey(), bins);
+		}
 	}
 
 	/**
@@ -56,13 +81,22 @@ public class SamRecordGroupsRetriever
 		// Stores the regions that match the SAMRecord.
 		List<Region> matchingRegions = new ArrayList<>();
 
-		// Retrieves the Regions matching the SAMRecord contig. If none are found, returns an empty list.
-		ImmutableList<Region> regionsMatchingContig = contigRegionsMap.get(record.getContig());
-		if (regionsMatchingContig == null)
+		// Checks whether any of the coarse bins the SAMRecord overlaps with contains a Region. If not (or if there are
+		// no Regions for the SAMRecord contig at all), returns an empty list without searching through the Regions.
+		BitSet bins = contigBins.get(record.getContig());
+		if (bins == null)
+		{
+			return matchingRegions;
+		}
+		int firstRegionBin = bins.nextSetBit(record.getStart() >>> BIN_SHIFT);
+		if (firstRegionBin < 0 || firstRegionBin > record.getEnd() >>> BIN_SHIFT)
 		{
 			return matchingRegions;
 		}
 
+		// Retrieves the Regions matching the SAMRecord contig.
+		ImmutableList<Region> regionsMatchingContig = contigRegionsMap.get(record.getContig());
+
 		// Starting from the first Region which has it's end value higher or equal to the SAMRecord start value,
 		// continues through the remaining Region until a Region is found which start value is higher than the
 		// SAMRecord end value or if no remaining Region are present. If the search for the first Region
@@ -1,20 +1,37 @@
 package org.molgenis.hadoop.pipeline.application.partitioners;
 
 import org.apache.hadoop.mapreduce.Partitioner;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
 import org.molgenis.hadoop.pipeline.application.writables.RegionWithSortableSamRecordWritable;
-import org.seqdoop.hadoop_bam.SAMRecordWritable;
+import org.molgenis.hadoop.pipeline.application.writables.RegionWritable;
 
 /**
- * Custom partitioner for the key:value pair {@link RegionWithSortableSamRecordWritable}:{@link SAMRecordWritable}, where only
- * {@link RegionWithSortableSamRecordWritable#getRegionWritable()} is used within the partitioner (so the natural key part from
- * the composite key). The partitioner controls the splitting of mapper output over the reducers. Each reducer can get
+ * Custom partitioner for the key:value pair {@link RegionWithSortableSamRecordWritable}:{@link BamRecordBytesWritable},
+ * where only {@link RegionWithSortableSamRecordWritable#getRegionWritable()} is used within the partitioner (so the
+ * natural key part from the composite key). The partitioner controls the splitting of mapper output over the reducers. Each reducer can get
  * multiple keys with accompanying values.
  */
-public class RegionSamRecordPartitioner extends Partitioner<RegionWithSortableSamRecordWritable, SAMRecordWritable>
+public class RegionSamRecordPartitioner extends Partitioner<RegionWithSortableSamRecordWritable, BamRecordBytesWritable>
 {
 	@Override
-	public int getPartition(RegionWithSortableSamRecordWritable key, SAMRecordWritable value, int numPartitions)
+	public int getPartition(RegionWithSortableSamRecordWritable key, BamRecordBytesWritable value, int numPartitions)
 	{
 		return Math.abs(key.getRegionWritable().hashCode() % numPartitions);
 	}
+
+	/**
+	 * Returns the partition a {@link Region} is assigned to (the same partition as all keys containing this
+	 * {@link Region}).
+	 * 
+	 * @param region
+	 *            {@link Region}
+	 * @param numPartitions
+	 *            {@code int}
+	 * @return {@code int}
+	 */
+	public static int getPartition(Region region, int numPartitions)
+	{
+		return Math.abs(new RegionWritable(region).hashCode() % numPartitions);
+	}
 }
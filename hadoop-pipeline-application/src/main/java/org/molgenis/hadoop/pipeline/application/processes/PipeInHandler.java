@@ -3,13 +3,14 @@ package org.molgenis.hadoop.pipeline.application.processes;
 import static java.util.Objects.requireNonNull;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 
 import org.apache.commons.io.IOUtils;
 import org.molgenis.hadoop.pipeline.application.exceptions.UncheckedIOException;
 
 /**
- * Writes the data stored in a {@code byte[]} to the {@link OutputStream}.
+ * Writes the data read from an {@link InputStream} to the {@link OutputStream}.
  */
 public class PipeInHandler implements Runnable
 {
@@ -21,7 +22,12 @@ public class PipeInHandler implements Runnable
 	/**
 	 * Stores the data to be written to the stream.
 	 */
-	private byte[] inputData;
+	private InputStream inputData;
+
+	/**
+	 * Stores the exception that occurred while writing the data (if any).
+	 */
+	private volatile IOException failure;
 
 	/**
 	 * Initiates a new {@link PipeInHandler}.
@@ -29,28 +35,40 @@ public class PipeInHandler implements Runnable
 	 * @param outStream
 	 * @param inputData
 	 */
-	PipeInHandler(OutputStream outputStream, byte[] inputData)
+	PipeInHandler(OutputStream outputStream, InputStream inputData)
 	{
 		this.outputStream = requireNonNull(outputStream);
 		this.inputData = requireNonNull(inputData);
 	}
 
 	/**
-	 * Writes the {@code inputData} to the {@code outputStream}.
+	 * Returns the exception that occurred while writing the data.
+	 * 
+	 * @return {@link IOException} or {@code null} if no exception occurred (yet).
+	 */
+	IOException getFailure()
+	{
+		return failure;
+	}
+
+	/**
+	 * Writes the {@code inputData} to the {@code outputStream}. Both streams are closed afterwards.
 	 */
 	@Override
 	public void run()
 	{
 		try
 		{
-			IOUtils.write(inputData, outputStream);
+			IOUtils.copyLarge(inputData, outputStream);
 		}
 		catch (IOException e)
 		{
+			failure = e;
 			throw new UncheckedIOException(e);
 		}
 		finally
 		{
+			IOUtils.closeQuietly(inputData);
 			IOUtils.closeQuietly(outputStream);
 		}
 	}
@@ -2,13 +2,20 @@ package org.molgenis.hadoop.pipeline.application.processes;
 
 import static java.util.Objects.requireNonNull;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.molgenis.hadoop.pipeline.application.exceptions.UncheckedIOException;
 import org.molgenis.hadoop.pipeline.application.inputstreamdigestion.Sink;
+import org.molgenis.hadoop.pipeline.application.instrumentation.MeteredInputStream;
+import org.molgenis.hadoop.pipeline.application.instrumentation.MeteredOutputStream;
+import org.molgenis.hadoop.pipeline.application.instrumentation.MeteredStage;
+import org.molgenis.hadoop.pipeline.application.instrumentation.StageMeter;
+import org.molgenis.hadoop.pipeline.application.instrumentation.TaskInstrumentation;
 
 /**
  * Class for running a pipe of one or more {@link Process}{@code es}.
@@ -54,11 +61,60 @@ public class PipeRunner implements Runnable
 	 */
 	public static <T> void startPipeline(byte[] inputData, Sink<T> sink, Process... processes)
 	{
+		startPipeline(inputData, sink, new TaskInstrumentation(), processes);
+	}
+
+	/**
+	 * Runs a sequence of multiple {@link Process}{@code es} as described by
+	 * {@link #startPipeline(byte[], Sink, Process...)}, while measuring the {@link MeteredStage#PIPELINE},
+	 * {@link MeteredStage#ALIGNER_INPUT} and {@link MeteredStage#ALIGNER_OUTPUT} stages using the
+	 * {@link TaskInstrumentation}.
+	 * 
+	 * @param inputData
+	 *            {@code byte[]}
+	 * @param sink
+	 *            {@link Sink}
+	 * @param instrumentation
+	 *            {@link TaskInstrumentation}
+	 * @param processes
+	 *            1 or more {@link Process}
+	 */
+	public static <T> void startPipeline(byte[] inputData, Sink<T> sink, TaskInstrumentation instrumentation,
+			Process... processes)
+	{
+		startPipeline(new ByteArrayInputStream(inputData), sink, instrumentation, processes);
+	}
+
+	/**
+	 * Runs a sequence of multiple {@link Process}{@code es} as described by
+	 * {@link #startPipeline(byte[], Sink, TaskInstrumentation, Process...)}, but streams the input for the first
+	 * {@link Process} from an {@link InputStream} (so that it never needs to be stored in memory as a whole). The
+	 * {@link InputStream} is closed afterwards.
+	 * 
+	 * @param inputData
+	 *            {@link InputStream}
+	 * @param sink
+	 *            {@link Sink}
+	 * @param instrumentation
+	 *            {@link TaskInstrumentation}
+	 * @param processes
+	 *            1 or more {@link Process}
+	 */
+	public static <T> void startPipeline(InputStream inputData, Sink<T> sink, TaskInstrumentation instrumentation,
+			Process... processes)
+	{
+		StageMeter pipelineMeter = instrumentation.get(MeteredStage.PIPELINE);
+		long startTime = pipelineMeter.start();
+
 		// Defines the first process.
 		Process process1 = processes[0];
 
 		// Initiates a stream to write the inputData to the first process.
-		new Thread(new PipeInHandler(process1.getOutputStream(), inputData)).start();
+		CountingInputStream countingInputData = new CountingInputStream(inputData);
+		PipeInHandler pipeInHandler = new PipeInHandler(new MeteredOutputStream(process1.getOutputStream(),
+				instrumentation.get(MeteredStage.ALIGNER_INPUT)), countingInputData);
+		Thread pipeInThread = new Thread(pipeInHandler);
+		pipeInThread.start();
 
 		// If there are multiple processes in the pipeline, goes through these as well.
 		if (processes.length > 1)
@@ -75,17 +131,29 @@ public class PipeRunner implements Runnable
 		}
 
 		// Digests the input of the last process in the pipeline.
-		new PipeOutHandler<T>(process1.getInputStream(), sink).run();
+		new PipeOutHandler<T>(new MeteredInputStream(process1.getInputStream(),
+				instrumentation.get(MeteredStage.ALIGNER_OUTPUT)), sink).run();
 
-		// Waits for the last process to finish before continuing.
+		// Waits for the last process to finish before continuing. If the input could not be written completely, the
+		// output is incomplete as well.
 		try
 		{
 			process1.waitFor();
+			pipeInThread.join();
+			if (pipeInHandler.getFailure() != null)
+			{
+				throw new UncheckedIOException(pipeInHandler.getFailure());
+			}
 		}
 		catch (InterruptedException e)
 		{
 			throw new RuntimeException(e);
 		}
+		finally
+		{
+			pipelineMeter.stop(startTime);
+			pipelineMeter.addBytes(countingInputData.getByteCount());
+		}
 	}
 
 	/**
@@ -0,0 +1,404 @@
+package org.molgenis.hadoop.pipeline.application.processes;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.PipelineStage;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
+import org.molgenis.hadoop.pipeline.application.exceptions.UncheckedIOException;
+import org.molgenis.hadoop.pipeline.application.formats.BgzfBamConcatenator;
+import org.molgenis.hadoop.pipeline.application.formats.IncrementalRegionOutput;
+import org.molgenis.hadoop.pipeline.application.formats.PackedRegionBamOutputFormat;
+import org.molgenis.hadoop.pipeline.application.formats.RawBamRecordWriter;
+import org.molgenis.hadoop.pipeline.application.inputstreamdigestion.Sink;
+import org.molgenis.hadoop.pipeline.application.mapreduce.HadoopPipelineMapper;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+
+import htsjdk.samtools.SAMFileHeader;
+
+/**
+ * Streams the records of a single region as BAM into an external tool from the tools archive (for example a variant
+ * caller reading BAM from stdin) and digests the output of that tool using a {@link Sink}. This removes writing the
+ * per-region BAM files and reading them back in a separate job when only the output of the tool is needed.
+ */
+public class RegionToolRunner
+{
+	/**
+	 * Configuration property defining the file name of the tool (within the tools archive) the records of each region
+	 * are streamed into. If set, the reducers write the output of this tool instead of the per-region BAM files.
+	 */
+	public static final String TOOL_PROPERTY = "molgenis.hadoop.pipeline.region.tool";
+
+	/**
+	 * Configuration property defining the whitespace-separated arguments of the {@link #TOOL_PROPERTY} tool. The
+	 * arguments can contain the placeholders {@code ${region}} ({@code <contig>:<start>-<end>}),
+	 * {@code ${regionName}}, {@code ${referenceFasta}} and {@code ${toolsDirectory}}.
+	 */
+	public static final String ARGUMENTS_PROPERTY = "molgenis.hadoop.pipeline.region.tool.arguments";
+
+	/**
+	 * Placeholder name for the region in {@code <contig>:<start>-<end>} notation.
+	 */
+	public static final String REGION_PLACEHOLDER = "region";
+
+	/**
+	 * Placeholder name for the region name (as used for the output file names).
+	 */
+	public static final String REGION_NAME_PLACEHOLDER = "regionName";
+
+	/**
+	 * Placeholder name for the alignment reference fasta file.
+	 */
+	public static final String REFERENCE_FASTA_PLACEHOLDER = "referenceFasta";
+
+	/**
+	 * Placeholder name for the directory containing the tools.
+	 */
+	public static final String TOOLS_DIRECTORY_PLACEHOLDER = "toolsDirectory";
+
+	/**
+	 * The deflate compression level of the BAM data streamed into the tool. As the data is only passed through a pipe,
+	 * the BGZF blocks are stored uncompressed.
+	 */
+	private static final int PIPE_COMPRESSION_LEVEL = 0;
+
+	/**
+	 * Counters for the regions streamed into the tool.
+	 */
+	public enum RegionToolCounter
+	{
+		/**
+		 * The regions of which the records were streamed into the tool.
+		 */
+		REGIONS,
+
+		/**
+		 * The regions without reference coordinates that were skipped (see {@link RegionToolRunner#accepts(Region)}).
+		 */
+		SKIPPED_REGIONS
+	}
+
+	/**
+	 * The tool and its arguments.
+	 */
+	private final PipelineStage stage;
+
+	/**
+	 * Directory containing the tools.
+	 */
+	private final String toolsDirectory;
+
+	/**
+	 * The alignment reference fasta file.
+	 */
+	private final String referenceFasta;
+
+	/**
+	 * The header of the BAM data streamed into the tool.
+	 */
+	private final SAMFileHeader header;
+
+	/**
+	 * Create a new {@link RegionToolRunner}.
+	 *
+	 * @param conf
+	 *            {@link Configuration} Should contain the {@link #TOOL_PROPERTY}.
+	 * @param toolsDirectory
+	 *            {@link String}
+	 * @param referenceFasta
+	 *            {@link String}
+	 * @param header
+	 *            {@link SAMFileHeader} The (coordinate sorted) header of the BAM data streamed into the tool.
+	 */
+	public RegionToolRunner(Configuration conf, String toolsDirectory, String referenceFasta, SAMFileHeader header)
+	{
+		this.stage = createStage(conf);
+		this.toolsDirectory = requireNonNull(toolsDirectory);
+		this.referenceFasta = requireNonNull(referenceFasta);
+		this.header = requireNonNull(header);
+	}
+
+	/**
+	 * Checks whether the records are streamed into a tool (see {@link #TOOL_PROPERTY}).
+	 *
+	 * @param conf
+	 *            {@link Configuration}
+	 * @return {@code boolean}
+	 */
+	public static boolean isEnabled(Configuration conf)
+	{
+		return conf.get(TOOL_PROPERTY) != null;
+	}
+
+	/**
+	 * Validates whether the job configuration is compatible with streaming the records into a tool.
+	 *
+	 * @param job
+	 *            {@link Job}
+	 * @throws IllegalArgumentException
+	 *             If the job runs map-only, writes packed output, merges with a previous output or concatenates the
+	 *             per-region BAM files (which all require the per-region BAM files).
+	 */
+	public static void validate(Job job) throws IllegalArgumentException
+	{
+		Configuration conf = job.getConfiguration();
+		if (!isEnabled(conf)) return;
+
+		if (conf.getBoolean(HadoopPipelineMapper.MAP_ONLY_PROPERTY, false)
+				|| conf.getBoolean(PackedRegionBamOutputFormat.PACKED_OUTPUT_PROPERTY, false)
+				|| IncrementalRegionOutput.isEnabled(conf)
+				|| conf.getBoolean(BgzfBamConcatenator.CONCATENATE_PROPERTY, false))
+		{
+			throw new IllegalArgumentException("Streaming the regions into a tool requires reducers and can not be "
+					+ "combined with packed, incremental or concatenated BAM output.");
+		}
+		createStage(conf);
+	}
+
+	/**
+	 * Checks whether the records of a region can be streamed into the tool. The {@link Region#unmapped()} and
+	 * {@link Region#invalid()} regions have no reference coordinates and are therefore skipped.
+	 *
+	 * @param region
+	 *            {@link Region}
+	 * @return {@code boolean}
+	 */
+	public static boolean accepts(Region region)
+	{
+		return !region.equals(Region.unmapped()) && !region.equals(Region.invalid());
+	}
+
+	/**
+	 * Starts the tool for a single region. The output of the tool is digested by the {@link Sink} on a separate thread
+	 * while the records are written.
+	 *
+	 * @param region
+	 *            {@link Region}
+	 * @param regionName
+	 *            {@link String}
+	 * @param sink
+	 *            {@link Sink} Digests the output of the tool.
+	 * @return {@link RegionToolProcess} Should be closed after all records of the region are written.
+	 * @throws IOException
+	 */
+	public RegionToolProcess start(Region region, String regionName, Sink<?> sink) throws IOException
+	{
+		Map<String, String> values = new HashMap<>();
+		values.put(REGION_PLACEHOLDER, region.getContig() + ":" + region.getStart() + "-" + region.getEnd());
+		values.put(REGION_NAME_PLACEHOLDER, regionName);
+		values.put(REFERENCE_FASTA_PLACEHOLDER, referenceFasta);
+		values.put(TOOLS_DIRECTORY_PLACEHOLDER, toolsDirectory);
+		List<String> command = stage.createCommand(toolsDirectory, values);
+
+		// Nothing else reads stderr of the tool, so it goes to the task log instead of filling up the pipe buffer.
+		Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		return new RegionToolProcess(process, new PipeOutHandler<>(process.getInputStream(), sink), regionName);
+	}
+
+	/**
+	 * Creates the {@link PipelineStage} from the {@link Configuration}.
+	 *
+	 * @param conf
+	 *            {@link Configuration}
+	 * @return {@link PipelineStage}
+	 * @throws IllegalArgumentException
+	 *             If an argument contains an unknown placeholder.
+	 */
+	private static PipelineStage createStage(Configuration conf) throws IllegalArgumentException
+	{
+		String arguments = conf.getTrimmed(ARGUMENTS_PROPERTY, "");
+		PipelineStage stage = new PipelineStage(conf.getTrimmed(TOOL_PROPERTY),
+				arguments.isEmpty() ? Arrays.<String> asList() : Arrays.asList(arguments.split("\\s+")));
+
+		List<String> placeholders = Arrays.asList(REGION_PLACEHOLDER, REGION_NAME_PLACEHOLDER,
+				REFERENCE_FASTA_PLACEHOLDER, TOOLS_DIRECTORY_PLACEHOLDER);
+		for (String placeholder : stage.getPlaceholders())
+		{
+			if (!placeholders.contains(placeholder))
+			{
+				throw new IllegalArgumentException(
+						"Unknown placeholder \"${" + placeholder + "}\" in " + ARGUMENTS_PROPERTY + ", use one of: "
+								+ placeholders);
+			}
+		}
+		return stage;
+	}
+
+	/**
+	 * A running tool for a single region.
+	 */
+	public class RegionToolProcess implements AutoCloseable
+	{
+		/**
+		 * The tool process.
+		 */
+		private final Process process;
+
+		/**
+		 * Writes the records to stdin of the tool.
+		 */
+		private final RawBamRecordWriter<NullWritable> writer;
+
+		/**
+		 * Digests stdout of the tool.
+		 */
+		private final Thread pipeOutThread;
+
+		/**
+		 * Stores the exception that occurred while digesting the tool output (if any). When set, the tool was killed
+		 * and the records are not written anymore.
+		 */
+		private volatile RuntimeException failure;
+
+		/**
+		 * The region name (for error messages).
+		 */
+		private final String regionName;
+
+		/**
+		 * Starts digesting the tool output and writes the BAM header.
+		 *
+		 * @param process
+		 *            {@link Process}
+		 * @param pipeOutHandler
+		 *            {@link PipeOutHandler}
+		 * @param regionName
+		 *            {@link String}
+		 */
+		private RegionToolProcess(Process process, final PipeOutHandler<?> pipeOutHandler, String regionName)
+		{
+			this.process = process;
+			this.regionName = regionName;
+
+			pipeOutThread = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						pipeOutHandler.run();
+					}
+					catch (RuntimeException e)
+					{
+						failure = e;
+						// Nothing reads the tool output anymore, so the tool would block on a full stdout pipe (and
+						// the reducer on a full stdin pipe of the tool). Kills the tool and discards its remaining
+						// output (in case the tool started child processes that still write to the pipe).
+						RegionToolProcess.this.process.destroy();
+						discardRemainingOutput();
+					}
+				}
+			});
+			pipeOutThread.start();
+
+			writer = new RawBamRecordWriter<>(new BufferedOutputStream(process.getOutputStream()), header, null, null,
+					0, PIPE_COMPRESSION_LEVEL, 1);
+		}
+
+		/**
+		 * Writes a single (coordinate sorted) record to the tool.
+		 *
+		 * @param value
+		 *            {@link BamRecordBytesWritable}
+		 * @throws IOException
+		 *             If the tool stopped reading its input or its output could not be digested.
+		 */
+		public void write(BamRecordBytesWritable value) throws IOException
+		{
+			checkDigestionFailure();
+			try
+			{
+				writer.write(NullWritable.get(), value);
+			}
+			catch (IOException e)
+			{
+				// The tool might have been killed due to a failure digesting its output.
+				checkDigestionFailure();
+				throw e;
+			}
+		}
+
+		/**
+		 * Closes stdin of the tool and waits until the tool finished and its output is digested.
+		 *
+		 * @throws IOException
+		 *             If the tool failed or its output could not be digested.
+		 * @throws InterruptedException
+		 */
+		@Override
+		public void close() throws IOException, InterruptedException
+		{
+			IOException writeFailure = null;
+			try
+			{
+				writer.close(null);
+			}
+			catch (IOException e)
+			{
+				// A tool that fails usually stops reading its input, so its exit code is more informative.
+				writeFailure = e;
+			}
+
+			pipeOutThread.join();
+			int exitValue = process.waitFor();
+			// Checked first, as the tool is killed when digesting its output failed.
+			checkDigestionFailure();
+			if (exitValue != 0)
+			{
+				throw new IOException("Tool " + stage.getTool() + " failed for region " + regionName
+						+ " with exit value " + exitValue + ".", writeFailure);
+			}
+			if (writeFailure != null)
+			{
+				throw writeFailure;
+			}
+		}
+
+		/**
+		 * Throws an {@link IOException} if digesting the tool output failed.
+		 *
+		 * @throws IOException
+		 */
+		private void checkDigestionFailure() throws IOException
+		{
+			RuntimeException digestionFailure = failure;
+			if (digestionFailure != null)
+			{
+				throw new IOException("Could not digest the output of tool " + stage.getTool() + " for region "
+						+ regionName + ".", digestionFailure instanceof UncheckedIOException
+								? digestionFailure.getCause() : digestionFailure);
+			}
+		}
+
+		/**
+		 * Reads and discards the remaining output of the tool (run on {@link #pipeOutThread} after digesting the
+		 * output failed).
+		 */
+		private void discardRemainingOutput()
+		{
+			byte[] buffer = new byte[8192];
+			try (InputStream output = process.getInputStream())
+			{
+				while (output.read(buffer) != -1)
+				{
+					// Discards the output.
+				}
+			}
+			catch (IOException e)
+			{
+				// The pipe is closed, so nothing blocks on it anymore.
+			}
+		}
+	}
+}
@@ -0,0 +1,466 @@
+package org.molgenis.hadoop.pipeline.application.sequences;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.log4j.Logger;
+import org.molgenis.hadoop.pipeline.application.formats.FastqRecordReader;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.SAMRecord;
+
+/**
+ * Collapses read pairs with exactly the same sequences (for example PCR duplicates) within an interleaved FASTQ stream,
+ * so that only the first copy of each pair of sequences is aligned. This requires two passes over the FASTQ data:
+ * <ol>
+ * <li>{@link #index(InputStream, long)} hashes the sequences of each read pair and stores the read name and qualities
+ * of each duplicate together with the read name of the first copy (the representative).</li>
+ * <li>{@link #filter(InputStream)} streams the FASTQ data to the aligner without the duplicates.</li>
+ * </ol>
+ * The alignment of each representative is then copied to its duplicates by {@link #expand(List)} (with their own read
+ * names and qualities), directly after the representative itself was digested. As the aligner output is in the same
+ * order as its input, the resulting order of the read pairs only depends on the input (also when the aligner output is
+ * replayed from a cache). The aligner does not use the base qualities for the alignment itself, so the alignment of a
+ * duplicate is the same as that of its representative (except for the effect of the duplicates on the insert size
+ * statistics the aligner estimates).
+ *
+ * The sequences are compared using a 128-bit hash. The memory used for the hash table and the duplicates is bounded:
+ * once the limit is reached, all remaining read pairs are aligned as-is.
+ */
+public class DuplicateReadPairs
+{
+	/**
+	 * Logger to write information to.
+	 */
+	private static final Logger logger = Logger.getLogger(DuplicateReadPairs.class);
+
+	/**
+	 * Configuration property defining whether read pairs with exactly the same sequences are collapsed before the
+	 * alignment. Defaults to {@code false}.
+	 */
+	public static final String COLLAPSE_PROPERTY = "molgenis.hadoop.pipeline.duplicates.collapse";
+
+	/**
+	 * Configuration property defining the maximum memory (in MB) used for detecting and storing the duplicates of a
+	 * single input split. Defaults to {@link #DEFAULT_MAX_MB}.
+	 */
+	public static final String MAX_MB_PROPERTY = "molgenis.hadoop.pipeline.duplicates.collapse.max.mb";
+
+	/**
+	 * Default value for {@link #MAX_MB_PROPERTY}.
+	 */
+	public static final int DEFAULT_MAX_MB = 128;
+
+	/**
+	 * Estimated memory used per entry of the hash table (excluding the read name).
+	 */
+	private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+	/**
+	 * Hashes the sequences of a read pair.
+	 */
+	private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+	/**
+	 * Hadoop counters for the collapsed read pairs.
+	 */
+	public enum DuplicateCounter
+	{
+		READ_PAIRS, COLLAPSED_READ_PAIRS
+	}
+
+	/**
+	 * The ordinals of the read pairs that are not aligned.
+	 */
+	private final BitSet duplicateOrdinals;
+
+	/**
+	 * The duplicates per read name of their representative.
+	 */
+	private final Map<String, List<Duplicate>> duplicates;
+
+	/**
+	 * The total number of read pairs.
+	 */
+	private final int readPairs;
+
+	/**
+	 * Create a new {@link DuplicateReadPairs}.
+	 *
+	 * @param duplicateOrdinals
+	 *            {@link BitSet}
+	 * @param duplicates
+	 *            {@link Map}{@code <}{@link String}{@code ,}{@link List}{@code <}{@link Duplicate}{@code >>}
+	 * @param readPairs
+	 *            {@code int}
+	 */
+	private DuplicateReadPairs(BitSet duplicateOrdinals, Map<String, List<Duplicate>> duplicates, int readPairs)
+	{
+		this.duplicateOrdinals = duplicateOrdinals;
+		this.duplicates = duplicates;
+		this.readPairs = readPairs;
+	}
+
+	/**
+	 * Checks whether duplicate read pairs should be collapsed (see {@link #COLLAPSE_PROPERTY}).
+	 *
+	 * @param conf
+	 *            {@link Configuration}
+	 * @return {@code boolean}
+	 */
+	public static boolean isEnabled(Configuration conf)
+	{
+		return conf.getBoolean(COLLAPSE_PROPERTY, false);
+	}
+
+	/**
+	 * Returns the maximum memory used for detecting and storing the duplicates (see {@link #MAX_MB_PROPERTY}).
+	 *
+	 * @param conf
+	 *            {@link Configuration}
+	 * @return {@code long} The maximum memory in bytes.
+	 */
+	public static long getMaxBytes(Configuration conf)
+	{
+		return conf.getLong(MAX_MB_PROPERTY, DEFAULT_MAX_MB) * 1024 * 1024;
+	}
+
+	/**
+	 * Finds the duplicate read pairs within interleaved FASTQ data (the first pass).
+	 *
+	 * @param interleavedFastq
+	 *            {@link InputStream} Is closed afterwards.
+	 * @param maxBytes
+	 *            {@code long} The maximum memory used for the hash table and the duplicates.
+	 * @return {@link DuplicateReadPairs}
+	 * @throws IOException
+	 *             If the FASTQ data is invalid.
+	 */
+	public static DuplicateReadPairs index(InputStream interleavedFastq, long maxBytes) throws IOException
+	{
+		Map<HashCode, Representative> representatives = new HashMap<>();
+		BitSet duplicateOrdinals = new BitSet();
+		long usedBytes = 0;
+		int ordinal = 0;
+		int limitOrdinal = -1;
+
+		try (FastqPairReader reader = new FastqPairReader(interleavedFastq))
+		{
+			for (; reader.next(); ordinal++)
+			{
+				// The remaining read pairs are aligned as-is once the memory limit is reached.
+				if (limitOrdinal != -1) continue;
+				if (usedBytes > maxBytes)
+				{
+					limitOrdinal = ordinal;
+					continue;
+				}
+
+				HashCode hash = HASH_FUNCTION.newHasher().putBytes(reader.records.getLine(1)).putByte((byte) '\n')
+						.putBytes(reader.records.getLine(5)).hash();
+				Representative representative = representatives.get(hash);
+				if (representative == null)
+				{
+					String readName = reader.records.getReadName(0);
+					representatives.put(hash, new Representative(readName));
+					usedBytes += ENTRY_OVERHEAD_BYTES + 2 * readName.length();
+				}
+				else
+				{
+					Duplicate duplicate = new Duplicate(reader.records.getReadName(0), reader.records.getLine(3),
+							reader.records.getLine(7));
+					representative.duplicates.add(duplicate);
+					duplicateOrdinals.set(ordinal);
+					usedBytes += ENTRY_OVERHEAD_BYTES + 2 * duplicate.readName.length()
+							+ duplicate.firstQualities.length + duplicate.secondQualities.length;
+				}
+			}
+		}
+
+		Map<String, List<Duplicate>> duplicates = new HashMap<>();
+		for (Representative representative : representatives.values())
+		{
+			if (!representative.duplicates.isEmpty())
+			{
+				duplicates.put(representative.readName, representative.duplicates);
+			}
+		}
+		if (limitOrdinal != -1)
+		{
+			logger.warn("Memory limit for collapsing duplicate read pairs reached, only the duplicates within the first "
+					+ limitOrdinal + " read pairs are collapsed.");
+		}
+		return new DuplicateReadPairs(duplicateOrdinals, duplicates, ordinal);
+	}
+
+	/**
+	 * Returns the total number of read pairs.
+	 *
+	 * @return {@code int}
+	 */
+	public int getReadPairs()
+	{
+		return readPairs;
+	}
+
+	/**
+	 * Returns the number of read pairs that are not aligned (but copied from their representative instead).
+	 *
+	 * @return {@code int}
+	 */
+	public int getCollapsedReadPairs()
+	{
+		return duplicateOrdinals.cardinality();
+	}
+
+	/**
+	 * Returns the interleaved FASTQ data without the duplicates (the second pass). The FASTQ data should be the same as
+	 * the data given to {@link #index(InputStream, long)}.
+	 *
+	 * @param interleavedFastq
+	 *            {@link InputStream} Is closed when the returned {@link InputStream} is closed.
+	 * @return {@link InputStream}
+	 */
+	public InputStream filter(InputStream interleavedFastq)
+	{
+		return new FilteringInputStream(new FastqPairReader(interleavedFastq));
+	}
+
+	/**
+	 * Copies the aligned records of a representative to each of its duplicates.
+	 *
+	 * @param records
+	 *            {@link List}{@code <}{@link SAMRecord}{@code >} The records of a read pair.
+	 * @return {@link List}{@code <}{@link List}{@code <}{@link SAMRecord}{@code >>} The records of each duplicate (in
+	 *         the order of the FASTQ data), or an empty {@link List} if the read pair has no duplicates.
+	 */
+	public List<List<SAMRecord>> expand(List<SAMRecord> records)
+	{
+		if (records.isEmpty()) return Collections.emptyList();
+		List<Duplicate> readPairDuplicates = duplicates.get(records.get(0).getReadName());
+		if (readPairDuplicates == null) return Collections.emptyList();
+
+		List<List<SAMRecord>> expanded = new ArrayList<>(readPairDuplicates.size());
+		for (Duplicate duplicate : readPairDuplicates)
+		{
+			List<SAMRecord> duplicateRecords = new ArrayList<>(records.size());
+			for (SAMRecord record : records)
+			{
+				duplicateRecords.add(copyRecord(record, duplicate));
+			}
+			expanded.add(duplicateRecords);
+		}
+		return expanded;
+	}
+
+	/**
+	 * Copies a record of the representative for a duplicate, using the read name and qualities of the duplicate. The
+	 * qualities are reversed for reads aligned to the reverse strand and hard clipped bases are left out.
+	 *
+	 * @param record
+	 *            {@link SAMRecord}
+	 * @param duplicate
+	 *            {@link Duplicate}
+	 * @return {@link SAMRecord}
+	 */
+	static SAMRecord copyRecord(SAMRecord record, Duplicate duplicate)
+	{
+		SAMRecord copy;
+		try
+		{
+			copy = (SAMRecord) record.clone();
+		}
+		catch (CloneNotSupportedException e)
+		{
+			throw new IllegalStateException(e);
+		}
+		copy.setReadName(duplicate.readName);
+
+		// Records without qualities (such as secondary alignments) are left as-is.
+		if (record.getBaseQualities().length == 0) return copy;
+
+		byte[] fastqQualities = !record.getReadPairedFlag() || record.getFirstOfPairFlag()
+				? duplicate.firstQualities : duplicate.secondQualities;
+		int leadingClip = 0;
+		int trailingClip = 0;
+		Cigar cigar = record.getCigar();
+		if (!cigar.isEmpty())
+		{
+			CigarElement first = cigar.getCigarElement(0);
+			CigarElement last = cigar.getCigarElement(cigar.numCigarElements() - 1);
+			if (first.getOperator() == CigarOperator.H) leadingClip = first.getLength();
+			if (last.getOperator() == CigarOperator.H && cigar.numCigarElements() > 1)
+			{
+				trailingClip = last.getLength();
+			}
+		}
+		if (fastqQualities.length - leadingClip - trailingClip != record.getBaseQualities().length) return copy;
+
+		byte[] qualities = new byte[record.getBaseQualities().length];
+		boolean reverse = record.getReadNegativeStrandFlag();
+		for (int i = 0; i < qualities.length; i++)
+		{
+			// Hard clipping is done on the aligned (possibly reversed) read.
+			int alignedIndex = leadingClip + i;
+			int fastqIndex = reverse ? fastqQualities.length - 1 - alignedIndex : alignedIndex;
+			qualities[i] = (byte) (fastqQualities[fastqIndex] - 33);
+		}
+		copy.setBaseQualities(qualities);
+		return copy;
+	}
+
+	/**
+	 * The first copy of a read pair and its duplicates.
+	 */
+	private static class Representative
+	{
+		private final String readName;
+		private final List<Duplicate> duplicates = new ArrayList<>(0);
+
+		Representative(String readName)
+		{
+			this.readName = readName;
+		}
+	}
+
+	/**
+	 * The read name and (FASTQ encoded) qualities of a duplicate read pair.
+	 */
+	static class Duplicate
+	{
+		private final String readName;
+		private final byte[] firstQualities;
+		private final byte[] secondQualities;
+
+		Duplicate(String readName, byte[] firstQualities, byte[] secondQualities)
+		{
+			this.readName = readName;
+			this.firstQualities = firstQualities;
+			this.secondQualities = secondQualities;
+		}
+	}
+
+	/**
+	 * Streams the interleaved FASTQ data without the duplicates.
+	 */
+	private class FilteringInputStream extends InputStream
+	{
+		private final FastqPairReader reader;
+		private int ordinal = -1;
+		private int position = 0;
+		private boolean finished = false;
+
+		FilteringInputStream(FastqPairReader reader)
+		{
+			this.reader = reader;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			if (!nextPair()) return -1;
+			return reader.records.getBuffer()[position++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (len == 0) return 0;
+			if (!nextPair()) return -1;
+
+			int read = Math.min(len, reader.records.getLength() - position);
+			System.arraycopy(reader.records.getBuffer(), position, b, off, read);
+			position += read;
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			reader.close();
+		}
+
+		/**
+		 * Moves to the next read pair that is not a duplicate if all bytes of the current read pair were returned.
+		 *
+		 * @return {@code boolean} {@code false} if the end of the FASTQ data was reached.
+		 * @throws IOException
+		 */
+		private boolean nextPair() throws IOException
+		{
+			while (!finished && (ordinal == -1 || position == reader.records.getLength()))
+			{
+				if (!reader.next())
+				{
+					finished = true;
+				}
+				else
+				{
+					ordinal++;
+					position = duplicateOrdinals.get(ordinal) ? reader.records.getLength() : 0;
+				}
+			}
+			return !finished;
+		}
+	}
+
+	/**
+	 * Reads the interleaved FASTQ data one read pair (two FASTQ records) at a time.
+	 */
+	private static class FastqPairReader implements AutoCloseable
+	{
+		/**
+		 * The FASTQ records of the current read pair.
+		 */
+		private final FastqRecordReader records;
+
+		/**
+		 * The number of read pairs read.
+		 */
+		private long readPairs = 0;
+
+		FastqPairReader(InputStream input)
+		{
+			this.records = new FastqRecordReader(input);
+		}
+
+		/**
+		 * Reads the next read pair.
+		 *
+		 * @return {@code boolean} {@code false} if the end of the FASTQ data was reached.
+		 * @throws IOException
+		 *             If the FASTQ data ends within a read pair or is invalid.
+		 */
+		boolean next() throws IOException
+		{
+			records.clear();
+			if (!records.readRecord()) return false;
+			if (!records.readRecord())
+			{
+				throw new IOException("Invalid or truncated interleaved FASTQ data after " + readPairs
+						+ " read pairs.");
+			}
+			readPairs++;
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			records.close();
+		}
+	}
+}
@@ -0,0 +1,405 @@
+package org.molgenis.hadoop.pipeline.application.writables;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Comparator;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.molgenis.hadoop.pipeline.application.exceptions.UncheckedIOException;
+import org.seqdoop.hadoop_bam.SAMRecordWritable;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+
+/**
+ * {@link Writable} storing a single BAM-encoded {@link SAMRecord} as raw bytes (the little-endian {@code block_size}
+ * followed by the record data, exactly as present in a BAM file). The serialized form is identical to that of
+ * {@link SAMRecordWritable}, but the bytes are only decoded to a {@link SAMRecord} when {@link #get()} is called. This
+ * allows the reducer to copy the records directly to a BAM file (see
+ * {@link org.molgenis.hadoop.pipeline.application.formats.RawBamOutputFormat}) without decoding and re-encoding them.
+ */
+public class BamRecordBytesWritable implements Writable
+{
+	/**
+	 * The number of bytes used by the {@code block_size} field at the start of a BAM record.
+	 */
+	private static final int BLOCK_SIZE_LENGTH = 4;
+
+	/**
+	 * The byte offset of the {@code refID} field within a BAM record (including the {@code block_size}).
+	 */
+	private static final int REFERENCE_INDEX_OFFSET = 4;
+
+	/**
+	 * The byte offset of the (0-based) {@code pos} field within a BAM record (including the {@code block_size}).
+	 */
+	private static final int POSITION_OFFSET = 8;
+
+	/**
+	 * The byte offset of the {@code l_read_name} field within a BAM record (including the {@code block_size}).
+	 */
+	private static final int READ_NAME_LENGTH_OFFSET = 12;
+
+	/**
+	 * The byte offset of the {@code n_cigar_op} field within a BAM record (including the {@code block_size}).
+	 */
+	private static final int CIGAR_LENGTH_OFFSET = 16;
+
+	/**
+	 * The byte offset of the {@code flag} field within a BAM record (including the {@code block_size}).
+	 */
+	private static final int FLAG_OFFSET = 18;
+
+	/**
+	 * The byte offset of the {@code read_name} field within a BAM record (including the {@code block_size}).
+	 */
+	private static final int READ_NAME_OFFSET = 36;
+
+	/**
+	 * Bitmask of the CIGAR operations that consume the reference ({@code M}, {@code D}, {@code N}, {@code =} and
+	 * {@code X}), indexed by the BAM operation code.
+	 */
+	private static final int REFERENCE_CONSUMING_OPERATIONS = 1 << 0 | 1 << 2 | 1 << 3 | 1 << 7 | 1 << 8;
+
+	/**
+	 * Orders records on their coordinates (see {@link #compareCoordinates(int, int, int, int)}).
+	 */
+	public static final Comparator<BamRecordBytesWritable> COORDINATE_COMPARATOR = new Comparator<BamRecordBytesWritable>()
+	{
+		@Override
+		public int compare(BamRecordBytesWritable o1, BamRecordBytesWritable o2)
+		{
+			return compareCoordinates(o1.getReferenceIndex(), o1.getAlignmentStart(), o2.getReferenceIndex(),
+					o2.getAlignmentStart());
+		}
+	};
+
+	/**
+	 * Stores the BAM record bytes (might be larger than {@link #length} as the array is reused).
+	 */
+	private byte[] bytes = new byte[0];
+
+	/**
+	 * The number of bytes in {@link #bytes} that belong to the BAM record.
+	 */
+	private int length = 0;
+
+	/**
+	 * Reusable buffer for encoding a {@link SAMRecord} (created on first use).
+	 */
+	private DataOutputBuffer encodeBuffer;
+
+	/**
+	 * Returns the array containing the BAM record. Only the first {@link #getLength()} bytes are valid.
+	 *
+	 * @return {@code byte[]}
+	 */
+	public byte[] getBytes()
+	{
+		return bytes;
+	}
+
+	public int getLength()
+	{
+		return length;
+	}
+
+	/**
+	 * Create an empty {@link BamRecordBytesWritable} instance. Otherwise a Hadoop job will throw the following
+	 * {@link Exception}:
+	 *
+	 * <pre>
+	 * java.lang.NoSuchMethodException: org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable.&lt;init&gt;()
+	 * </pre>
+	 */
+	public BamRecordBytesWritable()
+	{
+	}
+
+	/**
+	 * Encodes a {@link SAMRecord} to BAM and stores the bytes. The buffers used are reused when this method is called
+	 * again on the same instance.
+	 *
+	 * @param record
+	 *            {@link SAMRecord}
+	 * @throws UncheckedIOException
+	 */
+	public void set(SAMRecord record) throws UncheckedIOException
+	{
+		if (encodeBuffer == null) encodeBuffer = new DataOutputBuffer();
+		encodeBuffer.reset();
+
+		SAMRecordWritable writable = new SAMRecordWritable();
+		writable.set(record);
+		try
+		{
+			writable.write(encodeBuffer);
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+		set(encodeBuffer.getData(), 0, encodeBuffer.getLength());
+	}
+
+	/**
+	 * Stores a copy of already BAM-encoded record bytes.
+	 *
+	 * @param source
+	 *            {@code byte[]}
+	 * @param offset
+	 *            {@code int} The position of the {@code block_size} of the record within {@code source}.
+	 * @param length
+	 *            {@code int} The total number of bytes of the record (including the {@code block_size}).
+	 * @throws IllegalArgumentException
+	 *             If the {@code block_size} does not match the given length.
+	 */
+	public void set(byte[] source, int offset, int length) throws IllegalArgumentException
+	{
+		if (length < BLOCK_SIZE_LENGTH || readInt(source, offset) != length - BLOCK_SIZE_LENGTH)
+		{
+			throw new IllegalArgumentException("Invalid BAM record of " + length + " bytes.");
+		}
+		ensureCapacity(length);
+		System.arraycopy(source, offset, bytes, 0, length);
+		this.length = length;
+	}
+
+	/**
+	 * Decodes the stored bytes to a {@link SAMRecord} without a {@link SAMFileHeader} (similar to
+	 * {@link SAMRecordWritable#get()}).
+	 *
+	 * @return {@link SAMRecord}
+	 * @throws UncheckedIOException
+	 */
+	public SAMRecord get() throws UncheckedIOException
+	{
+		DataInputBuffer buffer = new DataInputBuffer();
+		buffer.reset(bytes, length);
+		SAMRecordWritable writable = new SAMRecordWritable();
+		try
+		{
+			writable.readFields(buffer);
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+		return writable.get();
+	}
+
+	/**
+	 * Decodes the stored bytes to a {@link SAMRecord} belonging to the given {@link SAMFileHeader}.
+	 *
+	 * @param header
+	 *            {@link SAMFileHeader}
+	 * @return {@link SAMRecord}
+	 * @throws UncheckedIOException
+	 */
+	public SAMRecord get(SAMFileHeader header) throws UncheckedIOException
+	{
+		SAMRecord record = get();
+		record.setHeader(header);
+		return record;
+	}
+
+	/**
+	 * Compares the coordinates of two records in the order of the sorted output: on reference index (where -1 is
+	 * regarded as highest value, so records without coordinates come last) and alignment start. This is the order of
+	 * the records within a region in the shuffle (see {@link RegionWithSortableSamRecordWritable}), so every place that
+	 * sorts or merges records uses this method.
+	 *
+	 * @param referenceIndex1
+	 *            {@code int}
+	 * @param alignmentStart1
+	 *            {@code int}
+	 * @param referenceIndex2
+	 *            {@code int}
+	 * @param alignmentStart2
+	 *            {@code int}
+	 * @return {@code int}
+	 */
+	public static int compareCoordinates(int referenceIndex1, int alignmentStart1, int referenceIndex2,
+			int alignmentStart2)
+	{
+		int c;
+		if (referenceIndex1 == -1 || referenceIndex2 == -1) c = referenceIndex2 - referenceIndex1;
+		else c = referenceIndex1 - referenceIndex2;
+		if (c == 0) c = alignmentStart1 - alignmentStart2;
+		return c;
+	}
+
+	/**
+	 * Returns the reference index of the record without decoding it.
+	 *
+	 * @return {@code int} (-1 if the record is unmapped without a reference)
+	 */
+	public int getReferenceIndex()
+	{
+		return readInt(bytes, REFERENCE_INDEX_OFFSET);
+	}
+
+	/**
+	 * Returns the 1-based alignment start of the record without decoding it.
+	 *
+	 * @return {@code int} (0 if the record has no position)
+	 */
+	public int getAlignmentStart()
+	{
+		return readInt(bytes, POSITION_OFFSET) + 1;
+	}
+
+	/**
+	 * Returns the bitwise flag of the record without decoding it.
+	 *
+	 * @return {@code int}
+	 */
+	public int getFlags()
+	{
+		return readUnsignedShort(bytes, FLAG_OFFSET);
+	}
+
+	/**
+	 * Returns the 1-based inclusive alignment end of the record (calculated from the CIGAR) without decoding it.
+	 *
+	 * @return {@code int} (the alignment start minus 1 if the CIGAR does not consume the reference, such as for
+	 *         unmapped records)
+	 */
+	public int getAlignmentEnd()
+	{
+		int cigarOffset = READ_NAME_OFFSET + (bytes[READ_NAME_LENGTH_OFFSET] & 0xff);
+		int cigarLength = readUnsignedShort(bytes, CIGAR_LENGTH_OFFSET);
+
+		int referenceLength = 0;
+		for (int i = 0; i < cigarLength; i++)
+		{
+			int operation = readInt(bytes, cigarOffset + i * 4);
+			if ((REFERENCE_CONSUMING_OPERATIONS & 1 << (operation & 0xf)) != 0)
+			{
+				referenceLength += operation >>> 4;
+			}
+		}
+		return getAlignmentStart() + referenceLength - 1;
+	}
+
+	/**
+	 * Returns the number of CIGAR operations of the record without decoding it.
+	 *
+	 * @return {@code int}
+	 */
+	public int getCigarLength()
+	{
+		return readUnsignedShort(bytes, CIGAR_LENGTH_OFFSET);
+	}
+
+	/**
+	 * Returns a single CIGAR operation of the record as encoded within BAM ({@code length << 4 | operation code}).
+	 *
+	 * @param index
+	 *            {@code int} Should be lower than {@link #getCigarLength()}.
+	 * @return {@code int}
+	 */
+	public int getCigarOperation(int index)
+	{
+		return readInt(bytes, READ_NAME_OFFSET + (bytes[READ_NAME_LENGTH_OFFSET] & 0xff) + index * 4);
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException
+	{
+		out.write(bytes, 0, length);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException
+	{
+		byte[] blockSize = new byte[BLOCK_SIZE_LENGTH];
+		in.readFully(blockSize);
+		int recordLength = BLOCK_SIZE_LENGTH + readInt(blockSize, 0);
+
+		ensureCapacity(recordLength);
+		System.arraycopy(blockSize, 0, bytes, 0, BLOCK_SIZE_LENGTH);
+		in.readFully(bytes, BLOCK_SIZE_LENGTH, recordLength - BLOCK_SIZE_LENGTH);
+		length = recordLength;
+	}
+
+	/**
+	 * Makes sure {@link #bytes} can store at least the given number of bytes (the content is not retained).
+	 *
+	 * @param capacity
+	 *            {@code int}
+	 */
+	private void ensureCapacity(int capacity)
+	{
+		if (bytes.length < capacity)
+		{
+			bytes = new byte[Math.max(capacity, bytes.length * 2)];
+		}
+	}
+
+	/**
+	 * Reads a little-endian {@code int} (as used within BAM).
+	 *
+	 * @param source
+	 *            {@code byte[]}
+	 * @param offset
+	 *            {@code int}
+	 * @return {@code int}
+	 */
+	private static int readInt(byte[] source, int offset)
+	{
+		return (source[offset] & 0xff) | (source[offset + 1] & 0xff) << 8 | (source[offset + 2] & 0xff) << 16
+				| (source[offset + 3] & 0xff) << 24;
+	}
+
+	/**
+	 * Reads a little-endian unsigned {@code short} (as used within BAM).
+	 *
+	 * @param source
+	 *            {@code byte[]}
+	 * @param offset
+	 *            {@code int}
+	 * @return {@code int}
+	 */
+	private static int readUnsignedShort(byte[] source, int offset)
+	{
+		return (source[offset] & 0xff) | (source[offset + 1] & 0xff) << 8;
+	}
+
+	@Override
+	public String toString()
+	{
+		if (length < POSITION_OFFSET + 4) return "BamRecordBytesWritable [length=" + length + "]";
+		return "BamRecordBytesWritable [length=" + length + ", referenceIndex=" + getReferenceIndex()
+				+ ", alignmentStart=" + getAlignmentStart() + "]";
+	}
+
+	@Override
+	public int hashCode()
+	{
+		int result = 1;
+		for (int i = 0; i < length; i++)
+		{
+			result = 31 * result + bytes[i];
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj) return true;
+		if (obj == null) return false;
+		if (getClass() != obj.getClass()) return false;
+		BamRecordBytesWritable other = (BamRecordBytesWritable) obj;
+		if (length != other.length) return false;
+		for (int i = 0; i < length; i++)
+		{
+			if (bytes[i] != other.bytes[i]) return false;
+		}
+		return true;
+	}
+}
@@ -122,12 +122,9 @@ public class RegionWithSortableSamRecordWritable implements WritableComparable<R
 		int c = regionWritable.compareTo(o.regionWritable);
 		if (c == 0)
 		{
-			// Compares reference index where -1 is regarded as highest value.
-			if (samRecordReferenceIndex == -1 || o.samRecordReferenceIndex == -1)
-				c = o.samRecordReferenceIndex - samRecordReferenceIndex;
-			else c = samRecordReferenceIndex - o.samRecordReferenceIndex;
+			c = BamRecordBytesWritable.compareCoordinates(samRecordReferenceIndex, samRecordStart,
+					o.samRecordReferenceIndex, o.samRecordStart);
 		}
-		if (c == 0) c = samRecordStart - o.samRecordStart;
 
 		return c;
 	}
@@ -0,0 +1,126 @@
+package org.molgenis.hadoop.pipeline.application.cachedigestion;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Tester for the {@link HadoopToolsPipelineXmlReader}.
+ */
+public class HadoopToolsPipelineXmlReaderTester extends Tester
+{
+	/**
+	 * The tool nodes used within the tested xml.
+	 */
+	private static final String TOOLS = "<tool fileName=\"bwa\"><id>bwa</id><name>bwa</name><version>0.7.12-r1039</version></tool>"
+			+ "<tool fileName=\"samtools\"><id>samtools</id><name>samtools</name><version>1.3</version></tool>";
+
+	/**
+	 * The reader that is being tested.
+	 */
+	private HadoopToolsPipelineXmlReader reader;
+
+	/**
+	 * Creates a {@link HadoopToolsPipelineXmlReader} needed for testing.
+	 */
+	@BeforeClass
+	public void beforeClass()
+	{
+		reader = new HadoopToolsPipelineXmlReader();
+	}
+
+	/**
+	 * Tests when an xml is given without a pipeline node.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testNoPipeline() throws IOException
+	{
+		ToolsPipeline pipeline = read("<tools>" + TOOLS + "</tools>");
+		Assert.assertSame(pipeline, ToolsPipeline.defaultPipeline());
+	}
+
+	/**
+	 * Tests when an xml is given with a pipeline of multiple stages.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testValidPipeline() throws IOException
+	{
+		ToolsPipeline pipeline = read("<tools>" + TOOLS + "<pipeline>"
+				+ "<stage tool=\"bwa\"><argument>mem</argument><argument>-p</argument><argument>-R</argument>"
+				+ "<argument>${readGroupLine}</argument><argument>${referenceFasta}</argument><argument>-</argument></stage>"
+				+ "<stage tool=\"samtools\"><argument>fixmate</argument><argument>-O</argument><argument>sam</argument>"
+				+ "<argument>-</argument><argument>-</argument></stage>" + "</pipeline></tools>");
+
+		Assert.assertEquals(pipeline.getStages(),
+				Arrays.asList(
+						new PipelineStage("bwa",
+								Arrays.asList("mem", "-p", "-R", "${readGroupLine}", "${referenceFasta}", "-")),
+						new PipelineStage("samtools", Arrays.asList("fixmate", "-O", "sam", "-", "-"))));
+	}
+
+	/**
+	 * Tests when an xml is given with a stage using a tool that is not described.
+	 *
+	 * @throws IOException
+	 */
+	@Test(expectedExceptions = IOException.class)
+	public void testStageWithUnknownTool() throws IOException
+	{
+		read("<tools>" + TOOLS + "<pipeline><stage tool=\"fastp\"><argument>-</argument></stage></pipeline></tools>");
+	}
+
+	/**
+	 * Tests when an xml is given with a stage using an unknown placeholder.
+	 *
+	 * @throws IOException
+	 */
+	@Test(expectedExceptions = IOException.class)
+	public void testStageWithUnknownPlaceholder() throws IOException
+	{
+		read("<tools>" + TOOLS
+				+ "<pipeline><stage tool=\"bwa\"><argument>${reference}</argument></stage></pipeline></tools>");
+	}
+
+	/**
+	 * Tests when an xml is given with an empty pipeline node.
+	 *
+	 * @throws Throwable
+	 */
+	@Test(expectedExceptions = SAXParseException.class)
+	public void testEmptyPipeline() throws Throwable
+	{
+		try
+		{
+			read("<tools>" + TOOLS + "<pipeline></pipeline></tools>");
+		}
+		catch (IOException e)
+		{
+			// Retrieve the underlying exception.
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Reads an xml {@link String}.
+	 *
+	 * @param xml
+	 *            {@link String}
+	 * @return {@link ToolsPipeline}
+	 * @throws IOException
+	 */
+	private ToolsPipeline read(String xml) throws IOException
+	{
+		return reader.read(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+	}
+}
@@ -0,0 +1,65 @@
+package org.molgenis.hadoop.pipeline.application.cachedigestion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+/**
+ * Tester for {@link ReferenceTiler}.
+ */
+public class ReferenceTilerTester extends Tester
+{
+	/**
+	 * Tests whether each contig is split into the lowest number of equally sized tiles not larger than the tile size.
+	 */
+	@Test
+	public void testTile()
+	{
+		SAMSequenceDictionary dictionary = new SAMSequenceDictionary();
+		dictionary.addSequence(new SAMSequenceRecord("1", 1000));
+		dictionary.addSequence(new SAMSequenceRecord("2", 250));
+		dictionary.addSequence(new SAMSequenceRecord("3", 301));
+
+		ContigRegionsMap tiles = new ReferenceTiler(300).tile(dictionary);
+
+		Assert.assertEquals(new ArrayList<>(tiles.get("1")), Arrays.asList(new Region("1", 1, 250),
+				new Region("1", 251, 500), new Region("1", 501, 750), new Region("1", 751, 1000)));
+		Assert.assertEquals(new ArrayList<>(tiles.get("2")), Arrays.asList(new Region("2", 1, 250)));
+		Assert.assertEquals(new ArrayList<>(tiles.get("3")),
+				Arrays.asList(new Region("3", 1, 151), new Region("3", 152, 301)));
+	}
+
+	/**
+	 * Tests whether the tile size is based on the number of reducers for large inputs.
+	 */
+	@Test
+	public void testCalculateTileSizeLargeInput()
+	{
+		Assert.assertEquals(ReferenceTiler.calculateTileSize(3000000000L, 100L * 1024 * 1024 * 1024, 10, 4), 75000000);
+	}
+
+	/**
+	 * Tests whether fewer tiles are used for small inputs.
+	 */
+	@Test
+	public void testCalculateTileSizeSmallInput()
+	{
+		Assert.assertEquals(ReferenceTiler.calculateTileSize(3000000000L, 32L * 1024 * 1024, 10, 4), 1500000000);
+		Assert.assertEquals(ReferenceTiler.calculateTileSize(3000000000L, 0, 10, 4), Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Tests whether an invalid tile size is refused.
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testInvalidTileSize()
+	{
+		new ReferenceTiler(0);
+	}
+}
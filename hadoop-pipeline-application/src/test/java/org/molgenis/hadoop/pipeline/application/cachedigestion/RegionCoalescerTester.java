@@ -0,0 +1,108 @@
+package org.molgenis.hadoop.pipeline.application.cachedigestion;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tester for {@link RegionCoalescer}.
+ */
+public class RegionCoalescerTester extends Tester
+{
+	/**
+	 * The buckets created from the targets.
+	 */
+	private RegionBuckets buckets;
+
+	@BeforeClass
+	public void beforeClass()
+	{
+		ContigRegionsMap targets = new ContigRegionsMapBuilder()
+				.addAll(Arrays.asList(new Region("1", 1, 100), new Region("1", 151, 250), new Region("1", 301, 400),
+						new Region("1", 1001, 1600), new Region("2", 1, 50)))
+				.build();
+		buckets = new RegionCoalescer(250, 100).coalesce(targets);
+	}
+
+	/**
+	 * Tests whether small neighbouring targets are coalesced while the bucket size and maximum gap are respected, and
+	 * whether oversized targets are split into buckets of equal size.
+	 */
+	@Test
+	public void testBuckets()
+	{
+		Assert.assertEquals(new ArrayList<>(buckets.getBuckets()),
+				Arrays.asList(new Region("1", 1, 250), new Region("1", 301, 400), new Region("1", 1001, 1200),
+						new Region("1", 1201, 1400), new Region("1", 1401, 1600), new Region("2", 1, 50)));
+	}
+
+	/**
+	 * Tests whether each bucket refers back to the original (unsplit) targets.
+	 */
+	@Test
+	public void testTargets()
+	{
+		Assert.assertEquals(buckets.getTargets(new Region("1", 1, 250)),
+				Arrays.asList(new Region("1", 1, 100), new Region("1", 151, 250)));
+		Assert.assertEquals(buckets.getTargets(new Region("1", 1201, 1400)),
+				Arrays.asList(new Region("1", 1001, 1600)));
+		Assert.assertTrue(buckets.getTargets(new Region("1", 1, 100)).isEmpty());
+	}
+
+	/**
+	 * Tests the table describing the original targets of each bucket.
+	 */
+	@Test
+	public void testWriteBucketTargets()
+	{
+		StringWriter output = new StringWriter();
+		try (PrintWriter writer = new PrintWriter(output))
+		{
+			buckets.writeBucketTargets(writer);
+		}
+		String expected = "#bucket\tcontig\tstart\tend\n" + "1-1-250\t1\t1\t100\n" + "1-1-250\t1\t151\t250\n"
+				+ "1-301-400\t1\t301\t400\n" + "1-1001-1200\t1\t1001\t1600\n" + "1-1201-1400\t1\t1001\t1600\n"
+				+ "1-1401-1600\t1\t1001\t1600\n" + "2-1-50\t2\t1\t50\n";
+		Assert.assertEquals(output.toString(), expected.replace("\n", System.lineSeparator()));
+	}
+
+	/**
+	 * Tests whether no {@link RegionCoalescer} is created without a bucket size.
+	 */
+	@Test
+	public void testFromConfiguration()
+	{
+		Configuration conf = new Configuration();
+		Assert.assertNull(RegionCoalescer.fromConfiguration(conf));
+		conf.setInt(RegionCoalescer.BUCKET_SIZE_PROPERTY, 250);
+		Assert.assertNotNull(RegionCoalescer.fromConfiguration(conf));
+	}
+
+	/**
+	 * Tests whether the segments (used for matching records) map to the correct bucket.
+	 */
+	@Test
+	public void testSegments()
+	{
+		Assert.assertEquals(buckets.getSegments().numberOfRegions(), 7);
+		Assert.assertEquals(buckets.getBucket(new Region("1", 151, 250)), new Region("1", 1, 250));
+		Assert.assertEquals(buckets.getBucket(new Region("1", 1401, 1600)), new Region("1", 1401, 1600));
+		Assert.assertNull(buckets.getBucket(new Region("1", 1001, 1600)));
+	}
+
+	/**
+	 * Tests whether an invalid bucket size is refused.
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testInvalidBucketSize()
+	{
+		new RegionCoalescer(0, 100);
+	}
+}
@@ -0,0 +1,180 @@
+package org.molgenis.hadoop.pipeline.application.cachedigestion;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.SAMProgramRecord;
+
+/**
+ * Tester for {@link ToolsPipeline} and {@link PipelineStage}.
+ */
+public class ToolsPipelineTester extends Tester
+{
+	/**
+	 * The tools described in the info.xml.
+	 */
+	private Map<String, SAMProgramRecord> tools;
+
+	/**
+	 * A pipeline using the trimmer, bwa and fixmate tools.
+	 */
+	private ToolsPipeline pipeline;
+
+	@BeforeClass
+	public void beforeClass()
+	{
+		tools = new HashMap<>();
+		tools.put("trimmer", createTool("trim", "trimmer", "1.0"));
+		tools.put("bwa", createTool("bwa", "bwa", "0.7.12-r1039"));
+		tools.put("samtools", createTool("samtools", "samtools", "1.3"));
+
+		pipeline = new ToolsPipeline(Arrays.asList(
+				new PipelineStage("trimmer", Arrays.asList("--adapters", "${toolsDirectory}/adapters.fa", "-")),
+				new PipelineStage("bwa",
+						Arrays.asList("mem", "-p", "-M", "-R", "${readGroupLine}", "${referenceFasta}", "-")),
+				new PipelineStage("samtools", Arrays.asList("fixmate", "-O", "sam", "-", "-"))));
+	}
+
+	/**
+	 * Tests whether the placeholders are replaced by their values.
+	 */
+	@Test
+	public void testCreateCommands()
+	{
+		Map<String, String> values = new HashMap<>();
+		values.put(ToolsPipeline.READ_GROUP_LINE_PLACEHOLDER, "@RG\\tID:1\\tSM:$1");
+		values.put(ToolsPipeline.REFERENCE_FASTA_PLACEHOLDER, "/ref/ref.fa");
+		values.put(ToolsPipeline.TOOLS_DIRECTORY_PLACEHOLDER, "/archive/tools");
+
+		List<List<String>> commands = pipeline.createCommands("/archive/tools", values);
+		Assert.assertEquals(commands.size(), 3);
+		Assert.assertEquals(commands.get(0),
+				Arrays.asList("/archive/tools/trimmer", "--adapters", "/archive/tools/adapters.fa", "-"));
+		Assert.assertEquals(commands.get(1), Arrays.asList("/archive/tools/bwa", "mem", "-p", "-M", "-R",
+				"@RG\\tID:1\\tSM:$1", "/ref/ref.fa", "-"));
+		Assert.assertEquals(commands.get(2), Arrays.asList("/archive/tools/samtools", "fixmate", "-O", "sam", "-", "-"));
+	}
+
+	/**
+	 * Tests whether a placeholder without a value is refused.
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testCreateCommandsMissingValue()
+	{
+		pipeline.createCommands("/archive/tools", new HashMap<String, String>());
+	}
+
+	/**
+	 * Tests whether an unknown placeholder is refused.
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testUnknownPlaceholder()
+	{
+		new ToolsPipeline(Arrays.asList(new PipelineStage("bwa", Arrays.asList("${reference}"))));
+	}
+
+	/**
+	 * Tests whether a pipeline without stages is refused.
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testNoStages()
+	{
+		new ToolsPipeline(Arrays.<PipelineStage> asList());
+	}
+
+	/**
+	 * Tests whether each stage results in a program record that refers to the previous stage.
+	 */
+	@Test
+	public void testCreateProgramRecords()
+	{
+		List<SAMProgramRecord> records = pipeline.createProgramRecords(tools);
+		Assert.assertEquals(records.size(), 3);
+		Assert.assertEquals(records.get(0).getId(), "trim");
+		Assert.assertNull(records.get(0).getPreviousProgramGroupId());
+		Assert.assertEquals(records.get(1).getId(), "bwa");
+		Assert.assertEquals(records.get(1).getProgramVersion(), "0.7.12-r1039");
+		Assert.assertEquals(records.get(1).getPreviousProgramGroupId(), "trim");
+		Assert.assertEquals(records.get(2).getId(), "samtools");
+		Assert.assertEquals(records.get(2).getPreviousProgramGroupId(), "bwa");
+	}
+
+	/**
+	 * Tests whether a tool used in multiple stages results in unique program record IDs.
+	 */
+	@Test
+	public void testCreateProgramRecordsSameToolTwice()
+	{
+		ToolsPipeline samtoolsTwice = new ToolsPipeline(
+				Arrays.asList(ToolsPipeline.defaultPipeline().getStages().get(0),
+						new PipelineStage("samtools", Arrays.asList("fixmate", "-O", "sam", "-", "-")),
+						new PipelineStage("samtools", Arrays.asList("calmd", "-", "${referenceFasta}"))));
+
+		List<SAMProgramRecord> records = samtoolsTwice.createProgramRecords(tools);
+		Assert.assertEquals(records.get(1).getId(), "samtools");
+		Assert.assertEquals(records.get(2).getId(), "samtools.1");
+		Assert.assertEquals(records.get(2).getPreviousProgramGroupId(), "samtools");
+	}
+
+	/**
+	 * Tests whether the default pipeline results in the same program record as the bwa tool.
+	 */
+	@Test
+	public void testDefaultPipelineProgramRecords()
+	{
+		List<SAMProgramRecord> records = ToolsPipeline.defaultPipeline().createProgramRecords(tools);
+		Assert.assertEquals(records.size(), 1);
+		Assert.assertEquals(records.get(0).getId(), "bwa");
+		Assert.assertEquals(records.get(0).getProgramName(), "bwa");
+		Assert.assertNull(records.get(0).getPreviousProgramGroupId());
+	}
+
+	/**
+	 * Tests whether a stage using a tool that is not described is refused.
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testCreateProgramRecordsUnknownTool()
+	{
+		new ToolsPipeline(Arrays.asList(new PipelineStage("fastp", Arrays.asList("-"))))
+				.createProgramRecords(tools);
+	}
+
+	/**
+	 * Tests whether the versions are only described if all tools have a version.
+	 */
+	@Test
+	public void testDescribeVersions()
+	{
+		Assert.assertEquals(pipeline.describeVersions(tools), "trimmer:1.0,bwa:0.7.12-r1039,samtools:1.3");
+
+		Map<String, SAMProgramRecord> withoutVersion = new HashMap<>(tools);
+		withoutVersion.put("samtools", createTool("samtools", "samtools", null));
+		Assert.assertNull(pipeline.describeVersions(withoutVersion));
+	}
+
+	/**
+	 * Creates a tool as described in the info.xml.
+	 *
+	 * @param id
+	 *            {@link String}
+	 * @param name
+	 *            {@link String}
+	 * @param version
+	 *            {@link String}
+	 * @return {@link SAMProgramRecord}
+	 */
+	private SAMProgramRecord createTool(String id, String name, String version)
+	{
+		SAMProgramRecord tool = new SAMProgramRecord(id);
+		tool.setProgramName(name);
+		tool.setProgramVersion(version);
+		return tool;
+	}
+}
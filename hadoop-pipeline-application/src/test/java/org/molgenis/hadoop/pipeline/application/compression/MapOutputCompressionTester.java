@@ -0,0 +1,228 @@
+package org.molgenis.hadoop.pipeline.application.compression;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tester for {@link MapOutputCompression}, {@link CompressionProfile} and {@link CompressionProbe}.
+ */
+public class MapOutputCompressionTester extends Tester
+{
+	/**
+	 * Directory containing a gzipped FASTQ-like input file.
+	 */
+	private File inputDir;
+
+	/**
+	 * Generates an input directory with a single gzipped input file.
+	 *
+	 * @throws IOException
+	 */
+	@BeforeClass
+	public void beforeClass() throws IOException
+	{
+		inputDir = File.createTempFile("map_output_compression", "");
+		FileUtils.forceDelete(inputDir);
+		FileUtils.forceMkdir(inputDir);
+
+		Random random = new Random(42);
+		try (OutputStream outputStream = new GZIPOutputStream(
+				new FileOutputStream(new File(inputDir, "halvade_0_0.fq.gz"))))
+		{
+			for (int i = 0; i < 5000; i++)
+			{
+				StringBuilder read = new StringBuilder("@read:" + i + "\n");
+				for (int j = 0; j < 150; j++)
+				{
+					read.append("ACGT".charAt(random.nextInt(4)));
+				}
+				read.append("\n+\n");
+				for (int j = 0; j < 150; j++)
+				{
+					read.append((char) ('5' + random.nextInt(10)));
+				}
+				outputStream.write(read.append('\n').toString().getBytes(StandardCharsets.US_ASCII));
+			}
+		}
+	}
+
+	/**
+	 * Removes the generated input directory.
+	 *
+	 * @throws IOException
+	 */
+	@AfterClass
+	public void afterClass() throws IOException
+	{
+		FileUtils.deleteDirectory(inputDir);
+	}
+
+	/**
+	 * Tests whether profile names are case-insensitive.
+	 */
+	@Test
+	public void testProfileFromName()
+	{
+		Assert.assertEquals(CompressionProfile.fromName("Snappy"), CompressionProfile.SNAPPY);
+		Assert.assertEquals(CompressionProfile.fromName(" lz4 "), CompressionProfile.LZ4);
+	}
+
+	/**
+	 * Tests whether an unknown profile name is refused.
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testUnknownProfileName()
+	{
+		CompressionProfile.fromName("rar");
+	}
+
+	/**
+	 * Tests whether the pure Java deflate codec is always available and actually compresses.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testDeflateMeasurement() throws IOException
+	{
+		CompressionCodec codec = CompressionProfile.DEFLATE.createCodec(new Configuration());
+		Assert.assertTrue(CompressionProbe.isAvailable(codec));
+
+		byte[] data = new byte[100000];
+		Arrays.fill(data, (byte) 'A');
+		CompressionProbe.Result result = CompressionProbe.measure(codec, data, data.length);
+
+		Assert.assertEquals(result.getBytes(), data.length);
+		Assert.assertTrue(result.getRatio() < 0.1);
+	}
+
+	/**
+	 * Tests whether only every n-th offered value is sampled.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testProbeSamplesEveryNthValue() throws IOException
+	{
+		CompressionProbe probe = new CompressionProbe(4, 1024 * 1024);
+		for (int i = 0; i < 10; i++)
+		{
+			probe.offer(new BytesWritable(new byte[96]));
+		}
+
+		// Values 0, 4 and 8 are sampled, each serialized as a 4 byte length followed by 96 bytes.
+		Assert.assertEquals(probe.getSampledBytes(), 300);
+	}
+
+	/**
+	 * Tests whether an explicitly chosen profile is configured.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testConfigureExplicitProfile() throws IOException
+	{
+		Job job = Job.getInstance(new Configuration());
+		job.getConfiguration().set(MapOutputCompression.PROFILE_PROPERTY, "deflate");
+
+		Assert.assertEquals(MapOutputCompression.configure(job, Arrays.asList(new Path(inputDir.toURI()))),
+				CompressionProfile.DEFLATE);
+		Assert.assertTrue(job.getConfiguration().getBoolean(MRJobConfig.MAP_OUTPUT_COMPRESS, false));
+		Assert.assertTrue(MapOutputCompression.getCodec(job.getConfiguration()) instanceof DefaultCodec);
+	}
+
+	/**
+	 * Tests whether disabling the compression is configured.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testConfigureNone() throws IOException
+	{
+		Job job = Job.getInstance(new Configuration());
+		job.getConfiguration().set(MapOutputCompression.PROFILE_PROPERTY, "none");
+
+		Assert.assertEquals(MapOutputCompression.configure(job, Arrays.asList(new Path(inputDir.toURI()))),
+				CompressionProfile.NONE);
+		Assert.assertFalse(job.getConfiguration().getBoolean(MRJobConfig.MAP_OUTPUT_COMPRESS, true));
+		Assert.assertNull(MapOutputCompression.getCodec(job.getConfiguration()));
+	}
+
+	/**
+	 * Tests whether automatic selection chooses a compression profile when the shuffle is slow and there is plenty of
+	 * CPU available, and disables compression when the shuffle is fast and there is hardly any CPU available.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testAutomaticSelection() throws IOException
+	{
+		Configuration conf = new Configuration();
+		conf.setFloat(MapOutputCompression.SHUFFLE_BANDWIDTH_PROPERTY, 0.001f);
+		conf.setFloat(MapOutputCompression.CPU_HEADROOM_PROPERTY, 1f);
+		Assert.assertNotEquals(MapOutputCompression.select(conf, Arrays.asList(new Path(inputDir.toURI()))),
+				CompressionProfile.NONE);
+
+		conf.setFloat(MapOutputCompression.SHUFFLE_BANDWIDTH_PROPERTY, 100000f);
+		conf.setFloat(MapOutputCompression.CPU_HEADROOM_PROPERTY, 0.0001f);
+		Assert.assertEquals(MapOutputCompression.select(conf, Arrays.asList(new Path(inputDir.toURI()))),
+				CompressionProfile.NONE);
+	}
+
+	/**
+	 * Tests whether automatic selection leaves the settings untouched if there is no input to sample.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testAutomaticSelectionWithoutInput() throws IOException
+	{
+		File emptyDir = new File(inputDir, "empty");
+		FileUtils.forceMkdir(emptyDir);
+
+		Job job = Job.getInstance(new Configuration());
+		job.getConfiguration().set(MapOutputCompression.PROFILE_PROPERTY, "auto");
+		job.getConfiguration().setBoolean(MRJobConfig.MAP_OUTPUT_COMPRESS, true);
+		Assert.assertNull(MapOutputCompression.configure(job, Arrays.asList(new Path(emptyDir.toURI()))));
+		Assert.assertTrue(job.getConfiguration().getBoolean(MRJobConfig.MAP_OUTPUT_COMPRESS, false));
+	}
+
+	/**
+	 * Tests whether the configured map output compression is left untouched if no profile is set.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testConfigureWithoutProfile() throws IOException
+	{
+		Job job = Job.getInstance(new Configuration());
+		job.getConfiguration().setBoolean(MRJobConfig.MAP_OUTPUT_COMPRESS, true);
+		job.getConfiguration().set(MRJobConfig.MAP_OUTPUT_COMPRESS_CODEC, DefaultCodec.class.getName());
+
+		Assert.assertNull(MapOutputCompression.configure(job, Arrays.asList(new Path(inputDir.toURI()))));
+		Assert.assertEquals(
+				Arrays.asList(job.getConfiguration().getBoolean(MRJobConfig.MAP_OUTPUT_COMPRESS, false),
+						job.getConfiguration().get(MRJobConfig.MAP_OUTPUT_COMPRESS_CODEC),
+						job.getConfiguration().get(MapOutputCompression.SELECTED_PROFILE_PROPERTY)),
+				Arrays.asList((Object) true, DefaultCodec.class.getName(), null));
+	}
+}
@@ -0,0 +1,99 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import static org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritableTester.generateRecordWithCigar;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tester for {@link BamIndexBuilder}.
+ */
+public class BamIndexBuilderTester extends Tester
+{
+	/**
+	 * Tests the bin calculation for regions within a single window and regions spanning multiple windows.
+	 */
+	@Test
+	public void testCalculateBin()
+	{
+		Assert.assertEquals(BamIndexBuilder.calculateBin(0, 1), 4681);
+		Assert.assertEquals(BamIndexBuilder.calculateBin(16384, 16385), 4682);
+		Assert.assertEquals(BamIndexBuilder.calculateBin(16383, 16385), 585);
+		Assert.assertEquals(BamIndexBuilder.calculateBin(0, 1 << 29), 0);
+	}
+
+	/**
+	 * Tests whether the written index contains the expected bins, chunks, metadata pseudo-bin, linear index and number
+	 * of records without coordinate.
+	 */
+	@Test
+	public void testWrite()
+	{
+		BamIndexBuilder builder = new BamIndexBuilder(2);
+		// Two adjacent records in the same bin (which should be merged into a single chunk).
+		builder.processRecord(generateRecordWithCigar(0, 99, 0, 150 << 4), 100L << 16, 100L << 16 | 50);
+		builder.processRecord(generateRecordWithCigar(0, 199, 0, 150 << 4), 100L << 16 | 50, 100L << 16 | 100);
+		// Unmapped record placed at the position of its mate.
+		builder.processRecord(generateRecordWithCigar(0, 199, 0x4), 100L << 16 | 100, 100L << 16 | 140);
+		// Record without coordinate.
+		builder.processRecord(generateRecordWithCigar(-1, -1, 0x4), 100L << 16 | 140, 100L << 16 | 180);
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		builder.write(output);
+		ByteBuffer index = ByteBuffer.wrap(output.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+
+		byte[] magic = new byte[4];
+		index.get(magic);
+		Assert.assertEquals(magic, "BAI\001".getBytes());
+		Assert.assertEquals(index.getInt(), 2);
+
+		// Reference 0: a single bin containing a single chunk + the metadata pseudo-bin.
+		Assert.assertEquals(index.getInt(), 2);
+		Assert.assertEquals(index.getInt(), 4681);
+		Assert.assertEquals(index.getInt(), 1);
+		Assert.assertEquals(index.getLong(), 100L << 16);
+		Assert.assertEquals(index.getLong(), 100L << 16 | 140);
+		Assert.assertEquals(index.getInt(), 37450);
+		Assert.assertEquals(index.getInt(), 2);
+		Assert.assertEquals(index.getLong(), 100L << 16);
+		Assert.assertEquals(index.getLong(), 100L << 16 | 140);
+		Assert.assertEquals(index.getLong(), 2L);
+		Assert.assertEquals(index.getLong(), 1L);
+		Assert.assertEquals(index.getInt(), 1);
+		Assert.assertEquals(index.getLong(), 100L << 16);
+
+		// Reference 1: no records.
+		Assert.assertEquals(index.getInt(), 0);
+		Assert.assertEquals(index.getInt(), 0);
+
+		Assert.assertEquals(index.getLong(), 1L);
+		Assert.assertFalse(index.hasRemaining());
+	}
+
+	/**
+	 * Tests whether records that are not coordinate sorted are refused.
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testUnsortedRecords()
+	{
+		BamIndexBuilder builder = new BamIndexBuilder(1);
+		builder.processRecord(generateRecordWithCigar(0, 199, 0, 10 << 4), 1L << 16, 1L << 16 | 50);
+		builder.processRecord(generateRecordWithCigar(0, 99, 0, 10 << 4), 1L << 16 | 50, 1L << 16 | 100);
+	}
+
+	/**
+	 * Tests whether records with a coordinate after records without coordinate are refused.
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testRecordAfterRecordWithoutCoordinate()
+	{
+		BamIndexBuilder builder = new BamIndexBuilder(1);
+		builder.processRecord(generateRecordWithCigar(-1, -1, 0x4), 1L << 16, 1L << 16 | 50);
+		builder.processRecord(generateRecordWithCigar(0, 99, 0, 10 << 4), 1L << 16 | 50, 1L << 16 | 100);
+	}
+}
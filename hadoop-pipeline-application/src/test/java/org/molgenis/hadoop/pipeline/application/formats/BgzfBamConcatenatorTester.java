@@ -0,0 +1,211 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritableTester;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+/**
+ * Tester for {@link BgzfBamConcatenator}.
+ */
+public class BgzfBamConcatenatorTester extends Tester
+{
+	/**
+	 * Directory containing the region BAM files.
+	 */
+	private File tmpDir;
+
+	/**
+	 * The header of the region BAM files.
+	 */
+	private SAMFileHeader header;
+
+	@BeforeMethod
+	public void beforeMethod() throws IOException
+	{
+		tmpDir = File.createTempFile("bgzf-bam-concatenator", "");
+		tmpDir.delete();
+		tmpDir.mkdir();
+
+		header = createHeader(249250621);
+	}
+
+	@AfterMethod
+	public void afterMethod() throws IOException
+	{
+		FileUtils.deleteDirectory(tmpDir);
+	}
+
+	/**
+	 * Tests whether the region BAM files are concatenated in the order of the regions (unmapped last, invalid left
+	 * out), including a region BAM file spanning multiple BGZF blocks and a region BAM file without records.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testConcatenateRegions() throws IOException
+	{
+		int[][] manyRecords = new int[2000][];
+		for (int i = 0; i < manyRecords.length; i++)
+		{
+			manyRecords[i] = new int[] { 0, 1000 + i };
+		}
+
+		writeBam("2-1-100000-r-00000.bam", header, new int[][] { { 1, 10 }, { 1, 20 } });
+		writeBam("1-100001-200000-r-00001.bam", header, new int[][] { { 0, 100010 } });
+		writeBam("1-1-100000-r-00000.bam", header, manyRecords);
+		writeBam("1-200001-300000-r-00001.bam", header, new int[][] {});
+		writeBam("unmapped-0-0-r-00002.bam", header, new int[][] { { -1, -1 } });
+		writeBam("invalid-0-0-r-00000.bam", header, new int[][] { { 0, 5 } });
+
+		Configuration conf = new Configuration();
+		Path output = new BgzfBamConcatenator(conf).concatenateRegions(new Path(tmpDir.getAbsolutePath()), 0);
+		Assert.assertEquals(output.getName(), BgzfBamConcatenator.CONCATENATED_FILE_NAME);
+
+		List<List<Integer>> expected = new ArrayList<>();
+		for (int[] record : manyRecords)
+		{
+			expected.add(Arrays.asList(record[0], record[1] + 1));
+		}
+		expected.add(Arrays.asList(0, 100011));
+		expected.add(Arrays.asList(1, 11));
+		expected.add(Arrays.asList(1, 21));
+		expected.add(Arrays.asList(-1, 0));
+
+		try (RawBamRecordReader reader = new RawBamRecordReader(output, conf))
+		{
+			Assert.assertEquals(reader.getFileHeader().getSortOrder(), SortOrder.unsorted);
+			Assert.assertEquals(readPositions(reader), expected);
+		}
+
+		// Only a single BGZF end-of-file terminator should be present.
+		byte[] bytes = FileUtils.readFileToByteArray(new File(output.toString()));
+		byte[] eof = BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK;
+		Assert.assertEquals(Arrays.copyOfRange(bytes, bytes.length - eof.length, bytes.length), eof);
+		Assert.assertFalse(Arrays.equals(
+				Arrays.copyOfRange(bytes, bytes.length - 2 * eof.length, bytes.length - eof.length), eof));
+	}
+
+	/**
+	 * Tests whether region BAM files that are not disjoint are refused (instead of duplicating the records of the read
+	 * pairs written to multiple regions).
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testConcatenateSharedReadPairs() throws IOException
+	{
+		writeBam("1-1-100000-r-00000.bam", header, new int[][] { { 0, 10 } });
+		writeBam("unmapped-0-0-r-00001.bam", header, new int[][] { { 0, 10 } });
+
+		try
+		{
+			new BgzfBamConcatenator(new Configuration()).concatenateRegions(new Path(tmpDir.getAbsolutePath()), 1);
+			Assert.fail("Expected an IOException.");
+		}
+		catch (IOException e)
+		{
+			// Expected.
+		}
+		Assert.assertFalse(new File(tmpDir, BgzfBamConcatenator.CONCATENATED_FILE_NAME).exists());
+	}
+
+	/**
+	 * Tests whether BAM files with different reference sequences are refused.
+	 *
+	 * @throws IOException
+	 */
+	@Test(expectedExceptions = IOException.class)
+	public void testConcatenateDifferentDictionaries() throws IOException
+	{
+		writeBam("1-1-100000.bam", header, new int[][] { { 0, 10 } });
+		writeBam("1-100001-200000.bam", createHeader(1000), new int[][] { { 0, 100010 } });
+
+		new BgzfBamConcatenator(new Configuration()).concatenate(
+				Arrays.asList(new Path(new File(tmpDir, "1-1-100000.bam").getAbsolutePath()),
+						new Path(new File(tmpDir, "1-100001-200000.bam").getAbsolutePath())),
+				new Path(new File(tmpDir, "out.bam").getAbsolutePath()));
+	}
+
+	/**
+	 * Creates a coordinate sorted {@link SAMFileHeader} with 2 reference sequences.
+	 *
+	 * @param firstSequenceLength
+	 *            {@code int}
+	 * @return {@link SAMFileHeader}
+	 */
+	private SAMFileHeader createHeader(int firstSequenceLength)
+	{
+		SAMSequenceDictionary dictionary = new SAMSequenceDictionary();
+		dictionary.addSequence(new SAMSequenceRecord("1", firstSequenceLength));
+		dictionary.addSequence(new SAMSequenceRecord("2", 243199373));
+		SAMFileHeader samFileHeader = new SAMFileHeader(dictionary);
+		samFileHeader.setSortOrder(SortOrder.coordinate);
+		return samFileHeader;
+	}
+
+	/**
+	 * Writes a BAM file.
+	 *
+	 * @param fileName
+	 *            {@link String}
+	 * @param bamHeader
+	 *            {@link SAMFileHeader}
+	 * @param records
+	 *            {@code int[][]} The reference index and 0-based position of each record.
+	 * @throws IOException
+	 */
+	private void writeBam(String fileName, SAMFileHeader bamHeader, int[][] records) throws IOException
+	{
+		RawBamRecordWriter<NullWritable> writer = new RawBamRecordWriter<>(
+				new FileOutputStream(new File(tmpDir, fileName)), bamHeader);
+		BamRecordBytesWritable writable = new BamRecordBytesWritable();
+		for (int[] record : records)
+		{
+			byte[] bytes = BamRecordBytesWritableTester.generateRecordBytesWithCigar(record[0], record[1],
+					record[0] == -1 ? 4 : 0, 100 << 4);
+			writable.set(bytes, 0, bytes.length);
+			writer.write(NullWritable.get(), writable);
+		}
+		writer.close(null);
+	}
+
+	/**
+	 * Reads the reference index and 1-based alignment start of each record.
+	 *
+	 * @param reader
+	 *            {@link RawBamRecordReader}
+	 * @return {@link List}{@code <}{@link List}{@code <}{@link Integer}{@code >>}
+	 * @throws IOException
+	 */
+	private List<List<Integer>> readPositions(RawBamRecordReader reader) throws IOException
+	{
+		List<List<Integer>> positions = new ArrayList<>();
+		BamRecordBytesWritable record = new BamRecordBytesWritable();
+		while (reader.next(record))
+		{
+			positions.add(Arrays.asList(record.getReferenceIndex(), record.getAlignmentStart()));
+		}
+		return positions;
+	}
+}
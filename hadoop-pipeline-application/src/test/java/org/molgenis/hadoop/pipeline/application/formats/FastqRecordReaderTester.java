@@ -0,0 +1,127 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tester for {@link FastqRecordReader}.
+ */
+public class FastqRecordReaderTester extends Tester
+{
+	/**
+	 * Interleaved FASTQ data containing two read pairs, with a last line without line ending.
+	 */
+	private static final String READS = "@read1/1\nACGT\n+\nIIII\n@read1/2\r\nTTTT\r\n+\r\nKKKK\r\n"
+			+ "@read2 1:N:0:1\nGGCC\n+\nJJJJ\n@read2 2:N:0:1\nAAAA\n+\nLLLL";
+
+	/**
+	 * Tests whether records are appended to the buffer until it is cleared, also when the stream returns a single byte
+	 * per read.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testReadRecords() throws IOException
+	{
+		try (FastqRecordReader reader = new FastqRecordReader(new SingleByteInputStream(toStream(READS))))
+		{
+			Assert.assertTrue(reader.readRecord());
+			Assert.assertTrue(reader.readRecord());
+			Assert.assertEquals(toString(reader), "@read1/1\nACGT\n+\nIIII\n@read1/2\r\nTTTT\r\n+\r\nKKKK\r\n");
+			Assert.assertEquals(reader.getReadName(0), "read1");
+			Assert.assertEquals(reader.getReadName(1), "read1");
+			Assert.assertEquals(new String(reader.getLine(5), StandardCharsets.US_ASCII), "TTTT");
+
+			reader.clear();
+			Assert.assertTrue(reader.readRecord());
+			Assert.assertTrue(reader.readRecord());
+			Assert.assertEquals(toString(reader), "@read2 1:N:0:1\nGGCC\n+\nJJJJ\n@read2 2:N:0:1\nAAAA\n+\nLLLL\n");
+			Assert.assertEquals(reader.getReadName(1), "read2");
+			Assert.assertEquals(new String(reader.getLine(7), StandardCharsets.US_ASCII), "LLLL");
+
+			reader.clear();
+			Assert.assertFalse(reader.readRecord());
+			Assert.assertEquals(reader.getLength(), 0);
+		}
+	}
+
+	/**
+	 * Tests whether the read name is retrieved without comment and "/1" or "/2" suffix.
+	 */
+	@Test
+	public void testReadName()
+	{
+		Assert.assertEquals(readName("@read/1 comment\n"), "read");
+		Assert.assertEquals(readName("@read/2\tcomment\n"), "read");
+		Assert.assertEquals(readName("@read/3\n"), "read/3");
+		Assert.assertEquals(readName("@r/1\r\n"), "r");
+		Assert.assertEquals(readName("@/1\n"), "/1");
+	}
+
+	/**
+	 * Tests whether a stream ending within a record is refused.
+	 *
+	 * @throws IOException
+	 */
+	@Test(expectedExceptions = IOException.class)
+	public void testTruncatedRecord() throws IOException
+	{
+		try (FastqRecordReader reader = new FastqRecordReader(toStream("@read1/1\nACGT\n")))
+		{
+			reader.readRecord();
+		}
+	}
+
+	/**
+	 * Tests whether a record not starting with a '@' is refused.
+	 *
+	 * @throws IOException
+	 */
+	@Test(expectedExceptions = IOException.class)
+	public void testInvalidRecord() throws IOException
+	{
+		try (FastqRecordReader reader = new FastqRecordReader(toStream(">read1\nACGT\n+\nIIII\n")))
+		{
+			reader.readRecord();
+		}
+	}
+
+	private static String readName(String record)
+	{
+		return FastqRecordReader.readName(record.getBytes(StandardCharsets.US_ASCII), 0);
+	}
+
+	private static String toString(FastqRecordReader reader)
+	{
+		return new String(reader.getBuffer(), 0, reader.getLength(), StandardCharsets.US_ASCII);
+	}
+
+	private static InputStream toStream(String data)
+	{
+		return new ByteArrayInputStream(data.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Returns at most a single byte per read, so that lines are split over multiple reads.
+	 */
+	private static class SingleByteInputStream extends FilterInputStream
+	{
+		SingleByteInputStream(InputStream input)
+		{
+			super(input);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			return super.read(b, off, Math.min(len, 1));
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritableTester;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+/**
+ * Tester for {@link IncrementalRegionOutput}.
+ */
+public class IncrementalRegionOutputTester extends Tester
+{
+	/**
+	 * Directory containing the previous output.
+	 */
+	private File tmpDir;
+
+	/**
+	 * The sequence dictionary of the previous output.
+	 */
+	private SAMSequenceDictionary dictionary;
+
+	@BeforeMethod
+	public void beforeMethod() throws IOException
+	{
+		tmpDir = File.createTempFile("previous-output", "");
+		tmpDir.delete();
+		tmpDir.mkdir();
+
+		dictionary = new SAMSequenceDictionary();
+		dictionary.addSequence(new SAMSequenceRecord("1", 2500));
+		dictionary.addSequence(new SAMSequenceRecord("2", 1000));
+	}
+
+	@AfterMethod
+	public void afterMethod() throws IOException
+	{
+		FileUtils.deleteDirectory(tmpDir);
+	}
+
+	/**
+	 * Tests whether only the per-region BAM files are listed.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testListRegionFiles() throws IOException
+	{
+		createFiles("1-1-834-r-00000.bam", "2-1-1000.bam", "unmapped-0-0-r-00001.bam", "all-regions.bam",
+				"1-835-1668-m-00000.bam", "1-1-834-r-00000.bam.bai", "_SUCCESS");
+
+		Map<String, Path> regionFiles = IncrementalRegionOutput
+				.listRegionFiles(FileSystem.getLocal(new Configuration()), new Path(tmpDir.getAbsolutePath()));
+		Assert.assertEquals(new ArrayList<>(regionFiles.keySet()), Arrays.asList("1-1-834", "2-1-1000", "unmapped-0-0"));
+		Assert.assertEquals(regionFiles.get("1-1-834").getName(), "1-1-834-r-00000.bam");
+	}
+
+	/**
+	 * Tests whether multiple BAM files for a single region are refused.
+	 *
+	 * @throws IOException
+	 */
+	@Test(expectedExceptions = IOException.class)
+	public void testListRegionFilesDuplicateRegion() throws IOException
+	{
+		createFiles("1-1-834-r-00000.bam", "1-1-834-r-00001.bam");
+		IncrementalRegionOutput.listRegionFiles(FileSystem.getLocal(new Configuration()),
+				new Path(tmpDir.getAbsolutePath()));
+	}
+
+	/**
+	 * Tests whether the tile size of the previous output is inferred from its tiles.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testInferTileSize() throws IOException
+	{
+		// Tiling with 1000 bases results in 3 tiles of 834 bases for contig 1.
+		createFiles("1-1-834-r-00000.bam", "1-835-1668-r-00001.bam", "1-1669-2500-r-00000.bam",
+				"2-1-1000-r-00001.bam", "unmapped-0-0-r-00000.bam");
+		Assert.assertEquals(IncrementalRegionOutput.inferTileSize(FileSystem.getLocal(new Configuration()),
+				new Path(tmpDir.getAbsolutePath()), dictionary), 1000);
+	}
+
+	/**
+	 * Tests whether tiles that do not match the inferred tile size are refused.
+	 *
+	 * @throws IOException
+	 */
+	@Test(expectedExceptions = IOException.class)
+	public void testInferTileSizeMismatch() throws IOException
+	{
+		createFiles("1-1-834-r-00000.bam", "1-835-2500-r-00001.bam", "2-1-1000-r-00001.bam");
+		IncrementalRegionOutput.inferTileSize(FileSystem.getLocal(new Configuration()),
+				new Path(tmpDir.getAbsolutePath()), dictionary);
+	}
+
+	/**
+	 * Tests whether a previous region BAM file can only be opened once and whether a different sequence dictionary is
+	 * refused.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testOpen() throws IOException
+	{
+		writeBam("1-1-834-r-00000.bam", dictionary);
+		SAMSequenceDictionary otherDictionary = new SAMSequenceDictionary();
+		otherDictionary.addSequence(new SAMSequenceRecord("1", 2500));
+		writeBam("2-1-1000-r-00000.bam", otherDictionary);
+
+		Configuration conf = new Configuration();
+		conf.set(IncrementalRegionOutput.PREVIOUS_OUTPUT_PROPERTY, tmpDir.getAbsolutePath());
+		IncrementalRegionOutput previousOutput = new IncrementalRegionOutput(conf, dictionary);
+
+		try (RawBamRecordReader reader = previousOutput.open("1-1-834"))
+		{
+			BamRecordBytesWritable record = new BamRecordBytesWritable();
+			Assert.assertTrue(reader.next(record));
+			Assert.assertEquals(record.getAlignmentStart(), 11);
+		}
+		Assert.assertNull(previousOutput.open("1-1-834"));
+		Assert.assertNull(previousOutput.open("1-835-1668"));
+
+		try
+		{
+			previousOutput.open("2-1-1000");
+			Assert.fail("Different sequence dictionary was not refused.");
+		}
+		catch (IOException e)
+		{
+			// Expected.
+		}
+	}
+
+	/**
+	 * Creates empty files.
+	 *
+	 * @param fileNames
+	 *            {@link String}{@code ...}
+	 * @throws IOException
+	 */
+	private void createFiles(String... fileNames) throws IOException
+	{
+		for (String fileName : fileNames)
+		{
+			new File(tmpDir, fileName).createNewFile();
+		}
+	}
+
+	/**
+	 * Writes a BAM file containing a single record.
+	 *
+	 * @param fileName
+	 *            {@link String}
+	 * @param sequenceDictionary
+	 *            {@link SAMSequenceDictionary}
+	 * @throws IOException
+	 */
+	private void writeBam(String fileName, SAMSequenceDictionary sequenceDictionary) throws IOException
+	{
+		RawBamRecordWriter<NullWritable> writer = new RawBamRecordWriter<>(
+				new FileOutputStream(new File(tmpDir, fileName)), new SAMFileHeader(sequenceDictionary));
+		writer.write(NullWritable.get(), createRecord(0, 10));
+		writer.close(null);
+	}
+
+	/**
+	 * Creates a record.
+	 *
+	 * @param referenceIndex
+	 *            {@code int}
+	 * @param position
+	 *            {@code int} 0-based
+	 * @return {@link BamRecordBytesWritable}
+	 */
+	private BamRecordBytesWritable createRecord(int referenceIndex, int position)
+	{
+		return BamRecordBytesWritableTester.generateRecordWithCigar(referenceIndex, position,
+				referenceIndex == -1 ? 4 : 0, 100 << 4);
+	}
+}
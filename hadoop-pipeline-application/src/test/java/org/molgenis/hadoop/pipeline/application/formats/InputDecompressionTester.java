@@ -0,0 +1,140 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tester for {@link InputDecompression} (and {@link ParallelBlockCompressedInputStream}).
+ */
+public class InputDecompressionTester extends Tester
+{
+	/**
+	 * FASTQ data spanning multiple BGZF blocks.
+	 */
+	private byte[] fastqData;
+
+	@BeforeClass
+	public void beforeClass()
+	{
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 5000; i++)
+		{
+			builder.append("@read").append(i).append("/1\nACGTACGTTTGACCA\n+\nIIIIIIIIIJJJJJJ\n");
+		}
+		fastqData = builder.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Tests whether BGZF data is decompressed in parallel.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testBgzf() throws IOException
+	{
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (ParallelBlockCompressedOutputStream output = new ParallelBlockCompressedOutputStream(compressed, 5, null,
+				1))
+		{
+			output.write(fastqData);
+		}
+
+		InputStream input = InputDecompression.decompress(new ByteArrayInputStream(compressed.toByteArray()), 3);
+		Assert.assertTrue(input instanceof ParallelBlockCompressedInputStream);
+		Assert.assertEquals(IOUtils.toByteArray(input), fastqData);
+	}
+
+	/**
+	 * Tests whether (multi-member) gzip data is decompressed.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testGzip() throws IOException
+	{
+		int half = fastqData.length / 2;
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (GZIPOutputStream output = new GZIPOutputStream(compressed))
+		{
+			output.write(fastqData, 0, half);
+		}
+		try (GZIPOutputStream output = new GZIPOutputStream(compressed))
+		{
+			output.write(fastqData, half, fastqData.length - half);
+		}
+
+		InputStream input = InputDecompression.decompress(new ByteArrayInputStream(compressed.toByteArray()), 3);
+		Assert.assertEquals(IOUtils.toByteArray(input), fastqData);
+	}
+
+	/**
+	 * Tests whether data that is not compressed is returned as-is.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testUncompressed() throws IOException
+	{
+		InputStream input = InputDecompression.decompress(new ByteArrayInputStream(fastqData), 3);
+		Assert.assertEquals(IOUtils.toByteArray(input), fastqData);
+
+		input = InputDecompression.decompress(new ByteArrayInputStream(new byte[0]), 3);
+		Assert.assertEquals(IOUtils.toByteArray(input), new byte[0]);
+	}
+
+	/**
+	 * Tests whether a runtime exception while reading gzip data ahead is passed to the reader (instead of leaving the
+	 * reader waiting for a next chunk).
+	 *
+	 * @throws IOException
+	 */
+	@Test(expectedExceptions = IOException.class, timeOut = 10000)
+	public void testGzipReadAheadFailure() throws IOException
+	{
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (GZIPOutputStream output = new GZIPOutputStream(compressed))
+		{
+			output.write(fastqData);
+		}
+		InputStream failingInput = new FilterInputStream(new ByteArrayInputStream(compressed.toByteArray()))
+		{
+			private int reads = 0;
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException
+			{
+				// The first read is done to determine the compression.
+				if (++reads > 1) throw new IllegalStateException("Failing source.");
+				return super.read(b, off, len);
+			}
+		};
+
+		IOUtils.toByteArray(InputDecompression.decompress(failingInput, 2));
+	}
+
+		/**
+	 * Tests whether a corrupt BGZF block is detected.
+	 *
+	 * @throws IOException
+	 */
+	@Test(expectedExceptions = IOException.class)
+	public void testCorruptBgzf() throws IOException
+	{
+		byte[] block = ParallelBlockCompressedOutputStream.compressBlock(fastqData, 1000, 5);
+		// Changes the CRC.
+		block[block.length - 8] ^= 1;
+
+		IOUtils.toByteArray(InputDecompression.decompress(new ByteArrayInputStream(block), 2));
+	}
+}
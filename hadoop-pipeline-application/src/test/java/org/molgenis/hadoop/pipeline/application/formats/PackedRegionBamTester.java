@@ -0,0 +1,178 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritableTester;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+/**
+ * Tester for {@link PackedRegionBamRecordWriter} and {@link PackedRegionBamReader}.
+ */
+public class PackedRegionBamTester extends Tester
+{
+	/**
+	 * Directory to write the packed BAM file to.
+	 */
+	private File tmpDir;
+
+	/**
+	 * The records written per region (enough to span multiple BGZF blocks).
+	 */
+	private Map<String, List<byte[]>> recordsPerRegion = new LinkedHashMap<>();
+
+	@BeforeClass
+	public void beforeClass() throws IOException
+	{
+		tmpDir = File.createTempFile("packed-region-bam", "");
+		tmpDir.delete();
+		tmpDir.mkdir();
+
+		// The second region overlaps the first one, so records are written twice.
+		String[] regions = { "1-1-100000", "1-50000-150000", "2-1-100000" };
+		int[][] positions = { { 0, 100000 }, { 50000, 150000 }, { 0, 100000 } };
+		for (int i = 0; i < regions.length; i++)
+		{
+			List<byte[]> records = new ArrayList<>();
+			for (int position = positions[i][0]; position < positions[i][1]; position += 50)
+			{
+				records.add(BamRecordBytesWritableTester.generateRecordBytesWithCigar(i == 2 ? 1 : 0, position, 0,
+						100 << 4));
+			}
+			recordsPerRegion.put(regions[i], records);
+		}
+	}
+
+	@AfterClass
+	public void afterClass() throws IOException
+	{
+		FileUtils.deleteDirectory(tmpDir);
+	}
+
+	/**
+	 * Tests whether the records of each region can be retrieved from the packed BAM file using the region index.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testWriteAndReadRegions() throws IOException
+	{
+		File bamFile = writePackedBam("packedRegions-r-00000.bam");
+
+		try (PackedRegionBamReader reader = new PackedRegionBamReader(new Path(bamFile.getAbsolutePath()),
+				new Configuration()))
+		{
+			Assert.assertEquals(new ArrayList<>(reader.getRegionNames()),
+					new ArrayList<>(recordsPerRegion.keySet()));
+
+			// Reads the regions in reverse order to ensure seeking is used.
+			List<String> regionNames = new ArrayList<>(recordsPerRegion.keySet());
+			for (int i = regionNames.size() - 1; i >= 0; i--)
+			{
+				List<byte[]> expected = recordsPerRegion.get(regionNames.get(i));
+				List<BamRecordBytesWritable> actual = reader.getRecordBytes(regionNames.get(i));
+				Assert.assertEquals(actual.size(), expected.size());
+				for (int j = 0; j < expected.size(); j++)
+				{
+					Assert.assertEquals(Arrays.copyOf(actual.get(j).getBytes(), actual.get(j).getLength()),
+							expected.get(j));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tests whether requesting a region that is not present fails.
+	 *
+	 * @throws IOException
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testUnknownRegion() throws IOException
+	{
+		File bamFile = writePackedBam("packedRegions-r-00001.bam");
+
+		try (PackedRegionBamReader reader = new PackedRegionBamReader(new Path(bamFile.getAbsolutePath()),
+				new Configuration()))
+		{
+			reader.getRecordBytes("3-1-100");
+		}
+	}
+
+	/**
+	 * Tests whether a region index listing a different number of records than found between the start and end of a
+	 * region is refused.
+	 *
+	 * @throws IOException
+	 */
+	@Test(expectedExceptions = IOException.class)
+	public void testRegionIndexMismatch() throws IOException
+	{
+		File bamFile = writePackedBam("packedRegions-r-00002.bam");
+		File regionIndexFile = new File(tmpDir, bamFile.getName() + PackedRegionBamOutputFormat.REGION_INDEX_EXTENSION);
+		List<String> lines = FileUtils.readLines(regionIndexFile, StandardCharsets.UTF_8);
+		String[] fields = lines.get(0).split("\t");
+		lines.set(0, fields[0] + "\t" + fields[1] + "\t" + fields[2] + "\t" + (Long.parseLong(fields[3]) + 1));
+		FileUtils.writeLines(regionIndexFile, lines);
+
+		try (PackedRegionBamReader reader = new PackedRegionBamReader(new Path(bamFile.getAbsolutePath()),
+				new Configuration()))
+		{
+			reader.getRecordBytes(fields[0]);
+		}
+	}
+
+	/**
+	 * Writes {@link #recordsPerRegion} to a packed BAM file.
+	 *
+	 * @param fileName
+	 *            {@link String}
+	 * @return {@link File} The written BAM file.
+	 * @throws IOException
+	 */
+	private File writePackedBam(String fileName) throws IOException
+	{
+		File bamFile = new File(tmpDir, fileName);
+		File regionIndexFile = new File(tmpDir, fileName + PackedRegionBamOutputFormat.REGION_INDEX_EXTENSION);
+
+		SAMSequenceDictionary dictionary = new SAMSequenceDictionary();
+		dictionary.addSequence(new SAMSequenceRecord("1", 249250621));
+		dictionary.addSequence(new SAMSequenceRecord("2", 243199373));
+		PackedRegionBamRecordWriter writer = new PackedRegionBamRecordWriter(new FileOutputStream(bamFile),
+				new SAMFileHeader(dictionary), new FileOutputStream(regionIndexFile));
+
+		BamRecordBytesWritable writable = new BamRecordBytesWritable();
+		Text key = new Text();
+		for (Map.Entry<String, List<byte[]>> region : recordsPerRegion.entrySet())
+		{
+			key.set(region.getKey());
+			for (byte[] record : region.getValue())
+			{
+				writable.set(record, 0, record.length);
+				writer.write(key, writable);
+			}
+		}
+		writer.close(null);
+
+		return bamFile;
+	}
+}
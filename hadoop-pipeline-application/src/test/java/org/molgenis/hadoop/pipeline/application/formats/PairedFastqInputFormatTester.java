@@ -0,0 +1,149 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tester for {@link PairedFastqInputFormat} and {@link InterleavedFastqInputStream}.
+ */
+public class PairedFastqInputFormatTester extends Tester
+{
+	/**
+	 * The first reads.
+	 */
+	private static final String FIRST_READS = "@read1/1\nACGT\n+\nIIII\n@read2 1:N:0:1\nGGCC\n+\nJJJJ\n";
+
+	/**
+	 * The second reads.
+	 */
+	private static final String SECOND_READS = "@read1/2\nTTTT\n+\nKKKK\n@read2 2:N:0:1\nAAAA\n+\nLLLL";
+
+	/**
+	 * The expected interleaved reads.
+	 */
+	private static final String INTERLEAVED_READS = "@read1/1\nACGT\n+\nIIII\n@read1/2\nTTTT\n+\nKKKK\n"
+			+ "@read2 1:N:0:1\nGGCC\n+\nJJJJ\n@read2 2:N:0:1\nAAAA\n+\nLLLL\n";
+
+	/**
+	 * Directory containing the FASTQ files.
+	 */
+	private File tmpDir;
+
+	@BeforeClass
+	public void beforeClass() throws IOException
+	{
+		tmpDir = File.createTempFile("paired-fastq", "");
+		tmpDir.delete();
+		tmpDir.mkdir();
+	}
+
+	@AfterClass
+	public void afterClass() throws IOException
+	{
+		FileUtils.deleteDirectory(tmpDir);
+	}
+
+	/**
+	 * Tests which file names are recognized as R1 FASTQ files and whether the matching R2 file is found.
+	 */
+	@Test
+	public void testFileNames()
+	{
+		Assert.assertTrue(PairedFastqInputFormat.isFirstOfPair("sample_S1_L001_R1_001.fastq.gz"));
+		Assert.assertTrue(PairedFastqInputFormat.isFirstOfPair("sample_R1.fq"));
+		Assert.assertFalse(PairedFastqInputFormat.isFirstOfPair("sample_S1_L001_R2_001.fastq.gz"));
+		Assert.assertFalse(PairedFastqInputFormat.isFirstOfPair("halvade_0_0.fq.gz"));
+		Assert.assertFalse(PairedFastqInputFormat.isFirstOfPair("sample_R1.bam"));
+
+		Assert.assertEquals(PairedFastqInputFormat.getSecondOfPair(new Path("/in/sample_R1_R1_001.fastq.gz")),
+				new Path("/in/sample_R1_R2_001.fastq.gz"));
+	}
+
+	/**
+	 * Tests whether a compressed R1/R2 file pair is interleaved.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testOpenInterleaved() throws IOException
+	{
+		writeGzip("sample_L001_R1_001.fq.gz", FIRST_READS);
+		writeGzip("sample_L001_R2_001.fq.gz", SECOND_READS);
+
+		try (InterleavedFastqInputStream input = PairedFastqInputFormat.openInterleaved(
+				new Path(new File(tmpDir, "sample_L001_R1_001.fq.gz").getAbsolutePath()), new Configuration()))
+		{
+			Assert.assertEquals(IOUtils.toString(input, StandardCharsets.US_ASCII), INTERLEAVED_READS);
+			Assert.assertEquals(input.getReadPairs(), 2);
+		}
+	}
+
+	/**
+	 * Tests whether streams with a different number of reads are refused.
+	 *
+	 * @throws IOException
+	 */
+	@Test(expectedExceptions = IOException.class)
+	public void testDifferentNumberOfReads() throws IOException
+	{
+		IOUtils.toByteArray(new InterleavedFastqInputStream(toStream(FIRST_READS),
+				toStream("@read1/2\nTTTT\n+\nKKKK\n")));
+	}
+
+	/**
+	 * Tests whether streams containing the reads in a different order are refused.
+	 *
+	 * @throws IOException
+	 */
+	@Test(expectedExceptions = IOException.class)
+	public void testDifferentReadNames() throws IOException
+	{
+		IOUtils.toByteArray(new InterleavedFastqInputStream(toStream(FIRST_READS),
+				toStream("@read2/2\nAAAA\n+\nLLLL\n@read1/2\nTTTT\n+\nKKKK\n")));
+	}
+
+	/**
+	 * Writes a gzip-compressed file.
+	 *
+	 * @param fileName
+	 *            {@link String}
+	 * @param data
+	 *            {@link String}
+	 * @throws IOException
+	 */
+	private void writeGzip(String fileName, String data) throws IOException
+	{
+		try (OutputStream output = new GZIPOutputStream(new FileOutputStream(new File(tmpDir, fileName))))
+		{
+			output.write(data.getBytes(StandardCharsets.US_ASCII));
+		}
+	}
+
+	/**
+	 * Creates an {@link InputStream} from a {@link String}.
+	 *
+	 * @param data
+	 *            {@link String}
+	 * @return {@link InputStream}
+	 */
+	private InputStream toStream(String data)
+	{
+		return new ByteArrayInputStream(data.getBytes(StandardCharsets.US_ASCII));
+	}
+}
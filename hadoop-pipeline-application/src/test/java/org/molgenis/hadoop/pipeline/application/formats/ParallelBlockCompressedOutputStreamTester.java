@@ -0,0 +1,183 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+/**
+ * Tester for {@link ParallelBlockCompressedOutputStream}.
+ */
+public class ParallelBlockCompressedOutputStreamTester extends Tester
+{
+	/**
+	 * Data spanning multiple blocks (partially random so that not all blocks compress equally well).
+	 */
+	private byte[] data;
+
+	private ExecutorService executor;
+
+	@BeforeClass
+	public void beforeClass()
+	{
+		data = new byte[5 * BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE + 1234];
+		Random random = new Random(42);
+		for (int i = 0; i < data.length; i++)
+		{
+			data[i] = i % 3 == 0 ? (byte) random.nextInt() : (byte) 'A';
+		}
+		executor = Executors.newFixedThreadPool(3);
+	}
+
+	@AfterClass
+	public void afterClass()
+	{
+		executor.shutdown();
+	}
+
+	/**
+	 * Tests whether the compressed output can be decompressed and is identical to the output without
+	 * {@link ExecutorService}.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testParallelOutputEqualsSequentialOutput() throws IOException
+	{
+		byte[] sequential = compress(null, 1);
+		byte[] parallel = compress(executor, 2);
+
+		Assert.assertEquals(parallel, sequential);
+		Assert.assertEquals(IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(parallel))), data);
+		// Ends with the BGZF end-of-file terminator.
+		Assert.assertEquals(Arrays.copyOfRange(parallel,
+				parallel.length - BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length, parallel.length),
+				BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+	}
+
+	/**
+	 * Tests whether full blocks that can not be compressed (random data, or compression level 0) are stored within the
+	 * maximum BGZF block size.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testIncompressibleData() throws IOException
+	{
+		byte[] random = new byte[3 * ParallelBlockCompressedOutputStream.UNCOMPRESSED_BLOCK_SIZE + 10];
+		new Random(7).nextBytes(random);
+		for (int compressionLevel : new int[] { 0, 5 })
+		{
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			try (ParallelBlockCompressedOutputStream stream = new ParallelBlockCompressedOutputStream(output,
+					compressionLevel, executor, 2))
+			{
+				stream.write(random);
+			}
+			Assert.assertEquals(
+					IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(output.toByteArray()))), random);
+		}
+	}
+
+	/**
+	 * Tests whether block pointers are resolved to virtual file pointers that refer to the same data.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testResolveFilePointer() throws IOException
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ParallelBlockCompressedOutputStream stream = new ParallelBlockCompressedOutputStream(output, 5, executor, 2);
+		int[] positions = { 0, 100000, 200000, data.length - 10 };
+		long[] blockPointers = new long[positions.length];
+		int written = 0;
+		for (int i = 0; i < positions.length; i++)
+		{
+			stream.write(data, written, positions[i] - written);
+			written = positions[i];
+			blockPointers[i] = stream.getBlockPointer();
+		}
+		stream.write(data, written, data.length - written);
+		stream.close();
+
+		byte[] compressed = output.toByteArray();
+		for (int i = 0; i < positions.length; i++)
+		{
+			long virtualPointer = stream.resolveFilePointer(blockPointers[i]);
+			int blockAddress = (int) (virtualPointer >>> 16);
+			int blockOffset = (int) (virtualPointer & 0xFFFF);
+
+			byte[] decompressed = IOUtils.toByteArray(new GZIPInputStream(
+					new ByteArrayInputStream(compressed, blockAddress, compressed.length - blockAddress)));
+			Assert.assertEquals(Arrays.copyOfRange(decompressed, blockOffset, blockOffset + 10),
+					Arrays.copyOfRange(data, positions[i], positions[i] + 10));
+		}
+	}
+
+	/**
+	 * Tests whether resolving a pointer to a block that has not been written yet fails.
+	 *
+	 * @throws IOException
+	 */
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void testResolveUnwrittenBlock() throws IOException
+	{
+		ParallelBlockCompressedOutputStream stream = new ParallelBlockCompressedOutputStream(
+				new ByteArrayOutputStream(), 5, executor, 2);
+		stream.write(data, 0, 10);
+		stream.resolveFilePointer(stream.getBlockPointer());
+	}
+
+	/**
+	 * Tests whether the shared pools are reused for the same number of threads only.
+	 */
+	@Test
+	public void testSharedExecutorPerSize()
+	{
+		ExecutorService executor2 = ParallelBlockCompressedOutputStream.getSharedExecutor(2);
+		ExecutorService executor3 = ParallelBlockCompressedOutputStream.getSharedExecutor(3);
+
+		Assert.assertSame(ParallelBlockCompressedOutputStream.getSharedExecutor(2), executor2);
+		Assert.assertEquals(Arrays.asList(((ThreadPoolExecutor) executor2).getMaximumPoolSize(),
+				((ThreadPoolExecutor) executor3).getMaximumPoolSize()), Arrays.asList(2, 3));
+	}
+
+	/**
+	 * Compresses {@link #data}.
+	 *
+	 * @param executor
+	 *            {@link ExecutorService}
+	 * @param maxQueuedBlocks
+	 *            {@code int}
+	 * @return {@code byte[]}
+	 * @throws IOException
+	 */
+	private byte[] compress(ExecutorService executor, int maxQueuedBlocks) throws IOException
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ParallelBlockCompressedOutputStream stream = new ParallelBlockCompressedOutputStream(output, 5, executor,
+				maxQueuedBlocks);
+		// Writes in uneven pieces to cross block boundaries within a single write.
+		for (int offset = 0; offset < data.length; offset += 7777)
+		{
+			stream.write(data, offset, Math.min(7777, data.length - offset));
+		}
+		stream.close();
+		return output.toByteArray();
+	}
+}
@@ -0,0 +1,168 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritableTester;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+/**
+ * Tester for {@link RawBamRecordWriter}.
+ */
+public class RawBamRecordWriterTester extends Tester
+{
+	/**
+	 * Tests whether the output is a BGZF (multi-member gzip) stream containing the BAM header followed by the unaltered
+	 * record bytes.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testRecordBytesAreCopied() throws IOException
+	{
+		SAMSequenceDictionary dictionary = new SAMSequenceDictionary();
+		dictionary.addSequence(new SAMSequenceRecord("1", 249250621));
+		SAMFileHeader header = new SAMFileHeader(dictionary);
+
+		byte[] first = generateRecordBytes(0, 100, 60);
+		byte[] second = generateRecordBytes(0, 200, 80);
+		BamRecordBytesWritable writable = new BamRecordBytesWritable();
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		RawBamRecordWriter<NullWritable> writer = new RawBamRecordWriter<>(output, header);
+		writable.set(first, 0, first.length);
+		writer.write(NullWritable.get(), writable);
+		writable.set(second, 0, second.length);
+		writer.write(NullWritable.get(), writable);
+		writer.close(null);
+
+		byte[] bam = IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(output.toByteArray())));
+		ByteBuffer buffer = ByteBuffer.wrap(bam).order(ByteOrder.LITTLE_ENDIAN);
+
+		// Magic.
+		byte[] magic = new byte[4];
+		buffer.get(magic);
+		Assert.assertEquals(new String(magic, StandardCharsets.US_ASCII), "BAM\001");
+
+		// Header text.
+		int headerTextLength = buffer.getInt();
+		buffer.position(buffer.position() + headerTextLength);
+
+		// Reference sequences.
+		Assert.assertEquals(buffer.getInt(), 1);
+		Assert.assertEquals(buffer.getInt(), 2);
+		Assert.assertEquals(buffer.get(), (byte) '1');
+		Assert.assertEquals(buffer.get(), (byte) 0);
+		Assert.assertEquals(buffer.getInt(), 249250621);
+
+		// Records.
+		Assert.assertEquals(Arrays.copyOfRange(bam, buffer.position(), buffer.position() + first.length), first);
+		Assert.assertEquals(Arrays.copyOfRange(bam, buffer.position() + first.length, bam.length), second);
+	}
+
+	/**
+	 * Tests whether the BAM index and the splitting index (containing a virtual offset for each record followed by the
+	 * end of the file) are written.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testIndicesAreWritten() throws IOException
+	{
+		SAMSequenceDictionary dictionary = new SAMSequenceDictionary();
+		dictionary.addSequence(new SAMSequenceRecord("1", 249250621));
+		SAMFileHeader header = new SAMFileHeader(dictionary);
+
+		byte[] first = BamRecordBytesWritableTester.generateRecordBytesWithCigar(0, 100, 0, 50 << 4);
+		byte[] second = BamRecordBytesWritableTester.generateRecordBytesWithCigar(0, 200, 0, 50 << 4);
+		BamRecordBytesWritable writable = new BamRecordBytesWritable();
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ByteArrayOutputStream indexOutput = new ByteArrayOutputStream();
+		ByteArrayOutputStream splittingIndexOutput = new ByteArrayOutputStream();
+		RawBamRecordWriter<NullWritable> writer = new RawBamRecordWriter<>(output, header, indexOutput,
+				splittingIndexOutput, 1, 5, 2);
+		writable.set(first, 0, first.length);
+		writer.write(NullWritable.get(), writable);
+		writable.set(second, 0, second.length);
+		writer.write(NullWritable.get(), writable);
+		writer.close(null);
+
+		byte[] index = indexOutput.toByteArray();
+		Assert.assertEquals(new String(index, 0, 4, StandardCharsets.US_ASCII), "BAI\001");
+
+		ByteBuffer splittingIndex = ByteBuffer.wrap(splittingIndexOutput.toByteArray());
+		Assert.assertEquals(splittingIndex.remaining(), 3 * 8);
+		long firstOffset = splittingIndex.getLong();
+		long secondOffset = splittingIndex.getLong();
+		Assert.assertEquals(secondOffset - firstOffset, first.length);
+		Assert.assertEquals(splittingIndex.getLong(), (long) output.size() << 16);
+	}
+
+	/**
+	 * Generates bytes with the layout of a BAM record (only the {@code block_size}, {@code refID} and {@code pos} are
+	 * filled in).
+	 *
+	 * @param referenceIndex
+	 *            {@code int}
+	 * @param position
+	 *            {@code int} 0-based
+	 * @param length
+	 *            {@code int} The total length (including {@code block_size}).
+	 * @return {@code byte[]}
+	 */
+	private byte[] generateRecordBytes(int referenceIndex, int position, int length)
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(length - 4).putInt(referenceIndex).putInt(position);
+		for (int i = 12; i < length; i++)
+		{
+			buffer.put((byte) i);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Tests whether the number of compression threads defaults to the virtual cores of the type of task writing the
+	 * BAM file.
+	 */
+	@Test
+	public void testCompressionThreads()
+	{
+		Configuration conf = new Configuration();
+		conf.setInt(MRJobConfig.MAP_CPU_VCORES, 2);
+		conf.setInt(MRJobConfig.REDUCE_CPU_VCORES, 4);
+		TaskAttemptContext mapContext = new TaskAttemptContextImpl(conf,
+				new TaskAttemptID("test", 1, TaskType.MAP, 0, 0));
+		TaskAttemptContext reduceContext = new TaskAttemptContextImpl(conf,
+				new TaskAttemptID("test", 1, TaskType.REDUCE, 0, 0));
+		Assert.assertEquals(RawBamOutputFormat.getCompressionThreads(mapContext), 2);
+		Assert.assertEquals(RawBamOutputFormat.getCompressionThreads(reduceContext), 4);
+
+		// The context copies the configuration.
+		conf.setInt(RawBamOutputFormat.BGZF_THREADS_PROPERTY, 3);
+		Assert.assertEquals(RawBamOutputFormat.getCompressionThreads(
+				new TaskAttemptContextImpl(conf, new TaskAttemptID("test", 1, TaskType.MAP, 0, 0))), 3);
+	}
+}
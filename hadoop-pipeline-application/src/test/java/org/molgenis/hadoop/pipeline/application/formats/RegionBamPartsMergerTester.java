@@ -0,0 +1,192 @@
+package org.molgenis.hadoop.pipeline.application.formats;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritableTester;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+/**
+ * Tester for {@link RegionBamPartsMerger} (and {@link RawBamRecordReader}).
+ */
+public class RegionBamPartsMergerTester extends Tester
+{
+	/**
+	 * Directory containing the BAM parts.
+	 */
+	private File tmpDir;
+
+	/**
+	 * The header of the BAM parts.
+	 */
+	private SAMFileHeader header;
+
+	@BeforeMethod
+	public void beforeMethod() throws IOException
+	{
+		tmpDir = File.createTempFile("region-bam-parts", "");
+		tmpDir.delete();
+		tmpDir.mkdir();
+
+		SAMSequenceDictionary dictionary = new SAMSequenceDictionary();
+		dictionary.addSequence(new SAMSequenceRecord("1", 249250621));
+		dictionary.addSequence(new SAMSequenceRecord("2", 243199373));
+		header = new SAMFileHeader(dictionary);
+	}
+
+	@AfterMethod
+	public void afterMethod() throws IOException
+	{
+		FileUtils.deleteDirectory(tmpDir);
+	}
+
+	/**
+	 * Tests whether the parts of a region are merged in coordinate order and whether a region with a single part is
+	 * renamed.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testMerge() throws IOException
+	{
+		// Each part is sorted on its own, unmapped records (-1) last.
+		writePart("1-1-100000-m-00000.bam", new int[][] { { 0, 10 }, { 0, 500 }, { 1, 20 }, { -1, -1 } });
+		writePart("1-1-100000-m-00001.bam", new int[][] { { 0, 5 }, { 0, 600 }, { 1, 10 } });
+		writePart("1-1-100000-m-00002.bam", new int[][] {});
+		writePart("2-1-100000-m-00001.bam", new int[][] { { 1, 30 }, { 1, 40 } });
+
+		Configuration conf = new Configuration();
+		Assert.assertEquals(new RegionBamPartsMerger(conf).merge(new Path(tmpDir.getAbsolutePath())), 2);
+
+		Assert.assertEquals(readPositions(new File(tmpDir, "1-1-100000.bam"), conf),
+				Arrays.asList(Arrays.asList(0, 6), Arrays.asList(0, 11), Arrays.asList(0, 501), Arrays.asList(0, 601),
+						Arrays.asList(1, 11), Arrays.asList(1, 21), Arrays.asList(-1, 0)));
+		Assert.assertEquals(readPositions(new File(tmpDir, "2-1-100000.bam"), conf),
+				Arrays.asList(Arrays.asList(1, 31), Arrays.asList(1, 41)));
+		Assert.assertTrue(new File(tmpDir, "1-1-100000.bam" + RawBamOutputFormat.BAM_INDEX_EXTENSION).exists());
+		Assert.assertFalse(new File(tmpDir, "1-1-100000-m-00000.bam").exists());
+		Assert.assertFalse(new File(tmpDir, "2-1-100000-m-00001.bam").exists());
+	}
+
+	/**
+	 * Tests whether the parts of a region that follow each other in coordinate order are concatenated (in the order of
+	 * their first record, leaving out empty parts) and indexed, while multiple regions are merged in parallel.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testConcatenateDisjointParts() throws IOException
+	{
+		writePart("1-200001-300000-m-00000.bam", new int[][] { { 0, 200500 }, { 0, 200600 } });
+		writePart("1-200001-300000-m-00001.bam", new int[][] { { 0, 200010 }, { 0, 200500 } });
+		writePart("1-200001-300000-m-00002.bam", new int[][] {});
+		writePart("1-200001-300000-m-00003.bam", new int[][] { { 1, 10 }, { -1, -1 } });
+		writePart("2-200001-300000-m-00000.bam", new int[][] { { 1, 200030 } });
+		writePart("2-200001-300000-m-00001.bam", new int[][] { { 1, 200040 } });
+
+		Configuration conf = new Configuration();
+		conf.setInt(RegionBamPartsMerger.THREADS_PROPERTY, 2);
+		RegionBamPartsMerger merger = new RegionBamPartsMerger(conf);
+		Path output = new Path(new File(tmpDir, "concatenated.bam").getAbsolutePath());
+		Assert.assertTrue(merger.concatenate(Arrays.asList(
+				new Path(new File(tmpDir, "1-200001-300000-m-00000.bam").getAbsolutePath()),
+				new Path(new File(tmpDir, "1-200001-300000-m-00001.bam").getAbsolutePath()),
+				new Path(new File(tmpDir, "1-200001-300000-m-00002.bam").getAbsolutePath()),
+				new Path(new File(tmpDir, "1-200001-300000-m-00003.bam").getAbsolutePath())), output));
+		Assert.assertEquals(readPositions(new File(output.toString()), conf),
+				Arrays.asList(Arrays.asList(0, 200011), Arrays.asList(0, 200501), Arrays.asList(0, 200501),
+						Arrays.asList(0, 200601), Arrays.asList(1, 11), Arrays.asList(-1, 0)));
+		Assert.assertTrue(new File(tmpDir, "concatenated.bam" + RawBamOutputFormat.BAM_INDEX_EXTENSION).exists());
+
+		Assert.assertEquals(merger.merge(new Path(tmpDir.getAbsolutePath())), 2);
+		Assert.assertEquals(readPositions(new File(tmpDir, "1-200001-300000.bam"), conf),
+				readPositions(new File(output.toString()), conf));
+		Assert.assertEquals(readPositions(new File(tmpDir, "2-200001-300000.bam"), conf),
+				Arrays.asList(Arrays.asList(1, 200031), Arrays.asList(1, 200041)));
+		Assert.assertFalse(new File(tmpDir, "1-200001-300000-m-00000.bam").exists());
+	}
+
+	/**
+	 * Tests whether parts with interleaving records are not concatenated.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testConcatenateInterleavingParts() throws IOException
+	{
+		writePart("3-1-100000-m-00000.bam", new int[][] { { 0, 10 }, { 0, 30 } });
+		writePart("3-1-100000-m-00001.bam", new int[][] { { 0, 20 } });
+
+		Path output = new Path(new File(tmpDir, "interleaved.bam").getAbsolutePath());
+		Assert.assertFalse(new RegionBamPartsMerger(new Configuration()).concatenate(Arrays.asList(
+				new Path(new File(tmpDir, "3-1-100000-m-00000.bam").getAbsolutePath()),
+				new Path(new File(tmpDir, "3-1-100000-m-00001.bam").getAbsolutePath())), output));
+		Assert.assertFalse(new File(output.toString()).exists());
+	}
+
+	/**
+	 * Writes a BAM part.
+	 *
+	 * @param fileName
+	 *            {@link String}
+	 * @param records
+	 *            {@code int[][]} The reference index and 0-based position of each record.
+	 * @throws IOException
+	 */
+	private void writePart(String fileName, int[][] records) throws IOException
+	{
+		RawBamRecordWriter<NullWritable> writer = new RawBamRecordWriter<>(
+				new FileOutputStream(new File(tmpDir, fileName)), header);
+		BamRecordBytesWritable writable = new BamRecordBytesWritable();
+		for (int[] record : records)
+		{
+			byte[] bytes = BamRecordBytesWritableTester.generateRecordBytesWithCigar(record[0], record[1],
+					record[0] == -1 ? 4 : 0, 100 << 4);
+			writable.set(bytes, 0, bytes.length);
+			writer.write(NullWritable.get(), writable);
+		}
+		writer.close(null);
+	}
+
+	/**
+	 * Reads the reference index and 1-based alignment start of each record in a BAM file.
+	 *
+	 * @param bamFile
+	 *            {@link File}
+	 * @param conf
+	 *            {@link Configuration}
+	 * @return {@link List}{@code <}{@link List}{@code <}{@link Integer}{@code >>}
+	 * @throws IOException
+	 */
+	private List<List<Integer>> readPositions(File bamFile, Configuration conf) throws IOException
+	{
+		List<List<Integer>> positions = new ArrayList<>();
+		try (RawBamRecordReader reader = new RawBamRecordReader(new Path(bamFile.getAbsolutePath()), conf))
+		{
+			Assert.assertEquals(reader.getFileHeader().getSequenceDictionary().size(), 2);
+			BamRecordBytesWritable record = new BamRecordBytesWritable();
+			while (reader.next(record))
+			{
+				positions.add(Arrays.asList(record.getReferenceIndex(), record.getAlignmentStart()));
+			}
+		}
+		return positions;
+	}
+}
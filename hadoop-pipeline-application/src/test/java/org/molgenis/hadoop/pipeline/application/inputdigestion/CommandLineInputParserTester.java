@@ -173,6 +173,32 @@ public class CommandLineInputParserTester extends Tester
 		new CommandLineInputParser(fileSys, args);
 	}
 
+	/**
+	 * Test: If bed file command line argument is missing. Expects no bed file (so the reference is tiled instead).
+	 * 
+	 * @throws ParseException
+	 * @throws IOException
+	 */
+	@Test
+	public void missingBedArgument() throws ParseException, IOException
+	{
+		String[] args = new String[10];
+		args[0] = "-t";
+		args[1] = tools;
+		args[2] = "-i";
+		args[3] = inputDir;
+		args[4] = "-o";
+		args[5] = outputDir;
+		args[6] = "-r";
+		args[7] = bwaRefFasta;
+		args[8] = "-s";
+		args[9] = samplesInfoFile;
+
+		CommandLineInputParser parser = new CommandLineInputParser(fileSys, args);
+		Assert.assertNull(parser.getBedFile());
+		Assert.assertEquals(parser.getSamplesInfoFile(), samplesInfoFileAsPath);
+	}
+
 	/**
 	 * Test: If tools.tar.gz file does not exist.
 	 * 
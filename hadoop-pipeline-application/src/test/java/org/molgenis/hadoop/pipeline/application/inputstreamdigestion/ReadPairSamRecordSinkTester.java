@@ -0,0 +1,158 @@
+package org.molgenis.hadoop.pipeline.application.inputstreamdigestion;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.SAMRecord;
+
+/**
+ * Tester for {@link ReadPairSamRecordSink}.
+ */
+public class ReadPairSamRecordSinkTester extends Tester
+{
+	/**
+	 * SAM header used for all tests.
+	 */
+	private static final String HEADER = "@SQ\tSN:1\tLN:1000\n@RG\tID:1\tSM:sample1\n@PG\tID:bwa\tPN:bwa\n";
+
+	/**
+	 * Tests whether adjacent records with the same read name are grouped (including secondary/supplementary
+	 * alignments and a last line without a line separator).
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testGroupsReadPairs() throws IOException
+	{
+		String sam = HEADER + samLine("read:1:1", 99, 100) + samLine("read:1:1", 147, 300) + samLine("read:1:2", 99, 100)
+				+ samLine("read:1:2", 2147, 500) + samLine("read:1:2", 147, 300) + samLine("read:1:3", 77, 0)
+				+ samLine("read:1:3", 141, 0).trim();
+
+		CollectingSink sink = new CollectingSink();
+		sink.handleInputStream(new ByteArrayInputStream(sam.getBytes(StandardCharsets.US_ASCII)));
+
+		Assert.assertEquals(sink.names, Arrays.asList("read:1:1", "read:1:2", "read:1:3"));
+		Assert.assertEquals(sink.sizes, Arrays.asList(2, 3, 2));
+		Assert.assertTrue(sink.finished);
+	}
+
+	/**
+	 * Tests whether read names that only differ in their first character or of which one is a prefix of the other are
+	 * seen as different read pairs.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testDifferentNamesWithSameSuffixOrPrefix() throws IOException
+	{
+		String sam = HEADER + samLine("aread:1", 99, 100) + samLine("bread:1", 147, 300) + samLine("bread:10", 99, 100)
+				+ samLine("bread:10", 147, 300);
+
+		CollectingSink sink = new CollectingSink();
+		sink.handleInputStream(new ByteArrayInputStream(sam.getBytes(StandardCharsets.US_ASCII)));
+
+		Assert.assertEquals(sink.names, Arrays.asList("aread:1", "bread:1", "bread:10"));
+		Assert.assertEquals(sink.sizes, Arrays.asList(1, 1, 2));
+	}
+
+	/**
+	 * Tests whether lines spanning multiple reads from the {@link InputStream} (and multiple buffer refills) are
+	 * correctly reassembled.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testSmallReadsFromInputStream() throws IOException
+	{
+		StringBuilder sam = new StringBuilder(HEADER);
+		for (int i = 0; i < 2000; i++)
+		{
+			sam.append(samLine("read:" + i, 99, 100)).append(samLine("read:" + i, 147, 300));
+		}
+		InputStream inputStream = new ByteArrayInputStream(sam.toString().getBytes(StandardCharsets.US_ASCII))
+		{
+			@Override
+			public synchronized int read(byte[] b, int off, int len)
+			{
+				return super.read(b, off, Math.min(len, 7));
+			}
+		};
+
+		CollectingSink sink = new CollectingSink();
+		sink.handleInputStream(inputStream);
+
+		Assert.assertEquals(sink.names.size(), 2000);
+		Assert.assertEquals(sink.names.get(1999), "read:1999");
+		for (int size : sink.sizes)
+		{
+			Assert.assertEquals(size, 2);
+		}
+	}
+
+	/**
+	 * Tests whether an {@link InputStream} containing only a header does not result in any groups.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testHeaderOnly() throws IOException
+	{
+		CollectingSink sink = new CollectingSink();
+		sink.handleInputStream(new ByteArrayInputStream(HEADER.getBytes(StandardCharsets.US_ASCII)));
+
+		Assert.assertTrue(sink.names.isEmpty());
+		Assert.assertTrue(sink.finished);
+	}
+
+	/**
+	 * Generates a SAM line.
+	 *
+	 * @param name
+	 *            {@link String}
+	 * @param flag
+	 *            {@code int}
+	 * @param start
+	 *            {@code int}
+	 * @return {@link String}
+	 */
+	private String samLine(String name, int flag, int start)
+	{
+		boolean unmapped = (flag & 4) != 0;
+		return name + "\t" + flag + "\t" + (unmapped ? "*" : "1") + "\t" + start + "\t" + (unmapped ? "0\t*" : "60\t4M")
+				+ "\t*\t0\t0\tACGT\tIIII\tRG:Z:1\n";
+	}
+
+	/**
+	 * {@link ReadPairSamRecordSink} that stores the read name and size of each group.
+	 */
+	private static class CollectingSink extends ReadPairSamRecordSink
+	{
+		List<String> names = new ArrayList<>();
+
+		List<Integer> sizes = new ArrayList<>();
+
+		boolean finished = false;
+
+		@Override
+		protected void digestStreamItem(List<SAMRecord> item) throws IOException
+		{
+			names.add(item.get(0).getReadName());
+			sizes.add(item.size());
+		}
+
+		@Override
+		protected void finishStreamProcessing() throws IOException
+		{
+			finished = true;
+		}
+	}
+}
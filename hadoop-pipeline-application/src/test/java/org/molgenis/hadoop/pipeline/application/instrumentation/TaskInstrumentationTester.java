@@ -0,0 +1,112 @@
+package org.molgenis.hadoop.pipeline.application.instrumentation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.apache.commons.io.IOUtils;
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tester for the {@link TaskInstrumentation}, {@link StageMeter}, {@link MeteredInputStream} and
+ * {@link MeteredOutputStream}.
+ */
+public class TaskInstrumentationTester extends Tester
+{
+	/**
+	 * Tests whether with the default sample interval every invocation is timed.
+	 */
+	@Test
+	public void testStageMeterTimesEveryInvocation()
+	{
+		StageMeter meter = new StageMeter();
+		for (int i = 0; i < 10; i++)
+		{
+			meter.stop(meter.start());
+		}
+
+		Assert.assertEquals(meter.getInvocations(), 10);
+		Assert.assertEquals(meter.getSampledInvocations(), 10);
+	}
+
+	/**
+	 * Tests whether with a sample interval of 4 only the invocations 0, 4 and 8 are timed.
+	 */
+	@Test
+	public void testStageMeterSamplesInvocations()
+	{
+		StageMeter meter = new StageMeter(4);
+		for (int i = 0; i < 10; i++)
+		{
+			meter.stop(meter.start());
+		}
+
+		Assert.assertEquals(meter.getInvocations(), 10);
+		Assert.assertEquals(meter.getSampledInvocations(), 3);
+	}
+
+	/**
+	 * Tests whether the estimated time of a stage that was never entered is 0.
+	 */
+	@Test
+	public void testStageMeterWithoutInvocations()
+	{
+		Assert.assertEquals(new StageMeter(4).getEstimatedNanoseconds(), 0);
+	}
+
+	/**
+	 * Tests whether an invalid sample interval is refused.
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testStageMeterWithInvalidSampleInterval()
+	{
+		new StageMeter(0);
+	}
+
+	/**
+	 * Tests whether the {@link MeteredInputStream} and {@link MeteredOutputStream} count all bytes that pass through
+	 * them.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testMeteredStreamsCountBytes() throws IOException
+	{
+		byte[] data = new byte[10000];
+		StageMeter inputMeter = new StageMeter();
+		StageMeter outputMeter = new StageMeter();
+
+		ByteArrayOutputStream copy = new ByteArrayOutputStream();
+		IOUtils.copy(new MeteredInputStream(new ByteArrayInputStream(data), inputMeter),
+				new MeteredOutputStream(copy, outputMeter));
+
+		Assert.assertEquals(copy.size(), data.length);
+		Assert.assertEquals(inputMeter.getBytes(), data.length);
+		Assert.assertEquals(outputMeter.getBytes(), data.length);
+	}
+
+	/**
+	 * Tests whether the JSON representation contains all stages with their measured values.
+	 */
+	@Test
+	public void testToJson()
+	{
+		TaskInstrumentation instrumentation = new TaskInstrumentation();
+		instrumentation.get(MeteredStage.CONTEXT_WRITE).addRecords(5);
+		instrumentation.get(MeteredStage.ALIGNER_INPUT).addBytes(100);
+
+		String json = instrumentation.toJson("attempt_0123456789012_01234_m_000000_0");
+
+		Assert.assertTrue(json.startsWith("{\"taskAttemptId\":\"attempt_0123456789012_01234_m_000000_0\",\"stages\":{"));
+		Assert.assertTrue(json.contains(
+				"\"CONTEXT_WRITE\":{\"nanoseconds\":0,\"invocations\":0,\"sampledInvocations\":0,\"records\":5,\"bytes\":0}"));
+		Assert.assertTrue(json.contains(
+				"\"ALIGNER_INPUT\":{\"nanoseconds\":0,\"invocations\":0,\"sampledInvocations\":0,\"records\":0,\"bytes\":100}"));
+		for (MeteredStage stage : MeteredStage.values())
+		{
+			Assert.assertTrue(json.contains("\"" + stage.name() + "\":{"));
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package org.molgenis.hadoop.pipeline.application.mapreduce;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.molgenis.hadoop.pipeline.application.inputstreamdigestion.StringSink;
+import org.molgenis.hadoop.pipeline.application.inputstreamdigestion.TeeSink;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tester for {@link AlignmentCache}.
+ */
+public class AlignmentCacheTester extends Tester
+{
+	/**
+	 * Aligner output that is cached.
+	 */
+	private static final String SAM_OUTPUT = "@SQ\tSN:1\tLN:1000\nread1\t77\t*\t0\t0\t*\t*\t0\t0\tACGT\tIIII\n";
+
+	/**
+	 * The cache directory.
+	 */
+	private File tmpDir;
+
+	/**
+	 * Configuration containing the cache directory and reference fingerprint.
+	 */
+	private Configuration conf;
+
+	@BeforeClass
+	public void beforeClass() throws IOException
+	{
+		tmpDir = File.createTempFile("alignment-cache", "");
+		tmpDir.delete();
+		tmpDir.mkdir();
+
+		conf = new Configuration();
+		conf.set(AlignmentCache.CACHE_DIR_PROPERTY, tmpDir.getAbsolutePath());
+		conf.set(AlignmentCache.REFERENCE_FINGERPRINT_PROPERTY, "reference");
+	}
+
+	@AfterClass
+	public void afterClass() throws IOException
+	{
+		FileUtils.deleteDirectory(tmpDir);
+	}
+
+	/**
+	 * Tests whether each part of the key results in a different key.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testCreateKey() throws IOException
+	{
+		AlignmentCache cache = new AlignmentCache(conf, "0.7.12", Arrays.asList("mem", "-p"));
+		BytesWritable chunk = new BytesWritable("chunk".getBytes(StandardCharsets.US_ASCII));
+		String key = cache.createKey("@RG\\tID:1", chunk);
+
+		Assert.assertEquals(new AlignmentCache(conf, "0.7.12", Arrays.asList("mem", "-p")).createKey("@RG\\tID:1",
+				new BytesWritable("chunk".getBytes(StandardCharsets.US_ASCII))), key);
+		Assert.assertNotEquals(cache.createKey("@RG\\tID:2", chunk), key);
+		Assert.assertNotEquals(cache.createKey("@RG\\tID:1", new BytesWritable("chunk2".getBytes())), key);
+		Assert.assertNotEquals(
+				new AlignmentCache(conf, "0.7.15", Arrays.asList("mem", "-p")).createKey("@RG\\tID:1", chunk), key);
+		Assert.assertNotEquals(
+				new AlignmentCache(conf, "0.7.12", Arrays.asList("mem", "-p", "-M")).createKey("@RG\\tID:1", chunk),
+				key);
+
+		Configuration otherReference = new Configuration(conf);
+		otherReference.set(AlignmentCache.REFERENCE_FINGERPRINT_PROPERTY, "other");
+		Assert.assertNotEquals(new AlignmentCache(otherReference, "0.7.12", Arrays.asList("mem", "-p"))
+				.createKey("@RG\\tID:1", chunk), key);
+	}
+
+	/**
+	 * Tests whether a file fingerprint changes when the file changes.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testCreateFileFingerprint() throws IOException
+	{
+		File file = new File(tmpDir, "reads_R1.fq");
+		FileUtils.writeStringToFile(file, "@read1\nACGT\n+\nIIII\n");
+		FileSystem fileSys = FileSystem.getLocal(conf);
+		String fingerprint = AlignmentCache.createFileFingerprint(fileSys, new Path(file.getAbsolutePath()));
+
+		FileUtils.writeStringToFile(file, "@read1\nACGTA\n+\nIIIII\n");
+		Assert.assertNotEquals(AlignmentCache.createFileFingerprint(fileSys, new Path(file.getAbsolutePath())),
+				fingerprint);
+	}
+
+	/**
+	 * Tests whether stored aligner output (copied by a {@link TeeSink}) is returned again, and whether discarded
+	 * output is not.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testStoreAndReplay() throws IOException
+	{
+		AlignmentCache cache = new AlignmentCache(conf, "0.7.12", Arrays.asList("mem", "-p", "-M"));
+		String key = cache.createKey("@RG\\tID:1", new BytesWritable("store".getBytes(StandardCharsets.US_ASCII)));
+		String discardedKey = cache.createKey("@RG\\tID:1",
+				new BytesWritable("discard".getBytes(StandardCharsets.US_ASCII)));
+		Assert.assertNull(cache.open(key));
+
+		// Stores the output while digesting it.
+		List<String> lines = new ArrayList<>();
+		AlignmentCache.Writer writer = cache.create(key);
+		new TeeSink<>(createSink(lines), writer.getOutputStream())
+				.handleInputStream(new ByteArrayInputStream(SAM_OUTPUT.getBytes(StandardCharsets.US_ASCII)));
+		Assert.assertTrue(writer.commit());
+		Assert.assertEquals(lines.size(), 2);
+
+		// A second writer for the same key does not replace the entry.
+		writer = cache.create(key);
+		writer.getOutputStream().write(1);
+		Assert.assertFalse(writer.commit());
+
+		// Discarded output is not stored.
+		writer = cache.create(discardedKey);
+		writer.getOutputStream().write(1);
+		writer.discard();
+		Assert.assertNull(cache.open(discardedKey));
+
+		try (InputStream cachedOutput = cache.open(key))
+		{
+			Assert.assertEquals(IOUtils.toString(cachedOutput, StandardCharsets.US_ASCII), SAM_OUTPUT);
+		}
+		Assert.assertEquals(cache.getEntryPath(key).getParent().getName(), key.substring(0, 2));
+		for (String fileName : new File(tmpDir, key.substring(0, 2)).list())
+		{
+			Assert.assertFalse(fileName.endsWith(".tmp"));
+		}
+	}
+
+	/**
+	 * Creates a {@link StringSink} that collects the lines.
+	 *
+	 * @param lines
+	 *            {@link List}{@code <}{@link String}{@code >}
+	 * @return {@link StringSink}
+	 */
+	private StringSink createSink(final List<String> lines)
+	{
+		return new StringSink()
+		{
+			@Override
+			protected void digestStreamItem(String item) throws IOException
+			{
+				lines.add(item);
+			}
+		};
+	}
+}
@@ -0,0 +1,239 @@
+package org.molgenis.hadoop.pipeline.application.mapreduce;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+
+/**
+ * Tester for {@link AlignmentMetrics}.
+ */
+public class AlignmentMetricsTester extends Tester
+{
+	/**
+	 * Directory used as job output directory.
+	 */
+	private File outputDir;
+
+	@BeforeMethod
+	public void beforeMethod() throws IOException
+	{
+		outputDir = File.createTempFile("alignment-metrics", "");
+		outputDir.delete();
+		outputDir.mkdir();
+	}
+
+	@AfterMethod
+	public void afterMethod() throws IOException
+	{
+		FileUtils.deleteDirectory(outputDir);
+	}
+
+	/**
+	 * Tests which records are counted for each metric.
+	 */
+	@Test
+	public void testAdd()
+	{
+		AlignmentMetrics metrics = new AlignmentMetrics(500);
+		// Properly paired read pair with an insert size of 300 (only counted once).
+		metrics.add(createRecord(0x1 | 0x2 | 0x40, "1", "1", 60, 300, "10S90M"));
+		metrics.add(createRecord(0x1 | 0x2 | 0x80, "1", "1", 60, -300, "100M"));
+		// Read pair with the mates on different contigs.
+		metrics.add(createRecord(0x1 | 0x40, "1", "2", 20, 0, "100M"));
+		metrics.add(createRecord(0x1 | 0x80, "2", "1", 0, 0, "95M5S"));
+		// Read pair with an unmapped mate.
+		metrics.add(createRecord(0x1 | 0x8 | 0x40, "1", "1", 60, 0, "100M"));
+		metrics.add(createRecord(0x1 | 0x4 | 0x80, "1", "1", 0, 0, "*"));
+		// Secondary and supplementary alignments are ignored.
+		metrics.add(createRecord(0x1 | 0x100 | 0x40, "1", "1", 0, 300, "100M"));
+		metrics.add(createRecord(0x1 | 0x800 | 0x40, "1", "1", 0, 300, "50S50M"));
+
+		Assert.assertEquals(
+				Arrays.asList(metrics.getReads(), metrics.getMappedReads(), metrics.getReadsMappedInPair(),
+						metrics.getProperPairedReads(), metrics.getSoftClippedReads(), metrics.getMappedReadBases(),
+						metrics.getSoftClippedBases()),
+				Arrays.asList(6L, 5L, 4L, 2L, 2L, 500L, 15L));
+		Assert.assertEquals(Arrays.asList(metrics.getMapqCount(60), metrics.getMapqCount(20), metrics.getMapqCount(0)),
+				Arrays.asList(3L, 1L, 1L));
+		Assert.assertEquals(metrics.getInsertSizeCount(300), 1L);
+		Assert.assertEquals(metrics.getMedianInsertSize(), 300);
+	}
+
+	/**
+	 * Tests whether insert sizes above the maximum are counted in the last bin.
+	 */
+	@Test
+	public void testMaxInsertSize()
+	{
+		AlignmentMetrics metrics = new AlignmentMetrics(500);
+		metrics.add(createRecord(0x1 | 0x40, "1", "1", 60, -20000, "100M"));
+		Assert.assertEquals(metrics.getInsertSizeCount(500), 1L);
+	}
+
+	/**
+	 * Tests whether merged metrics equal the metrics of all records added to a single instance.
+	 */
+	@Test
+	public void testMerge()
+	{
+		AlignmentMetrics metrics1 = new AlignmentMetrics(500);
+		metrics1.add(createRecord(0x1 | 0x2 | 0x40, "1", "1", 60, 200, "100M"));
+		AlignmentMetrics metrics2 = new AlignmentMetrics(500);
+		metrics2.add(createRecord(0x1 | 0x2 | 0x40, "1", "1", 30, 400, "100M"));
+		metrics2.add(createRecord(0x1 | 0x2 | 0x40, "1", "1", 30, 450, "100M"));
+		metrics1.merge(metrics2);
+
+		Assert.assertEquals(Arrays.asList(metrics1.getReads(), metrics1.getMapqCount(60), metrics1.getMapqCount(30)),
+				Arrays.asList(3L, 1L, 2L));
+		Assert.assertEquals(metrics1.getMedianInsertSize(), 400);
+	}
+
+	/**
+	 * Tests whether metrics with different maximum insert sizes are refused.
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testMergeDifferentMaxInsertSize()
+	{
+		new AlignmentMetrics(500).merge(new AlignmentMetrics(1000));
+	}
+
+	/**
+	 * Tests whether the metrics survive serialization.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testWritable() throws IOException
+	{
+		AlignmentMetrics metrics = new AlignmentMetrics(500);
+		metrics.add(createRecord(0x1 | 0x2 | 0x40, "1", "1", 60, 300, "10S90M"));
+		metrics.add(createRecord(0x1 | 0x4 | 0x80, "1", "1", 0, 0, "*"));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		metrics.write(new DataOutputStream(bytes));
+		AlignmentMetrics read = new AlignmentMetrics(500);
+		read.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+		Assert.assertEquals(report(read), report(metrics));
+	}
+
+	/**
+	 * Tests whether the metrics files of the mappers are merged into a single report.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testMergeTaskOutputs() throws IOException
+	{
+		Configuration conf = new Configuration();
+		conf.setInt(AlignmentMetrics.MAX_INSERT_SIZE_PROPERTY, 500);
+		AlignmentMetrics metrics1 = new AlignmentMetrics(conf);
+		metrics1.add(createRecord(0x1 | 0x2 | 0x40, "1", "1", 60, 300, "100M"));
+		writeTaskOutput(metrics1, "alignment-metrics-m-00000");
+		AlignmentMetrics metrics2 = new AlignmentMetrics(conf);
+		metrics2.add(createRecord(0x1 | 0x4 | 0x80, "1", "1", 0, 0, "*"));
+		writeTaskOutput(metrics2, "alignment-metrics-m-00001");
+		FileUtils.writeStringToFile(new File(outputDir, "1-1-834-r-00000.bam"), "", StandardCharsets.UTF_8);
+
+		Path report = AlignmentMetrics.mergeTaskOutputs(conf, new Path(outputDir.getAbsolutePath()));
+
+		metrics1.merge(metrics2);
+		Assert.assertEquals(report.getName(), AlignmentMetrics.REPORT_FILE_NAME);
+		Assert.assertEquals(FileUtils.readFileToString(new File(outputDir, AlignmentMetrics.REPORT_FILE_NAME),
+				StandardCharsets.UTF_8), report(metrics1));
+		Assert.assertEquals(Arrays.asList(new File(outputDir, "alignment-metrics-m-00000").exists(),
+				new File(outputDir, "alignment-metrics-m-00001").exists()), Arrays.asList(false, false));
+	}
+
+	/**
+	 * Tests the report of metrics without records.
+	 */
+	@Test
+	public void testEmptyReport()
+	{
+		Assert.assertTrue(report(new AlignmentMetrics(500)).contains("mapping_rate\t0.0000"));
+	}
+
+	/**
+	 * Creates a record.
+	 *
+	 * @param flags
+	 *            {@code int}
+	 * @param contig
+	 *            {@link String}
+	 * @param mateContig
+	 *            {@link String}
+	 * @param mapq
+	 *            {@code int}
+	 * @param insertSize
+	 *            {@code int}
+	 * @param cigar
+	 *            {@link String}
+	 * @return {@link SAMRecord}
+	 */
+	private SAMRecord createRecord(int flags, String contig, String mateContig, int mapq, int insertSize, String cigar)
+	{
+		SAMRecord record = new SAMRecord(new SAMFileHeader());
+		record.setFlags(flags);
+		record.setReferenceName(contig);
+		record.setMateReferenceName(mateContig);
+		record.setMappingQuality(mapq);
+		record.setInferredInsertSize(insertSize);
+		record.setCigarString(cigar);
+		return record;
+	}
+
+	/**
+	 * Writes the metrics of a mapper to the output directory.
+	 *
+	 * @param metrics
+	 *            {@link AlignmentMetrics}
+	 * @param fileName
+	 *            {@link String}
+	 * @throws IOException
+	 */
+	private void writeTaskOutput(AlignmentMetrics metrics, String fileName) throws IOException
+	{
+		try (DataOutputStream output = new DataOutputStream(
+				FileUtils.openOutputStream(new File(outputDir, fileName))))
+		{
+			metrics.write(output);
+		}
+	}
+
+	/**
+	 * Creates the report of the metrics.
+	 *
+	 * @param metrics
+	 *            {@link AlignmentMetrics}
+	 * @return {@link String}
+	 */
+	private String report(AlignmentMetrics metrics)
+	{
+		StringWriter report = new StringWriter();
+		try (PrintWriter writer = new PrintWriter(report))
+		{
+			metrics.writeReport(writer);
+		}
+		return report.toString();
+	}
+}
@@ -17,8 +17,8 @@ import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
 import org.molgenis.hadoop.pipeline.application.mapreduce.drivers.FileCacheSymlinkMapDriver;
 import org.molgenis.hadoop.pipeline.application.mapreduce.drivers.FileCacheSymlinkMapReduceDriver;
 import org.molgenis.hadoop.pipeline.application.partitioners.RegionSamRecordGroupingComparator;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
 import org.molgenis.hadoop.pipeline.application.writables.RegionWithSortableSamRecordWritable;
-import org.seqdoop.hadoop_bam.SAMRecordWritable;
 import org.testng.Assert;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
@@ -40,7 +40,7 @@ public class HadoopPipelineMapReduceTester extends HadoopPipelineTester
 	/**
 	 * A mrunit MapReduceDriver allowing the mapper to be tested.
 	 */
-	private MapReduceDriver<Text, BytesWritable, RegionWithSortableSamRecordWritable, SAMRecordWritable, NullWritable, SAMRecordWritable> mrDriver;
+	private MapReduceDriver<Text, BytesWritable, RegionWithSortableSamRecordWritable, BamRecordBytesWritable, NullWritable, BamRecordBytesWritable> mrDriver;
 
 	/**
 	 * Mini test input dataset.
@@ -94,9 +94,9 @@ public class HadoopPipelineMapReduceTester extends HadoopPipelineTester
 	@BeforeMethod
 	public void beforeMethod() throws URISyntaxException
 	{
-		Mapper<Text, BytesWritable, RegionWithSortableSamRecordWritable, SAMRecordWritable> mapper = new HadoopPipelineMapper();
-		Reducer<RegionWithSortableSamRecordWritable, SAMRecordWritable, NullWritable, SAMRecordWritable> reducer = new HadoopPipelineReducer();
-		mrDriver = new FileCacheSymlinkMapReduceDriver<Text, BytesWritable, RegionWithSortableSamRecordWritable, SAMRecordWritable, NullWritable, SAMRecordWritable>(
+		Mapper<Text, BytesWritable, RegionWithSortableSamRecordWritable, BamRecordBytesWritable> mapper = new HadoopPipelineMapper();
+		Reducer<RegionWithSortableSamRecordWritable, BamRecordBytesWritable, NullWritable, BamRecordBytesWritable> reducer = new HadoopPipelineReducer();
+		mrDriver = new FileCacheSymlinkMapReduceDriver<Text, BytesWritable, RegionWithSortableSamRecordWritable, BamRecordBytesWritable, NullWritable, BamRecordBytesWritable>(
 				mapper, reducer);
 
 		mrDriver.setKeyGroupingComparator(new RegionSamRecordGroupingComparator());
@@ -118,20 +118,20 @@ public class HadoopPipelineMapReduceTester extends HadoopPipelineTester
 	}
 
 	/**
-	 * Compares the output from the driver with the expected output. Note that the {@link SAMRecordWritable}{@code s}
+	 * Compares the output from the driver with the expected output. Note that the {@link BamRecordBytesWritable}{@code s}
 	 * from the expected output are ignored during comparison (as the actual output discarded these, but in the expected
 	 * data it is still needed for sorting to simulate the "shuffle & sort" phase between the mapper and reducer. This
 	 * sorting should be done using {@link #sortMapperOutput(List)} before calling this method.
 	 * 
 	 * @param output
-	 *            {@link List}{@code <}{@link Pair}{@code <}{@link NullWritable}{@code , } {@link SAMRecordWritable}
+	 *            {@link List}{@code <}{@link Pair}{@code <}{@link NullWritable}{@code , } {@link BamRecordBytesWritable}
 	 *            {@code >>}
 	 * @param expectedResults
 	 *            {@link List}{@code <}{@link Pair}{@code <}{@link RegionWithSortableSamRecordWritable}{@code , }
-	 *            {@link SAMRecordWritable} {@code >>}
+	 *            {@link BamRecordBytesWritable} {@code >>}
 	 */
-	private void validateOutput(List<Pair<NullWritable, SAMRecordWritable>> output,
-			List<Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable>> expectedResults)
+	private void validateOutput(List<Pair<NullWritable, BamRecordBytesWritable>> output,
+			List<Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable>> expectedResults)
 	{
 		Assert.assertEquals(output.size(), expectedResults.size());
 
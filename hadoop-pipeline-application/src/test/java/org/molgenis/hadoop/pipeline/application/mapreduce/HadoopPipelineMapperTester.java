@@ -17,8 +17,8 @@ import org.molgenis.hadoop.pipeline.application.TestFileReader;
 import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
 import org.molgenis.hadoop.pipeline.application.mapreduce.drivers.FileCacheSymlinkMapDriver;
 import org.molgenis.hadoop.pipeline.application.sequences.AlignedReadPair;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
 import org.molgenis.hadoop.pipeline.application.writables.RegionWithSortableSamRecordWritable;
-import org.seqdoop.hadoop_bam.SAMRecordWritable;
 import org.testng.Assert;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
@@ -37,7 +37,7 @@ public class HadoopPipelineMapperTester extends HadoopPipelineTester
 	/**
 	 * An mrunit MapDriver allowing the mapper to be tested.
 	 */
-	private MapDriver<Text, BytesWritable, RegionWithSortableSamRecordWritable, SAMRecordWritable> mDriver;
+	private MapDriver<Text, BytesWritable, RegionWithSortableSamRecordWritable, BamRecordBytesWritable> mDriver;
 
 	/**
 	 * Custom test input dataset.
@@ -104,8 +104,8 @@ public class HadoopPipelineMapperTester extends HadoopPipelineTester
 	@BeforeMethod
 	public void beforeMethod() throws URISyntaxException
 	{
-		Mapper<Text, BytesWritable, RegionWithSortableSamRecordWritable, SAMRecordWritable> mapper = new HadoopPipelineMapper();
-		mDriver = new FileCacheSymlinkMapDriver<Text, BytesWritable, RegionWithSortableSamRecordWritable, SAMRecordWritable>(
+		Mapper<Text, BytesWritable, RegionWithSortableSamRecordWritable, BamRecordBytesWritable> mapper = new HadoopPipelineMapper();
+		mDriver = new FileCacheSymlinkMapDriver<Text, BytesWritable, RegionWithSortableSamRecordWritable, BamRecordBytesWritable>(
 				mapper);
 		setDriver(mDriver);
 
@@ -122,12 +122,12 @@ public class HadoopPipelineMapperTester extends HadoopPipelineTester
 	public void testMapperRunWithCustomInputData() throws IOException
 	{
 		// Generate expected output.
-		List<Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable>> expectedResults = generateExpectedMapperOutput(
+		List<Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable>> expectedResults = generateExpectedMapperOutput(
 				alignedReadsMiniL1, regions);
 
 		// Run mapper.
 		mDriver.withInput(new Text("hdfs/path/to/150616_SN163_0648_AHKYLMADXX_L1/halvade_0_0.fq.gz"), fastqDataCustom);
-		List<Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable>> output = mDriver.run();
+		List<Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable>> output = mDriver.run();
 
 		// Print results
 		printOutput(output);
@@ -165,12 +165,12 @@ public class HadoopPipelineMapperTester extends HadoopPipelineTester
 	public void testValidMapperRun() throws IOException
 	{
 		// Generate expected output.
-		List<Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable>> expectedResults = generateExpectedMapperOutput(
+		List<Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable>> expectedResults = generateExpectedMapperOutput(
 				alignedReadsL1, regions);
 
 		// Run mapper.
 		mDriver.withInput(new Text("hdfs/path/to/150616_SN163_0648_AHKYLMADXX_L1/halvade_0_0.fq.gz"), fastqDataL1);
-		List<Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable>> output = mDriver.run();
+		List<Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable>> output = mDriver.run();
 
 		// Validate output.
 		try
@@ -220,7 +220,7 @@ public class HadoopPipelineMapperTester extends HadoopPipelineTester
 	{
 		mDriver.withInput(new Text("hdfs/path/to/150616_SN163_0648_AHKYLMADXX_L1/halvade_0_0.csv"), fastqDataL1);
 
-		List<Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable>> output = mDriver.run();
+		List<Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable>> output = mDriver.run();
 
 		// As the input file "represents" a csv file, it should not be digested and the output should stay empty, but it
 		// should not cause an exception either (for when multiple lanes are given as input using a single main
@@ -236,22 +236,22 @@ public class HadoopPipelineMapperTester extends HadoopPipelineTester
 	 * 
 	 * @param output
 	 *            {@link List}{@code <}{@link Pair}{@code <}{@link RegionWithSortableSamRecordWritable}{@code , }
-	 *            {@link SAMRecordWritable}{@code >>}
+	 *            {@link BamRecordBytesWritable}{@code >>}
 	 * @param expectedResults
 	 *            {@link List}{@code <}{@link Pair}{@code <}{@link RegionWithSortableSamRecordWritable}{@code , }
-	 *            {@link SAMRecordWritable}{@code >>}
+	 *            {@link BamRecordBytesWritable}{@code >>}
 	 */
-	private void validateOutput(List<Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable>> output,
-			List<Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable>> expectedResults)
+	private void validateOutput(List<Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable>> output,
+			List<Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable>> expectedResults)
 	{
 		Assert.assertEquals(output.size(), expectedResults.size());
 
 		// Sorts data for correct comparison (as actual mapper output key "order" is defined by a Set).
-		Comparator<Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable>> comparator = new Comparator<Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable>>()
+		Comparator<Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable>> comparator = new Comparator<Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable>>()
 		{
 			@Override
-			public int compare(Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable> o1,
-					Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable> o2)
+			public int compare(Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable> o1,
+					Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable> o2)
 			{
 				int c = o1.getFirst().compareTo(o2.getFirst());
 				if (c == 0) c = o1.getSecond().get().getReadName().compareTo(o2.getSecond().get().getReadName());
@@ -5,7 +5,6 @@ import java.net.URISyntaxException;
 import java.util.List;
 
 import org.apache.hadoop.io.NullWritable;
-import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 import org.apache.hadoop.mrunit.mapreduce.ReduceDriver;
@@ -20,10 +19,10 @@ import org.molgenis.hadoop.pipeline.application.TestFile;
 import org.molgenis.hadoop.pipeline.application.TestFileReader;
 import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
 import org.molgenis.hadoop.pipeline.application.mapreduce.drivers.FileCacheSymlinkReduceDriver;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
 import org.molgenis.hadoop.pipeline.application.writables.RegionWithSortableSamRecordWritable;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
-import org.seqdoop.hadoop_bam.SAMRecordWritable;
 
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMRecord;
@@ -46,7 +45,7 @@ public class HadoopPipelineReducerJUnitTester extends HadoopPipelineTester
 	/**
 	 * A mrunit MapReduceDriver allowing the mapper to be tested.
 	 */
-	private ReduceDriver<RegionWithSortableSamRecordWritable, SAMRecordWritable, NullWritable, SAMRecordWritable> rDriver;
+	private ReduceDriver<RegionWithSortableSamRecordWritable, BamRecordBytesWritable, NullWritable, BamRecordBytesWritable> rDriver;
 
 	/**
 	 * Aligned reads results belonging to the custom test input dataset.
@@ -87,25 +86,20 @@ public class HadoopPipelineReducerJUnitTester extends HadoopPipelineTester
 	 */
 	public void beforeMethod() throws URISyntaxException
 	{
-		Reducer<RegionWithSortableSamRecordWritable, SAMRecordWritable, NullWritable, SAMRecordWritable> reducer = new HadoopPipelineReducer();
-		rDriver = new ReduceDriver<RegionWithSortableSamRecordWritable, SAMRecordWritable, NullWritable, SAMRecordWritable>(
+		Reducer<RegionWithSortableSamRecordWritable, BamRecordBytesWritable, NullWritable, BamRecordBytesWritable> reducer = new HadoopPipelineReducer();
+		rDriver = new ReduceDriver<RegionWithSortableSamRecordWritable, BamRecordBytesWritable, NullWritable, BamRecordBytesWritable>(
 				reducer);
 		setDriver(rDriver);
 	}
 
 	/**
-	 * Tests the reducer and whether {@link MultipleOutputs} works correctly. Due to current incompatibilities between
-	 * MRUnit and {@link SAMRecordWritable} from Hadoop-BAM, this test is currently disabled. This is because
-	 * {@link SAMRecordWritable} does not have custom {@link Class#equals(Object)}, so the {@link SAMRecordWritable}
-	 * {@code s} are compared to whether it is the same {@link Object} instead of whether it is equal in the data it
-	 * represents. A custom implementation using {@link SAMRecord#equals(Object)} might be a possible fix, but could
-	 * lead to issues if variables are compared that are stored in the {@link SAMFileHeader} from the {@link SAMRecord}
-	 * (as this data is lost during serialization in the {@link SAMRecordWritable). This would mean that unless this
-	 * incompatibility is fixed, a complete different {@link Writable} would need to be created ONLY for correct
-	 * unit-testing. Furthermore, as {@link SAMRecordWritable#toString()} uses {@link SAMRecord#getSAMString()}, when
-	 * this test fails an {@link java.lang.IllegalArgumentException} {@code : Reference index 0 not found in sequence
-	 * dictionary} is returned. Comparison of mismatching output would therefore also not be possible with the current
-	 * implementation.
+	 * Tests the reducer and whether {@link MultipleOutputs} works correctly. This test was disabled as MRUnit compared
+	 * the former {@link org.seqdoop.hadoop_bam.SAMRecordWritable} values on whether they were the same {@link Object}
+	 * (it has no custom {@link Class#equals(Object)}). The {@link BamRecordBytesWritable} values compare their BAM
+	 * bytes, so the test can be rewritten to compare the expected output directly. Note that
+	 * {@link BamRecordBytesWritable#get()} returns a {@link SAMRecord} without a {@link SAMFileHeader} (similar to the
+	 * {@link org.seqdoop.hadoop_bam.SAMRecordWritable}), so {@link SAMRecord#getSAMString()} can only be used after
+	 * setting the header.
 	 * 
 	 * IMPORTANT: Removed outdated code and replaced it with TODO's.
 	 * 
@@ -119,7 +113,7 @@ public class HadoopPipelineReducerJUnitTester extends HadoopPipelineTester
 		beforeMethod();
 
 		// Generate input.
-		List<Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable>> mapperOutput = generateExpectedMapperOutput(
+		List<Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable>> mapperOutput = generateExpectedMapperOutput(
 				alignedReadsCustom, regions);
 
 		// TODO: Convert mapper output to reducer input format.
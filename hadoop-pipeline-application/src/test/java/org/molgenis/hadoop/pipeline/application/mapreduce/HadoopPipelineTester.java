@@ -11,8 +11,8 @@ import org.molgenis.hadoop.pipeline.application.DistributedCacheHandler;
 import org.molgenis.hadoop.pipeline.application.Tester;
 import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
 import org.molgenis.hadoop.pipeline.application.cachedigestion.SamFileHeaderGenerator;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
 import org.molgenis.hadoop.pipeline.application.writables.RegionWithSortableSamRecordWritable;
-import org.seqdoop.hadoop_bam.SAMRecordWritable;
 
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMRecord;
@@ -59,7 +59,7 @@ public class HadoopPipelineTester extends Tester
 
 	/**
 	 * Sets the header created in {@link #generateSamFileHeader()} for the {@link SAMRecord}. As
-	 * {@link SAMRecordWritable} removes the {@link SAMFileHeader} from each {@link SAMRecord} during serialization,
+	 * {@link BamRecordBytesWritable} removes the {@link SAMFileHeader} from each {@link SAMRecord} during serialization,
 	 * some vital information needs to be added again before {@link SAMRecord#getSAMString()} can be used again. In the
 	 * actual application this header information is generated using
 	 * {@link SamFileHeaderGenerator#retrieveSamFileHeader(org.apache.hadoop.mapreduce.TaskAttemptContext)}. The
@@ -94,8 +94,8 @@ public class HadoopPipelineTester extends Tester
 		driver.addCacheFile(getClassLoader().getResource("reference_data/chr1_20000000-21000000.fa.pac").toURI());
 		driver.addCacheFile(getClassLoader().getResource("reference_data/chr1_20000000-21000000.fa.sa").toURI());
 		driver.addCacheFile(getClassLoader().getResource("reference_data/chr1_20000000-21000000.dict").toURI());
-		driver.addCacheFile(getClassLoader().getResource("bed_files/chr1_20000000-21000000.bed").toURI());
 		driver.addCacheFile(getClassLoader().getResource("samplesheets/samplesheet.csv").toURI());
+		driver.addCacheFile(getClassLoader().getResource("bed_files/chr1_20000000-21000000.bed").toURI());
 	}
 
 	/**
@@ -103,9 +103,9 @@ public class HadoopPipelineTester extends Tester
 	 * 
 	 * @param pairsList
 	 *            {@link List}{@code <}{@link Pair}{@code <}{@link RegionWithSortableSamRecordWritable}{@code , }
-	 *            {@link SAMRecordWritable}{@code >>}
+	 *            {@link BamRecordBytesWritable}{@code >>}
 	 */
-	void printOutput(List<Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable>> pairsList)
+	void printOutput(List<Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable>> pairsList)
 	{
 		printOutput(pairsList, pairsList.size());
 	}
@@ -115,11 +115,11 @@ public class HadoopPipelineTester extends Tester
 	 * 
 	 * @param pairsList
 	 *            {@link List}{@code <}{@link Pair}{@code <}{@link RegionWithSortableSamRecordWritable}{@code , }
-	 *            {@link SAMRecordWritable}{@code >>}
+	 *            {@link BamRecordBytesWritable}{@code >>}
 	 * @param limit
 	 *            {@code int} The number of pairs to write to stdout.
 	 */
-	void printOutput(List<Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable>> pairsList, int limit)
+	void printOutput(List<Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable>> pairsList, int limit)
 	{
 		// If the limit is higher than the actual list size, resets the limit.
 		if (limit > pairsList.size()) limit = pairsList.size();
@@ -147,13 +147,13 @@ public class HadoopPipelineTester extends Tester
 	 * @param regions
 	 *            {@link List}{@code <}{@link Region}{@code >} The groups used for defining keys.
 	 * @return {@link List}{@code <}{@link Pair}{@code <}{@link RegionWithSortableSamRecordWritable}{@code , }
-	 *         {@link SAMRecordWritable} {@code >>}
+	 *         {@link BamRecordBytesWritable} {@code >>}
 	 */
-	List<Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable>> generateExpectedMapperOutput(
+	List<Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable>> generateExpectedMapperOutput(
 			List<SAMRecord> bwaOutput, List<Region> regions)
 	{
 		// Stores the created expected output.
-		List<Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable>> expectedMapperOutput = new ArrayList<>();
+		List<Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable>> expectedMapperOutput = new ArrayList<>();
 
 		// Stores records of a single read and starts with the first record.
 		ArrayList<SAMRecord> regionRecords = new ArrayList<>();
@@ -195,7 +195,7 @@ public class HadoopPipelineTester extends Tester
 	 * 
 	 * @param expectedMapperOutput
 	 *            {@link List}{@code <}{@link Pair}{@code <}{@link RegionWithSortableSamRecordWritable}{@code , }
-	 *            {@link SAMRecordWritable} {@code >>} To which the expected output should be added to.
+	 *            {@link BamRecordBytesWritable} {@code >>} To which the expected output should be added to.
 	 * @param regions
 	 *            {@link List}{@code <}{@link Region}{@code >} Used for generating the expected output. Defines part of
 	 *            the key for each output key-value pair.
@@ -205,7 +205,7 @@ public class HadoopPipelineTester extends Tester
 	 *            the value value of a key-value pair and also a part of the key.
 	 */
 	private void addRecordRegionsToExpectedMapperOutput(
-			List<Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable>> expectedMapperOutput,
+			List<Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable>> expectedMapperOutput,
 			List<Region> regions, ArrayList<SAMRecord> regionRecords)
 	{
 		// Stores the two primary records from the algined reads from a read pair.
@@ -292,14 +292,14 @@ public class HadoopPipelineTester extends Tester
 	 * 
 	 * @param expectedMapperOutput
 	 *            {@link List}{@code <}{@link Pair}{@code <}{@link RegionWithSortableSamRecordWritable}{@code , }
-	 *            {@link SAMRecordWritable} {@code >>}
+	 *            {@link BamRecordBytesWritable} {@code >>}
 	 * @param records
 	 *            {@link List}{@code <}{@link SAMRecord}{@code >}
 	 * @param region
 	 *            {@link Region}
 	 */
 	private void addRecordsListToExpectedMapperOutput(
-			List<Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable>> expectedMapperOutput,
+			List<Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable>> expectedMapperOutput,
 			List<SAMRecord> records, Region region)
 	{
 		for (SAMRecord record : records)
@@ -313,19 +313,19 @@ public class HadoopPipelineTester extends Tester
 	 * 
 	 * @param expectedMapperOutput
 	 *            {@link List}{@code <}{@link Pair}{@code <}{@link RegionWithSortableSamRecordWritable}{@code , }
-	 *            {@link SAMRecordWritable} {@code >>}
+	 *            {@link BamRecordBytesWritable} {@code >>}
 	 * @param record
 	 *            {@link SAMRecord}
 	 * @param region
 	 *            {@link Region}
 	 */
 	private void addRecordToExpectedMapperOutput(
-			List<Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable>> expectedMapperOutput, SAMRecord record,
+			List<Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable>> expectedMapperOutput, SAMRecord record,
 			Region region)
 	{
-		SAMRecordWritable writable = new SAMRecordWritable();
+		BamRecordBytesWritable writable = new BamRecordBytesWritable();
 		writable.set(record);
-		expectedMapperOutput.add(new Pair<RegionWithSortableSamRecordWritable, SAMRecordWritable>(
+		expectedMapperOutput.add(new Pair<RegionWithSortableSamRecordWritable, BamRecordBytesWritable>(
 				new RegionWithSortableSamRecordWritable(region, record), writable));
 	}
 }
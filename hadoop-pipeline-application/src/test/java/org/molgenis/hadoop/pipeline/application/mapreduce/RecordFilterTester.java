@@ -0,0 +1,171 @@
+package org.molgenis.hadoop.pipeline.application.mapreduce;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.ContigRegionsMapBuilder;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
+import org.molgenis.hadoop.pipeline.application.sequences.AlignedReadPair;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+/**
+ * Tester for {@link RecordFilter}.
+ */
+public class RecordFilterTester extends Tester
+{
+	/**
+	 * Tests whether a filter without properties keeps everything.
+	 */
+	@Test
+	public void testNoFilter()
+	{
+		RecordFilter filter = new RecordFilter(new Configuration());
+		Assert.assertEquals(Arrays.asList(filter.isEnabled(), filter.accepts(createRecord(0x100, 0)),
+				filter.accepts(AlignedReadPair.Type.INVALID)), Arrays.asList(false, true, true));
+	}
+
+	/**
+	 * Tests whether records having any of the excluded flags are discarded.
+	 */
+	@Test
+	public void testExcludeFlags()
+	{
+		Configuration conf = new Configuration();
+		conf.set(RecordFilter.EXCLUDE_FLAGS_PROPERTY, "0x900");
+		RecordFilter filter = new RecordFilter(conf);
+
+		Assert.assertEquals(
+				Arrays.asList(filter.accepts(createRecord(0x1 | 0x40, 60)), filter.accepts(createRecord(0x100, 60)),
+						filter.accepts(createRecord(0x800, 60))),
+				Arrays.asList(true, false, false));
+	}
+
+	/**
+	 * Tests whether mapped records below the minimum MAPQ are discarded (while unmapped records are kept).
+	 */
+	@Test
+	public void testMinMapq()
+	{
+		Configuration conf = new Configuration();
+		conf.setInt(RecordFilter.MIN_MAPQ_PROPERTY, 1);
+		RecordFilter filter = new RecordFilter(conf);
+
+		Assert.assertEquals(Arrays.asList(filter.accepts(createRecord(0, 1)), filter.accepts(createRecord(0, 0)),
+				filter.accepts(createRecord(0x4, 0))), Arrays.asList(true, false, true));
+	}
+
+	/**
+	 * Tests whether read pairs of the excluded types are discarded.
+	 */
+	@Test
+	public void testExcludeReadPairTypes()
+	{
+		Configuration conf = new Configuration();
+		conf.set(RecordFilter.EXCLUDE_PAIR_TYPES_PROPERTY, "INVALID, BOTH_UNMAPPED");
+		RecordFilter filter = new RecordFilter(conf);
+
+		Assert.assertEquals(
+				Arrays.asList(filter.isEnabled(), filter.accepts(AlignedReadPair.Type.INVALID),
+						filter.accepts(AlignedReadPair.Type.BOTH_UNMAPPED),
+						filter.accepts(AlignedReadPair.Type.BOTH_MAPPED)),
+				Arrays.asList(true, false, false, true));
+	}
+
+	/**
+	 * Tests whether an unknown read pair type is refused.
+	 *
+	 * @throws IOException
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testValidateUnknownReadPairType() throws IOException
+	{
+		Job job = Job.getInstance(new Configuration());
+		job.getConfiguration().set(RecordFilter.EXCLUDE_PAIR_TYPES_PROPERTY, "SECONDARY");
+		RecordFilter.validate(job);
+	}
+
+	/**
+	 * Tests whether invalid flags are refused.
+	 *
+	 * @throws IOException
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testValidateInvalidFlags() throws IOException
+	{
+		Job job = Job.getInstance(new Configuration());
+		job.getConfiguration().set(RecordFilter.EXCLUDE_FLAGS_PROPERTY, "secondary");
+		RecordFilter.validate(job);
+	}
+
+	/**
+	 * Tests whether a discarded record does not add the regions it overlaps to the regions the kept records of its read
+	 * pair are written to.
+	 */
+	@Test
+	public void testDiscardedRecordsDoNotAddRegions()
+	{
+		Configuration conf = new Configuration();
+		conf.set(RecordFilter.EXCLUDE_FLAGS_PROPERTY, "0x100");
+		SamRecordGroupsRetriever groupsRetriever = new SamRecordGroupsRetriever(new ContigRegionsMapBuilder()
+				.add(new Region("1", 1, 200)).add(new Region("1", 1001, 1200)).build());
+		// Only the (discarded) secondary alignment overlaps the second region.
+		List<SAMRecord> records = Arrays.asList(createRecord(0, 60, 51), createRecord(0x100, 60, 1051));
+
+		Assert.assertEquals(
+				HadoopPipelineMapper.retrieveUniqueRegions(records, groupsRetriever, null, new RecordFilter(conf)),
+				Collections.singleton(new Region("1", 1, 200)));
+		Assert.assertEquals(HadoopPipelineMapper.retrieveUniqueRegions(records, groupsRetriever, null, null).size(), 2);
+	}
+
+	/**
+	 * Creates a record.
+	 *
+	 * @param flags
+	 *            {@code int}
+	 * @param mapq
+	 *            {@code int}
+	 * @return {@link SAMRecord}
+	 */
+	private SAMRecord createRecord(int flags, int mapq)
+	{
+		SAMRecord record = new SAMRecord(new SAMFileHeader());
+		record.setFlags(flags);
+		record.setMappingQuality(mapq);
+		return record;
+	}
+
+	/**
+	 * Creates a record of 100 bases aligned to contig {@code 1}.
+	 *
+	 * @param flags
+	 *            {@code int}
+	 * @param mapq
+	 *            {@code int}
+	 * @param start
+	 *            {@code int} 1-based
+	 * @return {@link SAMRecord}
+	 */
+	private SAMRecord createRecord(int flags, int mapq, int start)
+	{
+		SAMFileHeader header = new SAMFileHeader();
+		header.setSequenceDictionary(new SAMSequenceDictionary(Arrays.asList(new SAMSequenceRecord("1", 10000))));
+		SAMRecord record = new SAMRecord(header);
+		record.setFlags(flags);
+		record.setMappingQuality(mapq);
+		record.setReferenceName("1");
+		record.setAlignmentStart(start);
+		record.setCigarString("100M");
+		return record;
+	}
+}
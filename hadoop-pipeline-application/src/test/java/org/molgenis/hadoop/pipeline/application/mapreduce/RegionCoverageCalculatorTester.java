@@ -0,0 +1,117 @@
+package org.molgenis.hadoop.pipeline.application.mapreduce;
+
+import static org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritableTester.generateRecordWithCigar;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tester for {@link RegionCoverageCalculator}.
+ */
+public class RegionCoverageCalculatorTester extends Tester
+{
+	/**
+	 * BAM CIGAR operation codes.
+	 */
+	private static final int M = 0, D = 2, N = 3, S = 4;
+
+	/**
+	 * Tests whether only the aligned blocks within the region are counted (clipped at the region start, skipping
+	 * deletions, skipped regions and soft clips).
+	 */
+	@Test
+	public void testAlignedBlocks()
+	{
+		RegionCoverageCalculator calculator = new RegionCoverageCalculator(new int[] { 1, 2 }, 5);
+		calculator.start(new Region("1", 101, 200), 0);
+		// 91-140 (clipped to 101-140)
+		calculator.add(generateRecordWithCigar(0, 90, 0, 50 << 4 | M));
+		// 111-120 & 126-135 (the soft clip does not consume the reference)
+		calculator.add(generateRecordWithCigar(0, 110, 0, 5 << 4 | S, 10 << 4 | M, 5 << 4 | D, 10 << 4 | M));
+		// 151-160 & 1171-1180 (the second block lies beyond the region end)
+		calculator.add(generateRecordWithCigar(0, 150, 0, 10 << 4 | M, 1000 << 4 | N, 10 << 4 | M));
+
+		Assert.assertEquals(calculator.finish(), "1-101-200\t1\t101\t200\t0.70\t50.00\t20.00\t0:50,1:30,2:20");
+	}
+
+	/**
+	 * Tests whether unmapped, secondary, QC-failed and duplicate records and records of other contigs are not counted.
+	 */
+	@Test
+	public void testExcludedRecords()
+	{
+		RegionCoverageCalculator calculator = new RegionCoverageCalculator(new int[] { 1 }, 5);
+		calculator.start(new Region("2", 1, 100), 1);
+		calculator.add(generateRecordWithCigar(0, 10, 0, 50 << 4 | M));
+		calculator.add(generateRecordWithCigar(1, 10, 0x4, 50 << 4 | M));
+		calculator.add(generateRecordWithCigar(1, 10, 0x100, 50 << 4 | M));
+		calculator.add(generateRecordWithCigar(1, 10, 0x200, 50 << 4 | M));
+		calculator.add(generateRecordWithCigar(1, 10, 0x400, 50 << 4 | M));
+
+		Assert.assertEquals(calculator.finish(), "2-1-100\t2\t1\t100\t0.00\t0.00\t0:100");
+	}
+
+	/**
+	 * Tests whether depths above the maximum depth are counted in the last histogram bin (while the mean uses the
+	 * actual depth) and whether records longer than the initial sweep-line are supported.
+	 */
+	@Test
+	public void testMaxDepthAndLongRecords()
+	{
+		RegionCoverageCalculator calculator = new RegionCoverageCalculator(new int[] { 5 }, 5);
+		calculator.start(new Region("1", 1, 5000), 0);
+		for (int i = 0; i < 10; i++)
+		{
+			calculator.add(generateRecordWithCigar(0, 1000, 0, 3000 << 4 | M));
+		}
+
+		Assert.assertEquals(calculator.finish(), "1-1-5000\t1\t1\t5000\t6.00\t60.00\t0:2000,5:3000");
+	}
+
+	/**
+	 * Tests whether the calculator can be reused for a next region.
+	 */
+	@Test
+	public void testNextRegion()
+	{
+		RegionCoverageCalculator calculator = new RegionCoverageCalculator(new int[] { 1 }, 5);
+		calculator.start(new Region("1", 1, 100), 0);
+		calculator.add(generateRecordWithCigar(0, 90, 0, 20 << 4 | M));
+		calculator.finish();
+
+		calculator.start(new Region("1", 101, 200), 0);
+		calculator.add(generateRecordWithCigar(0, 150, 0, 10 << 4 | M));
+		Assert.assertEquals(calculator.finish(), "1-101-200\t1\t101\t200\t0.10\t10.00\t0:90,1:10");
+	}
+
+	/**
+	 * Tests the header describing the columns.
+	 */
+	@Test
+	public void testHeaderLine()
+	{
+		Assert.assertEquals(new RegionCoverageCalculator(new int[] { 1, 10 }, 100).getHeaderLine(),
+				"#region\tcontig\tstart\tend\tmean_depth\tpct_bases_1x\tpct_bases_10x\tdepth_histogram");
+	}
+
+	/**
+	 * Tests whether a threshold above the maximum depth is refused.
+	 *
+	 * @throws IOException
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testValidateThresholdAboveMaxDepth() throws IOException
+	{
+		Job job = Job.getInstance(new Configuration());
+		job.getConfiguration().setBoolean(RegionCoverageCalculator.COVERAGE_PROPERTY, true);
+		job.getConfiguration().set(RegionCoverageCalculator.THRESHOLDS_PROPERTY, "10,200");
+		job.getConfiguration().setInt(RegionCoverageCalculator.MAX_DEPTH_PROPERTY, 100);
+		RegionCoverageCalculator.validate(job);
+	}
+}
@@ -0,0 +1,156 @@
+package org.molgenis.hadoop.pipeline.application.mapreduce;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritableTester;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tester for {@link RegionRecordSorter}.
+ */
+public class RegionRecordSorterTester extends Tester
+{
+	/**
+	 * Directory to write the spill files to.
+	 */
+	private File tmpDir;
+
+	/**
+	 * The regions the records are added to.
+	 */
+	private Region[] regions = { new Region("1", 1, 10000), new Region("1", 5001, 20000), Region.unmapped() };
+
+	@BeforeClass
+	public void beforeClass() throws IOException
+	{
+		tmpDir = File.createTempFile("region-record-sorter", "");
+		tmpDir.delete();
+		tmpDir.mkdir();
+	}
+
+	@AfterClass
+	public void afterClass() throws IOException
+	{
+		FileUtils.deleteDirectory(tmpDir);
+	}
+
+	/**
+	 * Tests whether the records are sorted when they all fit within the buffer.
+	 *
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testSortWithoutSpilling() throws IOException, InterruptedException
+	{
+		try (RegionRecordSorter sorter = new RegionRecordSorter(Long.MAX_VALUE, tmpDir))
+		{
+			int added = addRecords(sorter, 500);
+			Assert.assertEquals(sorter.getSpillCount(), 0);
+			assertSorted(sorter, added);
+		}
+	}
+
+	/**
+	 * Tests whether the records are sorted when multiple spill files are merged.
+	 *
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testSortWithSpilling() throws IOException, InterruptedException
+	{
+		try (RegionRecordSorter sorter = new RegionRecordSorter(10000, tmpDir))
+		{
+			int added = addRecords(sorter, 500);
+			Assert.assertTrue(sorter.getSpillCount() > 1);
+			assertSorted(sorter, added);
+		}
+		Assert.assertEquals(tmpDir.list().length, 0);
+	}
+
+	/**
+	 * Adds records in random order to the {@link RegionRecordSorter} (including unmapped records).
+	 *
+	 * @param sorter
+	 *            {@link RegionRecordSorter}
+	 * @param count
+	 *            {@code int} The number of records per region.
+	 * @return {@code int} The number of added records.
+	 * @throws IOException
+	 */
+	private int addRecords(RegionRecordSorter sorter, int count) throws IOException
+	{
+		List<Object[]> records = new ArrayList<>();
+		for (Region region : regions)
+		{
+			for (int i = 0; i < count; i++)
+			{
+				boolean unmapped = region == Region.unmapped() && i % 2 == 0;
+				records.add(new Object[] { region, BamRecordBytesWritableTester.generateRecordBytesWithCigar(
+						unmapped ? -1 : i % 2, unmapped ? -1 : i * 37 % 10000, 0, 100 << 4) });
+			}
+		}
+		Collections.shuffle(records, new Random(42));
+
+		BamRecordBytesWritable writable = new BamRecordBytesWritable();
+		for (Object[] record : records)
+		{
+			byte[] bytes = (byte[]) record[1];
+			writable.set(bytes, 0, bytes.length);
+			sorter.add((Region) record[0], writable);
+		}
+		return records.size();
+	}
+
+	/**
+	 * Checks whether the records are written ordered on region, reference index (unmapped last) and alignment start.
+	 *
+	 * @param sorter
+	 *            {@link RegionRecordSorter}
+	 * @param expectedCount
+	 *            {@code int}
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void assertSorted(RegionRecordSorter sorter, int expectedCount) throws IOException, InterruptedException
+	{
+		final List<long[]> keys = new ArrayList<>();
+		final List<Region> writtenRegions = new ArrayList<>();
+		sorter.writeSorted(new RegionRecordSorter.SortedRecordWriter()
+		{
+			@Override
+			public void write(Region region, BamRecordBytesWritable record)
+			{
+				int referenceIndex = record.getReferenceIndex();
+				writtenRegions.add(region);
+				keys.add(new long[] { referenceIndex == -1 ? Integer.MAX_VALUE : referenceIndex,
+						record.getAlignmentStart() });
+			}
+		});
+
+		Assert.assertEquals(keys.size(), expectedCount);
+		for (int i = 1; i < keys.size(); i++)
+		{
+			int c = writtenRegions.get(i - 1).compareTo(writtenRegions.get(i));
+			Assert.assertTrue(c <= 0);
+			if (c == 0)
+			{
+				Assert.assertTrue(keys.get(i - 1)[0] < keys.get(i)[0]
+						|| keys.get(i - 1)[0] == keys.get(i)[0] && keys.get(i - 1)[1] <= keys.get(i)[1]);
+			}
+		}
+	}
+}
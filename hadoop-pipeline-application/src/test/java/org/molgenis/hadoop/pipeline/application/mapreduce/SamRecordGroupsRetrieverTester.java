@@ -812,6 +812,46 @@ public class SamRecordGroupsRetrieverTester extends Tester
 		Assert.assertEquals(actualOutputGroups, expectedOutputGroups);
 	}
 
+	/**
+	 * Test with {@link Region}{@code s} that are not within the same coarse bins as the {@link SAMRecord}. These should
+	 * be rejected without searching through the {@link Region}{@code s}.
+	 */
+	@Test
+	public void testWithMultipleRegionsInOtherBinsThanRecord()
+	{
+		// Prepares/executes region with record matching.
+		inputRegions.add(new Region("1", 5000, 5100));
+		inputRegions.add(new Region("1", 9000, 9100));
+		grouper = new SamRecordGroupsRetriever(builder.addAll(inputRegions).build());
+
+		// Expected output should be empty, so no additional adjustments are made to the expected output.
+
+		// Executes and runs comparison.
+		List<Region> actualOutputGroups = grouper.retrieveGroupsWithinRange(record1);
+		Assert.assertFalse(stringWriter.toString().contains("Entered recursion."));
+		Assert.assertEquals(actualOutputGroups, expectedOutputGroups);
+	}
+
+	/**
+	 * Test with a {@link Region} spanning multiple coarse bins of which the {@link SAMRecord} is only within one of the
+	 * middle bins.
+	 */
+	@Test
+	public void testWithSingleRegionSpanningMultipleBins()
+	{
+		// Prepares/executes region with record matching.
+		inputRegions.add(new Region("1", 10, 5000));
+		grouper = new SamRecordGroupsRetriever(builder.addAll(inputRegions).build());
+		SAMRecord record = generateTestRecord("1", 2100, "101M", new SAMSequenceRecord("1", 10000));
+
+		// Expected output is equal to the input.
+		expectedOutputGroups = inputRegions;
+
+		// Executes and runs comparison.
+		List<Region> actualOutputGroups = grouper.retrieveGroupsWithinRange(record);
+		Assert.assertEquals(actualOutputGroups, expectedOutputGroups);
+	}
+
 	/**
 	 * Generates a new {@link SAMRecord} that can be used for testing.
 	 * 
@@ -0,0 +1,247 @@
+package org.molgenis.hadoop.pipeline.application.processes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
+import org.molgenis.hadoop.pipeline.application.formats.PackedRegionBamOutputFormat;
+import org.molgenis.hadoop.pipeline.application.inputstreamdigestion.Sink;
+import org.molgenis.hadoop.pipeline.application.inputstreamdigestion.StringSink;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritableTester;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+/**
+ * Tester for {@link RegionToolRunner}.
+ */
+public class RegionToolRunnerTester extends Tester
+{
+	/**
+	 * Directory containing the tools.
+	 */
+	private File toolsDir;
+
+	/**
+	 * The header of the streamed BAM data.
+	 */
+	private SAMFileHeader header;
+
+	@BeforeClass
+	public void beforeClass() throws IOException
+	{
+		toolsDir = File.createTempFile("tools", "");
+		toolsDir.delete();
+		toolsDir.mkdir();
+
+		// Writes its arguments and the number of decompressed BAM bytes read from stdin.
+		createTool("counter", "#!/bin/sh\necho \"$@\"\ngzip -dc | wc -c | tr -d ' '\n");
+		// Fails after reading its input.
+		createTool("failing", "#!/bin/sh\ncat > /dev/null\nexit 3\n");
+		// Writes more output than it reads input (dumping the BAM data as text).
+		createTool("dumping", "#!/bin/sh\nexec od -c\n");
+
+		SAMSequenceDictionary dictionary = new SAMSequenceDictionary();
+		dictionary.addSequence(new SAMSequenceRecord("1", 2500));
+		header = new SAMFileHeader(dictionary);
+	}
+
+	@AfterClass
+	public void afterClass() throws IOException
+	{
+		FileUtils.deleteDirectory(toolsDir);
+	}
+
+	/**
+	 * Tests whether the records are streamed into the tool (with the placeholders filled in) and whether the output of
+	 * the tool is digested.
+	 *
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testStreamRegion() throws IOException, InterruptedException
+	{
+		Configuration conf = new Configuration();
+		conf.set(RegionToolRunner.TOOL_PROPERTY, "counter");
+		conf.set(RegionToolRunner.ARGUMENTS_PROPERTY, " --region ${region}  ${regionName} -f ${referenceFasta} ");
+		RegionToolRunner runner = new RegionToolRunner(conf, toolsDir.getAbsolutePath(), "/ref/ref.fa", header);
+
+		List<String> lines = new ArrayList<>();
+		try (RegionToolRunner.RegionToolProcess tool = runner.start(new Region("1", 1, 834), "1-1-834",
+				createSink(lines)))
+		{
+			tool.write(createRecord(10));
+			tool.write(createRecord(20));
+		}
+
+		Assert.assertEquals(lines.size(), 2);
+		Assert.assertEquals(lines.get(0), "--region 1:1-834 1-1-834 -f /ref/ref.fa");
+		// The decompressed BAM contains at least the magic, the header and both records.
+		Assert.assertTrue(Integer.parseInt(lines.get(1)) > 2 * createRecord(10).getLength());
+	}
+
+	/**
+	 * Tests whether a failing tool results in an {@link IOException}.
+	 *
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test(expectedExceptions = IOException.class)
+	public void testFailingTool() throws IOException, InterruptedException
+	{
+		Configuration conf = new Configuration();
+		conf.set(RegionToolRunner.TOOL_PROPERTY, "failing");
+		RegionToolRunner runner = new RegionToolRunner(conf, toolsDir.getAbsolutePath(), "/ref/ref.fa", header);
+
+		try (RegionToolRunner.RegionToolProcess tool = runner.start(new Region("1", 1, 834), "1-1-834",
+				createSink(new ArrayList<String>())))
+		{
+			tool.write(createRecord(10));
+		}
+	}
+
+	/**
+	 * Tests whether a sink failing partway through the tool output results in an {@link IOException} (instead of the
+	 * tool blocking on its full stdout pipe and the writer on the full stdin pipe of the tool).
+	 *
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test(expectedExceptions = IOException.class, timeOut = 30000)
+	public void testFailingSink() throws IOException, InterruptedException
+	{
+		Configuration conf = new Configuration();
+		conf.set(RegionToolRunner.TOOL_PROPERTY, "dumping");
+		RegionToolRunner runner = new RegionToolRunner(conf, toolsDir.getAbsolutePath(), "/ref/ref.fa", header);
+
+		// Fails without closing the tool output (so the tool is not stopped by a broken pipe).
+		Sink<byte[]> sink = new Sink<byte[]>()
+		{
+			@Override
+			public void handleInputStream(InputStream inputStream) throws IOException
+			{
+				byte[] item = new byte[1000];
+				IOUtils.readFully(inputStream, item);
+				digestStreamItem(item);
+			}
+
+			@Override
+			protected void digestStreamItem(byte[] item) throws IOException
+			{
+				throw new IOException("Failing sink.");
+			}
+		};
+		try (RegionToolRunner.RegionToolProcess tool = runner.start(new Region("1", 1, 834), "1-1-834", sink))
+		{
+			// Far more data than fits in the pipe buffers.
+			for (int i = 0; i < 100000; i++)
+			{
+				tool.write(createRecord(10));
+			}
+		}
+	}
+
+	/**
+	 * Tests whether an unknown placeholder is refused.
+	 *
+	 * @throws IOException
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testValidateUnknownPlaceholder() throws IOException
+	{
+		Job job = Job.getInstance(new Configuration());
+		job.getConfiguration().set(RegionToolRunner.TOOL_PROPERTY, "counter");
+		job.getConfiguration().set(RegionToolRunner.ARGUMENTS_PROPERTY, "${contig}");
+		RegionToolRunner.validate(job);
+	}
+
+	/**
+	 * Tests whether packed output is refused.
+	 *
+	 * @throws IOException
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testValidatePackedOutput() throws IOException
+	{
+		Job job = Job.getInstance(new Configuration());
+		job.getConfiguration().set(RegionToolRunner.TOOL_PROPERTY, "counter");
+		job.getConfiguration().setBoolean(PackedRegionBamOutputFormat.PACKED_OUTPUT_PROPERTY, true);
+		RegionToolRunner.validate(job);
+	}
+
+	/**
+	 * Tests whether regions without reference coordinates are not accepted.
+	 */
+	@Test
+	public void testAccepts()
+	{
+		Assert.assertTrue(RegionToolRunner.accepts(new Region("1", 1, 834)));
+		Assert.assertEquals(
+				Arrays.asList(RegionToolRunner.accepts(Region.unmapped()), RegionToolRunner.accepts(Region.invalid())),
+				Arrays.asList(false, false));
+	}
+
+	/**
+	 * Creates an executable tool script.
+	 *
+	 * @param fileName
+	 *            {@link String}
+	 * @param script
+	 *            {@link String}
+	 * @throws IOException
+	 */
+	private void createTool(String fileName, String script) throws IOException
+	{
+		File tool = new File(toolsDir, fileName);
+		FileUtils.writeStringToFile(tool, script, StandardCharsets.US_ASCII);
+		tool.setExecutable(true);
+	}
+
+	/**
+	 * Creates a {@link StringSink} that collects the lines.
+	 *
+	 * @param lines
+	 *            {@link List}{@code <}{@link String}{@code >}
+	 * @return {@link StringSink}
+	 */
+	private StringSink createSink(final List<String> lines)
+	{
+		return new StringSink()
+		{
+			@Override
+			protected void digestStreamItem(String item) throws IOException
+			{
+				if (item != null) lines.add(item);
+			}
+		};
+	}
+
+	/**
+	 * Creates a mapped record.
+	 *
+	 * @param position
+	 *            {@code int} 0-based
+	 * @return {@link BamRecordBytesWritable}
+	 */
+	private BamRecordBytesWritable createRecord(int position)
+	{
+		return BamRecordBytesWritableTester.generateRecordWithCigar(0, position, 0, 100 << 4);
+	}
+}
@@ -0,0 +1,174 @@
+package org.molgenis.hadoop.pipeline.application.sequences;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+
+/**
+ * Tester for {@link DuplicateReadPairs}.
+ */
+public class DuplicateReadPairsTester extends Tester
+{
+	/**
+	 * Interleaved FASTQ data of which the second and fourth read pair are duplicates of the first.
+	 */
+	private static final String FASTQ = "@pair1/1\nACGT\n+\nIIII\n@pair1/2\nTTGG\n+\nIIII\n"
+			+ "@pair2/1\nACGT\n+\nABCD\n@pair2/2\nTTGG\n+\nEFGH\n" + "@pair3/1\nACGT\n+\nIIII\n@pair3/2\nTTGA\n+\nIIII\n"
+			+ "@pair4/1\nACGT\n+\n####\n@pair4/2\nTTGG\n+\n####\n";
+
+	/**
+	 * Tests whether the duplicates are found and left out of the filtered FASTQ data.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testIndexAndFilter() throws IOException
+	{
+		DuplicateReadPairs duplicates = DuplicateReadPairs.index(createInputStream(FASTQ), Long.MAX_VALUE);
+		Assert.assertEquals(duplicates.getReadPairs(), 4);
+		Assert.assertEquals(duplicates.getCollapsedReadPairs(), 2);
+
+		try (InputStream filtered = duplicates.filter(createInputStream(FASTQ)))
+		{
+			Assert.assertEquals(IOUtils.toString(filtered, StandardCharsets.US_ASCII),
+					"@pair1/1\nACGT\n+\nIIII\n@pair1/2\nTTGG\n+\nIIII\n"
+							+ "@pair3/1\nACGT\n+\nIIII\n@pair3/2\nTTGA\n+\nIIII\n");
+		}
+	}
+
+	/**
+	 * Tests whether no duplicates are collapsed after the memory limit is reached.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testIndexMemoryLimit() throws IOException
+	{
+		DuplicateReadPairs duplicates = DuplicateReadPairs.index(createInputStream(FASTQ), 0);
+		Assert.assertEquals(duplicates.getReadPairs(), 4);
+		Assert.assertEquals(duplicates.getCollapsedReadPairs(), 0);
+
+		try (InputStream filtered = duplicates.filter(createInputStream(FASTQ)))
+		{
+			Assert.assertEquals(IOUtils.toString(filtered, StandardCharsets.US_ASCII), FASTQ);
+		}
+	}
+
+	/**
+	 * Tests whether invalid FASTQ data is refused.
+	 *
+	 * @throws IOException
+	 */
+	@Test(expectedExceptions = IOException.class)
+	public void testIndexInvalidFastq() throws IOException
+	{
+		DuplicateReadPairs.index(createInputStream("pair1/1\nACGT\n+\nIIII\n@pair1/2\nTTGG\n+\nIIII\n"), Long.MAX_VALUE);
+	}
+
+	/**
+	 * Tests whether the records of a representative are copied for each duplicate, in the order of the FASTQ data.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testExpand() throws IOException
+	{
+		DuplicateReadPairs duplicates = DuplicateReadPairs.index(createInputStream(FASTQ), Long.MAX_VALUE);
+		SAMFileHeader header = new SAMFileHeader();
+		SAMRecord first = createRecord(header, "pair1", "4M", 0x41, "ACGT");
+		SAMRecord second = createRecord(header, "pair1", "4M", 0x91, "CCAA");
+
+		List<List<SAMRecord>> expanded = duplicates.expand(Arrays.asList(first, second));
+		Assert.assertEquals(expanded.size(), 2);
+		Assert.assertEquals(expanded.get(0).get(0).getReadName(), "pair2");
+		Assert.assertEquals(expanded.get(0).get(0).getBaseQualityString(), "ABCD");
+		// Reverse strand, so the qualities are reversed.
+		Assert.assertEquals(expanded.get(0).get(1).getBaseQualityString(), "HGFE");
+		Assert.assertEquals(expanded.get(0).get(1).getReadString(), "CCAA");
+		Assert.assertEquals(expanded.get(1).get(0).getReadName(), "pair4");
+		Assert.assertEquals(expanded.get(1).get(0).getBaseQualityString(), "####");
+
+		// The representative itself is not changed.
+		Assert.assertEquals(first.getReadName(), "pair1");
+		Assert.assertEquals(first.getBaseQualityString(), "IIII");
+
+		Assert.assertTrue(duplicates.expand(Arrays.asList(createRecord(header, "pair3", "4M", 0x41, "ACGT"))).isEmpty());
+	}
+
+	/**
+	 * Tests whether hard clipped bases are left out of the copied qualities.
+	 */
+	@Test
+	public void testCopyRecordHardClipped()
+	{
+		DuplicateReadPairs.Duplicate duplicate = new DuplicateReadPairs.Duplicate("pair2",
+				"ABCD".getBytes(StandardCharsets.US_ASCII), "EFGH".getBytes(StandardCharsets.US_ASCII));
+		SAMFileHeader header = new SAMFileHeader();
+
+		SAMRecord forward = DuplicateReadPairs.copyRecord(createRecord(header, "pair1", "1H3M", 0x841, "CGT"),
+				duplicate);
+		Assert.assertEquals(forward.getBaseQualityString(), "BCD");
+
+		// Reverse strand: the aligned read is DCBA, of which the last base is clipped.
+		SAMRecord reverse = DuplicateReadPairs.copyRecord(createRecord(header, "pair1", "3M1H", 0x851, "ACG"),
+				duplicate);
+		Assert.assertEquals(reverse.getBaseQualityString(), "DCB");
+
+		// Qualities with a different length are left as-is.
+		SAMRecord mismatch = DuplicateReadPairs.copyRecord(createRecord(header, "pair1", "2M", 0x41, "AC"),
+				duplicate);
+		Assert.assertEquals(mismatch.getReadName(), "pair2");
+		Assert.assertEquals(mismatch.getBaseQualityString(), "II");
+	}
+
+	/**
+	 * Creates an {@link InputStream} from ASCII text.
+	 *
+	 * @param text
+	 *            {@link String}
+	 * @return {@link InputStream}
+	 */
+	private InputStream createInputStream(String text)
+	{
+		return new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Creates an aligned record with qualities {@code I}.
+	 *
+	 * @param header
+	 *            {@link SAMFileHeader}
+	 * @param readName
+	 *            {@link String}
+	 * @param cigar
+	 *            {@link String}
+	 * @param flags
+	 *            {@code int}
+	 * @param bases
+	 *            {@link String}
+	 * @return {@link SAMRecord}
+	 */
+	private SAMRecord createRecord(SAMFileHeader header, String readName, String cigar, int flags, String bases)
+	{
+		SAMRecord record = new SAMRecord(header);
+		record.setReadName(readName);
+		record.setFlags(flags);
+		record.setCigarString(cigar);
+		record.setReadString(bases);
+		char[] qualities = new char[bases.length()];
+		Arrays.fill(qualities, 'I');
+		record.setBaseQualityString(new String(qualities));
+		return record;
+	}
+}
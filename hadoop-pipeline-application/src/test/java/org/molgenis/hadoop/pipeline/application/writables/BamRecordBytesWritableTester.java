@@ -0,0 +1,201 @@
+package org.molgenis.hadoop.pipeline.application.writables;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Comparator;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.molgenis.hadoop.pipeline.application.Tester;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tester for {@link BamRecordBytesWritable}.
+ */
+public class BamRecordBytesWritableTester extends Tester
+{
+	/**
+	 * Tests whether the raw bytes are retained during serialization and whether the reference index and alignment
+	 * start can be retrieved without decoding.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testSerializationRoundTrip() throws IOException
+	{
+		byte[] record = generateRecordBytes(2, 999, 40);
+		BamRecordBytesWritable writable = new BamRecordBytesWritable();
+		writable.set(record, 0, record.length);
+
+		DataOutputBuffer out = new DataOutputBuffer();
+		writable.write(out);
+		Assert.assertEquals(out.getLength(), record.length);
+
+		DataInputBuffer in = new DataInputBuffer();
+		in.reset(out.getData(), out.getLength());
+		BamRecordBytesWritable copy = new BamRecordBytesWritable();
+		copy.readFields(in);
+
+		Assert.assertEquals(copy, writable);
+		Assert.assertEquals(copy.hashCode(), writable.hashCode());
+		Assert.assertEquals(copy.getReferenceIndex(), 2);
+		Assert.assertEquals(copy.getAlignmentStart(), 1000);
+	}
+
+	/**
+	 * Tests whether a reused {@link BamRecordBytesWritable} correctly stores a smaller record after a larger one.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testReuseWithSmallerRecord() throws IOException
+	{
+		byte[] large = generateRecordBytes(0, 1, 200);
+		byte[] small = generateRecordBytes(-1, -1, 20);
+
+		DataOutputBuffer out = new DataOutputBuffer();
+		out.write(large);
+		out.write(small);
+		DataInputBuffer in = new DataInputBuffer();
+		in.reset(out.getData(), out.getLength());
+
+		BamRecordBytesWritable writable = new BamRecordBytesWritable();
+		writable.readFields(in);
+		writable.readFields(in);
+
+		BamRecordBytesWritable expected = new BamRecordBytesWritable();
+		expected.set(small, 0, small.length);
+		Assert.assertEquals(writable.getLength(), small.length);
+		Assert.assertEquals(writable, expected);
+		Assert.assertEquals(writable.getReferenceIndex(), -1);
+		Assert.assertEquals(writable.getAlignmentStart(), 0);
+	}
+
+	/**
+	 * Tests whether the flag and alignment end (calculated from the CIGAR) are retrieved correctly.
+	 */
+	@Test
+	public void testFlagsAndAlignmentEnd()
+	{
+		// 10M2D5I3M
+		byte[] record = generateRecordBytesWithCigar(0, 99, 99, 10 << 4 | 0, 2 << 4 | 2, 5 << 4 | 1, 3 << 4 | 0);
+		BamRecordBytesWritable writable = new BamRecordBytesWritable();
+		writable.set(record, 0, record.length);
+
+		Assert.assertEquals(writable.getFlags(), 99);
+		Assert.assertEquals(writable.getAlignmentStart(), 100);
+		Assert.assertEquals(writable.getAlignmentEnd(), 114);
+	}
+
+	/**
+	 * Tests whether the alignment end of a record without CIGAR lies before its alignment start.
+	 */
+	@Test
+	public void testAlignmentEndWithoutCigar()
+	{
+		byte[] record = generateRecordBytesWithCigar(0, 99, 77);
+		BamRecordBytesWritable writable = new BamRecordBytesWritable();
+		writable.set(record, 0, record.length);
+
+		Assert.assertEquals(writable.getAlignmentEnd(), 99);
+	}
+
+	/**
+	 * Tests whether bytes of which the {@code block_size} does not match the length are refused.
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testSetWithInvalidLength()
+	{
+		byte[] record = generateRecordBytes(0, 1, 40);
+		new BamRecordBytesWritable().set(record, 0, record.length - 1);
+	}
+
+	/**
+	 * Generates bytes with the layout of a BAM record (only the {@code block_size}, {@code refID} and {@code pos} are
+	 * filled in).
+	 *
+	 * @param referenceIndex
+	 *            {@code int}
+	 * @param position
+	 *            {@code int} 0-based
+	 * @param length
+	 *            {@code int} The total length (including {@code block_size}).
+	 * @return {@code byte[]}
+	 */
+	private static byte[] generateRecordBytes(int referenceIndex, int position, int length)
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(length - 4).putInt(referenceIndex).putInt(position);
+		for (int i = 12; i < length; i++)
+		{
+			buffer.put((byte) i);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Tests whether records are ordered on reference index (unmapped last) and alignment start.
+	 */
+	@Test
+	public void testCoordinateComparator()
+	{
+		Comparator<BamRecordBytesWritable> comparator = BamRecordBytesWritable.COORDINATE_COMPARATOR;
+		Assert.assertTrue(comparator.compare(generateRecordWithCigar(0, 99, 0), generateRecordWithCigar(1, 9, 0)) < 0);
+		Assert.assertTrue(comparator.compare(generateRecordWithCigar(1, 9, 0), generateRecordWithCigar(1, 4, 0)) > 0);
+		Assert.assertTrue(comparator.compare(generateRecordWithCigar(-1, -1, 4), generateRecordWithCigar(1, 9, 0)) > 0);
+		Assert.assertEquals(comparator.compare(generateRecordWithCigar(0, 9, 0), generateRecordWithCigar(0, 9, 0)), 0);
+	}
+
+	/**
+	 * Generates a valid BAM record with read name {@code r}, the given CIGAR and without sequence.
+	 *
+	 * @param referenceIndex
+	 *            {@code int}
+	 * @param position
+	 *            {@code int} 0-based
+	 * @param flag
+	 *            {@code int}
+	 * @param cigar
+	 *            {@code int...} The BAM encoded CIGAR operations ({@code length << 4 | operation}).
+	 * @return {@code byte[]}
+	 */
+	public static byte[] generateRecordBytesWithCigar(int referenceIndex, int position, int flag, int... cigar)
+	{
+		int length = 4 + 32 + 2 + cigar.length * 4;
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(length - 4).putInt(referenceIndex).putInt(position);
+		buffer.putInt(60 << 8 | 2).putInt(flag << 16 | cigar.length);
+		buffer.putInt(0).putInt(-1).putInt(-1).putInt(0);
+		buffer.put((byte) 'r').put((byte) 0);
+		for (int operation : cigar)
+		{
+			buffer.putInt(operation);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Generates a {@link BamRecordBytesWritable} containing a record created by
+	 * {@link #generateRecordBytesWithCigar(int, int, int, int...)}.
+	 *
+	 * @param referenceIndex
+	 *            {@code int}
+	 * @param position
+	 *            {@code int} 0-based
+	 * @param flag
+	 *            {@code int}
+	 * @param cigar
+	 *            {@code int...} The BAM encoded CIGAR operations ({@code length << 4 | operation}).
+	 * @return {@link BamRecordBytesWritable}
+	 */
+	public static BamRecordBytesWritable generateRecordWithCigar(int referenceIndex, int position, int flag,
+			int... cigar)
+	{
+		byte[] bytes = generateRecordBytesWithCigar(referenceIndex, position, flag, cigar);
+		BamRecordBytesWritable record = new BamRecordBytesWritable();
+		record.set(bytes, 0, bytes.length);
+		return record;
+	}
+}
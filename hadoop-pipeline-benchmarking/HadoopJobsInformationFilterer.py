@@ -16,6 +16,14 @@ Description:
 	- A csv file containing the CPU_MILLISECONDS of all reduce tasks, 1 line per job *
 	
 	* = The first column contains the job id, while all other columns contain values.
+	
+	The instrumentation counters of the MeteredStage counter group (see
+	org.molgenis.hadoop.pipeline.application.instrumentation.TaskInstrumentation) are added to the job
+	and task output files as well. If a job was run with the property
+	molgenis.hadoop.pipeline.instrumentation.json.dump=true, the per-task JSON files from the
+	"_instrumentation" directory within the job output directory can be copied to the directory of the job
+	(next to the files retrieved by HadoopJobInformationRetriever.py). These are then used for tasks of which
+	no instrumentation counters are available (for example when the history server is not available anymore).
 """
 
 import sys
@@ -26,6 +34,11 @@ import json
 import objectpath # installation: see http://objectpath.org/
 # install pypz3 for warning from objectpath to disappear: pip3 install pytz
 
+# The counter group, stages and metrics as published by org.molgenis.hadoop.pipeline.application.instrumentation.TaskInstrumentation.
+INSTRUMENTATION_COUNTER_GROUP = 'org.molgenis.hadoop.pipeline.application.instrumentation.MeteredStage'
+INSTRUMENTATION_STAGES = ['PIPELINE', 'ALIGNER_INPUT', 'ALIGNER_OUTPUT', 'SAM_DECODING', 'REGION_RETRIEVAL', 'CONTEXT_WRITE', 'REDUCER_INPUT', 'REDUCER_OUTPUT']
+INSTRUMENTATION_METRICS = ['NANOSECONDS', 'INVOCATIONS', 'RECORDS', 'BYTES']
+
 def main():
 	"""
 	Name:
@@ -46,6 +59,7 @@ def main():
 	jobData = {}
 	mapTaskData = {}
 	reduceTaskData = {}
+	instrumentationDumps = []
 	
 	# Goes through all files in the directory.
 	for dirPath, subDirs, files in os.walk(inputDir):
@@ -89,6 +103,19 @@ def main():
 					else:
 						processReduceTaskCounters(taskCountersTree, dataToStore)
 						storeTaskData(reduceTaskData, dataToStore)
+			
+			# Process a per-task instrumentation JSON dump (processed after all other files).
+			elif fileName.startswith('attempt_') and fileName.endswith('.json'):
+				instrumentationDumps.append(os.path.join(dirPath, fileName))
+	
+	# Adds the instrumentation JSON dumps to tasks that have no instrumentation counters.
+	for dumpFile in instrumentationDumps:
+		dataToStore = {}
+		processInstrumentationDump(readFileAsJson(dumpFile), dataToStore)
+		if isMapperTask(dataToStore):
+			storeMissingTaskData(mapTaskData, dataToStore)
+		else:
+			storeMissingTaskData(reduceTaskData, dataToStore)
 	
 	# Writes the data to files.
 	writeJobDataToFile(outputDir, 'jobs.csv', jobData)
@@ -173,6 +200,8 @@ def processJobCounters(tree, dataToStore):
 	dataToStore['ONE_MAPPED_ONE_MULTIMAPPED_SUPPLEMENTARY_ONLY'] = retrieveFromTree(tree,"$.jobCounters.counterGroup[@.counterGroupName is 'org.molgenis.hadoop.pipeline.application.sequences.AlignedReadPairType'][0].counter[@.name is 'ONE_MAPPED_ONE_MULTIMAPPED_SUPPLEMENTARY_ONLY'].totalCounterValue")
 	dataToStore['ONE_MULTIMAPPED_ONE_MULTIMAPPED_SUPPLEMENTARY_ONLY'] = retrieveFromTree(tree,"$.jobCounters.counterGroup[@.counterGroupName is 'org.molgenis.hadoop.pipeline.application.sequences.AlignedReadPairType'][0].counter[@.name is 'ONE_MULTIMAPPED_ONE_MULTIMAPPED_SUPPLEMENTARY_ONLY'].totalCounterValue")
 	dataToStore['INVALID'] = retrieveFromTree(tree,"$.jobCounters.counterGroup[@.counterGroupName is 'org.molgenis.hadoop.pipeline.application.sequences.AlignedReadPairType'][0].counter[@.name is 'INVALID'].totalCounterValue")
+	
+	processInstrumentationCounters(tree, dataToStore, "$.jobCounters.counterGroup", "totalCounterValue")
 
 def processTaskInfo(tree, dataToStore):
 	"""
@@ -222,6 +251,52 @@ def processTaskCounters(tree, dataToStore):
 	# See also the retrieveFromTree(tree, path) method.
 	dataToStore['FILE_BYTES_READ'] = retrieveFromTree(tree,"$.jobTaskCounters.taskCounterGroup[@.counterGroupName is 'org.apache.hadoop.mapreduce.FileSystemCounter'][0].counter[@.name is 'FILE_BYTES_READ'].value")
 	dataToStore['CPU_MILLISECONDS'] = retrieveFromTree(tree,"$.jobTaskCounters.taskCounterGroup[@.counterGroupName is 'org.apache.hadoop.mapreduce.TaskCounter'][0].counter[@.name is 'CPU_MILLISECONDS'].value")
+	
+	processInstrumentationCounters(tree, dataToStore, "$.jobTaskCounters.taskCounterGroup", "value")
+
+def processInstrumentationCounters(tree, dataToStore, counterGroupPath, valueField):
+	"""
+	Name:
+		processInstrumentationCounters
+		
+	Info:
+		Retrieves all instrumentation counters (see INSTRUMENTATION_COUNTER_GROUP) from a job or task counters file
+		and stores them in dataToStore. Counters that are not present (for example because a task never entered
+		a stage) are stored as 'NA'.
+	
+	Input:
+		tree - Tree: Json structure generated by the Hadoop REST API and processed by objectpath.Tree().
+		dataToStore - dict: In which the counters of interest should be stored.
+		counterGroupPath - String: Path to the counter groups within the tree.
+		valueField - String: The name of the field containing the counter value to be stored.
+	"""
+	
+	for stage in INSTRUMENTATION_STAGES:
+		for metric in INSTRUMENTATION_METRICS:
+			counterName = stage + '_' + metric
+			dataToStore['INSTRUMENTATION_' + counterName] = retrieveFromTree(tree, counterGroupPath + "[@.counterGroupName is '" + INSTRUMENTATION_COUNTER_GROUP + "'][0].counter[@.name is '" + counterName + "']." + valueField)
+
+def processInstrumentationDump(json, dataToStore):
+	"""
+	Name:
+		processInstrumentationDump
+		
+	Info:
+		Retrieves all instrumentation values from a per-task JSON dump and stores them in dataToStore using the
+		same names as processInstrumentationCounters(tree, dataToStore, counterGroupPath, valueField).
+	
+	Input:
+		json - dict: The JSON dump as written by TaskInstrumentation.
+		dataToStore - dict: In which the values should be stored.
+	"""
+	
+	# example: attempt_0123456789012_01234_m_000000_0 -> task_0123456789012_01234_m_000000
+	dataToStore['TASK_ID'] = 'task_' + '_'.join(json['taskAttemptId'].split('_')[1:5])
+	
+	for stage in INSTRUMENTATION_STAGES:
+		stageValues = json['stages'].get(stage, {})
+		for metric in INSTRUMENTATION_METRICS:
+			dataToStore['INSTRUMENTATION_' + stage + '_' + metric] = stageValues.get(metric.lower(), 'NA')
 
 def processMapTaskCounters(tree, dataToStore):
 	"""
@@ -372,6 +447,31 @@ def storeTaskData(storedData, dataToStore):
 	else:
 		storedData[jobId] = [dataToStore]
 
+def storeMissingTaskData(storedData, dataToStore):
+	"""
+	Name:
+		storeMissingTaskData
+		
+	Info:
+		Like storeTaskData(storedData, dataToStore), but for an already present task only overwrites values that
+		are 'NA' (or missing) instead of all values.
+	
+	Input:
+		storedData - dict(jobId:list(dict())): Where the data should be stored in.
+		dataToStore - dict(): The data that should be stored.
+	"""
+	
+	taskId = dataToStore.get('TASK_ID')
+	
+	for task in storedData.get(getJobIdFromTaskId(taskId), []):
+		if task.get('TASK_ID') == taskId:
+			for name, value in dataToStore.items():
+				if task.get(name, 'NA') == 'NA':
+					task[name] = value
+			return
+	
+	storeTaskData(storedData, dataToStore)
+
 def readFileAsJson(fileName):
 	"""
 	Name:
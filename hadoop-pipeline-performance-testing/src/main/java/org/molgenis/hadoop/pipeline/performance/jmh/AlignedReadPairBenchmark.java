@@ -0,0 +1,64 @@
+package org.molgenis.hadoop.pipeline.performance.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.molgenis.hadoop.pipeline.application.sequences.AlignedReadPair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import htsjdk.samtools.SAMRecord;
+
+/**
+ * Benchmarks the construction of an {@link AlignedReadPair} (dividing the records over both reads and determining the
+ * {@link AlignedReadPair.Type}), which is done for each read pair outputted by bwa.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class AlignedReadPairBenchmark
+{
+	/**
+	 * The number of read pairs to cycle through (power of 2).
+	 */
+	private static final int READ_PAIRS = 1 << 12;
+
+	/**
+	 * The records of each read pair.
+	 */
+	private List<List<SAMRecord>> readPairs = new ArrayList<>(READ_PAIRS);
+
+	/**
+	 * Index of the next read pair to use.
+	 */
+	private int index = 0;
+
+	@Setup
+	public void setup()
+	{
+		SyntheticData data = new SyntheticData();
+		for (int i = 0; i < READ_PAIRS; i++)
+		{
+			readPairs.add(data.generateReadPair());
+		}
+	}
+
+	@Benchmark
+	public AlignedReadPair construct()
+	{
+		// The records are reordered when constructing an AlignedReadPair, so a copy of the list is used.
+		return new AlignedReadPair(new ArrayList<>(readPairs.get(index++ & (READ_PAIRS - 1))));
+	}
+}
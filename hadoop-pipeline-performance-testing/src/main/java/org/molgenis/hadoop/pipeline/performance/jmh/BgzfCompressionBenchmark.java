@@ -0,0 +1,98 @@
+package org.molgenis.hadoop.pipeline.performance.jmh;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.molgenis.hadoop.pipeline.application.formats.ParallelBlockCompressedOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.seqdoop.hadoop_bam.SAMRecordWritable;
+
+import htsjdk.samtools.SAMRecord;
+
+/**
+ * Benchmarks writing BAM-encoded records through a {@link ParallelBlockCompressedOutputStream} using a varying number
+ * of compression threads (where 1 compresses on the writing thread, like the reducers did before).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BgzfCompressionBenchmark
+{
+	/**
+	 * The number of read pairs of which the records are written (roughly 16MB).
+	 */
+	private static final int READ_PAIRS = 32000;
+
+	/**
+	 * The number of compression threads.
+	 */
+	@Param({ "1", "2", "4" })
+	private int threads;
+
+	/**
+	 * The deflate compression level.
+	 */
+	@Param({ "5" })
+	private int compressionLevel;
+
+	/**
+	 * Compresses the blocks ({@code null} if {@link #threads} is 1).
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * The BAM-encoded records.
+	 */
+	private DataOutputBuffer serializedRecords = new DataOutputBuffer();
+
+	@Setup
+	public void setup() throws IOException
+	{
+		executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+
+		SyntheticData data = new SyntheticData();
+		for (int i = 0; i < READ_PAIRS; i++)
+		{
+			for (SAMRecord record : data.generateReadPair())
+			{
+				SAMRecordWritable writable = new SAMRecordWritable();
+				writable.set(record);
+				writable.write(serializedRecords);
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		if (executor != null) executor.shutdown();
+	}
+
+	@Benchmark
+	public long compress() throws IOException
+	{
+		ParallelBlockCompressedOutputStream output = new ParallelBlockCompressedOutputStream(new NullOutputStream(),
+				compressionLevel, executor, threads * 2);
+		output.write(serializedRecords.getData(), 0, serializedRecords.getLength());
+		output.close();
+		return output.getBlockPointer();
+	}
+}
@@ -0,0 +1,54 @@
+package org.molgenis.hadoop.pipeline.performance.jmh;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.molgenis.hadoop.pipeline.application.cachedigestion.ContigRegionsMap;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.ContigRegionsMapBuilder;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks building a {@link ContigRegionsMap} (done in the setup of each mapper after reading the BED file).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ContigRegionsMapBuilderBenchmark
+{
+	/**
+	 * The number of regions (a gene panel, an exome and a large exome capture kit).
+	 */
+	@Param({ "2000", "200000", "1000000" })
+	public int numberOfRegions;
+
+	/**
+	 * The regions to add to the builder.
+	 */
+	private List<Region> regions;
+
+	@Setup
+	public void setup()
+	{
+		regions = new SyntheticData().generateRegions(numberOfRegions, 200);
+	}
+
+	@Benchmark
+	public ContigRegionsMap build()
+	{
+		return new ContigRegionsMapBuilder().addAll(regions).build();
+	}
+}
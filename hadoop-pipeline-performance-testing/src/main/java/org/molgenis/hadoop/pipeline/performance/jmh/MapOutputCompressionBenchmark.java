@@ -0,0 +1,91 @@
+package org.molgenis.hadoop.pipeline.performance.jmh;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.molgenis.hadoop.pipeline.application.compression.CompressionProbe;
+import org.molgenis.hadoop.pipeline.application.compression.CompressionProfile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.seqdoop.hadoop_bam.SAMRecordWritable;
+
+import htsjdk.samtools.SAMRecord;
+
+/**
+ * Benchmarks the compression of the (serialized) map output values using each {@link CompressionProfile}. The
+ * compression ratio of each profile is printed during the setup. Profiles of which the codec is not available (such as
+ * codecs requiring the native Hadoop library) are skipped.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MapOutputCompressionBenchmark
+{
+	/**
+	 * The number of read pairs of which the records are compressed at once (roughly a 1MB block).
+	 */
+	private static final int READ_PAIRS = 2000;
+
+	/**
+	 * The {@link CompressionProfile} to benchmark.
+	 */
+	@Param({ "DEFLATE", "SNAPPY", "LZ4", "ZSTD" })
+	private String profile;
+
+	/**
+	 * The {@link CompressionCodec} of the profile.
+	 */
+	private CompressionCodec codec;
+
+	/**
+	 * The serialized records.
+	 */
+	private DataOutputBuffer serializedRecords = new DataOutputBuffer();
+
+	@Setup
+	public void setup() throws IOException
+	{
+		codec = CompressionProfile.fromName(profile).createCodec(new Configuration());
+		if (!CompressionProbe.isAvailable(codec))
+		{
+			throw new IllegalStateException("Codec not available for profile " + profile + ", skipping.");
+		}
+
+		SyntheticData data = new SyntheticData();
+		for (int i = 0; i < READ_PAIRS; i++)
+		{
+			for (SAMRecord record : data.generateReadPair())
+			{
+				SAMRecordWritable writable = new SAMRecordWritable();
+				writable.set(record);
+				writable.write(serializedRecords);
+			}
+		}
+
+		CompressionProbe.Result result = CompressionProbe.measure(codec, serializedRecords.getData(),
+				serializedRecords.getLength());
+		System.out.println(String.format("%n%s compression ratio: %.3f", profile, result.getRatio()));
+	}
+
+	@Benchmark
+	public long compress() throws IOException
+	{
+		return CompressionProbe.measure(codec, serializedRecords.getData(), serializedRecords.getLength())
+				.getCompressedBytes();
+	}
+}
@@ -0,0 +1,123 @@
+package org.molgenis.hadoop.pipeline.performance.jmh;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
+import org.molgenis.hadoop.pipeline.application.writables.RegionWithSortableSamRecordWritable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the serialization of the map output key ({@link RegionWithSortableSamRecordWritable}) and the comparison
+ * of serialized keys as done during the sort/merge phase (which, as no raw comparator is registered, deserializes both
+ * keys for each comparison).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RegionWithSortableSamRecordWritableBenchmark
+{
+	/**
+	 * The number of keys to cycle through (power of 2).
+	 */
+	private static final int KEYS = 1 << 12;
+
+	/**
+	 * Keys of records within regions.
+	 */
+	private RegionWithSortableSamRecordWritable[] keys = new RegionWithSortableSamRecordWritable[KEYS];
+
+	/**
+	 * The serialized keys.
+	 */
+	private byte[][] serializedKeys = new byte[KEYS][];
+
+	/**
+	 * Reusable output buffer.
+	 */
+	private DataOutputBuffer out = new DataOutputBuffer();
+
+	/**
+	 * Reusable input buffer.
+	 */
+	private DataInputBuffer in = new DataInputBuffer();
+
+	/**
+	 * The comparator as used by Hadoop for sorting the map output.
+	 */
+	private WritableComparator comparator = WritableComparator.get(RegionWithSortableSamRecordWritable.class);
+
+	/**
+	 * Index of the next key to use.
+	 */
+	private int index = 0;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		SyntheticData data = new SyntheticData();
+		List<Region> regions = data.generateRegions(KEYS / 4, 200);
+		for (int i = 0; i < KEYS; i++)
+		{
+			// Generates 4 records per region so that keys with equal regions are compared as well.
+			Region region = regions.get(i / 4);
+			keys[i] = new RegionWithSortableSamRecordWritable(region, data
+					.generateReadPair(Integer.parseInt(region.getContig()) - 1, region.getStart() + i % 4).get(0));
+
+			DataOutputBuffer buffer = new DataOutputBuffer();
+			keys[i].write(buffer);
+			serializedKeys[i] = Arrays.copyOf(buffer.getData(), buffer.getLength());
+		}
+	}
+
+	@Benchmark
+	public int serialize() throws IOException
+	{
+		out.reset();
+		keys[index++ & (KEYS - 1)].write(out);
+		return out.getLength();
+	}
+
+	@Benchmark
+	public RegionWithSortableSamRecordWritable deserialize() throws IOException
+	{
+		byte[] key = serializedKeys[index++ & (KEYS - 1)];
+		in.reset(key, key.length);
+		RegionWithSortableSamRecordWritable writable = new RegionWithSortableSamRecordWritable();
+		writable.readFields(in);
+		return writable;
+	}
+
+	@Benchmark
+	public int compareObjects()
+	{
+		int i = index++;
+		return keys[i & (KEYS - 1)].compareTo(keys[(i + 1) & (KEYS - 1)]);
+	}
+
+	@Benchmark
+	public int compareSerialized()
+	{
+		int i = index++;
+		byte[] a = serializedKeys[i & (KEYS - 1)];
+		byte[] b = serializedKeys[(i + 1) & (KEYS - 1)];
+		return comparator.compare(a, 0, a.length, b, 0, b.length);
+	}
+}
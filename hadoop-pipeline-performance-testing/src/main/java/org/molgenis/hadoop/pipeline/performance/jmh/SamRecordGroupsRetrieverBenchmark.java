@@ -0,0 +1,96 @@
+package org.molgenis.hadoop.pipeline.performance.jmh;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.molgenis.hadoop.pipeline.application.cachedigestion.ContigRegionsMapBuilder;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
+import org.molgenis.hadoop.pipeline.application.mapreduce.SamRecordGroupsRetriever;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import htsjdk.samtools.SAMRecord;
+
+/**
+ * Benchmarks {@link SamRecordGroupsRetriever#retrieveGroupsWithinRange(SAMRecord)} for records that are randomly
+ * spread over the reference (mostly off-target when using a small number of regions) and for records that are all
+ * on-target.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SamRecordGroupsRetrieverBenchmark
+{
+	/**
+	 * The number of records to cycle through (power of 2).
+	 */
+	private static final int RECORDS = 1 << 16;
+
+	/**
+	 * The number of regions (a gene panel, an exome and a large exome capture kit).
+	 */
+	@Param({ "2000", "200000", "1000000" })
+	public int numberOfRegions;
+
+	/**
+	 * The retriever being benchmarked.
+	 */
+	private SamRecordGroupsRetriever retriever;
+
+	/**
+	 * Records randomly spread over the reference.
+	 */
+	private SAMRecord[] randomRecords = new SAMRecord[RECORDS];
+
+	/**
+	 * Records starting within one of the regions.
+	 */
+	private SAMRecord[] onTargetRecords = new SAMRecord[RECORDS];
+
+	/**
+	 * Index of the next record to use.
+	 */
+	private int index = 0;
+
+	@Setup
+	public void setup()
+	{
+		SyntheticData data = new SyntheticData();
+		List<Region> regions = data.generateRegions(numberOfRegions, 200);
+		retriever = new SamRecordGroupsRetriever(new ContigRegionsMapBuilder().addAll(regions).build());
+
+		for (int i = 0; i < RECORDS; i++)
+		{
+			randomRecords[i] = data.generateReadPair().get(0);
+
+			Region region = regions.get(i % regions.size());
+			onTargetRecords[i] = data
+					.generateReadPair(Integer.parseInt(region.getContig()) - 1, region.getStart())
+					.get(0);
+		}
+	}
+
+	@Benchmark
+	public List<Region> randomRecords()
+	{
+		return retriever.retrieveGroupsWithinRange(randomRecords[index++ & (RECORDS - 1)]);
+	}
+
+	@Benchmark
+	public List<Region> onTargetRecords()
+	{
+		return retriever.retrieveGroupsWithinRange(onTargetRecords[index++ & (RECORDS - 1)]);
+	}
+}
@@ -0,0 +1,80 @@
+package org.molgenis.hadoop.pipeline.performance.jmh;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.molgenis.hadoop.pipeline.application.inputstreamdigestion.ReadPairSamRecordSink;
+import org.molgenis.hadoop.pipeline.application.inputstreamdigestion.SamRecordSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import htsjdk.samtools.SAMRecord;
+
+/**
+ * Benchmarks the decoding of SAM-formatted bwa output by a {@link SamRecordSink} and a {@link ReadPairSamRecordSink}
+ * (which also groups the records per read pair). The score is the time needed for decoding all read pairs of a single
+ * (in-memory) bwa output.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SamRecordSinkBenchmark
+{
+	/**
+	 * The number of read pairs in the bwa output.
+	 */
+	@Param({ "10000", "100000" })
+	public int numberOfReadPairs;
+
+	/**
+	 * The SAM-formatted data to decode.
+	 */
+	private byte[] sam;
+
+	@Setup
+	public void setup()
+	{
+		sam = new SyntheticData().generateSam(numberOfReadPairs);
+	}
+
+	@Benchmark
+	public void decode(final Blackhole blackhole) throws IOException
+	{
+		new SamRecordSink()
+		{
+			@Override
+			protected void digestStreamItem(SAMRecord item) throws IOException
+			{
+				blackhole.consume(item);
+			}
+		}.handleInputStream(new ByteArrayInputStream(sam));
+	}
+
+	@Benchmark
+	public void decodeReadPairs(final Blackhole blackhole) throws IOException
+	{
+		new ReadPairSamRecordSink()
+		{
+			@Override
+			protected void digestStreamItem(List<SAMRecord> item) throws IOException
+			{
+				blackhole.consume(item);
+			}
+		}.handleInputStream(new ByteArrayInputStream(sam));
+	}
+}
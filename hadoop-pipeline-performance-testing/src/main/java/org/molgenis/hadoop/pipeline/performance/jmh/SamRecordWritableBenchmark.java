@@ -0,0 +1,146 @@
+package org.molgenis.hadoop.pipeline.performance.jmh;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.molgenis.hadoop.pipeline.application.writables.BamRecordBytesWritable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.seqdoop.hadoop_bam.SAMRecordWritable;
+
+import htsjdk.samtools.SAMRecord;
+
+/**
+ * Benchmarks the serialization and deserialization of the map output value. The mapper serializes each record once for
+ * each region it belongs to, while the reducer deserializes each record before writing it to a BAM file again. The
+ * {@link SAMRecordWritable} benchmarks (which decode the record in the reducer) can be compared to the
+ * {@link BamRecordBytesWritable} benchmarks (which only copy the BAM bytes).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SamRecordWritableBenchmark
+{
+	/**
+	 * The number of records to cycle through (power of 2).
+	 */
+	private static final int RECORDS = 1 << 12;
+
+	/**
+	 * The records to serialize.
+	 */
+	private SAMRecord[] records = new SAMRecord[RECORDS];
+
+	/**
+	 * The serialized records.
+	 */
+	private byte[][] serializedRecords = new byte[RECORDS][];
+
+	/**
+	 * Reusable output buffer.
+	 */
+	private DataOutputBuffer out = new DataOutputBuffer();
+
+	/**
+	 * Reusable input buffer.
+	 */
+	private DataInputBuffer in = new DataInputBuffer();
+
+	/**
+	 * Reusable raw value (as the reducer reuses its value instances).
+	 */
+	private BamRecordBytesWritable rawValue = new BamRecordBytesWritable();
+
+	/**
+	 * Index of the next record to use.
+	 */
+	private int index = 0;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		SyntheticData data = new SyntheticData();
+		for (int i = 0; i < RECORDS; i++)
+		{
+			records[i] = data.generateReadPair().get(0);
+
+			SAMRecordWritable writable = new SAMRecordWritable();
+			writable.set(records[i]);
+			DataOutputBuffer buffer = new DataOutputBuffer();
+			writable.write(buffer);
+			serializedRecords[i] = Arrays.copyOf(buffer.getData(), buffer.getLength());
+		}
+	}
+
+	@Benchmark
+	public int serialize() throws IOException
+	{
+		out.reset();
+		SAMRecordWritable writable = new SAMRecordWritable();
+		writable.set(records[index++ & (RECORDS - 1)]);
+		writable.write(out);
+		return out.getLength();
+	}
+
+	@Benchmark
+	public SAMRecord deserialize() throws IOException
+	{
+		byte[] record = serializedRecords[index++ & (RECORDS - 1)];
+		in.reset(record, record.length);
+		SAMRecordWritable writable = new SAMRecordWritable();
+		writable.readFields(in);
+		return writable.get();
+	}
+
+	@Benchmark
+	public int roundTrip() throws IOException
+	{
+		out.reset();
+		SAMRecordWritable writable = new SAMRecordWritable();
+		writable.set(records[index++ & (RECORDS - 1)]);
+		writable.write(out);
+
+		in.reset(out.getData(), out.getLength());
+		SAMRecordWritable copy = new SAMRecordWritable();
+		copy.readFields(in);
+
+		// Makes sure the decoding of the (lazily decoded) record is not skipped.
+		return copy.get().getAlignmentEnd();
+	}
+
+	@Benchmark
+	public int rawSerialize() throws IOException
+	{
+		out.reset();
+		BamRecordBytesWritable writable = new BamRecordBytesWritable();
+		writable.set(records[index++ & (RECORDS - 1)]);
+		writable.write(out);
+		return out.getLength();
+	}
+
+	@Benchmark
+	public int rawDeserializeAndCopy() throws IOException
+	{
+		// Simulates the reducer: reading the value and copying its bytes to the output.
+		byte[] record = serializedRecords[index++ & (RECORDS - 1)];
+		in.reset(record, record.length);
+		rawValue.readFields(in);
+		out.reset();
+		out.write(rawValue.getBytes(), 0, rawValue.getLength());
+		return out.getLength();
+	}
+}
@@ -0,0 +1,270 @@
+package org.molgenis.hadoop.pipeline.performance.jmh;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.molgenis.hadoop.pipeline.application.cachedigestion.ContigRegionsMap;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.ContigRegionsMapBuilder;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+/**
+ * Generates synthetic (but realistically sized) data for the benchmarks. All data is generated using a {@link Random}
+ * with a fixed seed so that each benchmark run uses the exact same data.
+ */
+public class SyntheticData
+{
+	/**
+	 * The number of contigs in the generated reference (comparable to the autosomes of the human reference).
+	 */
+	public static final int CONTIGS = 22;
+
+	/**
+	 * The length of each contig in the generated reference.
+	 */
+	public static final int CONTIG_LENGTH = 100000000;
+
+	/**
+	 * The length of each generated read (comparable to current Illumina reads).
+	 */
+	public static final int READ_LENGTH = 150;
+
+	/**
+	 * The mean insert size of the generated read pairs.
+	 */
+	public static final int INSERT_SIZE = 350;
+
+	/**
+	 * Random number generator.
+	 */
+	private final Random random = new Random(42);
+
+	/**
+	 * The header of the generated reference.
+	 */
+	private final SAMFileHeader header;
+
+	/**
+	 * Read sequence used for all generated reads.
+	 */
+	private final String readBases;
+
+	/**
+	 * Read base qualities used for all generated reads.
+	 */
+	private final String readQualities;
+
+	/**
+	 * The number of read pairs generated so far (used for generating unique read names).
+	 */
+	private long readPairCount = 0;
+
+	public SAMFileHeader getHeader()
+	{
+		return header;
+	}
+
+	/**
+	 * Create a new {@link SyntheticData} generator.
+	 */
+	public SyntheticData()
+	{
+		List<SAMSequenceRecord> sequences = new ArrayList<>();
+		for (int i = 1; i <= CONTIGS; i++)
+		{
+			sequences.add(new SAMSequenceRecord(contigName(i - 1), CONTIG_LENGTH));
+		}
+		header = new SAMFileHeader(new SAMSequenceDictionary(sequences));
+		header.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+
+		StringBuilder bases = new StringBuilder(READ_LENGTH);
+		StringBuilder qualities = new StringBuilder(READ_LENGTH);
+		for (int i = 0; i < READ_LENGTH; i++)
+		{
+			bases.append("ACGT".charAt(random.nextInt(4)));
+			qualities.append((char) ('!' + 20 + random.nextInt(21)));
+		}
+		readBases = bases.toString();
+		readQualities = qualities.toString();
+	}
+
+	/**
+	 * Returns the name of a contig.
+	 *
+	 * @param contigIndex
+	 *            {@code int}
+	 * @return {@link String}
+	 */
+	public static String contigName(int contigIndex)
+	{
+		return Integer.toString(contigIndex + 1);
+	}
+
+	/**
+	 * Generates non-overlapping {@link Region}{@code s} evenly spread over the contigs (comparable to a BED file of an
+	 * exome or gene panel).
+	 *
+	 * @param numberOfRegions
+	 *            {@code int} The total number of {@link Region}{@code s} to generate.
+	 * @param regionLength
+	 *            {@code int} The mean length of a {@link Region}.
+	 * @return {@link List}{@code <}{@link Region}{@code >} Sorted per contig.
+	 */
+	public List<Region> generateRegions(int numberOfRegions, int regionLength)
+	{
+		List<Region> regions = new ArrayList<>(numberOfRegions);
+		int regionsPerContig = Math.max(1, numberOfRegions / CONTIGS);
+		int step = CONTIG_LENGTH / regionsPerContig;
+
+		for (int i = 0; i < numberOfRegions; i++)
+		{
+			int contig = Math.min(i / regionsPerContig, CONTIGS - 1);
+			int start = 1 + (i % regionsPerContig) * step + random.nextInt(Math.max(1, step - 2 * regionLength));
+			int length = regionLength / 2 + random.nextInt(regionLength);
+			regions.add(new Region(contigName(contig), start, start + length - 1));
+		}
+		return regions;
+	}
+
+	/**
+	 * Generates a {@link ContigRegionsMap} using {@link #generateRegions(int, int)}.
+	 *
+	 * @param numberOfRegions
+	 *            {@code int}
+	 * @param regionLength
+	 *            {@code int}
+	 * @return {@link ContigRegionsMap}
+	 */
+	public ContigRegionsMap generateContigRegionsMap(int numberOfRegions, int regionLength)
+	{
+		return new ContigRegionsMapBuilder().addAll(generateRegions(numberOfRegions, regionLength)).build();
+	}
+
+	/**
+	 * Generates the two {@link SAMRecord}{@code s} of a properly mapped read pair at a random location.
+	 *
+	 * @return {@link List}{@code <}{@link SAMRecord}{@code >}
+	 */
+	public List<SAMRecord> generateReadPair()
+	{
+		int contig = random.nextInt(CONTIGS);
+		int start = 1 + random.nextInt(CONTIG_LENGTH - 2 * INSERT_SIZE);
+		return generateReadPair(contig, start);
+	}
+
+	/**
+	 * Generates the two {@link SAMRecord}{@code s} of a properly mapped read pair with the first read starting at the
+	 * given position.
+	 *
+	 * @param contigIndex
+	 *            {@code int}
+	 * @param start
+	 *            {@code int} 1-based start position of the first read.
+	 * @return {@link List}{@code <}{@link SAMRecord}{@code >}
+	 */
+	public List<SAMRecord> generateReadPair(int contigIndex, int start)
+	{
+		String readName = "HWI-ST1234:648:HKYLMADXX:1:1101:" + (readPairCount / 20000) + ":" + (readPairCount % 20000);
+		readPairCount++;
+		int mateStart = start + INSERT_SIZE - READ_LENGTH;
+
+		List<SAMRecord> records = new ArrayList<>(2);
+		records.add(generateRecord(readName, contigIndex, start, mateStart, true));
+		records.add(generateRecord(readName, contigIndex, mateStart, start, false));
+		return records;
+	}
+
+	/**
+	 * Generates a single mapped {@link SAMRecord} belonging to a proper read pair.
+	 *
+	 * @param readName
+	 *            {@link String}
+	 * @param contigIndex
+	 *            {@code int}
+	 * @param start
+	 *            {@code int}
+	 * @param mateStart
+	 *            {@code int}
+	 * @param first
+	 *            {@code boolean} Whether this is the first read of the pair.
+	 * @return {@link SAMRecord}
+	 */
+	private SAMRecord generateRecord(String readName, int contigIndex, int start, int mateStart, boolean first)
+	{
+		SAMRecord record = new SAMRecord(header);
+		record.setReadName(readName);
+		record.setReadPairedFlag(true);
+		record.setProperPairFlag(true);
+		record.setFirstOfPairFlag(first);
+		record.setSecondOfPairFlag(!first);
+		record.setReadNegativeStrandFlag(!first);
+		record.setMateNegativeStrandFlag(first);
+		record.setReferenceName(contigName(contigIndex));
+		record.setAlignmentStart(start);
+		record.setMappingQuality(60);
+		record.setCigarString(READ_LENGTH + "M");
+		record.setMateReferenceName(contigName(contigIndex));
+		record.setMateAlignmentStart(mateStart);
+		record.setInferredInsertSize(first ? INSERT_SIZE : -INSERT_SIZE);
+		record.setReadString(readBases);
+		record.setBaseQualityString(readQualities);
+		record.setAttribute("NM", 0);
+		record.setAttribute("AS", READ_LENGTH);
+		record.setAttribute("XS", 0);
+		record.setAttribute("RG", "150616_SN163_0648_AHKYLMADXX_L1");
+		return record;
+	}
+
+	/**
+	 * Generates SAM-formatted data as outputted by bwa (a header followed by the records of each read pair).
+	 *
+	 * @param numberOfReadPairs
+	 *            {@code int}
+	 * @return {@code byte[]}
+	 */
+	public byte[] generateSam(int numberOfReadPairs)
+	{
+		StringBuilder sam = new StringBuilder();
+		sam.append("@HD\tVN:1.4\tSO:unsorted\n");
+		for (SAMSequenceRecord sequence : header.getSequenceDictionary().getSequences())
+		{
+			sam.append("@SQ\tSN:").append(sequence.getSequenceName()).append("\tLN:")
+					.append(sequence.getSequenceLength()).append('\n');
+		}
+		sam.append("@RG\tID:150616_SN163_0648_AHKYLMADXX_L1\tPL:illumina\tLB:lib1\tSM:sample1\n");
+		sam.append("@PG\tID:bwa\tPN:bwa\tVN:0.7.12-r1039\n");
+
+		for (int i = 0; i < numberOfReadPairs; i++)
+		{
+			for (SAMRecord record : generateReadPair())
+			{
+				appendSamLine(sam, record);
+			}
+		}
+		return sam.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Appends a SAM-formatted line of a {@link SAMRecord} generated by this class.
+	 *
+	 * @param sam
+	 *            {@link StringBuilder}
+	 * @param record
+	 *            {@link SAMRecord}
+	 */
+	private void appendSamLine(StringBuilder sam, SAMRecord record)
+	{
+		sam.append(record.getReadName()).append('\t').append(record.getFlags()).append('\t')
+				.append(record.getReferenceName()).append('\t').append(record.getAlignmentStart()).append('\t')
+				.append(record.getMappingQuality()).append('\t').append(record.getCigarString()).append("\t=\t")
+				.append(record.getMateAlignmentStart()).append('\t').append(record.getInferredInsertSize()).append('\t')
+				.append(readBases).append('\t').append(readQualities).append("\tNM:i:0\tAS:i:").append(READ_LENGTH)
+				.append("\tXS:i:0\tRG:Z:150616_SN163_0648_AHKYLMADXX_L1\n");
+	}
+}
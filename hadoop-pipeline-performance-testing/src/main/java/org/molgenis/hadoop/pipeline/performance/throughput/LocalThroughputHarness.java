@@ -0,0 +1,162 @@
+package org.molgenis.hadoop.pipeline.performance.throughput;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.molgenis.hadoop.pipeline.application.HadoopPipelineApplication;
+
+/**
+ * Runs the {@link HadoopPipelineApplication} end-to-end in Hadoop local mode with the {@link StubAligner} replacing
+ * bwa, and reports the throughput of the Java side of the pipeline using a {@link ThroughputReport}.
+ *
+ * Generic Hadoop options (such as {@code -D mapreduce.task.io.sort.mb=200}) can be given before the harness options to
+ * compare different job settings.
+ */
+public class LocalThroughputHarness extends Configured implements Tool
+{
+	/**
+	 * The interval at which the job progress is polled for determining the phase times.
+	 */
+	private static final long POLL_INTERVAL_MILLIS = 100;
+
+	/**
+	 * Variable for generating & digesting the command line options.
+	 */
+	private Options options = new Options();
+
+	public static void main(String[] args) throws Exception
+	{
+		// Local mode defaults (can be overridden using -D).
+		Configuration conf = new Configuration();
+		conf.set("mapreduce.framework.name", "local");
+		conf.set("fs.defaultFS", "file:///");
+
+		System.exit(ToolRunner.run(conf, new LocalThroughputHarness(), args));
+	}
+
+	@Override
+	public int run(String[] args) throws Exception
+	{
+		createOptions();
+		CommandLine commandLine;
+		try
+		{
+			commandLine = new BasicParser().parse(options, args);
+		}
+		catch (ParseException e)
+		{
+			System.err.println(e.getMessage());
+			new HelpFormatter().printHelp(100,
+					"java -cp target/benchmarks.jar " + getClass().getName() + " [-D <property>=<value>]... [options]",
+					"", options, "", false);
+			return 1;
+		}
+
+		File workDir = new File(commandLine.getOptionValue("w", "throughput-harness")).getAbsoluteFile();
+		ThroughputDataset dataset = new ThroughputDataset(workDir,
+				Integer.parseInt(commandLine.getOptionValue("c", "4")),
+				Integer.parseInt(commandLine.getOptionValue("p", "100000")),
+				Integer.parseInt(commandLine.getOptionValue("g", "20000")));
+
+		System.out.println(dataset.generate() ? "Generated dataset in " + workDir : "Reusing dataset in " + workDir);
+		dataset.writeToolsArchive("--rate " + commandLine.getOptionValue("a", "0") + " --on-target "
+				+ commandLine.getOptionValue("f", "0.8") + " --unmapped " + commandLine.getOptionValue("u", "0.01"));
+
+		File outputDir = new File(workDir, "output");
+		FileUtils.deleteDirectory(outputDir);
+
+		// The input chunks are stored in a sample subdirectory.
+		getConf().setBoolean("mapreduce.input.fileinputformat.input.dir.recursive", true);
+
+		HadoopPipelineApplication application = new HadoopPipelineApplication();
+		application.setConf(getConf());
+		Job job = application.createJob(new String[] { "-t", dataset.getToolsArchive().getPath(), "-i",
+				dataset.getInputDir().getPath(), "-o", outputDir.getPath(), "-r",
+				dataset.getReferenceFastaFile().getPath(), "-b", dataset.getBedFile().getPath(), "-s",
+				dataset.getSamplesheet().getPath() });
+		job.setNumReduceTasks(Integer.parseInt(commandLine.getOptionValue("n", "1")));
+
+		ThroughputReport report = runAndMonitor(job);
+		report.setReadPairs(dataset.getReadPairs());
+		System.out.println(report);
+		return job.isSuccessful() ? 0 : 1;
+	}
+
+	/**
+	 * Submits the job and polls its progress until it finished to determine the wall clock time of each phase. The map
+	 * phase ends when all mappers finished, the shuffle/sort phase ends when the reducers finished merging their input
+	 * (a reducer reports 2/3 of its progress at that point) and the reduce phase ends when the job finished.
+	 *
+	 * @param job
+	 *            {@link Job}
+	 * @return {@link ThroughputReport}
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	private ThroughputReport runAndMonitor(Job job) throws IOException, InterruptedException, ClassNotFoundException
+	{
+		long startTime = System.nanoTime();
+		long mapEndTime = -1;
+		long sortEndTime = -1;
+
+		job.submit();
+		while (!job.isComplete())
+		{
+			long now = System.nanoTime();
+			if (mapEndTime < 0 && job.mapProgress() >= 1f) mapEndTime = now;
+			if (sortEndTime < 0 && job.reduceProgress() >= 2f / 3f) sortEndTime = now;
+			Thread.sleep(POLL_INTERVAL_MILLIS);
+		}
+		long endTime = System.nanoTime();
+
+		// Phases that finished between the last poll and the end of the job.
+		if (mapEndTime < 0) mapEndTime = endTime;
+		if (sortEndTime < 0) sortEndTime = endTime;
+
+		return new ThroughputReport(job.getCounters(), mapEndTime - startTime, sortEndTime - mapEndTime,
+				endTime - sortEndTime);
+	}
+
+	/**
+	 * Creates the command line options.
+	 */
+	@SuppressWarnings("static-access")
+	private void createOptions()
+	{
+		options.addOption(OptionBuilder.withArgName("dir").hasArg()
+				.withDescription("Directory in which the generated data and the job output are stored"
+						+ " (default: throughput-harness). Existing data is reused if generated with the same settings.")
+				.create("w"));
+		options.addOption(OptionBuilder.withArgName("chunks").hasArg()
+				.withDescription("Number of input chunks, each processed by a single mapper (default: 4).")
+				.create("c"));
+		options.addOption(OptionBuilder.withArgName("pairs").hasArg()
+				.withDescription("Number of read pairs per input chunk (default: 100000).").create("p"));
+		options.addOption(OptionBuilder.withArgName("regions").hasArg()
+				.withDescription("Number of regions in the BED file (default: 20000).").create("g"));
+		options.addOption(OptionBuilder.withArgName("rate").hasArg()
+				.withDescription(
+						"Read pairs per second emitted by each stub aligner process, 0 for unlimited (default: 0).")
+				.create("a"));
+		options.addOption(OptionBuilder.withArgName("fraction").hasArg()
+				.withDescription("Fraction of read pairs aligned within a region (default: 0.8).").create("f"));
+		options.addOption(OptionBuilder.withArgName("fraction").hasArg()
+				.withDescription("Fraction of read pairs of which both reads are unmapped (default: 0.01).")
+				.create("u"));
+		options.addOption(OptionBuilder.withArgName("reducers").hasArg()
+				.withDescription("Number of reducers (default: 1).").create("n"));
+	}
+}
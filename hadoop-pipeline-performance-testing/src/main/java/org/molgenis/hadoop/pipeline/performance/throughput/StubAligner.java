@@ -0,0 +1,360 @@
+package org.molgenis.hadoop.pipeline.performance.throughput;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Replacement for bwa that can be called by the
+ * {@link org.molgenis.hadoop.pipeline.application.mapreduce.HadoopPipelineMapper} the same way as bwa is called (
+ * {@code bwa mem -p -M -R <read group line> <reference fasta> -}). Instead of aligning the interleaved FASTQ data it
+ * reads from stdin, it writes synthetic SAM-formatted records to stdout (optionally throttled to a target rate) so that
+ * the Java side of the pipeline can be measured independently of the actual aligner.
+ *
+ * The position of each read pair is derived from its read name, so that the same input always results in the same
+ * output. The stub specific options must be given before the bwa arguments:
+ *
+ * <pre>
+ * StubAligner [--rate &lt;read pairs per second&gt;] [--on-target &lt;fraction&gt;] [--unmapped &lt;fraction&gt;] [--regions &lt;bed&gt;] mem ...
+ * </pre>
+ */
+public class StubAligner
+{
+	/**
+	 * Sequence names of the reference (retrieved from the dict file belonging to the reference fasta).
+	 */
+	private final List<String> contigNames = new ArrayList<>();
+
+	/**
+	 * Sequence lengths of the reference (in the same order as {@link #contigNames}).
+	 */
+	private final List<Integer> contigLengths = new ArrayList<>();
+
+	/**
+	 * The regions (contig index, 1-based start and end) on-target read pairs are placed in.
+	 */
+	private final List<int[]> regions = new ArrayList<>();
+
+	/**
+	 * BED file describing the regions (optional).
+	 */
+	private String regionsFile;
+
+	/**
+	 * The target number of read pairs per second ({@code 0} means unlimited).
+	 */
+	private double rate = 0;
+
+	/**
+	 * The fraction of read pairs that is placed within the {@link #regions}.
+	 */
+	private double onTargetFraction = 0.8;
+
+	/**
+	 * The fraction of read pairs of which both reads are unmapped.
+	 */
+	private double unmappedFraction = 0.01;
+
+	/**
+	 * The read group line (with actual tabs) as given through the {@code -R} argument.
+	 */
+	private String readGroupLine;
+
+	/**
+	 * The read group ID retrieved from the {@link #readGroupLine}.
+	 */
+	private String readGroupId;
+
+	/**
+	 * The reference fasta file.
+	 */
+	private String referenceFastaFile;
+
+	/**
+	 * The mean insert size of the generated read pairs.
+	 */
+	private static final int INSERT_SIZE = 350;
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		StubAligner aligner = new StubAligner();
+		aligner.digestArguments(args);
+		aligner.readDict();
+		aligner.readRegions();
+
+		InputStream input = openFastq(System.in);
+		Writer output = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.US_ASCII), 1 << 16);
+		aligner.align(new BufferedReader(new InputStreamReader(input, StandardCharsets.US_ASCII), 1 << 16), output);
+		output.close();
+	}
+
+	/**
+	 * Digests the command line arguments. Bwa arguments that are not relevant for the stub are ignored.
+	 *
+	 * @param args
+	 *            {@link String}{@code []}
+	 */
+	private void digestArguments(String[] args)
+	{
+		List<String> positionals = new ArrayList<>();
+		for (int i = 0; i < args.length; i++)
+		{
+			switch (args[i])
+			{
+				case "--rate":
+					rate = Double.parseDouble(args[++i]);
+					break;
+				case "--on-target":
+					onTargetFraction = Double.parseDouble(args[++i]);
+					break;
+				case "--unmapped":
+					unmappedFraction = Double.parseDouble(args[++i]);
+					break;
+				case "--regions":
+					regionsFile = args[++i];
+					break;
+				case "-R":
+					readGroupLine = args[++i].replace("\\t", "\t");
+					break;
+				default:
+					if (!args[i].startsWith("-")) positionals.add(args[i]);
+			}
+		}
+
+		// Positionals are "mem" followed by the reference fasta (the input "-" is skipped as it starts with a "-").
+		if (positionals.size() < 2 || readGroupLine == null)
+		{
+			throw new IllegalArgumentException("Usage: StubAligner [stub options] mem -p -M -R <rg> <reference> -");
+		}
+		referenceFastaFile = positionals.get(1);
+
+		for (String field : readGroupLine.split("\t"))
+		{
+			if (field.startsWith("ID:")) readGroupId = field.substring(3);
+		}
+	}
+
+	/**
+	 * Reads the sequence names and lengths from the dict file belonging to the {@link #referenceFastaFile}.
+	 *
+	 * @throws IOException
+	 */
+	private void readDict() throws IOException
+	{
+		String dictFile = referenceFastaFile.replaceAll("\\.fa(sta)?$", "") + ".dict";
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(dictFile), StandardCharsets.US_ASCII)))
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				if (!line.startsWith("@SQ")) continue;
+				for (String field : line.split("\t"))
+				{
+					if (field.startsWith("SN:")) contigNames.add(field.substring(3));
+					else if (field.startsWith("LN:")) contigLengths.add(Integer.parseInt(field.substring(3)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the regions from the {@link #regionsFile} (if given). BED files use 0-based starts. Regions on contigs that
+	 * are not present in the dict file are ignored.
+	 *
+	 * @throws IOException
+	 */
+	private void readRegions() throws IOException
+	{
+		if (regionsFile == null) return;
+
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(regionsFile), StandardCharsets.US_ASCII)))
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				String[] fields = line.split("\t");
+				int contig = contigNames.indexOf(fields[0]);
+				if (contig >= 0)
+				{
+					regions.add(new int[] { contig, Integer.parseInt(fields[1]) + 1, Integer.parseInt(fields[2]) });
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads interleaved FASTQ and writes a SAM header followed by the synthetic records of each read pair.
+	 *
+	 * @param fastq
+	 *            {@link BufferedReader}
+	 * @param sam
+	 *            {@link Writer}
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void align(BufferedReader fastq, Writer sam) throws IOException, InterruptedException
+	{
+		for (int i = 0; i < contigNames.size(); i++)
+		{
+			sam.write("@SQ\tSN:" + contigNames.get(i) + "\tLN:" + contigLengths.get(i) + "\n");
+		}
+		sam.write(readGroupLine + "\n");
+		sam.write("@PG\tID:bwa\tPN:bwa\tVN:stub\n");
+
+		long startTime = System.nanoTime();
+		long readPairs = 0;
+		String[] first = new String[4];
+		String[] second = new String[4];
+		while (readFastqRecord(fastq, first) && readFastqRecord(fastq, second))
+		{
+			writeReadPair(sam, first, second);
+			readPairs++;
+
+			// Throttles to the target rate (output is flushed first so it is not held back in the buffer).
+			if (rate > 0)
+			{
+				long aheadNanos = (long) (readPairs / rate * 1e9) - (System.nanoTime() - startTime);
+				if (aheadNanos > 1000000)
+				{
+					sam.flush();
+					Thread.sleep(aheadNanos / 1000000);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a single FASTQ record.
+	 *
+	 * @param fastq
+	 *            {@link BufferedReader}
+	 * @param record
+	 *            {@link String}{@code []} Filled with the read name, sequence, "+" line and qualities.
+	 * @return {@code boolean} {@code false} if the end of the input was reached.
+	 * @throws IOException
+	 */
+	private boolean readFastqRecord(BufferedReader fastq, String[] record) throws IOException
+	{
+		for (int i = 0; i < 4; i++)
+		{
+			record[i] = fastq.readLine();
+			if (record[i] == null) return false;
+		}
+
+		// Strips the "@", any comment and the "/1" or "/2" suffix from the read name.
+		String name = record[0].substring(1);
+		int space = name.indexOf(' ');
+		if (space >= 0) name = name.substring(0, space);
+		if (name.endsWith("/1") || name.endsWith("/2")) name = name.substring(0, name.length() - 2);
+		record[0] = name;
+		return true;
+	}
+
+	/**
+	 * Writes the SAM records of a single read pair.
+	 *
+	 * @param sam
+	 *            {@link Writer}
+	 * @param first
+	 *            {@link String}{@code []}
+	 * @param second
+	 *            {@link String}{@code []}
+	 * @throws IOException
+	 */
+	private void writeReadPair(Writer sam, String[] first, String[] second) throws IOException
+	{
+		Random random = new Random(first[0].hashCode());
+		double type = random.nextDouble();
+
+		if (type < unmappedFraction)
+		{
+			sam.write(first[0] + "\t77\t*\t0\t0\t*\t*\t0\t0\t" + first[1] + "\t" + first[3] + "\tAS:i:0\tXS:i:0\tRG:Z:"
+					+ readGroupId + "\n");
+			sam.write(second[0] + "\t141\t*\t0\t0\t*\t*\t0\t0\t" + second[1] + "\t" + second[3]
+					+ "\tAS:i:0\tXS:i:0\tRG:Z:" + readGroupId + "\n");
+			return;
+		}
+
+		int contig;
+		int start;
+		if (!regions.isEmpty() && random.nextDouble() < onTargetFraction)
+		{
+			int[] region = regions.get(random.nextInt(regions.size()));
+			contig = region[0];
+			start = region[1] + random.nextInt(Math.max(1, region[2] - region[1] + 1));
+		}
+		else
+		{
+			contig = random.nextInt(contigNames.size());
+			start = 1 + random.nextInt(Math.max(1, contigLengths.get(contig) - 2 * INSERT_SIZE));
+		}
+
+		int mateStart = start + INSERT_SIZE - second[1].length();
+		String contigName = contigNames.get(contig);
+		writeRecord(sam, first, 99, contigName, start, mateStart, INSERT_SIZE);
+		writeRecord(sam, second, 147, contigName, mateStart, start, -INSERT_SIZE);
+	}
+
+	/**
+	 * Writes a single mapped SAM record.
+	 *
+	 * @param sam
+	 *            {@link Writer}
+	 * @param read
+	 *            {@link String}{@code []}
+	 * @param flag
+	 *            {@code int}
+	 * @param contigName
+	 *            {@link String}
+	 * @param start
+	 *            {@code int}
+	 * @param mateStart
+	 *            {@code int}
+	 * @param insertSize
+	 *            {@code int}
+	 * @throws IOException
+	 */
+	private void writeRecord(Writer sam, String[] read, int flag, String contigName, int start, int mateStart,
+			int insertSize) throws IOException
+	{
+		int length = read[1].length();
+		sam.write(read[0] + "\t" + flag + "\t" + contigName + "\t" + start + "\t60\t" + length + "M\t=\t" + mateStart
+				+ "\t" + insertSize + "\t" + read[1] + "\t" + read[3] + "\tNM:i:0\tMD:Z:" + length + "\tAS:i:" + length
+				+ "\tXS:i:0\tRG:Z:" + readGroupId + "\n");
+	}
+
+	/**
+	 * Wraps the input in a {@link GZIPInputStream} if it is gzip compressed (as is the case for the halvade input
+	 * chunks).
+	 *
+	 * @param inputStream
+	 *            {@link InputStream}
+	 * @return {@link InputStream}
+	 * @throws IOException
+	 */
+	private static InputStream openFastq(InputStream inputStream) throws IOException
+	{
+		BufferedInputStream buffered = new BufferedInputStream(inputStream, 1 << 16);
+		buffered.mark(2);
+		int magic = buffered.read() | (buffered.read() << 8);
+		buffered.reset();
+		if (magic == GZIPInputStream.GZIP_MAGIC)
+		{
+			return new GZIPInputStream(buffered, 1 << 16);
+		}
+		return buffered;
+	}
+}
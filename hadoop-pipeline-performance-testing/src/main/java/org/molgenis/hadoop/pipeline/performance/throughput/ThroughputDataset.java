@@ -0,0 +1,296 @@
+package org.molgenis.hadoop.pipeline.performance.throughput;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.molgenis.hadoop.pipeline.application.cachedigestion.Region;
+import org.molgenis.hadoop.pipeline.performance.jmh.SyntheticData;
+
+/**
+ * Generates all input that is needed for running the
+ * {@link org.molgenis.hadoop.pipeline.application.HadoopPipelineApplication} locally with the {@link StubAligner}:
+ * a reference (of which only the dict file has actual content), a BED file, a samplesheet, interleaved FASTQ input
+ * chunks named like the chunks created by halvade and a tools archive in which bwa is replaced by the
+ * {@link StubAligner}.
+ *
+ * As generating the input chunks can take a while, the generated data is reused by {@link #generate()} as long as the
+ * dataset parameters did not change (otherwise the directory is emptied and the data regenerated). The tools archive
+ * is always regenerated (as it contains the stub settings).
+ */
+public class ThroughputDataset
+{
+	/**
+	 * The sample used for all input chunks.
+	 */
+	private static final String SAMPLESHEET = "externalSampleID,sequencer,sequencingStartDate,run,flowcell,lane\n"
+			+ "sample1,SN163,150616,648,AHKYLMADXX,1\n";
+
+	/**
+	 * The input directory name matching the sample in the {@link #SAMPLESHEET}.
+	 */
+	private static final String SAMPLE_DIR = "150616_SN163_0648_AHKYLMADXX_L1";
+
+	/**
+	 * The mean length of the generated regions.
+	 */
+	private static final int REGION_LENGTH = 200;
+
+	/**
+	 * The directory in which all data is stored.
+	 */
+	private final File workDir;
+
+	/**
+	 * The number of input chunks (each chunk is processed by a single mapper).
+	 */
+	private final int chunks;
+
+	/**
+	 * The number of read pairs within each input chunk.
+	 */
+	private final int readPairsPerChunk;
+
+	/**
+	 * The number of regions in the BED file.
+	 */
+	private final int regions;
+
+	public File getToolsArchive()
+	{
+		return new File(workDir, "tools.tar.gz");
+	}
+
+	public File getInputDir()
+	{
+		return new File(workDir, "input");
+	}
+
+	public File getReferenceFastaFile()
+	{
+		return new File(workDir, "reference.fa");
+	}
+
+	public File getReferenceDictFile()
+	{
+		return new File(workDir, "reference.dict");
+	}
+
+	public File getBedFile()
+	{
+		return new File(workDir, "regions.bed");
+	}
+
+	public File getSamplesheet()
+	{
+		return new File(workDir, "samplesheet.csv");
+	}
+
+	public long getReadPairs()
+	{
+		return (long) chunks * readPairsPerChunk;
+	}
+
+	/**
+	 * Create a new {@link ThroughputDataset}.
+	 *
+	 * @param workDir
+	 *            {@link File} The directory in which all data is stored.
+	 * @param chunks
+	 *            {@code int} The number of input chunks.
+	 * @param readPairsPerChunk
+	 *            {@code int} The number of read pairs within each input chunk.
+	 * @param regions
+	 *            {@code int} The number of regions in the BED file.
+	 */
+	public ThroughputDataset(File workDir, int chunks, int readPairsPerChunk, int regions)
+	{
+		this.workDir = workDir;
+		this.chunks = chunks;
+		this.readPairsPerChunk = readPairsPerChunk;
+		this.regions = regions;
+	}
+
+	/**
+	 * Generates the reference, BED file, samplesheet and input chunks (unless they were already generated with the
+	 * same parameters).
+	 *
+	 * @return {@code boolean} {@code true} if the data was (re)generated, {@code false} if existing data was reused.
+	 * @throws IOException
+	 */
+	public boolean generate() throws IOException
+	{
+		Properties parameters = new Properties();
+		parameters.setProperty("chunks", Integer.toString(chunks));
+		parameters.setProperty("readPairsPerChunk", Integer.toString(readPairsPerChunk));
+		parameters.setProperty("regions", Integer.toString(regions));
+
+		File parametersFile = new File(workDir, "dataset.properties");
+		if (parametersFile.isFile())
+		{
+			Properties existing = new Properties();
+			try (InputStream inputStream = new FileInputStream(parametersFile))
+			{
+				existing.load(inputStream);
+			}
+			if (existing.equals(parameters)) return false;
+		}
+		// Safety measure so that a directory not created by this class is never removed.
+		else if (workDir.exists() && workDir.list().length > 0)
+		{
+			throw new IOException("Directory exists and does not contain a generated dataset: " + workDir);
+		}
+
+		FileUtils.deleteDirectory(workDir);
+		FileUtils.forceMkdir(workDir);
+
+		SyntheticData data = new SyntheticData();
+		writeReference();
+		writeBedFile(data);
+		FileUtils.writeStringToFile(getSamplesheet(), SAMPLESHEET, StandardCharsets.US_ASCII);
+		writeInputChunks();
+
+		try (OutputStream outputStream = new FileOutputStream(parametersFile))
+		{
+			parameters.store(outputStream, null);
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the reference fasta with its bwa index files and dict file. The {@link StubAligner} only reads the dict
+	 * file, the other files only need to exist to pass the input validation of the application.
+	 *
+	 * @throws IOException
+	 */
+	private void writeReference() throws IOException
+	{
+		File fasta = getReferenceFastaFile();
+		FileUtils.writeStringToFile(fasta, ">1\nN\n", StandardCharsets.US_ASCII);
+		for (String extension : new String[] { ".amb", ".ann", ".bwt", ".fai", ".pac", ".sa" })
+		{
+			FileUtils.touch(new File(fasta.getPath() + extension));
+		}
+
+		StringBuilder dict = new StringBuilder("@HD\tVN:1.4\tSO:unsorted\n");
+		for (int i = 0; i < SyntheticData.CONTIGS; i++)
+		{
+			dict.append("@SQ\tSN:").append(SyntheticData.contigName(i)).append("\tLN:")
+					.append(SyntheticData.CONTIG_LENGTH).append('\n');
+		}
+		FileUtils.writeStringToFile(getReferenceDictFile(), dict.toString(), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Writes the BED file (which uses 0-based starts).
+	 *
+	 * @param data
+	 *            {@link SyntheticData}
+	 * @throws IOException
+	 */
+	private void writeBedFile(SyntheticData data) throws IOException
+	{
+		StringBuilder bed = new StringBuilder();
+		for (Region region : data.generateRegions(regions, REGION_LENGTH))
+		{
+			bed.append(region.getContig()).append('\t').append(region.getStart() - 1).append('\t')
+					.append(region.getEnd()).append('\n');
+		}
+		FileUtils.writeStringToFile(getBedFile(), bed.toString(), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Writes the gzipped interleaved FASTQ input chunks.
+	 *
+	 * @throws IOException
+	 */
+	private void writeInputChunks() throws IOException
+	{
+		File sampleDir = new File(getInputDir(), SAMPLE_DIR);
+		FileUtils.forceMkdir(sampleDir);
+
+		Random random = new Random(42);
+		char[] bases = new char[SyntheticData.READ_LENGTH];
+		char[] qualities = new char[SyntheticData.READ_LENGTH];
+
+		for (int chunk = 0; chunk < chunks; chunk++)
+		{
+			File chunkFile = new File(sampleDir, "halvade_" + chunk + "_0.fq.gz");
+			try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+					new GZIPOutputStream(new FileOutputStream(chunkFile), 1 << 16), StandardCharsets.US_ASCII)))
+			{
+				for (int pair = 0; pair < readPairsPerChunk; pair++)
+				{
+					String readName = "@HWI-ST1234:648:HKYLMADXX:1:" + chunk + ":" + pair;
+					for (int read = 1; read <= 2; read++)
+					{
+						for (int i = 0; i < bases.length; i++)
+						{
+							bases[i] = "ACGT".charAt(random.nextInt(4));
+							qualities[i] = (char) ('!' + 20 + random.nextInt(21));
+						}
+						writer.write(readName + "/" + read + "\n");
+						writer.write(bases);
+						writer.write("\n+\n");
+						writer.write(qualities);
+						writer.write('\n');
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the tools archive containing an {@code info.xml} and a {@code bwa} script that runs the
+	 * {@link StubAligner} using the classpath of the current JVM. Uses the {@code tar} executable (same as Hadoop does
+	 * when unpacking the archive on Linux).
+	 *
+	 * @param stubOptions
+	 *            {@link String} The {@link StubAligner} options (such as the target rate).
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void writeToolsArchive(String stubOptions) throws IOException, InterruptedException
+	{
+		File stagingDir = new File(workDir, "tools_staging");
+		File toolsDir = new File(stagingDir, "tools");
+		FileUtils.deleteDirectory(stagingDir);
+		FileUtils.forceMkdir(toolsDir);
+
+		File java = new File(new File(System.getProperty("java.home"), "bin"), "java");
+		File bwa = new File(toolsDir, "bwa");
+		FileUtils.writeStringToFile(bwa,
+				"#!/bin/sh\nexec \"" + java.getAbsolutePath() + "\" -Xmx256m -cp \""
+						+ System.getProperty("java.class.path") + "\" " + StubAligner.class.getName() + " "
+						+ stubOptions + " --regions \"" + getBedFile().getAbsolutePath() + "\" \"$@\"\n",
+				StandardCharsets.US_ASCII);
+		bwa.setExecutable(true, false);
+
+		FileUtils.writeStringToFile(new File(toolsDir, "info.xml"),
+				"<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n<tools>\n"
+						+ "\t<tool fileName=\"bwa\">\n\t\t<id>bwa</id>\n\t\t<name>bwa</name>\n"
+						+ "\t\t<version>stub</version>\n\t</tool>\n</tools>\n",
+				StandardCharsets.UTF_8);
+
+		Process tar = new ProcessBuilder("tar", "-czf", getToolsArchive().getAbsolutePath(), "-C",
+				stagingDir.getAbsolutePath(), "tools").redirectErrorStream(true).start();
+		String tarOutput = IOUtils.toString(tar.getInputStream());
+		if (tar.waitFor() != 0)
+		{
+			throw new IOException("Creating the tools archive failed: " + tarOutput);
+		}
+		FileUtils.deleteDirectory(stagingDir);
+	}
+}
@@ -0,0 +1,196 @@
+package org.molgenis.hadoop.pipeline.performance.throughput;
+
+import java.util.Locale;
+
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.molgenis.hadoop.pipeline.application.compression.CompressionProbe.ProbeCounter;
+import org.molgenis.hadoop.pipeline.application.instrumentation.MeteredStage;
+
+/**
+ * The results of a single {@link LocalThroughputHarness} run: the wall clock time of each job phase combined with the
+ * relevant Hadoop counters and the counters published by the
+ * {@link org.molgenis.hadoop.pipeline.application.instrumentation.TaskInstrumentation} of the mappers and reducers.
+ */
+public class ThroughputReport
+{
+	/**
+	 * The counters of the finished job.
+	 */
+	private final Counters counters;
+
+	/**
+	 * Wall clock time from submitting the job until all mappers finished.
+	 */
+	private final long mapPhaseNanoseconds;
+
+	/**
+	 * Wall clock time from the end of the map phase until the reducers finished merging their input.
+	 */
+	private final long sortPhaseNanoseconds;
+
+	/**
+	 * Wall clock time from the end of the shuffle/sort phase until the job finished.
+	 */
+	private final long reducePhaseNanoseconds;
+
+	/**
+	 * The number of read pairs in the input.
+	 */
+	private long readPairs;
+
+	public void setReadPairs(long readPairs)
+	{
+		this.readPairs = readPairs;
+	}
+
+	/**
+	 * Create a new {@link ThroughputReport}.
+	 *
+	 * @param counters
+	 *            {@link Counters}
+	 * @param mapPhaseNanoseconds
+	 *            {@code long}
+	 * @param sortPhaseNanoseconds
+	 *            {@code long}
+	 * @param reducePhaseNanoseconds
+	 *            {@code long}
+	 */
+	public ThroughputReport(Counters counters, long mapPhaseNanoseconds, long sortPhaseNanoseconds,
+			long reducePhaseNanoseconds)
+	{
+		this.counters = counters;
+		this.mapPhaseNanoseconds = mapPhaseNanoseconds;
+		this.sortPhaseNanoseconds = sortPhaseNanoseconds;
+		this.reducePhaseNanoseconds = reducePhaseNanoseconds;
+	}
+
+	public long getTotalNanoseconds()
+	{
+		return mapPhaseNanoseconds + sortPhaseNanoseconds + reducePhaseNanoseconds;
+	}
+
+	public long getMapOutputRecords()
+	{
+		return getCounter(TaskCounter.MAP_OUTPUT_RECORDS);
+	}
+
+	/**
+	 * Returns the number of map output records per second of wall clock time of the complete job.
+	 *
+	 * @return {@code double}
+	 */
+	public double getRecordsPerSecond()
+	{
+		return getMapOutputRecords() / seconds(getTotalNanoseconds());
+	}
+
+	/**
+	 * Returns the estimated number of (serialized, uncompressed) bytes spilled to disk by the mappers and reducers.
+	 * Hadoop only counts the spilled records, so the number of bytes is estimated using the mean size of a map output
+	 * record.
+	 *
+	 * @return {@code long}
+	 */
+	public long getEstimatedSpilledBytes()
+	{
+		long mapOutputRecords = getMapOutputRecords();
+		if (mapOutputRecords == 0) return 0;
+		return (long) ((double) getCounter(TaskCounter.SPILLED_RECORDS) * getCounter(TaskCounter.MAP_OUTPUT_BYTES)
+				/ mapOutputRecords);
+	}
+
+	public long getShuffleBytes()
+	{
+		return getCounter(TaskCounter.REDUCE_SHUFFLE_BYTES);
+	}
+
+	/**
+	 * Returns the value of a counter (or {@code 0} if it is not present).
+	 *
+	 * @param counter
+	 *            {@link Enum}
+	 * @return {@code long}
+	 */
+	private long getCounter(Enum<?> counter)
+	{
+		Counter found = counters.findCounter(counter);
+		return found == null ? 0 : found.getValue();
+	}
+
+	/**
+	 * Returns the value of a {@link MeteredStage} counter (or {@code 0} if it is not present).
+	 *
+	 * @param counterName
+	 *            {@link String}
+	 * @return {@code long}
+	 */
+	private long getStageCounter(String counterName)
+	{
+		Counter found = counters.getGroup(MeteredStage.COUNTER_GROUP).findCounter(counterName, false);
+		return found == null ? 0 : found.getValue();
+	}
+
+	private static double seconds(long nanoseconds)
+	{
+		return nanoseconds / 1e9;
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder report = new StringBuilder();
+		report.append("\n=== Throughput report ===\n");
+		append(report, "Read pairs", readPairs);
+		append(report, "Aligner records decoded", getStageCounter(MeteredStage.SAM_DECODING.getRecordsCounterName()));
+		append(report, "Map output records", getMapOutputRecords());
+		append(report, "Reduce input records", getCounter(TaskCounter.REDUCE_INPUT_RECORDS));
+		report.append(String.format(Locale.US, "%-40s%15.1f%n", "Map output records per second",
+				getRecordsPerSecond()));
+
+		report.append("\n--- Spill/shuffle ---\n");
+		append(report, "Map output bytes", getCounter(TaskCounter.MAP_OUTPUT_BYTES));
+		append(report, "Map output materialized bytes", getCounter(TaskCounter.MAP_OUTPUT_MATERIALIZED_BYTES));
+		append(report, "Spilled records", getCounter(TaskCounter.SPILLED_RECORDS));
+		append(report, "Estimated spilled bytes", getEstimatedSpilledBytes());
+		append(report, "Shuffle bytes", getShuffleBytes());
+
+		report.append("\n--- Map output compression (sampled) ---\n");
+		long sampledBytes = getCounter(ProbeCounter.SAMPLED_BYTES);
+		append(report, "Sampled bytes", sampledBytes);
+		append(report, "Sampled compressed bytes", getCounter(ProbeCounter.SAMPLED_COMPRESSED_BYTES));
+		if (sampledBytes > 0)
+		{
+			report.append(String.format(Locale.US, "%-40s%15.3f%n", "Compression ratio",
+					(double) getCounter(ProbeCounter.SAMPLED_COMPRESSED_BYTES) / sampledBytes));
+			report.append(String.format(Locale.US, "%-40s%15.1f%n", "Compression MB per second", sampledBytes * 1e9
+					/ Math.max(1, getCounter(ProbeCounter.SAMPLED_COMPRESSION_NANOSECONDS)) / 1024 / 1024));
+		}
+
+		report.append("\n--- Phases (wall clock seconds) ---\n");
+		appendSeconds(report, "Map", mapPhaseNanoseconds);
+		appendSeconds(report, "Shuffle/sort", sortPhaseNanoseconds);
+		appendSeconds(report, "Reduce", reducePhaseNanoseconds);
+		appendSeconds(report, "Total", getTotalNanoseconds());
+
+		report.append("\n--- Stages (seconds summed over all tasks) ---\n");
+		for (MeteredStage stage : MeteredStage.values())
+		{
+			appendSeconds(report, stage.name(), getStageCounter(stage.getNanosecondsCounterName()));
+		}
+		appendSeconds(report, "GC_TIME", getCounter(TaskCounter.GC_TIME_MILLIS) * 1000000);
+
+		return report.toString();
+	}
+
+	private static void append(StringBuilder report, String name, long value)
+	{
+		report.append(String.format(Locale.US, "%-40s%15d%n", name, value));
+	}
+
+	private static void appendSeconds(StringBuilder report, String name, long nanoseconds)
+	{
+		report.append(String.format(Locale.US, "%-40s%15.3f%n", name, seconds(nanoseconds)));
+	}
+}